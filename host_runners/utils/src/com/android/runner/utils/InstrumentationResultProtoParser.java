@@ -25,14 +25,23 @@ import com.android.ddmlib.IShellOutputReceiver;
 import com.android.ddmlib.testrunner.ITestRunListener;
 import com.android.tradefed.result.ddmlib.InstrumentationResultParser;
 
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
 
 /**
  * Parses the instrumentation result proto collected during instrumentation test run and informs
@@ -56,12 +65,40 @@ public class InstrumentationResultProtoParser implements IShellOutputReceiver {
             "INSTRUMENTATION_STATUS_CODE: %d";
     private static final String INSTRUMENTATION_RESULT_FORMAT = "INSTRUMENTATION_RESULT: %s=%s";
     private static final String INSTRUMENTATION_CODE_FORMAT = "INSTRUMENTATION_CODE: %d";
+    private static final int BUFFER_SIZE = 64 * 1024;
 
     private InstrumentationResultParser parser;
 
+    // Reports the results to the listeners directly instead of going through the parser, if set.
+    private InstrumentationResultProtoReporter reporter;
+
+    // Incremental parsing state: the bytes received but not processed yet, which hold at most
+    // one incomplete Session field, and the session status received so far.
+    private byte[] pendingBytes = new byte[BUFFER_SIZE];
+    private int pendingLength = 0;
+    private SessionStatus.Builder pendingSessionStatus = SessionStatus.newBuilder();
+    private boolean incrementalReceived = false;
+    private boolean incrementalFailed = false;
+    private boolean incrementalDone = false;
+
     public InstrumentationResultProtoParser(
             String runName, Collection<ITestRunListener> listeners) {
+        this(runName, listeners, false);
+    }
+
+    /**
+     * @param runName the test run name to provide to the listeners.
+     * @param listeners the listeners to inform of the results.
+     * @param directReporting whether to report the results by calling the listeners directly from
+     *     the protos, instead of formatting them as instrumentation shell output lines to be
+     *     parsed again by {@link InstrumentationResultParser}.
+     */
+    public InstrumentationResultProtoParser(
+            String runName, Collection<ITestRunListener> listeners, boolean directReporting) {
         parser = new InstrumentationResultParser(runName, listeners);
+        if (directReporting) {
+            reporter = new InstrumentationResultProtoReporter(runName, listeners);
+        }
     }
 
     /**
@@ -70,6 +107,9 @@ public class InstrumentationResultProtoParser implements IShellOutputReceiver {
      * method will be used only when complete instrumentation results proto file is available for
      * parsing.
      *
+     * <p>The file is streamed and each test status is reported as soon as it is read, so the
+     * whole {@link Session} is never held in memory.
+     *
      * @param protoFile that contains the test status and instrumentation session results.
      * @throws IOException
      */
@@ -77,39 +117,65 @@ public class InstrumentationResultProtoParser implements IShellOutputReceiver {
 
         // Report tes run failures in case of null and empty proto file.
         if (protoFile == null) {
-            parser.handleTestRunFailed(NO_TEST_RESULTS_FILE);
+            handleTestRunFailed(NO_TEST_RESULTS_FILE);
             return;
         }
         if (protoFile.length() == 0) {
-            parser.handleTestRunFailed(NO_TEST_RESULTS_MSG);
+            handleTestRunFailed(NO_TEST_RESULTS_MSG);
             return;
         }
 
-        // Read the input proto file
-        byte[] bytesArray = new byte[(int) protoFile.length()];
-        FileInputStream fis = new FileInputStream(protoFile);
-        fis.read(bytesArray);
-        fis.close();
-
-        try {
-            // Parse the proto file.
-            Session instrumentSession = Session.parseFrom(bytesArray);
-
-            // Process multiple test status.
-            List<TestStatus> multipleTestStatus = instrumentSession.getTestStatusList();
-            for (TestStatus teststatus : multipleTestStatus) {
-                processTestStatus(teststatus);
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(protoFile))) {
+            // Walk the Session fields one at a time instead of parsing the whole message.
+            CodedInputStream codedInput = CodedInputStream.newInstance(inputStream);
+            codedInput.setSizeLimit(Integer.MAX_VALUE);
+            SessionStatus.Builder sessionStatus = SessionStatus.newBuilder();
+            boolean done = false;
+            while (!done) {
+                int tag = codedInput.readTag();
+                switch (WireFormat.getTagFieldNumber(tag)) {
+                    case 0:
+                        done = true;
+                        break;
+                    case Session.TEST_STATUS_FIELD_NUMBER:
+                        processTestStatus(
+                                codedInput.readMessage(
+                                        TestStatus.parser(),
+                                        ExtensionRegistryLite.getEmptyRegistry()));
+                        break;
+                    case Session.SESSION_STATUS_FIELD_NUMBER:
+                        // Like parseFrom, merge the session status if it appears several times.
+                        codedInput.readMessage(
+                                sessionStatus, ExtensionRegistryLite.getEmptyRegistry());
+                        break;
+                    default:
+                        done = !codedInput.skipField(tag);
+                        break;
+                }
+                // Only bound the size of a single message, not of the whole file.
+                codedInput.resetSizeCounter();
             }
 
             // Process instrumentation session status.
-            SessionStatus sessionStatus = instrumentSession.getSessionStatus();
             if (sessionStatus.isInitialized()) {
-                processSessionStatus(sessionStatus);
+                processSessionStatus(sessionStatus.build());
             }
         } catch (InvalidProtocolBufferException ex) {
-            parser.handleTestRunFailed(INVALID_TEST_RESULTS_FILE);
+            handleTestRunFailed(INVALID_TEST_RESULTS_FILE);
+        }
+        if (reporter != null) {
+            reporter.done();
+        } else {
+            parser.done();
+        }
+    }
+
+    private void handleTestRunFailed(String errorMsg) {
+        if (reporter != null) {
+            reporter.handleTestRunFailed(errorMsg);
+        } else {
+            parser.handleTestRunFailed(errorMsg);
         }
-        parser.done();
     }
 
     /**
@@ -121,11 +187,26 @@ public class InstrumentationResultProtoParser implements IShellOutputReceiver {
      *     test.
      */
     public void processTestStatus(TestStatus testStatus) {
+        if (reporter != null) {
+            reporter.processTestStatus(testStatus, decodeMetricsBlobs(testStatus.getResults()));
+            return;
+        }
         // Process the test results.
         ResultsBundle results = testStatus.getResults();
         List<String> preProcessedLines = new LinkedList<>();
         for (ResultsBundleEntry entry : results.getEntriesList()) {
             String currentKey = entry.getKey();
+            Map<String, String> blobMetrics = decodeMetricsBlob(entry);
+            if (blobMetrics != null) {
+                for (Map.Entry<String, String> metric : blobMetrics.entrySet()) {
+                    preProcessedLines.add(
+                            String.format(
+                                    INSTRUMENTATION_STATUS_FORMAT,
+                                    metric.getKey(),
+                                    metric.getValue().trim()));
+                }
+                continue;
+            }
             String currentValue = null;
             if (entry.hasValueString()) {
                 currentValue = entry.getValueString().trim();
@@ -149,11 +230,27 @@ public class InstrumentationResultProtoParser implements IShellOutputReceiver {
      *     info collected during the test run.
      */
     public void processSessionStatus(SessionStatus sessionStatus) {
+        if (reporter != null) {
+            reporter.processSessionStatus(
+                    sessionStatus, decodeMetricsBlobs(sessionStatus.getResults()));
+            return;
+        }
 
         List<String> preProcessedLines = new LinkedList<>();
         ResultsBundle results = sessionStatus.getResults();
         for (ResultsBundleEntry entry : results.getEntriesList()) {
             String currentKey = entry.getKey();
+            Map<String, String> blobMetrics = decodeMetricsBlob(entry);
+            if (blobMetrics != null) {
+                for (Map.Entry<String, String> metric : blobMetrics.entrySet()) {
+                    preProcessedLines.add(
+                            String.format(
+                                    INSTRUMENTATION_RESULT_FORMAT,
+                                    metric.getKey(),
+                                    metric.getValue()));
+                }
+                continue;
+            }
             String currentValue = "";
             if (entry.hasValueString()) {
                 currentValue = entry.getValueString();
@@ -183,19 +280,198 @@ public class InstrumentationResultProtoParser implements IShellOutputReceiver {
         parser.processNewLines(preProcessedLines.toArray(new String[preProcessedLines.size()]));
     }
 
-    /* (non-Javadoc)
-     * @see com.android.ddmlib.IShellOutputReceiver#addOutput(byte[], int, int)
+    /** Decode the metrics held by all the metrics blob entries of {@code results}. */
+    private Map<String, String> decodeMetricsBlobs(ResultsBundle results) {
+        Map<String, String> metrics = Collections.emptyMap();
+        for (ResultsBundleEntry entry : results.getEntriesList()) {
+            Map<String, String> blobMetrics = decodeMetricsBlob(entry);
+            if (blobMetrics != null) {
+                if (metrics.isEmpty()) {
+                    metrics = blobMetrics;
+                } else {
+                    metrics.putAll(blobMetrics);
+                }
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Decode the metrics held by the entry if it is a metrics blob reported by the device
+     * collectors, so that they are reported the same way as individual string entries.
+     *
+     * @param entry The {@link ResultsBundleEntry} to decode.
+     * @return the metrics by key, or null if the entry is not a valid metrics blob.
+     */
+    private Map<String, String> decodeMetricsBlob(ResultsBundleEntry entry) {
+        if (!entry.hasValueBytes()
+                || !MetricsBlobDecoder.METRICS_BLOB_KEY.equals(entry.getKey())) {
+            return null;
+        }
+        try {
+            return MetricsBlobDecoder.decode(entry.getValueBytes().toByteArray());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Process the instrumentation result proto file while the instrumentation is still writing
+     * it. Each test status is reported as soon as it is completely written, and the session
+     * status once the instrumentation is done.
+     *
+     * @param protoFile the instrumentation result proto file, which may not exist yet.
+     * @param isComplete returns true once the instrumentation stopped writing to the file.
+     * @param pollIntervalMs the time to wait for more data when reaching the end of the file.
+     * @throws IOException
+     * @throws InterruptedException if interrupted while waiting for more data.
+     */
+    public void tailProtoFile(File protoFile, BooleanSupplier isComplete, long pollIntervalMs)
+            throws IOException, InterruptedException {
+        while (!protoFile.exists()) {
+            if (isComplete.getAsBoolean()) {
+                handleTestRunFailed(NO_TEST_RESULTS_FILE);
+                incrementalDone = true;
+                return;
+            }
+            Thread.sleep(pollIntervalMs);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream inputStream = new FileInputStream(protoFile)) {
+            while (!incrementalFailed) {
+                // Check for completion before reading, so that no data written before the
+                // instrumentation completed is missed.
+                boolean complete = isComplete.getAsBoolean();
+                int length = inputStream.read(buffer);
+                if (length > 0) {
+                    addOutput(buffer, 0, length);
+                } else if (complete) {
+                    break;
+                } else {
+                    Thread.sleep(pollIntervalMs);
+                }
+            }
+        }
+        flush();
+    }
+
+    /**
+     * Process a chunk of the instrumentation result proto, e.g. streamed from the device. Each
+     * test status is reported as soon as all its bytes are received.
      */
     @Override
-    public void addOutput(byte[] protoData, int bytes, int length) {
-        // TODO : Process the streaming proto instrumentation results.
+    public void addOutput(byte[] protoData, int offset, int length) {
+        if (incrementalFailed || incrementalDone) {
+            return;
+        }
+        if (pendingLength + length > pendingBytes.length) {
+            int capacity = Math.max(pendingBytes.length * 2, pendingLength + length);
+            pendingBytes = Arrays.copyOf(pendingBytes, capacity);
+        }
+        System.arraycopy(protoData, offset, pendingBytes, pendingLength, length);
+        pendingLength += length;
+        incrementalReceived |= length > 0;
+        try {
+            processPendingFields();
+        } catch (InvalidProtocolBufferException ex) {
+            incrementalFailed = true;
+            handleTestRunFailed(INVALID_TEST_RESULTS_FILE);
+        }
     }
 
-    /* (non-Javadoc)
-     * @see com.android.ddmlib.IShellOutputReceiver#flush()
+    /**
+     * Process all the complete Session fields of the pending bytes, keeping the bytes of the
+     * trailing incomplete field if any.
+     */
+    private void processPendingFields() throws InvalidProtocolBufferException {
+        int position = 0;
+        while (position < pendingLength) {
+            // Session only holds length-delimited fields: a tag, a length, then the message.
+            long tag = readVarint(position);
+            if (tag < 0) {
+                break;
+            }
+            int lengthPosition = position + varintSize(tag);
+            long length = readVarint(lengthPosition);
+            if (length < 0) {
+                break;
+            }
+            if ((tag & 0x7) != WireFormat.WIRETYPE_LENGTH_DELIMITED
+                    || length > Integer.MAX_VALUE) {
+                throw new InvalidProtocolBufferException("Unexpected Session field");
+            }
+            int messagePosition = lengthPosition + varintSize(length);
+            if (messagePosition + length > pendingLength) {
+                break;
+            }
+            int fieldNumber = WireFormat.getTagFieldNumber((int) tag);
+            if (fieldNumber == Session.TEST_STATUS_FIELD_NUMBER) {
+                processTestStatus(
+                        TestStatus.parser()
+                                .parseFrom(pendingBytes, messagePosition, (int) length));
+            } else if (fieldNumber == Session.SESSION_STATUS_FIELD_NUMBER) {
+                pendingSessionStatus.mergeFrom(pendingBytes, messagePosition, (int) length);
+            }
+            position = messagePosition + (int) length;
+        }
+        System.arraycopy(pendingBytes, position, pendingBytes, 0, pendingLength - position);
+        pendingLength -= position;
+    }
+
+    /**
+     * Read the varint at {@code position} of the pending bytes.
+     *
+     * @return the varint value, or -1 if the pending bytes end before the varint.
+     */
+    private long readVarint(int position) throws InvalidProtocolBufferException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position >= pendingLength) {
+                return -1;
+            }
+            byte b = pendingBytes[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidProtocolBufferException("Malformed varint");
+    }
+
+    private static int varintSize(long value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Report the session status and the end of the test run once all the output of the
+     * instrumentation was received through {@link #addOutput(byte[], int, int)}.
      */
     @Override
-    public void flush() {}
+    public void flush() {
+        if (incrementalDone) {
+            return;
+        }
+        incrementalDone = true;
+        if (!incrementalFailed) {
+            if (!incrementalReceived) {
+                handleTestRunFailed(NO_TEST_RESULTS_MSG);
+            } else if (pendingLength > 0) {
+                // The output ended in the middle of a field.
+                handleTestRunFailed(INVALID_TEST_RESULTS_FILE);
+            } else if (pendingSessionStatus.isInitialized()) {
+                processSessionStatus(pendingSessionStatus.build());
+            }
+        }
+        if (reporter != null) {
+            reporter.done();
+        } else {
+            parser.done();
+        }
+    }
 
     /* (non-Javadoc)
      * @see com.android.ddmlib.IShellOutputReceiver#isCancelled()
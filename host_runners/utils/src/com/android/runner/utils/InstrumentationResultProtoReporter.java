@@ -0,0 +1,306 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.runner.utils;
+
+import com.android.commands.am.InstrumentationData.ResultsBundleEntry;
+import com.android.commands.am.InstrumentationData.SessionStatus;
+import com.android.commands.am.InstrumentationData.TestStatus;
+import com.android.ddmlib.testrunner.ITestRunListener;
+import com.android.ddmlib.testrunner.TestIdentifier;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reports the instrumentation result protos to {@link ITestRunListener}s directly, producing the
+ * same events as {@link com.android.tradefed.result.ddmlib.InstrumentationResultParser} does for
+ * the equivalent shell output, without formatting and parsing the intermediate text lines.
+ */
+final class InstrumentationResultProtoReporter {
+
+    /** Status codes reported by the instrumentation for each test. */
+    private static final int STATUS_START = 1;
+    private static final int STATUS_IN_PROGRESS = 2;
+    private static final int STATUS_OK = 0;
+    private static final int STATUS_ERROR = -1;
+    private static final int STATUS_FAILURE = -2;
+    private static final int STATUS_IGNORED = -3;
+    private static final int STATUS_ASSUMPTION_FAILURE = -4;
+
+    private static final String KEY_TEST = "test";
+    private static final String KEY_CLASS = "class";
+    private static final String KEY_STACK = "stack";
+    private static final String KEY_NUMTESTS = "numtests";
+    private static final String KEY_ERROR = "Error";
+    private static final String KEY_SHORTMSG = "shortMsg";
+    private static final String KEY_STREAM = "stream";
+    /** Keys which are not reported as metrics. */
+    private static final Set<String> KNOWN_KEYS =
+            Set.of(
+                    KEY_TEST,
+                    KEY_CLASS,
+                    KEY_STACK,
+                    KEY_NUMTESTS,
+                    KEY_ERROR,
+                    KEY_SHORTMSG,
+                    KEY_STREAM,
+                    "id",
+                    "current");
+
+    private static final Pattern TIME_PATTERN =
+            Pattern.compile("^Time: \\s*([\\d\\,]*[\\d\\.]+)", Pattern.MULTILINE);
+    private static final String FATAL_EXCEPTION_MSG = "Fatal exception when running tests";
+    private static final String INCOMPLETE_TEST_ERR_MSG_PREFIX =
+            "Test failed to run to completion";
+    private static final String INCOMPLETE_TEST_ERR_MSG_POSTFIX =
+            "Check device logcat for details";
+    private static final String INCOMPLETE_RUN_ERR_MSG_PREFIX = "Test run failed to complete";
+
+    private final String mRunName;
+    private final Collection<ITestRunListener> mListeners;
+
+    // Test info accumulated over the statuses until a status code other than in progress.
+    private TestInfo mCurrentTest = new TestInfo();
+    private TestInfo mLastTest;
+    private Map<String, String> mTestMetrics = new LinkedHashMap<>();
+    private final Map<String, String> mRunMetrics = new LinkedHashMap<>();
+    private int mNumTestsExpected = 0;
+    private int mNumTestsRun = 0;
+    private long mTestTime = 0;
+    private boolean mTestRunStarted = false;
+    private boolean mTestRunFinished = false;
+
+    InstrumentationResultProtoReporter(String runName, Collection<ITestRunListener> listeners) {
+        mRunName = runName;
+        mListeners = listeners;
+    }
+
+    /**
+     * Reports a single {@link TestStatus}.
+     *
+     * @param testStatus the status of the current test.
+     * @param metrics the metrics held by the status, e.g. decoded from a metrics blob.
+     */
+    void processTestStatus(TestStatus testStatus, Map<String, String> metrics) {
+        for (ResultsBundleEntry entry : testStatus.getResults().getEntriesList()) {
+            String value = null;
+            if (entry.hasValueString()) {
+                value = entry.getValueString().trim();
+            } else if (entry.hasValueInt()) {
+                value = String.valueOf(entry.getValueInt());
+            }
+            switch (entry.getKey()) {
+                case KEY_CLASS:
+                    mCurrentTest.className = value;
+                    break;
+                case KEY_TEST:
+                    mCurrentTest.testName = value;
+                    break;
+                case KEY_NUMTESTS:
+                    try {
+                        mCurrentTest.numTests = Integer.parseInt(value);
+                    } catch (NumberFormatException e) {
+                        // Ignore, like unexpected output lines.
+                    }
+                    break;
+                case KEY_STACK:
+                    mCurrentTest.stackTrace = value;
+                    break;
+                case KEY_ERROR:
+                    handleTestRunFailed(value);
+                    break;
+                default:
+                    if (!KNOWN_KEYS.contains(entry.getKey()) && value != null) {
+                        mTestMetrics.put(entry.getKey(), value);
+                    }
+            }
+        }
+        mTestMetrics.putAll(metrics);
+        // In progress statuses only carry additional info, e.g. metrics.
+        if (testStatus.getResultCode() != STATUS_IN_PROGRESS) {
+            mCurrentTest.code = testStatus.getResultCode();
+            reportResult(mCurrentTest);
+            mCurrentTest = new TestInfo();
+        }
+    }
+
+    /**
+     * Reports the {@link SessionStatus} of the instrumentation.
+     *
+     * @param sessionStatus the final status of the instrumentation.
+     * @param metrics the metrics held by the status, e.g. decoded from a metrics blob.
+     */
+    void processSessionStatus(SessionStatus sessionStatus, Map<String, String> metrics) {
+        for (ResultsBundleEntry entry : sessionStatus.getResults().getEntriesList()) {
+            String value;
+            if (entry.hasValueString()) {
+                value = entry.getValueString();
+            } else if (entry.hasValueInt()) {
+                value = String.valueOf(entry.getValueInt());
+            } else {
+                continue;
+            }
+            if (KEY_STREAM.equals(entry.getKey())) {
+                parseTime(value);
+                if (value.contains(FATAL_EXCEPTION_MSG)) {
+                    handleTestRunFailed(value.trim());
+                }
+            } else if (KEY_SHORTMSG.equals(entry.getKey())) {
+                handleTestRunFailed(
+                        String.format("Instrumentation run failed due to '%1$s'", value));
+            } else if (!KNOWN_KEYS.contains(entry.getKey())) {
+                mRunMetrics.put(entry.getKey(), value);
+            }
+        }
+        mRunMetrics.putAll(metrics);
+    }
+
+    /** Reports the end of the test run, failing it if not all the expected tests ran. */
+    void done() {
+        if (mTestRunFinished) {
+            return;
+        }
+        if (mNumTestsExpected > mNumTestsRun) {
+            handleTestRunFailed(
+                    String.format(
+                            "%1$s. Expected %2$d tests, received %3$d",
+                            INCOMPLETE_RUN_ERR_MSG_PREFIX, mNumTestsExpected, mNumTestsRun));
+            return;
+        }
+        for (ITestRunListener listener : mListeners) {
+            if (!mTestRunStarted) {
+                listener.testRunStarted(mRunName, 0);
+            }
+            listener.testRunEnded(mTestTime, mRunMetrics);
+        }
+        mTestRunStarted = true;
+        mTestRunFinished = true;
+    }
+
+    /** Reports the test run as failed and ended, failing the test in progress if any. */
+    void handleTestRunFailed(String errorMsg) {
+        if (mTestRunFinished) {
+            return;
+        }
+        errorMsg = (errorMsg == null ? "Unknown error" : errorMsg);
+        if (mLastTest != null && mLastTest.isComplete() && mLastTest.code == STATUS_START) {
+            // The test started but did not complete, listeners may expect a test failed event.
+            TestIdentifier testId = mLastTest.getIdentifier();
+            Map<String, String> metrics = getAndResetTestMetrics();
+            for (ITestRunListener listener : mListeners) {
+                listener.testFailed(
+                        testId,
+                        String.format(
+                                "%1$s. Reason: '%2$s'. %3$s",
+                                INCOMPLETE_TEST_ERR_MSG_PREFIX,
+                                errorMsg,
+                                INCOMPLETE_TEST_ERR_MSG_POSTFIX));
+                listener.testEnded(testId, metrics);
+            }
+        }
+        for (ITestRunListener listener : mListeners) {
+            if (!mTestRunStarted) {
+                listener.testRunStarted(mRunName, 0);
+            }
+            listener.testRunFailed(errorMsg);
+            listener.testRunEnded(mTestTime, mRunMetrics);
+        }
+        mTestRunStarted = true;
+        mTestRunFinished = true;
+    }
+
+    private void reportResult(TestInfo testInfo) {
+        if (!testInfo.isComplete()) {
+            return;
+        }
+        if (!mTestRunStarted && testInfo.numTests != null) {
+            for (ITestRunListener listener : mListeners) {
+                listener.testRunStarted(mRunName, testInfo.numTests);
+            }
+            mNumTestsExpected = testInfo.numTests;
+            mTestRunStarted = true;
+        }
+        TestIdentifier testId = testInfo.getIdentifier();
+        if (testInfo.code == STATUS_START) {
+            for (ITestRunListener listener : mListeners) {
+                listener.testStarted(testId);
+            }
+        } else {
+            Map<String, String> metrics = getAndResetTestMetrics();
+            String trace = testInfo.stackTrace != null ? testInfo.stackTrace : "Unknown failure";
+            for (ITestRunListener listener : mListeners) {
+                switch (testInfo.code) {
+                    case STATUS_ERROR:
+                    case STATUS_FAILURE:
+                        listener.testFailed(testId, trace);
+                        break;
+                    case STATUS_IGNORED:
+                        listener.testIgnored(testId);
+                        break;
+                    case STATUS_ASSUMPTION_FAILURE:
+                        listener.testAssumptionFailure(testId, trace);
+                        break;
+                    case STATUS_OK:
+                    default:
+                        break;
+                }
+                listener.testEnded(testId, metrics);
+            }
+            mNumTestsRun++;
+        }
+        mLastTest = testInfo;
+    }
+
+    private Map<String, String> getAndResetTestMetrics() {
+        Map<String, String> metrics = mTestMetrics;
+        mTestMetrics = new LinkedHashMap<>();
+        return metrics;
+    }
+
+    private void parseTime(String stream) {
+        Matcher matcher = TIME_PATTERN.matcher(stream);
+        if (matcher.find()) {
+            try {
+                float timeSeconds = Float.parseFloat(matcher.group(1).replaceAll(",", ""));
+                mTestTime = (long) (timeSeconds * 1000);
+            } catch (NumberFormatException e) {
+                // Keep the elapsed time unknown.
+            }
+        }
+    }
+
+    /** Test info accumulated from the test statuses. */
+    private static class TestInfo {
+        Integer code;
+        String className;
+        String testName;
+        Integer numTests;
+        String stackTrace;
+
+        boolean isComplete() {
+            return code != null && className != null && testName != null;
+        }
+
+        TestIdentifier getIdentifier() {
+            return new TestIdentifier(className, testName);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.runner.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decodes the metrics blob reported by the device collectors when they run with the
+ * "metrics-blob" argument, which holds all the string metrics of a test or run in a single binary
+ * instrumentation result entry.
+ *
+ * <p>The blob starts with the format version and the metric count, followed by the key and value
+ * of each metric. Each string is written as its UTF-8 byte length followed by its bytes, and all
+ * the integers are big-endian 32 bits.
+ */
+public final class MetricsBlobDecoder {
+
+    /** Key of the instrumentation result entry holding the metrics blob. */
+    public static final String METRICS_BLOB_KEY = "metrics_blob";
+
+    /** Version of the metrics blob format supported by this decoder. */
+    public static final int METRICS_BLOB_VERSION = 1;
+
+    private MetricsBlobDecoder() {}
+
+    /**
+     * Decodes the metrics held by {@code blob}.
+     *
+     * @param blob the metrics blob
+     * @return the metrics by key, in the order they were reported
+     * @throws IOException if the blob is truncated, malformed or of an unsupported version
+     */
+    public static Map<String, String> decode(byte[] blob) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(blob));
+        int version = in.readInt();
+        if (version != METRICS_BLOB_VERSION) {
+            throw new IOException(
+                    String.format("Unsupported metrics blob version %d", version));
+        }
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException(String.format("Invalid metrics blob count %d", count));
+        }
+        Map<String, String> metrics = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String key = readString(in, blob.length);
+            metrics.put(key, readString(in, blob.length));
+        }
+        return metrics;
+    }
+
+    private static String readString(DataInputStream in, int maxLength) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > maxLength) {
+            throw new IOException(String.format("Invalid metrics blob string length %d", length));
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -30,12 +30,15 @@ import com.android.ddmlib.testrunner.ITestRunListener;
 import com.android.ddmlib.testrunner.TestIdentifier;
 
 import com.google.common.truth.Truth;
+import com.google.protobuf.ByteString;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.junit.runners.JUnit4;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
 import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.Mock;
@@ -45,16 +48,31 @@ import org.mockito.MockitoAnnotations;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-/** Unit tests for {@link InstrumentationResultProtoParser}. */
-@RunWith(JUnit4.class)
+/**
+ * Unit tests for {@link InstrumentationResultProtoParser}, run both through the shell output
+ * parser and with direct reporting to check they report the same events.
+ */
+@RunWith(Parameterized.class)
 public class InstrumentationResultProtoParserTest {
 
+    @Parameters(name = "directReporting={0}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {{false}, {true}});
+    }
+
+    @Parameter public boolean mDirectReporting;
+
     private InstrumentationResultProtoParser mParser;
     @Mock ITestRunListener mMockListener;
 
@@ -82,7 +100,7 @@ public class InstrumentationResultProtoParserTest {
         List<ITestRunListener> runListeners = new ArrayList<>();
 
         runListeners.add(mMockListener);
-        mParser = new InstrumentationResultProtoParser(RUN_KEY, runListeners);
+        mParser = new InstrumentationResultProtoParser(RUN_KEY, runListeners, mDirectReporting);
     }
 
     // Sample one test success instrumentation proto file in a test run.
@@ -285,6 +303,49 @@ public class InstrumentationResultProtoParserTest {
         assertEquals("1", captureTestMetrics.getValue().get("metric_key2"));
     }
 
+    /**
+     * Test the metrics reported in a metrics blob are reported as individual metrics.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testOneTestSuccessWithMetricsBlob() throws IOException {
+        Map<String, String> metrics = new LinkedHashMap<>();
+        metrics.put("metric_key1", "626");
+        metrics.put("metric_key2", "1");
+        List<TestStatus> testStatusList = new LinkedList<TestStatus>();
+        testStatusList.add(getTestInfoProto(CLASS_NAME_1, METHOD_NAME_1, 1, 1, true, false));
+        ResultsBundleEntry blobEntry =
+                ResultsBundleEntry.newBuilder()
+                        .setKey(MetricsBlobDecoder.METRICS_BLOB_KEY)
+                        .setValueBytes(ByteString.copyFrom(MetricsBlobDecoderTest.encode(metrics)))
+                        .build();
+        testStatusList.add(
+                TestStatus.newBuilder()
+                        .setResultCode(2)
+                        .setResults(ResultsBundle.newBuilder().addEntries(blobEntry).build())
+                        .build());
+        testStatusList.add(getTestInfoProto(CLASS_NAME_1, METHOD_NAME_1, 1, 1, false, false));
+        Session sessionProto =
+                Session.newBuilder()
+                        .addAllTestStatus(testStatusList)
+                        .setSessionStatus(getSessionStatusProto(false, false))
+                        .build();
+        protoTestFile = File.createTempFile("tmp", ".pb");
+        sessionProto.writeTo(new FileOutputStream(protoTestFile));
+
+        TestIdentifier td = new TestIdentifier(CLASS_NAME_1, METHOD_NAME_1);
+        ArgumentCaptor<Map<String, String>> captureTestMetrics = ArgumentCaptor.forClass(Map.class);
+
+        mParser.processProtoFile(protoTestFile);
+
+        verify(mMockListener).testEnded(Mockito.eq(td), captureTestMetrics.capture());
+        assertEquals("626", captureTestMetrics.getValue().get("metric_key1"));
+        assertEquals("1", captureTestMetrics.getValue().get("metric_key2"));
+        Truth.assertThat(captureTestMetrics.getValue())
+                .doesNotContainKey(MetricsBlobDecoder.METRICS_BLOB_KEY);
+    }
+
     /**
      * Test for one test success result with multiple listeners in instrumentation results proto
      * file.
@@ -300,7 +361,7 @@ public class InstrumentationResultProtoParserTest {
         runListeners.add(mMockListener1);
         runListeners.add(mMockListener2);
 
-        mParser = new InstrumentationResultProtoParser(RUN_KEY, runListeners);
+        mParser = new InstrumentationResultProtoParser(RUN_KEY, runListeners, mDirectReporting);
 
         protoTestFile = buildSingleTestMetricSuccessProtoFile();
 
@@ -747,6 +808,143 @@ public class InstrumentationResultProtoParserTest {
         verify(mMockListener).testRunEnded(27013, Collections.emptyMap());
     }
 
+    /**
+     * Test the test statuses are reported as soon as their bytes are received, and the run once
+     * the output is flushed.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testIncrementalOutput() throws IOException {
+        protoTestFile = buildMultipleTestAndRunMetricSuccessProtoFile();
+        byte[] protoBytes = Files.readAllBytes(protoTestFile.toPath());
+
+        TestIdentifier td1 = new TestIdentifier(CLASS_NAME_1, METHOD_NAME_1);
+        TestIdentifier td2 = new TestIdentifier(CLASS_NAME_2, METHOD_NAME_2);
+        ArgumentCaptor<Map<String, String>> captureRunMetrics = ArgumentCaptor.forClass(Map.class);
+
+        // Feed small chunks which split the fields at arbitrary positions.
+        for (int offset = 0; offset < protoBytes.length; offset += 7) {
+            mParser.addOutput(protoBytes, offset, Math.min(7, protoBytes.length - offset));
+        }
+        verify(mMockListener).testEnded(Mockito.eq(td1), Mockito.any(Map.class));
+        verify(mMockListener).testEnded(Mockito.eq(td2), Mockito.any(Map.class));
+        verify(mMockListener, Mockito.never())
+                .testRunEnded(Mockito.anyLong(), Mockito.any(Map.class));
+
+        mParser.flush();
+
+        InOrder inOrder = Mockito.inOrder(mMockListener);
+        inOrder.verify(mMockListener).testRunStarted(RUN_KEY, 2);
+        inOrder.verify(mMockListener).testStarted(td1);
+        inOrder.verify(mMockListener).testEnded(Mockito.eq(td1), Mockito.any(Map.class));
+        inOrder.verify(mMockListener).testStarted(td2);
+        inOrder.verify(mMockListener).testEnded(Mockito.eq(td2), Mockito.any(Map.class));
+        inOrder.verify(mMockListener).testRunEnded(Mockito.eq(27013L), captureRunMetrics.capture());
+        assertEquals("39584", captureRunMetrics.getValue().get("run_metric_key"));
+    }
+
+    /**
+     * Test the run fails if the output ends in the middle of a test status.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testIncrementalOutputTruncated() throws IOException {
+        protoTestFile = buildSingleTestMetricSuccessProtoFile();
+        byte[] protoBytes = Files.readAllBytes(protoTestFile.toPath());
+
+        mParser.addOutput(protoBytes, 0, protoBytes.length - 1);
+        mParser.flush();
+
+        verify(mMockListener)
+                .testRunFailed(
+                        Mockito.eq(InstrumentationResultProtoParser.INVALID_TEST_RESULTS_FILE));
+        verify(mMockListener).testRunEnded(Mockito.anyLong(), Mockito.any(Map.class));
+    }
+
+    /**
+     * Test tailing a proto file reports the same results as processing it once complete.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testTailProtoFile() throws Exception {
+        protoTestFile = buildTestAndRunMetricSuccessProtoFile();
+
+        TestIdentifier td = new TestIdentifier(CLASS_NAME_1, METHOD_NAME_1);
+        ArgumentCaptor<Map<String, String>> captureTestMetrics = ArgumentCaptor.forClass(Map.class);
+        ArgumentCaptor<Map<String, String>> captureRunMetrics = ArgumentCaptor.forClass(Map.class);
+
+        mParser.tailProtoFile(protoTestFile, () -> true, 10);
+
+        InOrder inOrder = Mockito.inOrder(mMockListener);
+        inOrder.verify(mMockListener).testRunStarted(RUN_KEY, 1);
+        inOrder.verify(mMockListener).testStarted(td);
+        inOrder.verify(mMockListener).testEnded(Mockito.eq(td), captureTestMetrics.capture());
+        inOrder.verify(mMockListener).testRunEnded(Mockito.eq(27013L), captureRunMetrics.capture());
+        assertEquals("626", captureTestMetrics.getValue().get("metric_key1"));
+        assertEquals("39584", captureRunMetrics.getValue().get("run_metric_key"));
+    }
+
+    /**
+     * Test tailing a proto file while it is written by another thread reports every test once.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testTailProtoFileWhileWritten() throws Exception {
+        File completeFile = buildMultipleTestAndRunMetricSuccessProtoFile();
+        byte[] protoBytes = Files.readAllBytes(completeFile.toPath());
+        completeFile.delete();
+        protoTestFile = File.createTempFile("tmp", ".pb");
+
+        AtomicBoolean written = new AtomicBoolean();
+        Thread writer =
+                new Thread(
+                        () -> {
+                            try (FileOutputStream output = new FileOutputStream(protoTestFile)) {
+                                // Append small chunks which split the fields at arbitrary
+                                // positions, giving the parser time to read each of them.
+                                for (int offset = 0; offset < protoBytes.length; offset += 5) {
+                                    output.write(
+                                            protoBytes,
+                                            offset,
+                                            Math.min(5, protoBytes.length - offset));
+                                    output.flush();
+                                    Thread.sleep(2);
+                                }
+                            } catch (IOException | InterruptedException e) {
+                                throw new RuntimeException(e);
+                            } finally {
+                                written.set(true);
+                            }
+                        });
+        writer.start();
+        mParser.tailProtoFile(protoTestFile, written::get, 1);
+        writer.join();
+
+        TestIdentifier td1 = new TestIdentifier(CLASS_NAME_1, METHOD_NAME_1);
+        TestIdentifier td2 = new TestIdentifier(CLASS_NAME_2, METHOD_NAME_2);
+        ArgumentCaptor<Map<String, String>> captureRunMetrics = ArgumentCaptor.forClass(Map.class);
+        InOrder inOrder = Mockito.inOrder(mMockListener);
+        inOrder.verify(mMockListener).testRunStarted(RUN_KEY, 2);
+        inOrder.verify(mMockListener).testStarted(td1);
+        inOrder.verify(mMockListener).testEnded(Mockito.eq(td1), Mockito.any(Map.class));
+        inOrder.verify(mMockListener).testStarted(td2);
+        inOrder.verify(mMockListener).testEnded(Mockito.eq(td2), Mockito.any(Map.class));
+        inOrder.verify(mMockListener).testRunEnded(Mockito.eq(27013L), captureRunMetrics.capture());
+        assertEquals("39584", captureRunMetrics.getValue().get("run_metric_key"));
+        verify(mMockListener, Mockito.times(1)).testRunStarted(RUN_KEY, 2);
+        verify(mMockListener, Mockito.times(1)).testStarted(td1);
+        verify(mMockListener, Mockito.times(1)).testStarted(td2);
+        verify(mMockListener, Mockito.times(2))
+                .testEnded(Mockito.any(TestIdentifier.class), Mockito.any(Map.class));
+        verify(mMockListener, Mockito.never()).testRunFailed(Mockito.anyString());
+        verify(mMockListener, Mockito.times(1))
+                .testRunEnded(Mockito.anyLong(), Mockito.any(Map.class));
+    }
+
     @After
     public void tearDown() {
         if (protoTestFile != null && protoTestFile.exists()) {
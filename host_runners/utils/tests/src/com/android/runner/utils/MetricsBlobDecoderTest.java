@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.runner.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThrows;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** Unit tests for {@link MetricsBlobDecoder}. */
+@RunWith(JUnit4.class)
+public class MetricsBlobDecoderTest {
+
+    @Test
+    public void testDecode() throws IOException {
+        Map<String, String> metrics = new LinkedHashMap<>();
+        metrics.put("showmap_rss_bytes_com.android.systemui", "123456");
+        metrics.put("unicode_é", "multi\nline");
+        metrics.put("empty", "");
+
+        Map<String, String> decoded = MetricsBlobDecoder.decode(encode(metrics));
+
+        assertEquals(metrics, decoded);
+        assertEquals(
+                Arrays.asList(metrics.keySet().toArray()),
+                Arrays.asList(decoded.keySet().toArray()));
+    }
+
+    @Test
+    public void testDecodeTruncated() throws IOException {
+        byte[] blob = encode(Map.of("key", "value"));
+        assertThrows(
+                IOException.class,
+                () -> MetricsBlobDecoder.decode(Arrays.copyOf(blob, blob.length - 1)));
+    }
+
+    @Test
+    public void testDecodeUnsupportedVersion() throws IOException {
+        byte[] blob = encode(Map.of("key", "value"));
+        blob[3] = 2;
+        assertThrows(IOException.class, () -> MetricsBlobDecoder.decode(blob));
+    }
+
+    /** Encodes {@code metrics} the same way as the device collectors. */
+    static byte[] encode(Map<String, String> metrics) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MetricsBlobDecoder.METRICS_BLOB_VERSION);
+        out.writeInt(metrics.size());
+        for (Map.Entry<String, String> entry : metrics.entrySet()) {
+            for (String value : new String[] {entry.getKey(), entry.getValue()}) {
+                byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(valueBytes.length);
+                out.write(valueBytes);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
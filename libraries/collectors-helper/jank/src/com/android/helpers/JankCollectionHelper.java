@@ -27,13 +27,16 @@ import androidx.test.uiautomator.UiDevice;
 import com.google.common.base.Verify;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 /** An {@link ICollectorHelper} for collecting jank metrics for all or a list of processes. */
 public class JankCollectionHelper implements ICollectorHelper<Double> {
@@ -55,6 +58,9 @@ public class JankCollectionHelper implements ICollectorHelper<Double> {
     // Note: use the [\\s\\S]* multi-line matcher to support String#matches(). Instead of splitting
     // the larger sections into more granular lines, we can match across all lines for simplicity.
     private static final String MULTILINE_MATCHER = "[\\s\\S]*%s[\\s\\S]*";
+    // Marker of the per-package section headers, used by the single pass parser.
+    private static final String GFXINFO_HEADER_MARKER = "Graphics info for pid ";
+    private static final String LABEL_SEPARATOR = ": ";
 
     public enum GfxInfoMetric {
         // Example: "Total frames rendered: 20391"
@@ -165,14 +171,37 @@ public class JankCollectionHelper implements ICollectorHelper<Double> {
                 1,
                 "gpu_frame_render_time_percentile_99");
 
+        // Metrics by line label, e.g. "Janky frames (legacy)", for the single pass parser.
+        private static final Map<String, GfxInfoMetric[]> METRICS_BY_LABEL = new HashMap<>();
+
+        static {
+            for (GfxInfoMetric metric : values()) {
+                METRICS_BY_LABEL.merge(
+                        metric.mLabel,
+                        new GfxInfoMetric[] {metric},
+                        (a, b) ->
+                                Stream.concat(Arrays.stream(a), Arrays.stream(b))
+                                        .toArray(GfxInfoMetric[]::new));
+            }
+        }
+
         private Pattern mPattern;
         private int mGroupIndex;
         private String mMetricId;
+        // The label preceding the value in the pattern and the expected value suffix, derived
+        // from the pattern so that both parsing methods always agree.
+        private String mLabel;
+        private boolean mHasPercent;
+        private boolean mHasMillis;
 
         GfxInfoMetric(Pattern pattern, int groupIndex, String metricId) {
             mPattern = pattern;
             mGroupIndex = groupIndex;
             mMetricId = metricId;
+            String regex = pattern.pattern();
+            mLabel = regex.substring(0, regex.indexOf(LABEL_SEPARATOR)).replace("\\", "");
+            mHasPercent = regex.endsWith("\\%\\)");
+            mHasMillis = regex.endsWith("ms");
         }
 
         public Double parse(String lines) {
@@ -187,6 +216,56 @@ public class JankCollectionHelper implements ICollectorHelper<Double> {
         public String getMetricId() {
             return mMetricId;
         }
+
+        /**
+         * Parses the value of this metric from {@code line}, starting at {@code valueStart} right
+         * after the label separator, without using the pattern.
+         *
+         * @return the value, or null if the line does not match the metric format
+         */
+        private Double parseValue(String line, int valueStart) {
+            int countEnd = skipDigits(line, valueStart);
+            if (countEnd == valueStart) {
+                return null;
+            }
+            if (mHasMillis) {
+                return line.startsWith("ms", countEnd)
+                        ? Double.valueOf(line.substring(valueStart, countEnd))
+                        : null;
+            }
+            if (!mHasPercent) {
+                return Double.valueOf(line.substring(valueStart, countEnd));
+            }
+            // Percentages are formatted as "<count> (<digits>[.]<digits>%)".
+            int percentStart = countEnd + 2;
+            if (!line.startsWith(" (", countEnd)) {
+                return null;
+            }
+            int integerEnd = skipDigits(line, percentStart);
+            int percentEnd = integerEnd;
+            if (integerEnd > percentStart && line.startsWith(".", integerEnd)) {
+                percentEnd = skipDigits(line, integerEnd + 1);
+                if (percentEnd == integerEnd + 1) {
+                    return null;
+                }
+            } else if (integerEnd - percentStart < 2) {
+                return null;
+            }
+            if (!line.startsWith("%)", percentEnd)) {
+                return null;
+            }
+            return mGroupIndex == 1
+                    ? Double.valueOf(line.substring(valueStart, countEnd))
+                    : Double.valueOf(line.substring(percentStart, percentEnd));
+        }
+
+        private static int skipDigits(String line, int start) {
+            int end = start;
+            while (end < line.length() && Character.isDigit(line.charAt(end))) {
+                end++;
+            }
+            return end;
+        }
     }
 
     private Set<String> mTrackedPackages = new HashSet<>();
@@ -301,14 +380,15 @@ public class JankCollectionHelper implements ICollectorHelper<Double> {
         try {
             String command = String.format(GFXINFO_COMMAND_GET, pkg);
             String output = getDevice().executeShellCommand(command);
-            verifyMatches(output, getHeaderMatcher(pkg), "Missing package header.");
-            // Split each new section starting with two asterisks '**', and then query and append
-            // all metrics. This method supports both single-package and multi-package outputs.
-            String[] pkgMetricSections = output.split("\n\\*\\*");
+            // Parse all the package sections in a single pass. This method supports both
+            // single-package and multi-package outputs.
+            Map<String, Map<String, Double>> pkgMetrics = parseGfxInfoOutput(output);
+            Verify.verify(
+                    pkg.isEmpty() ? !pkgMetrics.isEmpty() : pkgMetrics.containsKey(pkg),
+                    "Missing package header.");
             Map<String, Double> result = new HashMap<>();
-            // Skip the 1st section, which contains only header information.
-            for (int i = 1; i < pkgMetricSections.length; i++) {
-                result.putAll(parseGfxInfoMetrics(pkgMetricSections[i]));
+            for (Map<String, Double> metrics : pkgMetrics.values()) {
+                result.putAll(metrics);
             }
             return result;
         } catch (IOException e) {
@@ -316,8 +396,78 @@ public class JankCollectionHelper implements ICollectorHelper<Double> {
         }
     }
 
-    /** Parse the {@code output} of {@code gfxinfo} to a {@code Map<String, Double>} of metrics. */
-    private Map<String, Double> parseGfxInfoMetrics(String output) {
+    /**
+     * Parse the {@code output} of {@code gfxinfo} to the metrics of each package in a single pass
+     * over its lines. Each line is matched against the metrics by its label instead of scanning
+     * the whole output once per metric. If a metric appears several times for a package, as with
+     * per window stats, the first value is kept.
+     *
+     * @return a {@code Map<String, Double>} of metrics for each package name, in output order
+     */
+    @VisibleForTesting
+    static Map<String, Map<String, Double>> parseGfxInfoOutput(String output) {
+        Map<String, Map<String, Double>> results = new LinkedHashMap<>();
+        Map<String, Double> pkgResults = null;
+        String packageName = null;
+        int lineStart = 0;
+        while (lineStart < output.length()) {
+            int lineEnd = output.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = output.length();
+            }
+            String line = output.substring(lineStart, lineEnd);
+            lineStart = lineEnd + 1;
+
+            if (line.contains(GFXINFO_HEADER_MARKER)) {
+                // Example: "** Graphics info for pid 853 [com.google.android.leanbacklauncher] **"
+                int pkgStart = line.indexOf('[');
+                int pkgEnd = line.lastIndexOf(']');
+                if (pkgStart < 0 || pkgEnd <= pkgStart) {
+                    throw new RuntimeException("Failed to parse package from gfxinfo output.");
+                }
+                packageName = line.substring(pkgStart + 1, pkgEnd);
+                Log.v(LOG_TAG, String.format("Collecting metrics for: %s", packageName));
+                pkgResults = results.computeIfAbsent(packageName, k -> new HashMap<>());
+                continue;
+            }
+            if (pkgResults == null) {
+                continue;
+            }
+            int labelStart = 0;
+            while (labelStart < line.length() && Character.isWhitespace(line.charAt(labelStart))) {
+                labelStart++;
+            }
+            int labelEnd = line.indexOf(LABEL_SEPARATOR, labelStart);
+            if (labelEnd < 0) {
+                continue;
+            }
+            GfxInfoMetric[] metrics =
+                    GfxInfoMetric.METRICS_BY_LABEL.get(line.substring(labelStart, labelEnd));
+            if (metrics == null) {
+                continue;
+            }
+            for (GfxInfoMetric metric : metrics) {
+                String metricKey =
+                        constructKey(GFXINFO_METRICS_PREFIX, packageName, metric.getMetricId());
+                if (pkgResults.containsKey(metricKey)) {
+                    continue;
+                }
+                Double value = metric.parseValue(line, labelEnd + LABEL_SEPARATOR.length());
+                if (value != null) {
+                    pkgResults.put(metricKey, value);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Parse the {@code output} of {@code gfxinfo} to a {@code Map<String, Double>} of metrics by
+     * matching each metric pattern against the whole output. Kept as the reference implementation
+     * of {@link #parseGfxInfoOutput(String)}.
+     */
+    @VisibleForTesting
+    static Map<String, Double> parseGfxInfoMetrics(String output) {
         Matcher header = Pattern.compile(getHeaderMatcher("")).matcher(output);
         if (!header.matches()) {
             throw new RuntimeException("Failed to parse package from gfxinfo output.");
@@ -346,7 +496,7 @@ public class JankCollectionHelper implements ICollectorHelper<Double> {
      *
      * <p>Note: {@code pkg} may be empty.
      */
-    private String getHeaderMatcher(String pkg) {
+    private static String getHeaderMatcher(String pkg) {
         return String.format(
                 MULTILINE_MATCHER,
                 String.format(GFXINFO_OUTPUT_HEADER, (pkg.isEmpty() ? ".*" : pkg)));
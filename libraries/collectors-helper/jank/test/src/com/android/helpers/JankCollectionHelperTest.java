@@ -42,6 +42,8 @@ import static org.junit.Assert.fail;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.when;
 
+import android.util.Log;
+
 import androidx.test.runner.AndroidJUnit4;
 import androidx.test.uiautomator.UiDevice;
 
@@ -517,6 +519,78 @@ public class JankCollectionHelperTest {
                 .containsExactly(JankCollectionHelper.FAILED_PACKAGES_COUNT_METRIC, 1d);
     }
 
+    /** Test the single pass parser splits the metrics of each package. */
+    @Test
+    public void testParse_multiPackageSections() throws Exception {
+        String output =
+                String.format(GFXINFO_GET_FORMAT, "pkg1")
+                        + String.format(GFXINFO_RESET_FORMAT, "pkg2");
+        Map<String, Map<String, Double>> pkgMetrics =
+                JankCollectionHelper.parseGfxInfoOutput(output);
+        assertThat(pkgMetrics.keySet()).containsExactly("pkg1", "pkg2").inOrder();
+        assertThat(pkgMetrics.get("pkg1"))
+                .containsEntry(buildMetricKey("pkg1", JANKY_FRAMES_PRCNT.getMetricId()), 33.33);
+        assertThat(pkgMetrics.get("pkg2"))
+                .containsEntry(buildMetricKey("pkg2", JANKY_FRAMES_PRCNT.getMetricId()), 0.0);
+        assertThat(pkgMetrics.get("pkg2"))
+                .doesNotContainKey(buildMetricKey("pkg1", TOTAL_FRAMES.getMetricId()));
+    }
+
+    /** Test the single pass parser rejects the values the metric patterns do not match. */
+    @Test
+    public void testParse_malformedValues() throws Exception {
+        String output =
+                "\n\n** Graphics info for pid 9999 [pkg1] **"
+                        + "\nJanky frames: 300 (3%)"
+                        + "\nJanky frames (legacy): 200"
+                        + "\n50th percentile: 150"
+                        + "\n90th percentile: ms"
+                        + "\nNumber Missed Vsync: 1";
+        Map<String, Double> metrics = JankCollectionHelper.parseGfxInfoOutput(output).get("pkg1");
+        assertThat(metrics)
+                .containsExactly(buildMetricKey("pkg1", NUM_MISSED_VSYNC.getMetricId()), 1.0);
+        assertThat(metrics).isEqualTo(JankCollectionHelper.parseGfxInfoMetrics(output));
+    }
+
+    /**
+     * Replays a large multi-package dump through the single pass parser and the per metric regex
+     * parsing it replaced, checking they agree and logging how long each takes.
+     */
+    @Test
+    public void testParse_matchesRegexParsing() throws Exception {
+        StringBuilder dump = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            String pkg = "pkg" + i;
+            dump.append(String.format(GFXINFO_GET_FORMAT, pkg));
+            // Per window stats repeat the metrics, the first values are the package ones.
+            dump.append("\n\nWindow: ").append(pkg).append("/MainActivity");
+            dump.append(String.format(GFXINFO_RESET_FORMAT, pkg).replaceAll(".*\\*\\*", ""));
+        }
+        String output = dump.toString();
+
+        long startTime = System.nanoTime();
+        Map<String, Map<String, Double>> pkgMetrics =
+                JankCollectionHelper.parseGfxInfoOutput(output);
+        long singlePassTime = System.nanoTime() - startTime;
+
+        startTime = System.nanoTime();
+        String[] sections = output.split("\n\\*\\*");
+        for (int i = 1; i < sections.length; i++) {
+            assertThat(pkgMetrics.get("pkg" + (i - 1)))
+                    .isEqualTo(JankCollectionHelper.parseGfxInfoMetrics(sections[i]));
+        }
+        long regexTime = System.nanoTime() - startTime;
+
+        assertThat(pkgMetrics).hasSize(50);
+        assertThat(pkgMetrics.get("pkg7"))
+                .containsEntry(buildMetricKey("pkg7", TOTAL_FRAMES.getMetricId()), 900.0);
+        Log.i(
+                "JankCollectionHelperTest",
+                String.format(
+                        "Parsed gfxinfo in %d us, regex parsing in %d us.",
+                        singlePassTime / 1000, regexTime / 1000));
+    }
+
     private String buildMetricKey(String pkg, String id) {
         return constructKey(JankCollectionHelper.GFXINFO_METRICS_PREFIX, pkg, id);
     }
@@ -18,27 +18,41 @@ package com.android.helpers;
 
 import static com.android.helpers.MetricUtility.constructKey;
 
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.VisibleForTesting;
 import androidx.test.InstrumentationRegistry;
 import androidx.test.uiautomator.UiDevice;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.InputMismatchException;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -63,6 +77,17 @@ public class ShowmapSnapshotHelper implements ICollectorHelper<String> {
     private static final String COUNT_THREADS_EXEC_SCRIPT =
             "for i in $(ls /proc | grep -E [0-9]+); do echo \"threads_count_$(cat"
                     + " /proc/$i/cmdline) : $(ls /proc/$i/task | wc -l)\"; done;";
+    @VisibleForTesting
+    public static final String BATCHED_SHOWMAP_CMD = "sh /sdcard/showmapBatch.sh";
+    private static final String BATCHED_SHOWMAP_FILE_PATH = "/sdcard/showmapBatch.sh";
+    // Section markers emitted by the batched collection script. The per-process marker matches the
+    // header used when storing showmap output into the result file.
+    private static final String BATCH_OOM_SCORE_SECTION = ">>> oom_score_adj <<<";
+    private static final String BATCH_PS_SECTION = ">>> ps <<<";
+    private static final Pattern BATCH_PROCESS_SECTION_PATTERN =
+            Pattern.compile("^>>> (?<name>.+) \\((?<pid>[0-9]+)\\) <<<$");
+    private static final int DEFAULT_PARSING_THREADS = 4;
+    private static final byte[] NEW_LINE = {'\n'};
     public static final String THREADS_PATTERN = "(?<key>^threads_count_.+) : (?<value>[0-9]+)";
     public static final String OUTPUT_METRIC_PATTERN = "showmap_%s_bytes";
     public static final String OUTPUT_IMPERCEPTIBLE_METRIC_PATTERN =
@@ -70,6 +95,7 @@ public class ShowmapSnapshotHelper implements ICollectorHelper<String> {
     public static final String OUTPUT_FILE_PATH_KEY = "showmap_output_file";
     public static final String SYSTEM_THREADS_FILE_PATH_KEY = "system_threads_output_file";
     public static final String PROCESS_COUNT = "process_count";
+    public static final String COLLECTION_TIME_KEY = "showmap_collection_time_ms";
     public static final String CHILD_PROCESS_COUNT_PREFIX = "child_processes_count";
     public static final String OUTPUT_CHILD_PROCESS_COUNT_KEY = CHILD_PROCESS_COUNT_PREFIX + "_%s";
     public static final String PROCESS_WITH_CHILD_PROCESS_COUNT =
@@ -89,14 +115,27 @@ public class ShowmapSnapshotHelper implements ICollectorHelper<String> {
     private UiDevice mUiDevice;
     private boolean mRunGcPrecollection;
     private boolean mRunCountThreads;
+    private boolean mBatchedCollection;
+    private int mParsingThreads = DEFAULT_PARSING_THREADS;
 
     // Map to maintain per-process memory info
     private Map<String, String> mMemoryMap = new HashMap<>();
 
+    // Per-process showmap totals in KB, indexed like mMetricNames. They are only converted into
+    // mMemoryMap entries once all the processes have been collected.
+    private final Map<String, long[]> mShowmapTotals = new HashMap<>();
+    private final Map<String, long[]> mImperceptibleShowmapTotals = new HashMap<>();
+
+    private final ShowmapSummaryParser mSummaryParser = new ShowmapSummaryParser();
+
     // Maintain metric name and the index it corresponds to in the showmap output
     // summary
     private Map<String, List<Integer>> mMetricNameIndexMap = new HashMap<>();
 
+    // Flattened copy of mMetricNameIndexMap used when accumulating showmap totals.
+    private String[] mMetricNames = new String[0];
+    private int[][] mMetricIndices = new int[0][];
+
     public void setUp(String testOutputDir, String... processNames) {
         mProcessNames = processNames;
         mTestOutputDir = testOutputDir;
@@ -113,6 +152,8 @@ public class ShowmapSnapshotHelper implements ICollectorHelper<String> {
             return false;
         }
         mMemoryMap.clear();
+        mShowmapTotals.clear();
+        mImperceptibleShowmapTotals.clear();
 
         File directory = new File(mTestOutputDir);
         String filePath = String.format("%s/showmap_snapshot%d.txt", mTestOutputDir,
@@ -204,6 +245,7 @@ public class ShowmapSnapshotHelper implements ICollectorHelper<String> {
 
     @Override
     public Map<String, String> getMetrics() {
+        long collectionStartTime = SystemClock.uptimeMillis();
         try {
             if (mRunCountThreads) {
                 mMemoryMap.putAll(execCountThreads());
@@ -222,7 +264,8 @@ public class ShowmapSnapshotHelper implements ICollectorHelper<String> {
                 return mMemoryMap;
             }
             HashSet<Integer> zygoteChildrenPids = getZygoteChildrenPids();
-            FileWriter writer = new FileWriter(new File(mTestOutputFile), true);
+            OutputStream output =
+                    new BufferedOutputStream(new FileOutputStream(new File(mTestOutputFile), true));
 
             try {
                 // dump the activity lru to better understand the process state
@@ -232,59 +275,12 @@ public class ShowmapSnapshotHelper implements ICollectorHelper<String> {
                 Log.e(TAG, String.format("Failed to execute %s", ACTIVITY_LRU_CMD));
             }
 
-            for (String processName : mProcessNames) {
-                List<Integer> pids = new ArrayList<>();
-                // Collect required data
-                try {
-                    pids = getPids(processName);
-                    for (Integer pid : pids) {
-                        // Force Garbage collect to trim transient objects before taking memory
-                        // measurements as memory tests aim to track persistent memory regression
-                        // instead of transient memory which also allows for de-noising and reducing
-                        // likelihood of false alerts.
-                        if (mRunGcPrecollection && zygoteChildrenPids.contains(pid)) {
-                            // Skip native processes from sending GC signal.
-                            android.os.Trace.beginSection("IssueGCForPid: " + pid);
-                            // Perform a synchronous GC which happens when we request meminfo
-                            // This save us the need of setting up timeouts that may or may not
-                            // match with the end time of GC.
-                            mUiDevice.executeShellCommand("dumpsys meminfo -a " + pid);
-                            android.os.Trace.endSection();
-                        }
-
-                        android.os.Trace.beginSection("ExecuteShowmap");
-                        String showmapOutput = execShowMap(processName, pid);
-                        android.os.Trace.endSection();
-                        // Mark the imperceptible process for showmap and child process count
-                        if (isProcessOomScoreAbove(
-                                processName, pid, PROCESS_OOM_SCORE_IMPERCEPTIBLE)) {
-                            Log.i(
-                                    TAG,
-                                    String.format(
-                                            "This process is imperceptible: %s", processName));
-                            parseAndUpdateMemoryInfo(
-                                    processName,
-                                    showmapOutput,
-                                    OUTPUT_IMPERCEPTIBLE_METRIC_PATTERN);
-                        } else {
-                            parseAndUpdateMemoryInfo(
-                                    processName, showmapOutput, OUTPUT_METRIC_PATTERN);
-                        }
-
-                        // Store showmap output into file. If there are more than one process
-                        // with same name write the individual showmap associated with pid.
-                        storeToFile(mTestOutputFile, processName, pid, showmapOutput, writer);
-                        // Parse number of child processes for the given pid and update the
-                        // total number of child process count for the process name that pid
-                        // is associated with.
-                        updateChildProcessesDetails(processName, pid);
-                    }
-                } catch (RuntimeException e) {
-                    Log.e(TAG, e.getMessage(), e.getCause());
-                    // Skip this process and continue with the next one
-                    continue;
-                }
+            if (mBatchedCollection) {
+                collectBatched(zygoteChildrenPids, output);
+            } else {
+                collectSequential(zygoteChildrenPids, output);
             }
+            updateShowmapMetrics();
             // To track total number of process with child processes.
             if (mMemoryMap.size() != 0) {
                 Set<String> parentWithChildProcessSet = mMemoryMap.keySet()
@@ -296,8 +292,11 @@ public class ShowmapSnapshotHelper implements ICollectorHelper<String> {
             }
             // Store the unique process count. -1 to exclude the "ps" process name.
             mMemoryMap.put(PROCESS_COUNT, Integer.toString(mProcessNames.length - 1));
-            writer.close();
+            output.close();
             mMemoryMap.put(OUTPUT_FILE_PATH_KEY, mTestOutputFile);
+            mMemoryMap.put(
+                    COLLECTION_TIME_KEY,
+                    Long.toString(SystemClock.uptimeMillis() - collectionStartTime));
         } catch (RuntimeException e) {
             Log.e(TAG, e.getMessage(), e.getCause());
         } catch (IOException e) {
@@ -306,6 +305,266 @@ public class ShowmapSnapshotHelper implements ICollectorHelper<String> {
         return mMemoryMap;
     }
 
+    /**
+     * Collects showmap output for each process by running the per-process shell commands one at a
+     * time.
+     *
+     * @param zygoteChildrenPids pids of the zygote children, used to decide which pids get a GC
+     * @param output stream to store the raw showmap output
+     */
+    private void collectSequential(HashSet<Integer> zygoteChildrenPids, OutputStream output)
+            throws IOException {
+        for (String processName : mProcessNames) {
+            List<Integer> pids = new ArrayList<>();
+            // Collect required data
+            try {
+                pids = getPids(processName);
+                for (Integer pid : pids) {
+                    // Force Garbage collect to trim transient objects before taking memory
+                    // measurements as memory tests aim to track persistent memory regression
+                    // instead of transient memory which also allows for de-noising and reducing
+                    // likelihood of false alerts.
+                    if (mRunGcPrecollection && zygoteChildrenPids.contains(pid)) {
+                        // Skip native processes from sending GC signal.
+                        android.os.Trace.beginSection("IssueGCForPid: " + pid);
+                        // Perform a synchronous GC which happens when we request meminfo
+                        // This save us the need of setting up timeouts that may or may not
+                        // match with the end time of GC.
+                        mUiDevice.executeShellCommand("dumpsys meminfo -a " + pid);
+                        android.os.Trace.endSection();
+                    }
+
+                    // Mark the imperceptible process for showmap and child process count
+                    boolean imperceptible =
+                            isProcessOomScoreAbove(
+                                    processName, pid, PROCESS_OOM_SCORE_IMPERCEPTIBLE);
+                    if (imperceptible) {
+                        Log.i(
+                                TAG,
+                                String.format(
+                                        "This process is imperceptible: %s", processName));
+                    }
+
+                    // Store showmap output into file while it is parsed. If there are more than
+                    // one process with same name write the individual showmap associated with pid.
+                    storeHeaderToFile(mTestOutputFile, processName, pid, output);
+                    android.os.Trace.beginSection("ExecuteShowmap");
+                    execShowMap(processName, pid, output);
+                    android.os.Trace.endSection();
+                    storeToFile(mTestOutputFile, NEW_LINE, 0, NEW_LINE.length, output);
+                    updateMemoryInfo(processName, mSummaryParser, imperceptible);
+                    // Parse number of child processes for the given pid and update the
+                    // total number of child process count for the process name that pid
+                    // is associated with.
+                    updateChildProcessesDetails(processName, pid);
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, e.getMessage(), e.getCause());
+                // Skip this process and continue with the next one
+                continue;
+            }
+        }
+    }
+
+    /**
+     * Collects showmap output for all the processes with a single shell script invocation. The
+     * script output is read as a stream and the per-process showmap summaries are parsed on a
+     * bounded pool of {@code mParsingThreads} threads while the next process is still being read.
+     *
+     * @param zygoteChildrenPids pids of the zygote children, used to decide which pids get a GC
+     * @param output stream to store the raw showmap output
+     */
+    private void collectBatched(HashSet<Integer> zygoteChildrenPids, OutputStream output)
+            throws IOException {
+        writeBatchedShowmapScript(zygoteChildrenPids);
+        Map<Integer, Integer> oomScores = new HashMap<>();
+        List<String> psLines = new ArrayList<>();
+        Map<Integer, String> targetPids = new LinkedHashMap<>();
+        List<Future<?>> parseResults = new ArrayList<>();
+        // Each parsing thread reuses its own summary parser.
+        ThreadLocal<ShowmapSummaryParser> summaryParsers =
+                ThreadLocal.withInitial(ShowmapSummaryParser::new);
+        ThreadPoolExecutor executor =
+                new ThreadPoolExecutor(
+                        mParsingThreads,
+                        mParsingThreads,
+                        0L,
+                        TimeUnit.MILLISECONDS,
+                        new ArrayBlockingQueue<>(mParsingThreads * 2),
+                        new ThreadPoolExecutor.CallerRunsPolicy());
+        try (InputStream input =
+                new BufferedInputStream(executeShellCommandStream(BATCHED_SHOWMAP_CMD))) {
+            String section = null;
+            String processName = null;
+            int pid = -1;
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            ByteArrayOutputStream showmapOutput = new ByteArrayOutputStream();
+            boolean endOfStream = false;
+            while (!endOfStream) {
+                line.reset();
+                int firstByte = -1;
+                int c;
+                while ((c = input.read()) >= 0 && c != '\n') {
+                    if (line.size() == 0) {
+                        firstByte = c;
+                    }
+                    line.write(c);
+                }
+                endOfStream = c < 0;
+                if (endOfStream && line.size() == 0) {
+                    break;
+                }
+                // Only section markers and the small oom_score_adj and ps sections are decoded,
+                // showmap output is kept as bytes.
+                Matcher processMatcher = null;
+                String text = null;
+                if (processName == null || firstByte == '>') {
+                    text = line.toString(StandardCharsets.UTF_8.name());
+                    processMatcher = BATCH_PROCESS_SECTION_PATTERN.matcher(text);
+                }
+                boolean isProcessSection = processMatcher != null && processMatcher.matches();
+                if (isProcessSection
+                        || BATCH_OOM_SCORE_SECTION.equals(text)
+                        || BATCH_PS_SECTION.equals(text)) {
+                    if (processName != null) {
+                        parseResults.add(
+                                submitShowmapOutput(
+                                        executor,
+                                        summaryParsers,
+                                        processName,
+                                        pid,
+                                        showmapOutput.toByteArray(),
+                                        oomScores,
+                                        output));
+                        processName = null;
+                    }
+                    section = text;
+                    if (isProcessSection) {
+                        processName = processMatcher.group("name");
+                        pid = Integer.parseInt(processMatcher.group("pid"));
+                        targetPids.put(pid, processName);
+                        showmapOutput.reset();
+                    }
+                } else if (processName != null) {
+                    line.writeTo(showmapOutput);
+                    showmapOutput.write('\n');
+                } else if (BATCH_OOM_SCORE_SECTION.equals(section)) {
+                    // Sample line: "<pid> <oom_score_adj>"
+                    String[] oomScoreSplit = text.trim().split("\\s+");
+                    if (oomScoreSplit.length == 2) {
+                        try {
+                            oomScores.put(
+                                    Integer.parseInt(oomScoreSplit[0]),
+                                    Integer.parseInt(oomScoreSplit[1]));
+                        } catch (NumberFormatException e) {
+                            // The process exited while the script was running.
+                        }
+                    }
+                } else if (BATCH_PS_SECTION.equals(section)) {
+                    psLines.add(text);
+                }
+            }
+            if (processName != null) {
+                parseResults.add(
+                        submitShowmapOutput(
+                                executor,
+                                summaryParsers,
+                                processName,
+                                pid,
+                                showmapOutput.toByteArray(),
+                                oomScores,
+                                output));
+            }
+            for (Future<?> parseResult : parseResults) {
+                try {
+                    parseResult.get();
+                } catch (ExecutionException e) {
+                    Log.e(TAG, e.getCause().getMessage(), e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while parsing showmap output", e);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        updateChildProcessesDetails(targetPids, psLines, oomScores);
+    }
+
+    /**
+     * Stores the showmap output of one process into the result file and schedules the parsing of
+     * its summary on the given executor.
+     */
+    private Future<?> submitShowmapOutput(
+            ThreadPoolExecutor executor,
+            ThreadLocal<ShowmapSummaryParser> summaryParsers,
+            String processName,
+            int pid,
+            byte[] showmapOutput,
+            Map<Integer, Integer> oomScores,
+            OutputStream output) {
+        storeHeaderToFile(mTestOutputFile, processName, pid, output);
+        storeToFile(mTestOutputFile, showmapOutput, 0, showmapOutput.length, output);
+        storeToFile(mTestOutputFile, NEW_LINE, 0, NEW_LINE.length, output);
+        // Mark the imperceptible process for showmap. The score is unknown if the process
+        // exited before the script dumped it, still collect it in that case.
+        boolean imperceptible =
+                oomScores.getOrDefault(pid, PROCESS_OOM_SCORE_IMPERCEPTIBLE)
+                        > PROCESS_OOM_SCORE_IMPERCEPTIBLE;
+        return executor.submit(
+                () -> {
+                    ShowmapSummaryParser parser = summaryParsers.get();
+                    parser.parse(showmapOutput, 0, showmapOutput.length);
+                    updateMemoryInfo(processName, parser, imperceptible);
+                });
+    }
+
+    /**
+     * Writes the script used for batched collection. The script first dumps the oom_score_adj of
+     * every process and the process list, then runs showmap for every pid of every target process,
+     * prefixing each showmap output with a {@code >>> name (pid) <<<} marker.
+     *
+     * @param zygoteChildrenPids pids which should receive a GC before running showmap
+     */
+    private void writeBatchedShowmapScript(HashSet<Integer> zygoteChildrenPids)
+            throws IOException {
+        StringBuilder script = new StringBuilder();
+        script.append("echo '").append(BATCH_OOM_SCORE_SECTION).append("'\n");
+        script.append("for p in /proc/[0-9]*; do")
+                .append(" echo \"${p#/proc/} $(cat $p/oom_score_adj 2>/dev/null)\"; done\n");
+        script.append("echo '").append(BATCH_PS_SECTION).append("'\n");
+        script.append(ALL_PROCESSES_CMD).append("\n");
+        script.append("for name in");
+        for (String processName : mProcessNames) {
+            script.append(' ').append(quoteShellArgument(processName));
+        }
+        script.append("; do\n");
+        script.append("  for pid in $(pidof \"$name\"); do\n");
+        if (mRunGcPrecollection && !zygoteChildrenPids.isEmpty()) {
+            // Skip native processes from sending GC signal.
+            script.append("    case \" ");
+            for (Integer pid : zygoteChildrenPids) {
+                script.append(pid).append(' ');
+            }
+            script.append("\" in *\" $pid \"*) dumpsys meminfo -a $pid > /dev/null;; esac\n");
+        }
+        script.append("    echo \">>> $name ($pid) <<<\"\n");
+        script.append("    showmap -v $pid\n");
+        script.append("  done\ndone\n");
+
+        File scriptFile = new File(BATCHED_SHOWMAP_FILE_PATH);
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(scriptFile))) {
+            writer.write(script.toString());
+        }
+        scriptFile.setExecutable(true, /*ownersOnly*/ false);
+    }
+
+    /** Quotes {@code argument} for the shell, so that it is passed as a single literal word. */
+    @VisibleForTesting
+    public static String quoteShellArgument(String argument) {
+        return "'" + argument.replace("'", "'\\''") + "'";
+    }
+
     public HashSet<Integer> getZygoteChildrenPids() {
         HashSet<Integer> allZygoteChildren;
         allZygoteChildren = getChildrenPids("zygote");
@@ -361,6 +620,30 @@ public class ShowmapSnapshotHelper implements ICollectorHelper<String> {
         mRunCountThreads = shouldCountThreads;
     }
 
+    /**
+     * Sets option for collecting showmap output of all the processes with a single batched shell
+     * invocation instead of running the per-process commands one at a time.
+     *
+     * @param batchedCollection whether it should collect using the batched shell script
+     */
+    public void setBatchedCollectionOption(boolean batchedCollection) {
+        mBatchedCollection = batchedCollection;
+    }
+
+    /**
+     * Sets the number of threads used to parse showmap output in batched collection mode.
+     *
+     * @param parsingThreads number of parsing threads, must be positive
+     * @return true on success, false if the number of threads is invalid
+     */
+    public boolean setParsingThreads(int parsingThreads) {
+        if (parsingThreads < 1) {
+            return false;
+        }
+        mParsingThreads = parsingThreads;
+        return true;
+    }
+
     /**
      * Set drop cache option.
      *
@@ -416,15 +699,17 @@ public class ShowmapSnapshotHelper implements ICollectorHelper<String> {
     }
 
     /**
-     * Executes showmap command for the process with {@code processName} name and {@code pid} pid.
+     * Executes showmap command for the process with {@code processName} name and {@code pid} pid,
+     * parsing its summary with {@code mSummaryParser} as the output is read.
      *
      * @param processName name of the process to run showmap for
      * @param pid pid of the process to run showmap for
-     * @return the output of showmap command
+     * @param output stream receiving a copy of the showmap command output
      */
-    private String execShowMap(String processName, long pid) throws IOException {
-        try {
-            return mUiDevice.executeShellCommand(String.format(SHOWMAP_CMD, pid));
+    private void execShowMap(String processName, long pid, OutputStream output) {
+        try (InputStream showmapOutput =
+                executeShellCommandStream(String.format(SHOWMAP_CMD, pid))) {
+            mSummaryParser.parse(showmapOutput, output);
         } catch (IOException e) {
             throw new RuntimeException(
                     String.format("Unable to execute showmap command for %s ", processName), e);
@@ -475,65 +760,91 @@ public class ShowmapSnapshotHelper implements ICollectorHelper<String> {
     }
 
     /**
-     * Extract memory metrics from showmap command output for the process with {@code processName}
-     * name.
+     * Accumulates the memory metrics of the showmap summary last parsed by {@code parser} into the
+     * totals of the process with {@code processName} name.
      *
-     * @param processName name of the process to extract memory info for
-     * @param showmapOutput showmap command output
+     * @param processName name of the process to update memory info for
+     * @param parser parser holding the showmap summary of one pid of the process
+     * @param imperceptible whether the pid belongs to an imperceptible process
      */
-    private void parseAndUpdateMemoryInfo(
-            String processName, String showmapOutput, String metricPattern)
+    private void updateMemoryInfo(
+            String processName, ShowmapSummaryParser parser, boolean imperceptible)
             throws RuntimeException {
-        try {
-
-            // -------- -------- -------- -------- -------- -------- -------- -------- ----- ------
-            // ----
-            // virtual shared shared private private
-            // size RSS PSS clean dirty clean dirty swap swapPSS flags object
-            // ------- -------- -------- -------- -------- -------- -------- -------- ------ -----
-            // ----
-            // 10810272 5400 1585 3800 168 264 1168 0 0 TOTAL
-
-            int pos = showmapOutput.lastIndexOf("----");
-            String summarySplit[] = showmapOutput.substring(pos).trim().split("\\s+");
-
-            for (Map.Entry<String, List<Integer>> entry : mMetricNameIndexMap.entrySet()) {
-                Long metricValue = 0L;
-                String metricKey =
-                        constructKey(String.format(metricPattern, entry.getKey()), processName);
-                for (int index = 0; index < entry.getValue().size(); index++) {
-                    metricValue += Long.parseLong(summarySplit[entry.getValue().get(index) + 1]);
+        for (int[] indices : mMetricIndices) {
+            for (int index : indices) {
+                if (!parser.hasColumn(index)) {
+                    throw new RuntimeException(
+                            String.format("Unexpected showmap format for %s ", processName));
                 }
-                // If there are multiple pids associated with the process name then update the
-                // existing entry in the map otherwise add new entry in the map.
-                if (mMemoryMap.containsKey(metricKey)) {
-                    long currValue = Long.parseLong(mMemoryMap.get(metricKey));
-                    mMemoryMap.put(metricKey, Long.toString(currValue + metricValue * 1024));
-                } else {
-                    mMemoryMap.put(metricKey, Long.toString(metricValue * 1024));
+            }
+        }
+        Map<String, long[]> showmapTotals =
+                imperceptible ? mImperceptibleShowmapTotals : mShowmapTotals;
+        // Batched collection parses the summaries of several processes concurrently.
+        synchronized (showmapTotals) {
+            // If there are multiple pids associated with the process name then update the
+            // existing totals otherwise add new totals.
+            long[] totals =
+                    showmapTotals.computeIfAbsent(processName, k -> new long[mMetricNames.length]);
+            for (int metric = 0; metric < mMetricIndices.length; metric++) {
+                for (int index : mMetricIndices[metric]) {
+                    totals[metric] += parser.getColumn(index);
                 }
             }
-        } catch (IndexOutOfBoundsException | InputMismatchException e) {
-            throw new RuntimeException(
-                    String.format("Unexpected showmap format for %s ", processName), e);
         }
     }
 
+    /** Converts the accumulated showmap totals into memory metrics in bytes. */
+    private void updateShowmapMetrics() {
+        updateShowmapMetrics(mShowmapTotals, OUTPUT_METRIC_PATTERN);
+        updateShowmapMetrics(mImperceptibleShowmapTotals, OUTPUT_IMPERCEPTIBLE_METRIC_PATTERN);
+    }
+
+    private void updateShowmapMetrics(Map<String, long[]> showmapTotals, String metricPattern) {
+        for (Map.Entry<String, long[]> entry : showmapTotals.entrySet()) {
+            long[] totals = entry.getValue();
+            for (int metric = 0; metric < totals.length; metric++) {
+                mMemoryMap.put(
+                        constructKey(
+                                String.format(metricPattern, mMetricNames[metric]),
+                                entry.getKey()),
+                        Long.toString(totals[metric] * 1024));
+            }
+        }
+        showmapTotals.clear();
+    }
+
     /**
-     * Store test results for one process into file.
+     * Store the header separating the showmap output of each process into file.
      *
      * @param fileName name of the file being written
      * @param processName name of the process
      * @param pid pid of the process
-     * @param showmapOutput showmap command output
-     * @param writer file writer to write the data
+     * @param output stream to write the data
      */
-    private void storeToFile(String fileName, String processName, long pid, String showmapOutput,
-            FileWriter writer) throws RuntimeException {
+    private void storeHeaderToFile(
+            String fileName, String processName, long pid, OutputStream output)
+            throws RuntimeException {
+        byte[] header =
+                String.format(">>> %s (%d) <<<\n", processName, pid)
+                        .getBytes(StandardCharsets.UTF_8);
+        storeToFile(fileName, header, 0, header.length, output);
+    }
+
+    /**
+     * Store test results for one process into file.
+     *
+     * @param fileName name of the file being written
+     * @param data data to write
+     * @param offset start of the data in the buffer
+     * @param length length of the data
+     * @param output stream to write the data
+     */
+    private void storeToFile(
+            String fileName, byte[] data, int offset, int length, OutputStream output)
+            throws RuntimeException {
         try {
-            writer.write(String.format(">>> %s (%d) <<<\n", processName, pid));
-            writer.write(showmapOutput);
-            writer.write('\n');
+            output.write(data, offset, length);
         } catch (IOException e) {
             throw new RuntimeException(String.format("Unable to write file %s ", fileName), e);
         }
@@ -562,6 +873,15 @@ public class ShowmapSnapshotHelper implements ICollectorHelper<String> {
                 mMetricNameIndexMap.put(metricDetailsSplit[0], indexList);
             }
         }
+        mMetricNames = new String[mMetricNameIndexMap.size()];
+        mMetricIndices = new int[mMetricNameIndexMap.size()][];
+        int metric = 0;
+        for (Map.Entry<String, List<Integer>> entry : mMetricNameIndexMap.entrySet()) {
+            mMetricNames[metric] = entry.getKey();
+            mMetricIndices[metric] =
+                    entry.getValue().stream().mapToInt(Integer::intValue).toArray();
+            metric++;
+        }
         Log.i(TAG, String.format("Metric Name index map size %s", mMetricNameIndexMap.size()));
     }
 
@@ -654,6 +974,63 @@ public class ShowmapSnapshotHelper implements ICollectorHelper<String> {
         }
     }
 
+    /**
+     * Updates the child process metrics for all the collected pids from a single process list
+     * dump instead of running one command per pid.
+     *
+     * @param targetPids collected pids and the process names they are associated with
+     * @param psLines output lines of the process list command, including the header
+     * @param oomScores oom_score_adj of the running processes
+     */
+    private void updateChildProcessesDetails(
+            Map<Integer, String> targetPids,
+            List<String> psLines,
+            Map<Integer, Integer> oomScores) {
+        Map<String, Integer> childProcessCounts = new HashMap<>();
+        for (String line : psLines) {
+            // Sample process detail line
+            // system 603 1 41532 5396 SyS_epoll+ 0 S servicemanager
+            String[] childProcessSplit = line.trim().split("\\s+");
+            if (childProcessSplit.length < 9) {
+                continue;
+            }
+            int childPid;
+            int parentPid;
+            try {
+                childPid = Integer.parseInt(childProcessSplit[1]);
+                parentPid = Integer.parseInt(childProcessSplit[2]);
+            } catch (NumberFormatException e) {
+                // Skip the header line in the command output.
+                continue;
+            }
+            String processName = targetPids.get(parentPid);
+            if (processName == null) {
+                continue;
+            }
+            String childProcessName = childProcessSplit[8];
+            // Skip the logcat and sh processes in child process count
+            if (SKIP_PROCESS.contains(childProcessName)
+                    || oomScores.getOrDefault(childPid, PROCESS_OOM_SCORE_CACHED)
+                            > PROCESS_OOM_SCORE_CACHED) {
+                continue;
+            }
+            childProcessCounts.merge(processName, 1, Integer::sum);
+            mMemoryMap.put(
+                    String.join(
+                            METRIC_VALUE_SEPARATOR,
+                            PARENT_PROCESS_STRING,
+                            processName,
+                            CHILD_PROCESS_STRING,
+                            childProcessName),
+                    "1");
+        }
+        for (Map.Entry<String, Integer> childProcessCount : childProcessCounts.entrySet()) {
+            mMemoryMap.put(
+                    String.format(OUTPUT_CHILD_PROCESS_COUNT_KEY, childProcessCount.getKey()),
+                    Integer.toString(childProcessCount.getValue()));
+        }
+    }
+
     /**
      * Enables memory collection for all processes.
      */
@@ -695,6 +1072,15 @@ public class ShowmapSnapshotHelper implements ICollectorHelper<String> {
         return allProcessNames.toArray(new String[0]);
     }
 
+    /* Execute a shell command and return a stream over its output. */
+    @VisibleForTesting
+    public InputStream executeShellCommandStream(String command) {
+        return new ParcelFileDescriptor.AutoCloseInputStream(
+                InstrumentationRegistry.getInstrumentation()
+                        .getUiAutomation()
+                        .executeShellCommand(command));
+    }
+
     /* Execute a shell command and return its output. */
     @VisibleForTesting
     public String executeShellCommand(String command) throws IOException {
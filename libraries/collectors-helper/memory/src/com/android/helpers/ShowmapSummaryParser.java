@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.helpers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Streaming parser for the summary section of the showmap output.
+ *
+ * <p>The summary is made of the whitespace separated columns which follow the last "----"
+ * separator of the output:
+ *
+ * <pre>
+ * -------- -------- -------- -------- -------- -------- -------- -------- ----- ------ ----
+ *  virtual                     shared   shared  private  private
+ *     size      RSS      PSS    clean    dirty    clean    dirty     swap  swapPSS flags object
+ * -------- -------- -------- -------- -------- -------- -------- -------- ----- ------ ----
+ * ...
+ * -------- -------- -------- -------- -------- -------- -------- -------- ----- ------ ----
+ * 10810272     5400     1585     3800      168      264     1168        0        0      TOTAL
+ * </pre>
+ *
+ * <p>The parser works directly on the bytes of the output and keeps the column values as
+ * primitives, so no intermediate strings are created. An instance is not thread-safe but can be
+ * reused for any number of outputs.
+ */
+public class ShowmapSummaryParser {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_COLUMNS = 32;
+    private static final int SEPARATOR_LENGTH = 4;
+
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private final long[] mColumns = new long[MAX_COLUMNS];
+    private final boolean[] mNumericColumns = new boolean[MAX_COLUMNS];
+    private int mColumnCount;
+    private boolean mSeparatorSeen;
+
+    // Tokenizer state for the token currently being read.
+    private boolean mInToken;
+    private boolean mSeparatorToken;
+    private boolean mNumericToken;
+    private long mTokenValue;
+    private int mDashCount;
+
+    /**
+     * Parses the showmap output read from {@code input} until the end of the stream.
+     *
+     * @param input showmap output
+     * @param copy optional stream receiving a copy of all the bytes read, may be null
+     */
+    public void parse(InputStream input, OutputStream copy) throws IOException {
+        reset();
+        int length;
+        while ((length = input.read(mBuffer)) >= 0) {
+            if (copy != null) {
+                copy.write(mBuffer, 0, length);
+            }
+            accept(mBuffer, 0, length);
+        }
+        endToken();
+    }
+
+    /**
+     * Parses the showmap output held in {@code output}.
+     *
+     * @param output buffer holding the showmap output
+     * @param offset start of the showmap output in the buffer
+     * @param length length of the showmap output
+     */
+    public void parse(byte[] output, int offset, int length) {
+        reset();
+        accept(output, offset, length);
+        endToken();
+    }
+
+    /**
+     * Returns true if the summary of the last parsed output has a numeric value at {@code index}.
+     *
+     * @param index zero based index of the column in the summary
+     */
+    public boolean hasColumn(int index) {
+        return mSeparatorSeen && index >= 0 && index < mColumnCount && mNumericColumns[index];
+    }
+
+    /**
+     * Returns the value of the column at {@code index} in the summary of the last parsed output.
+     *
+     * @param index zero based index of the column in the summary
+     * @throws IllegalStateException if the summary does not have a numeric value at {@code index}
+     */
+    public long getColumn(int index) {
+        if (!hasColumn(index)) {
+            throw new IllegalStateException(
+                    String.format("No value at index %d of the showmap summary", index));
+        }
+        return mColumns[index];
+    }
+
+    private void reset() {
+        mColumnCount = 0;
+        mSeparatorSeen = false;
+        mInToken = false;
+    }
+
+    private void accept(byte[] buffer, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            byte c = buffer[i];
+            if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                endToken();
+                continue;
+            }
+            if (!mInToken) {
+                mInToken = true;
+                mSeparatorToken = false;
+                mNumericToken = true;
+                mTokenValue = 0;
+                mDashCount = 0;
+            }
+            if (c == '-') {
+                mNumericToken = false;
+                if (++mDashCount >= SEPARATOR_LENGTH) {
+                    // Only the columns after the last separator make up the summary.
+                    mSeparatorSeen = true;
+                    mSeparatorToken = true;
+                    mColumnCount = 0;
+                }
+            } else {
+                mDashCount = 0;
+                if (c >= '0' && c <= '9') {
+                    mTokenValue = mTokenValue * 10 + (c - '0');
+                } else {
+                    mNumericToken = false;
+                }
+            }
+        }
+    }
+
+    private void endToken() {
+        if (!mInToken) {
+            return;
+        }
+        mInToken = false;
+        if (mSeparatorToken || !mSeparatorSeen || mColumnCount >= MAX_COLUMNS) {
+            return;
+        }
+        mColumns[mColumnCount] = mTokenValue;
+        mNumericColumns[mColumnCount] = mNumericToken;
+        mColumnCount++;
+    }
+}
@@ -18,6 +18,7 @@ package com.android.helpers.tests;
 
 import static com.android.helpers.MetricUtility.constructKey;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -41,7 +42,9 @@ import org.junit.runner.RunWith;
 import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -258,6 +261,88 @@ public class ShowmapSnapshotHelperTest {
         assertTrue(metrics.containsKey(ShowmapSnapshotHelper.OUTPUT_FILE_PATH_KEY));
     }
 
+    /** Test batched collection for all processes returns more than 2 processes metrics. */
+    @Test
+    public void testGetMetrics_Batched_AllProcess() {
+        mShowmapSnapshotHelper.setUp(VALID_OUTPUT_DIR, NO_PROCESS_LIST);
+        mShowmapSnapshotHelper.setMetricNameIndex(METRIC_INDEX_STR);
+        mShowmapSnapshotHelper.setAllProcesses();
+        mShowmapSnapshotHelper.setBatchedCollectionOption(true);
+        assertTrue(mShowmapSnapshotHelper.startCollecting());
+        Map<String, String> metrics = mShowmapSnapshotHelper.getMetrics();
+        assertTrue(metrics.size() > 2);
+        assertTrue(metrics.containsKey(ShowmapSnapshotHelper.OUTPUT_FILE_PATH_KEY));
+        assertTrue(metrics.containsKey(ShowmapSnapshotHelper.COLLECTION_TIME_KEY));
+        assertTrue(metrics.containsKey(ShowmapSnapshotHelper.CHILD_PROCESS_COUNT_PREFIX + "_init"));
+    }
+
+    /** Test batched collection output is split per process and summed across pids. */
+    @Test
+    public void testGetMetrics_Batched_ParsesScriptOutput() {
+        String summary =
+                "-------- -------- -------- -------- -------- -------- -------- -------- ----\n"
+                        + "10810272 5400 1585 3800 168 264 1168 0 0 TOTAL\n";
+        String batchOutput =
+                ">>> oom_score_adj <<<\n"
+                        + "100 0\n"
+                        + "200 0\n"
+                        + "300 900\n"
+                        + ">>> ps <<<\n"
+                        + "USER PID PPID VSZ RSS WCHAN ADDR S NAME\n"
+                        + "system 100 1 41532 5396 SyS_epoll+ 0 S system_server\n"
+                        + "system 200 1 41532 5396 SyS_epoll+ 0 S com.android.systemui\n"
+                        + "system 201 200 41532 5396 SyS_epoll+ 0 S child\n"
+                        + "system 202 200 41532 5396 SyS_epoll+ 0 S logcat\n"
+                        + "system 300 1 41532 5396 SyS_epoll+ 0 S system_server\n"
+                        + ">>> system_server (100) <<<\n"
+                        + summary
+                        + ">>> com.android.systemui (200) <<<\n"
+                        + summary
+                        + ">>> system_server (300) <<<\n"
+                        + summary;
+        doReturn(new ByteArrayInputStream(batchOutput.getBytes(StandardCharsets.UTF_8)))
+                .when(mShowmapSnapshotHelper)
+                .executeShellCommandStream(ShowmapSnapshotHelper.BATCHED_SHOWMAP_CMD);
+        mShowmapSnapshotHelper.setUp(VALID_OUTPUT_DIR, TWO_PROCESS_LIST);
+        mShowmapSnapshotHelper.setMetricNameIndex(METRIC_INDEX_STR);
+        mShowmapSnapshotHelper.setBatchedCollectionOption(true);
+        assertTrue(mShowmapSnapshotHelper.startCollecting());
+        Map<String, String> metrics = mShowmapSnapshotHelper.getMetrics();
+        assertEquals(
+                Long.toString(5400 * 1024),
+                metrics.get(
+                        constructKey(
+                                String.format(ShowmapSnapshotHelper.OUTPUT_METRIC_PATTERN, "rss"),
+                                "system_server")));
+        assertEquals(
+                Long.toString(5400 * 1024),
+                metrics.get(
+                        constructKey(
+                                String.format(
+                                        ShowmapSnapshotHelper.OUTPUT_IMPERCEPTIBLE_METRIC_PATTERN,
+                                        "rss"),
+                                "system_server")));
+        assertEquals(
+                Long.toString(1585 * 1024),
+                metrics.get(
+                        constructKey(
+                                String.format(ShowmapSnapshotHelper.OUTPUT_METRIC_PATTERN, "pss"),
+                                "com.android.systemui")));
+        assertEquals(
+                "1",
+                metrics.get(
+                        ShowmapSnapshotHelper.CHILD_PROCESS_COUNT_PREFIX
+                                + "_com.android.systemui"));
+        assertTrue(metrics.containsKey(ShowmapSnapshotHelper.COLLECTION_TIME_KEY));
+    }
+
+    @Test
+    public void testQuoteShellArgument() {
+        assertEquals("'system_server'", ShowmapSnapshotHelper.quoteShellArgument("system_server"));
+        assertEquals(
+                "'it'\\''s $(reboot)'", ShowmapSnapshotHelper.quoteShellArgument("it's $(reboot)"));
+    }
+
     @Test
     public void testGetMetrics_Invalid_Metric_Pattern() {
         mShowmapSnapshotHelper.setUp(VALID_OUTPUT_DIR, NO_PROCESS_LIST);
@@ -364,6 +449,7 @@ public class ShowmapSnapshotHelperTest {
         for (String key : metrics.keySet()) {
             if (!(key.equals(ShowmapSnapshotHelper.PROCESS_COUNT)
                     || key.equals(ShowmapSnapshotHelper.OUTPUT_FILE_PATH_KEY)
+                    || key.equals(ShowmapSnapshotHelper.COLLECTION_TIME_KEY)
                     || key.equals(ShowmapSnapshotHelper.PROCESS_WITH_CHILD_PROCESS_COUNT)
                     || key.startsWith(ShowmapSnapshotHelper.CHILD_PROCESS_COUNT_PREFIX)
                     || key.startsWith(ShowmapSnapshotHelper.PARENT_PROCESS_STRING))) {
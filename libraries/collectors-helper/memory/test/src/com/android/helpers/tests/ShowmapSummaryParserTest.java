@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.helpers.tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.helpers.ShowmapSummaryParser;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Android Unit tests for {@link ShowmapSummaryParser}.
+ *
+ * <p>To run: atest CollectorsHelperAospTest:ShowmapSummaryParserTest
+ */
+@RunWith(AndroidJUnit4.class)
+public class ShowmapSummaryParserTest {
+    private static final String SHOWMAP_OUTPUT =
+            "-------- -------- -------- -------- -------- -------- -------- ----\n"
+                    + " virtual                     shared   shared  private  private\n"
+                    + "    size      RSS      PSS    clean    dirty    clean    dirty     swap"
+                    + "  swapPSS flags object\n"
+                    + "-------- -------- -------- -------- -------- -------- -------- ----\n"
+                    + "    4096     4096      512     3584        0        0        0        0"
+                    + "        0 r--   /system/lib64/libc.so\n"
+                    + "-------- -------- -------- -------- -------- -------- -------- ----\n"
+                    + "10810272     5400     1585     3800      168      264     1168        0"
+                    + "        0       TOTAL\n";
+
+    private ShowmapSummaryParser mParser;
+
+    @Before
+    public void setUp() {
+        mParser = new ShowmapSummaryParser();
+    }
+
+    /** Test the summary columns are the ones after the last separator. */
+    @Test
+    public void testParseSummary() {
+        byte[] output = SHOWMAP_OUTPUT.getBytes(StandardCharsets.UTF_8);
+        mParser.parse(output, 0, output.length);
+        assertEquals(10810272, mParser.getColumn(0));
+        assertEquals(5400, mParser.getColumn(1));
+        assertEquals(1585, mParser.getColumn(2));
+        assertEquals(1168, mParser.getColumn(6));
+        assertEquals(0, mParser.getColumn(7));
+        // The "TOTAL" label is not a numeric column.
+        assertFalse(mParser.hasColumn(9));
+        assertFalse(mParser.hasColumn(10));
+    }
+
+    /** Test parsing from a stream copies the output and the parser can be reused. */
+    @Test
+    public void testParseStream() throws IOException {
+        ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        byte[] output = SHOWMAP_OUTPUT.getBytes(StandardCharsets.UTF_8);
+        mParser.parse(new ByteArrayInputStream(output), copy);
+        assertArrayEquals(output, copy.toByteArray());
+        assertEquals(5400, mParser.getColumn(1));
+
+        byte[] other = "----\n1 2 3\n".getBytes(StandardCharsets.UTF_8);
+        mParser.parse(new ByteArrayInputStream(other), null);
+        assertEquals(2, mParser.getColumn(1));
+        assertFalse(mParser.hasColumn(3));
+    }
+
+    /** Test output without any separator has no summary. */
+    @Test
+    public void testParseNoSeparator() {
+        byte[] output = "error: unable to open /proc/1/smaps\n".getBytes(StandardCharsets.UTF_8);
+        mParser.parse(output, 0, output.length);
+        assertFalse(mParser.hasColumn(0));
+    }
+}
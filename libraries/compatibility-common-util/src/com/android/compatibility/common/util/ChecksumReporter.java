@@ -24,6 +24,8 @@ import com.google.common.hash.Funnels;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -35,11 +37,21 @@ import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.regex.Pattern;
 
 /***
  * Calculate and store checksum values for files and test results
@@ -48,6 +60,7 @@ public final class ChecksumReporter implements Serializable {
 
     public static final String NAME = "checksum.data";
     public static final String PREV_NAME = "checksum.previous.data";
+    public static final String DIGESTS_NAME = "checksum.digests";
 
     private static final double DEFAULT_FPP = 0.05;
     private static final String SEPARATOR = "/";
@@ -57,11 +70,23 @@ public final class ChecksumReporter implements Serializable {
     private static final short CURRENT_VERSION = 1;
     // Serialized format Id (ie magic number) used to identify serialized data.
     static final short SERIALIZED_FORMAT_CODE = 650;
+    // Format Id of the file digests saved next to the checksum data.
+    private static final short DIGESTS_FORMAT_CODE = 651;
+    // A file modified this close to its hashing may have changed again within the same time.
+    private static final long MODIFICATION_TIME_MARGIN_MS = 2000;
+
+    private static final Pattern LINE_ENDINGS = Pattern.compile("\\r?\\n|\\r");
+    private static final int HASH_BUFFER_SIZE = 1024 * 1024;
 
     private final BloomFilter<CharSequence> mResultChecksum;
     private final HashMap<String, byte[]> mFileChecksum;
     private final short mVersion;
 
+    /** Digests loaded from the previous checksums, by path relative to the result directory. */
+    private final Map<String, FileDigest> mPreviousDigests = new HashMap<>();
+    /** Digests of the files added by addDirectory, by path relative to the added directory. */
+    private final Map<String, FileDigest> mDigests = new ConcurrentHashMap<>();
+
     /***
      * Calculate checksum of test results and files in result directory and write to disk
      * @param dir test results directory
@@ -74,8 +99,15 @@ public final class ChecksumReporter implements Serializable {
             ChecksumReporter checksumReporter =
                     new ChecksumReporter(totalCount, DEFAULT_FPP, CURRENT_VERSION);
             checksumReporter.addInvocation(result);
+            // Files left unchanged since the previous checksum, or copied from the retried
+            // results with their modification time, are not hashed again.
+            checksumReporter.loadDigests(dir);
+            if (result.getRetryDirectory() != null) {
+                checksumReporter.loadDigests(result.getRetryDirectory());
+            }
             checksumReporter.addDirectory(dir);
             checksumReporter.saveToFile(dir);
+            checksumReporter.saveDigests(dir);
         } catch (Exception e) {
             return false;
         }
@@ -141,15 +173,18 @@ public final class ChecksumReporter implements Serializable {
      * Add each test result from each module and test case
      */
     public void addInvocation(IInvocationResult invocationResult) {
-        for (IModuleResult module : invocationResult.getModules()) {
-            String buildFingerprint = invocationResult.getBuildFingerprint();
-            addModuleResult(module, buildFingerprint);
-            for (ICaseResult caseResult : module.getResults()) {
-                for (ITestResult testResult : caseResult.getResults()) {
-                    addTestResult(testResult, module, buildFingerprint);
-                }
-            }
-        }
+        String buildFingerprint = invocationResult.getBuildFingerprint();
+        // The modules are added in parallel since the bloom filter is thread-safe.
+        invocationResult.getModules().parallelStream()
+                .forEach(
+                        module -> {
+                            addModuleResult(module, buildFingerprint);
+                            for (ICaseResult caseResult : module.getResults()) {
+                                for (ITestResult testResult : caseResult.getResults()) {
+                                    addTestResult(testResult, module, buildFingerprint);
+                                }
+                            }
+                        });
     }
 
     /***
@@ -184,24 +219,156 @@ public final class ChecksumReporter implements Serializable {
     }
 
     /***
-     * Adds all child files recursively through all sub directories
+     * Adds all child files recursively through all sub directories, hashing them in parallel.
+     * The files unchanged since the digests loaded by loadDigests are not hashed again.
      * @param directory target that is deeply searched for files
      */
     public void addDirectory(File directory) {
-        addDirectory(directory, directory.getName());
+        Map<String, byte[]> fileChecksum = new ConcurrentHashMap<>();
+        ForkJoinPool.commonPool()
+                .invoke(new HashTask(this, directory, directory.getName(), "", fileChecksum));
+        mFileChecksum.putAll(fileChecksum);
+    }
+
+    /***
+     * Loads the file digests saved by saveDigests in a result directory, keeping the ones already
+     * loaded for the same paths. Missing or invalid digests are ignored.
+     * @param directory the result directory containing the digests file
+     */
+    public void loadDigests(File directory) {
+        File file = new File(directory, DIGESTS_NAME);
+        if (!file.isFile()) {
+            return;
+        }
+        Map<String, FileDigest> digests = new HashMap<>();
+        try (DataInputStream input =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (input.readShort() != DIGESTS_FORMAT_CODE) {
+                return;
+            }
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = input.readUTF();
+                long size = input.readLong();
+                long lastModified = input.readLong();
+                long hashTime = input.readLong();
+                byte[] digest = new byte[input.readUnsignedByte()];
+                input.readFully(digest);
+                digests.put(path, new FileDigest(size, lastModified, hashTime, digest));
+            }
+        } catch (IOException e) {
+            return;
+        }
+        for (Map.Entry<String, FileDigest> entry : digests.entrySet()) {
+            mPreviousDigests.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /***
+     * Writes the digests of the files added by addDirectory to disk, for loadDigests.
+     * Overwrites existing file
+     * @param directory
+     * @throws IOException
+     */
+    public void saveDigests(File directory) throws IOException {
+        File file = new File(directory, DIGESTS_NAME);
+        try (DataOutputStream output =
+                new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(file, false)))) {
+            output.writeShort(DIGESTS_FORMAT_CODE);
+            output.writeInt(mDigests.size());
+            for (Map.Entry<String, FileDigest> entry : mDigests.entrySet()) {
+                FileDigest digest = entry.getValue();
+                output.writeUTF(entry.getKey());
+                output.writeLong(digest.mSize);
+                output.writeLong(digest.mLastModified);
+                output.writeLong(digest.mHashTime);
+                output.writeByte(digest.mDigest.length);
+                output.write(digest.mDigest);
+            }
+        }
+    }
+
+    /** The digest of a file, with the size and modification time it was computed for. */
+    private static class FileDigest {
+        final long mSize;
+        final long mLastModified;
+        final long mHashTime;
+        final byte[] mDigest;
+
+        FileDigest(long size, long lastModified, long hashTime, byte[] digest) {
+            mSize = size;
+            mLastModified = lastModified;
+            mHashTime = hashTime;
+            mDigest = digest;
+        }
+
+        /** Returns whether the file can't have changed since it was hashed. */
+        boolean isUnchanged(long size, long lastModified) {
+            return size == mSize
+                    && lastModified == mLastModified
+                    && lastModified < mHashTime - MODIFICATION_TIME_MARGIN_MS;
+        }
     }
 
     /***
-     * @param path the relative path to the current directory from the base directory
+     * Hashes a file, or the files of a directory in parallel, to the same keys as addFile
      */
-    private void addDirectory(File directory, String path) {
-        for(String childName : directory.list()) {
-            File child = new File(directory, childName);
-            if (child.isDirectory()) {
-                addDirectory(child, path + SEPARATOR + child.getName());
-            } else {
-                addFile(child, path);
+    private static class HashTask extends RecursiveAction {
+        private final ChecksumReporter mReporter;
+        private final File mFile;
+        private final String mPath;
+        private final String mRelativePath;
+        private final Map<String, byte[]> mFileChecksum;
+
+        /***
+         * @param path the relative path to the parent directory from the base directory, or of
+         *     the base directory itself
+         * @param relativePath the path of the file relative to the base directory, empty for the
+         *     base directory itself
+         */
+        HashTask(
+                ChecksumReporter reporter,
+                File file,
+                String path,
+                String relativePath,
+                Map<String, byte[]> fileChecksum) {
+            mReporter = reporter;
+            mFile = file;
+            mPath = path;
+            mRelativePath = relativePath;
+            mFileChecksum = fileChecksum;
+        }
+
+        @Override
+        protected void compute() {
+            if (!mFile.isDirectory()) {
+                byte[] crc;
+                try {
+                    crc = mReporter.calculateFileChecksum(mFile, mRelativePath);
+                } catch (ChecksumValidationException e) {
+                    crc = new byte[0];
+                }
+                mFileChecksum.put(mPath + SEPARATOR + mFile.getName(), crc);
+                return;
+            }
+            String[] childNames = mFile.list();
+            if (childNames == null) {
+                return;
+            }
+            List<HashTask> tasks = new ArrayList<>(childNames.length);
+            for (String childName : childNames) {
+                if (mRelativePath.isEmpty() && childName.equals(DIGESTS_NAME)) {
+                    // Rewritten after the checksum, like the checksum data itself.
+                    continue;
+                }
+                File child = new File(mFile, childName);
+                String path = child.isDirectory() ? mPath + SEPARATOR + child.getName() : mPath;
+                String relativePath =
+                        mRelativePath.isEmpty() ? childName : mRelativePath + SEPARATOR + childName;
+                tasks.add(new HashTask(mReporter, child, path, relativePath, mFileChecksum));
             }
+            invokeAll(tasks);
         }
     }
 
@@ -278,7 +445,7 @@ public final class ChecksumReporter implements Serializable {
         stacktrace = stacktrace == null ? "" : stacktrace.trim();
         // Line endings for stacktraces are somewhat unpredictable and there is no need to
         // actually read the result they are all removed for consistency.
-        stacktrace = stacktrace.replaceAll("\\r?\\n|\\r", "");
+        stacktrace = LINE_ENDINGS.matcher(stacktrace).replaceAll("");
         sb.append(buildFingerprint).append(SEPARATOR)
                 .append(module.getId()).append(SEPARATOR)
                 .append(testResult.getFullName()).append(SEPARATOR)
@@ -299,7 +466,7 @@ public final class ChecksumReporter implements Serializable {
         stacktrace = stacktrace == null ? "" : stacktrace.trim();
         // Line endings for stacktraces are somewhat unpredictable and there is no need to
         // actually read the result they are all removed for consistency.
-        stacktrace = stacktrace.replaceAll("\\r?\\n|\\r", "");
+        stacktrace = LINE_ENDINGS.matcher(stacktrace).replaceAll("");
         sb.append(buildFingerprint)
                 .append(SEPARATOR)
                 .append(packageName)
@@ -344,16 +511,33 @@ public final class ChecksumReporter implements Serializable {
         return sb.toString();
     }
 
-    static byte[] calculateFileChecksum(File file) throws ChecksumValidationException {
+    /**
+     * Returns the checksum of a file added by addDirectory, reusing the loaded digest of the file
+     * if it is unchanged, and keeps it for saveDigests.
+     */
+    private byte[] calculateFileChecksum(File file, String relativePath)
+            throws ChecksumValidationException {
+        // Read the size and time first, so that a change while hashing is detected next time.
+        long size = file.length();
+        long lastModified = file.lastModified();
+        FileDigest digest = mPreviousDigests.get(relativePath);
+        if (digest == null || !digest.isUnchanged(size, lastModified)) {
+            long hashTime = System.currentTimeMillis();
+            digest = new FileDigest(size, lastModified, hashTime, calculateFileChecksum(file));
+        }
+        mDigests.put(relativePath, digest);
+        return digest.mDigest.clone();
+    }
 
-        try (FileInputStream fis = new FileInputStream(file);
-             InputStream inputStream = new BufferedInputStream(fis)) {
+    static byte[] calculateFileChecksum(File file) throws ChecksumValidationException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
             MessageDigest hashSum = MessageDigest.getInstance("SHA-256");
-            int cnt;
-            int bufferSize = 8192;
-            byte [] buffer = new byte[bufferSize];
-            while ((cnt = inputStream.read(buffer)) != -1) {
-                hashSum.update(buffer, 0, cnt);
+            ByteBuffer buffer =
+                    ByteBuffer.allocate((int) Math.min(HASH_BUFFER_SIZE, channel.size() + 1));
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                hashSum.update(buffer);
+                buffer.clear();
             }
 
             byte[] partialHash = new byte[32];
@@ -22,13 +22,17 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -63,6 +67,12 @@ public class CrashUtils {
     // Matches the smallest blob that has the appropriate header and footer
     private static final Pattern sCrashBlobPattern =
             Pattern.compile("DEBUG\\s+?:( [*]{3})+?.*?DEBUG\\s+?:\\s+?backtrace:", Pattern.DOTALL);
+    // Tag of the crash blob lines
+    private static final String CRASH_TAG = "DEBUG";
+    // Matches the header and the footer of a crash blob within a line
+    private static final Pattern sCrashHeaderPattern = Pattern.compile("DEBUG\\s+?:( [*]{3})+?");
+    private static final Pattern sCrashFooterPattern =
+            Pattern.compile("DEBUG\\s+?:\\s+?backtrace:");
     // Matches process id and name line and captures them
     private static final Pattern sPidtidNamePattern =
             Pattern.compile("pid: (\\d+?), tid: (\\d+?), name: ([^\\s]+?\\s+?)*?>>> (.*?) <<<");
@@ -228,46 +238,8 @@ public class CrashUtils {
     public static JSONArray addAllCrashes(String input, JSONArray crashes) {
         Matcher crashBlobFinder = sCrashBlobPattern.matcher(input);
         while (crashBlobFinder.find()) {
-            String crashStr = crashBlobFinder.group(0);
-            int tid = 0;
-            int pid = 0;
-            BigInteger faultAddress = null;
-            String name = null;
-            String process = null;
-            String signal = null;
-            String abortMessage = null;
-            List<BacktraceFrameInfo> backtraceFrames = new ArrayList<BacktraceFrameInfo>();
-
-            Matcher pidtidNameMatcher = sPidtidNamePattern.matcher(crashStr);
-            if (pidtidNameMatcher.find()) {
-                try {
-                    pid = Integer.parseInt(pidtidNameMatcher.group(1));
-                } catch (NumberFormatException e) {
-                }
-                try {
-                    tid = Integer.parseInt(pidtidNameMatcher.group(2));
-                } catch (NumberFormatException e) {
-                }
-                name = pidtidNameMatcher.group(3).trim();
-                process = pidtidNameMatcher.group(4).trim();
-            }
-
-            Matcher faultLineMatcher = sFaultLinePattern.matcher(crashStr);
-            if (faultLineMatcher.find()) {
-                signal = faultLineMatcher.group(1);
-                String faultAddrMatch = faultLineMatcher.group(2);
-                if (faultAddrMatch != null) {
-                    try {
-                        faultAddress = new BigInteger(faultAddrMatch, 16);
-                    } catch (NumberFormatException e) {
-                    }
-                }
-            }
-
-            Matcher abortMessageMatcher = sAbortMessagePattern.matcher(crashStr);
-            if (abortMessageMatcher.find()) {
-                abortMessage = abortMessageMatcher.group(1);
-            }
+            CrashBuilder crash = new CrashBuilder();
+            crash.parseBlob(crashBlobFinder.group(0));
 
             // Continue on after the crash block to find all the stacktrace entries.
             // The format is from tombstone_proto_to_text.cpp's print_thread_backtrace()
@@ -281,55 +253,204 @@ public class CrashUtils {
                 if (firstEndline == -1 || secondEndline == -1) break;
 
                 String nextLine = input.substring(firstEndline + 1, secondEndline);
+                if (!crash.parseBacktraceLine(nextLine)) {
+                    break;
+                }
+            }
 
-                Matcher backtraceNoteMatcher = sBacktraceNotePattern.matcher(nextLine);
-                if (backtraceNoteMatcher.matches()) {
+            try {
+                crashes.put(crash.build());
+            } catch (JSONException e) {}
+        }
+        return crashes;
+    }
+
+    /**
+     * Adds all crashes found in the input as JSONObjects to the given JSONArray, reading the input
+     * line by line instead of as a whole.
+     *
+     * @see #scanCrashes(Reader, Consumer)
+     */
+    public static JSONArray addAllCrashes(Reader input, JSONArray crashes) throws IOException {
+        scanCrashes(input, crashes::put);
+        return crashes;
+    }
+
+    /**
+     * Reads the input line by line and passes each crash found to the consumer as soon as its
+     * backtrace ends, producing the same JSONObjects as {@link #addAllCrashes(String, JSONArray)}.
+     * Only the crash being parsed is kept in memory, so that logcats of any size can be scanned.
+     *
+     * <p>The crash fields are matched line by line, so fields split across lines are not found.
+     *
+     * @param input the logcat to scan, which is not closed
+     * @param consumer receives the crashes in the order of the logcat
+     */
+    public static void scanCrashes(Reader input, Consumer<JSONObject> consumer)
+            throws IOException {
+        BufferedReader reader =
+                input instanceof BufferedReader
+                        ? (BufferedReader) input
+                        : new BufferedReader(input);
+        CrashBuilder crash = null;
+        // Whether the crash blob ended and the backtrace frames are being parsed.
+        boolean inBacktrace = false;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (inBacktrace) {
+                if (crash.parseBacktraceLine(line)) {
                     continue;
                 }
+                emitCrash(crash, consumer);
+                crash = null;
+                inBacktrace = false;
+            }
+            int blobStart = 0;
+            int footerStart = 0;
+            if (crash == null) {
+                // Most lines are not crashes, skip them before running the regular expression.
+                if (!line.contains(CRASH_TAG)) {
+                    continue;
+                }
+                Matcher headerMatcher = sCrashHeaderPattern.matcher(line);
+                if (!headerMatcher.find()) {
+                    continue;
+                }
+                crash = new CrashBuilder();
+                blobStart = headerMatcher.start();
+                footerStart = headerMatcher.end();
+            }
+            Matcher footerMatcher = sCrashFooterPattern.matcher(line);
+            if (footerMatcher.find(footerStart)) {
+                crash.parseBlob(line.substring(blobStart, footerMatcher.end()));
+                inBacktrace = true;
+            } else {
+                crash.parseBlob(line.substring(blobStart));
+            }
+        }
+        // A crash blob without footer is not a crash, as for the regular expression.
+        if (inBacktrace) {
+            emitCrash(crash, consumer);
+        }
+    }
 
-                Matcher backtraceFrameWithBuildIdMatcher =
-                        sBacktraceFrameWithBuildIdPattern.matcher(nextLine);
-                Matcher backtraceFrameWithoutBuildIdMatcher =
-                        sBacktraceFrameWithoutBuildIdPattern.matcher(nextLine);
+    private static void emitCrash(CrashBuilder crash, Consumer<JSONObject> consumer) {
+        try {
+            consumer.accept(crash.build());
+        } catch (JSONException e) {}
+    }
 
-                Matcher backtraceFrameMatcher = null;
-                if (backtraceFrameWithBuildIdMatcher.matches()) {
-                    backtraceFrameMatcher = backtraceFrameWithBuildIdMatcher;
+    /** Accumulates the fields of a crash from its blob and the following backtrace lines. */
+    private static class CrashBuilder {
+        private int tid = 0;
+        private int pid = 0;
+        private BigInteger faultAddress = null;
+        private String name = null;
+        private String process = null;
+        private String signal = null;
+        private String abortMessage = null;
+        private boolean foundPidTidName = false;
+        private boolean foundFaultLine = false;
+        private boolean foundAbortMessage = false;
+        private final List<BacktraceFrameInfo> backtraceFrames =
+                new ArrayList<BacktraceFrameInfo>();
+
+        /** Parses the first occurrence of each field in the whole blob or part of it. */
+        void parseBlob(String crashStr) {
+            if (!foundPidTidName) {
+                Matcher pidtidNameMatcher = sPidtidNamePattern.matcher(crashStr);
+                if (pidtidNameMatcher.find()) {
+                    foundPidTidName = true;
+                    try {
+                        pid = Integer.parseInt(pidtidNameMatcher.group(1));
+                    } catch (NumberFormatException e) {
+                    }
+                    try {
+                        tid = Integer.parseInt(pidtidNameMatcher.group(2));
+                    } catch (NumberFormatException e) {
+                    }
+                    name = pidtidNameMatcher.group(3).trim();
+                    process = pidtidNameMatcher.group(4).trim();
+                }
+            }
 
-                } else if (backtraceFrameWithoutBuildIdMatcher.matches()) {
-                    backtraceFrameMatcher = backtraceFrameWithoutBuildIdMatcher;
+            if (!foundFaultLine) {
+                Matcher faultLineMatcher = sFaultLinePattern.matcher(crashStr);
+                if (faultLineMatcher.find()) {
+                    foundFaultLine = true;
+                    signal = faultLineMatcher.group(1);
+                    String faultAddrMatch = faultLineMatcher.group(2);
+                    if (faultAddrMatch != null) {
+                        try {
+                            faultAddress = new BigInteger(faultAddrMatch, 16);
+                        } catch (NumberFormatException e) {
+                        }
+                    }
+                }
+            }
 
-                } else {
-                    break;
+            if (!foundAbortMessage) {
+                Matcher abortMessageMatcher = sAbortMessagePattern.matcher(crashStr);
+                if (abortMessageMatcher.find()) {
+                    foundAbortMessage = true;
+                    abortMessage = abortMessageMatcher.group(1);
                 }
+            }
+        }
 
-                backtraceFrames.add(
-                        new BacktraceFrameInfo(
-                                backtraceFrameMatcher.group("filename"),
-                                backtraceFrameMatcher.group("method")));
+        /**
+         * Parses a line following the blob.
+         *
+         * @return false if the line is not part of the backtrace
+         */
+        boolean parseBacktraceLine(String nextLine) {
+            Matcher backtraceNoteMatcher = sBacktraceNotePattern.matcher(nextLine);
+            if (backtraceNoteMatcher.matches()) {
+                return true;
             }
 
-            try {
-                JSONObject crash = new JSONObject();
-                crash.put(PID, pid);
-                crash.put(TID, tid);
-                crash.put(NAME, name);
-                crash.put(PROCESS, process);
-                crash.put(FAULT_ADDRESS, faultAddress == null ? null : faultAddress.toString(16));
-                crash.put(SIGNAL, signal);
-                crash.put(ABORT_MESSAGE, abortMessage);
-                JSONArray backtrace = new JSONArray();
-                for (BacktraceFrameInfo frame : backtraceFrames) {
-                    backtrace.put(
-                            new JSONObject()
-                                    .put(FILENAME, frame.getFilename())
-                                    .put(METHOD, frame.getMethod()));
-                }
-                crash.put(BACKTRACE, backtrace);
-                crashes.put(crash);
-            } catch (JSONException e) {}
+            Matcher backtraceFrameWithBuildIdMatcher =
+                    sBacktraceFrameWithBuildIdPattern.matcher(nextLine);
+            Matcher backtraceFrameWithoutBuildIdMatcher =
+                    sBacktraceFrameWithoutBuildIdPattern.matcher(nextLine);
+
+            Matcher backtraceFrameMatcher = null;
+            if (backtraceFrameWithBuildIdMatcher.matches()) {
+                backtraceFrameMatcher = backtraceFrameWithBuildIdMatcher;
+
+            } else if (backtraceFrameWithoutBuildIdMatcher.matches()) {
+                backtraceFrameMatcher = backtraceFrameWithoutBuildIdMatcher;
+
+            } else {
+                return false;
+            }
+
+            backtraceFrames.add(
+                    new BacktraceFrameInfo(
+                            backtraceFrameMatcher.group("filename"),
+                            backtraceFrameMatcher.group("method")));
+            return true;
+        }
+
+        JSONObject build() throws JSONException {
+            JSONObject crash = new JSONObject();
+            crash.put(PID, pid);
+            crash.put(TID, tid);
+            crash.put(NAME, name);
+            crash.put(PROCESS, process);
+            crash.put(FAULT_ADDRESS, faultAddress == null ? null : faultAddress.toString(16));
+            crash.put(SIGNAL, signal);
+            crash.put(ABORT_MESSAGE, abortMessage);
+            JSONArray backtrace = new JSONArray();
+            for (BacktraceFrameInfo frame : backtraceFrames) {
+                backtrace.put(
+                        new JSONObject()
+                                .put(FILENAME, frame.getFilename())
+                                .put(METHOD, frame.getMethod()));
+            }
+            crash.put(BACKTRACE, backtrace);
+            return crash;
         }
-        return crashes;
     }
 
     public static class BacktraceFrameInfo {
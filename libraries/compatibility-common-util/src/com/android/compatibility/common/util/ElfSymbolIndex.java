@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An index of the dynamic symbols, version needs and dependencies of all the ELF files under a
+ * directory tree, e.g. a system image, which answers queries like "which libraries export or
+ * import a symbol" without parsing the files again.
+ *
+ * <p>The directory tree is scanned in parallel with {@link ReadElf}. The index can be saved to and
+ * loaded from a file, and an update only parses the ELF files which were added, or whose size or
+ * last modified time changed, since they were indexed.
+ */
+public class ElfSymbolIndex {
+    /** Version of the index file format. */
+    private static final int INDEX_VERSION = 1;
+
+    /** The indexed content of an ELF file. */
+    public static class Entry {
+        public final String path;
+        public final long size;
+        public final long lastModified;
+        /** Names of the shared libraries the file depends on. */
+        public final List<String> dependencies;
+        /** Names of the dynamic symbols the file defines. */
+        public final Set<String> exportedSymbols;
+        /** Names of the dynamic symbols the file needs from other files. */
+        public final Set<String> importedSymbols;
+        /** Version names needed by the file, by the name of the library defining them. */
+        public final Map<String, Set<String>> versionNeeds;
+
+        Entry(
+                String path,
+                long size,
+                long lastModified,
+                List<String> dependencies,
+                Set<String> exportedSymbols,
+                Set<String> importedSymbols,
+                Map<String, Set<String>> versionNeeds) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.dependencies = Collections.unmodifiableList(dependencies);
+            this.exportedSymbols = Collections.unmodifiableSet(exportedSymbols);
+            this.importedSymbols = Collections.unmodifiableSet(importedSymbols);
+            this.versionNeeds = Collections.unmodifiableMap(versionNeeds);
+        }
+
+        /** Returns whether the entry is still up to date with {@code file}. */
+        boolean matches(File file) {
+            return size == file.length() && lastModified == file.lastModified();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "%s, %d exported, %d imported, dependencies %s",
+                    path, exportedSymbols.size(), importedSymbols.size(), dependencies);
+        }
+    }
+
+    private final Map<String, Entry> mEntries = new TreeMap<>();
+
+    /** Paths of the files exporting each symbol, built on first query. */
+    private Map<String, List<String>> mExporters;
+
+    /** Paths of the files importing each symbol, built on first query. */
+    private Map<String, List<String>> mImporters;
+
+    /** Creates an empty index. */
+    public ElfSymbolIndex() {}
+
+    /**
+     * Loads an index saved by {@link #save(File)}.
+     *
+     * @param indexFile the index file
+     * @return the loaded index, or an empty index if the file does not exist or was saved in
+     *     another format version
+     * @throws IOException if the index file cannot be read
+     */
+    public static ElfSymbolIndex load(File indexFile) throws IOException {
+        ElfSymbolIndex index = new ElfSymbolIndex();
+        if (!indexFile.isFile()) {
+            return index;
+        }
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_VERSION) {
+                return index;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                List<String> dependencies = readStrings(in, new ArrayList<>());
+                Set<String> exportedSymbols = readStrings(in, new TreeSet<>());
+                Set<String> importedSymbols = readStrings(in, new TreeSet<>());
+                Map<String, Set<String>> versionNeeds = new TreeMap<>();
+                int versionNeedCount = in.readInt();
+                for (int j = 0; j < versionNeedCount; j++) {
+                    versionNeeds.put(in.readUTF(), readStrings(in, new TreeSet<>()));
+                }
+                index.mEntries.put(
+                        path,
+                        new Entry(
+                                path,
+                                size,
+                                lastModified,
+                                dependencies,
+                                exportedSymbols,
+                                importedSymbols,
+                                versionNeeds));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Saves the index to {@code indexFile}, replacing it once fully written.
+     *
+     * @param indexFile the index file
+     * @throws IOException if the index file cannot be written
+     */
+    public synchronized void save(File indexFile) throws IOException {
+        File tmpFile = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(mEntries.size());
+            for (Entry entry : mEntries.values()) {
+                out.writeUTF(entry.path);
+                out.writeLong(entry.size);
+                out.writeLong(entry.lastModified);
+                writeStrings(out, entry.dependencies);
+                writeStrings(out, entry.exportedSymbols);
+                writeStrings(out, entry.importedSymbols);
+                out.writeInt(entry.versionNeeds.size());
+                for (Map.Entry<String, Set<String>> versionNeed : entry.versionNeeds.entrySet()) {
+                    out.writeUTF(versionNeed.getKey());
+                    writeStrings(out, versionNeed.getValue());
+                }
+            }
+        }
+        Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Updates the index with the ELF files under {@code root}, parsing them in parallel in the
+     * common {@link ForkJoinPool}. The entries of the files which are no longer under {@code root}
+     * are removed.
+     *
+     * @param root the directory to scan
+     * @return the number of ELF files which were parsed, i.e. not up to date in the index
+     */
+    public int update(File root) {
+        return update(root, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Updates the index with the ELF files under {@code root}, parsing them in parallel in {@code
+     * pool}. The entries of the files which are no longer under {@code root} are removed.
+     *
+     * @param root the directory to scan
+     * @param pool the pool running the scan
+     * @return the number of ELF files which were parsed, i.e. not up to date in the index
+     */
+    public synchronized int update(File root, ForkJoinPool pool) {
+        Map<String, Entry> scanned = new ConcurrentHashMap<>();
+        AtomicInteger parsed = new AtomicInteger();
+        pool.invoke(new ScanTask(root, scanned, parsed));
+
+        String rootPath = root.getPath();
+        String rootPrefix =
+                rootPath.endsWith(File.separator) ? rootPath : rootPath + File.separator;
+        mEntries.keySet().removeIf(path -> path.equals(rootPath) || path.startsWith(rootPrefix));
+        mEntries.putAll(scanned);
+        mExporters = null;
+        mImporters = null;
+        return parsed.get();
+    }
+
+    /** Returns the entry of the ELF file at {@code path}, or null if it is not indexed. */
+    public synchronized Entry getEntry(String path) {
+        return mEntries.get(path);
+    }
+
+    /** Returns all the entries, sorted by path. */
+    public synchronized Collection<Entry> getEntries() {
+        return new ArrayList<>(mEntries.values());
+    }
+
+    /** Returns the paths of the ELF files defining the dynamic symbol {@code name}. */
+    public synchronized List<String> getExporters(String name) {
+        if (mExporters == null) {
+            mExporters = new HashMap<>();
+            for (Entry entry : mEntries.values()) {
+                for (String symbol : entry.exportedSymbols) {
+                    mExporters.computeIfAbsent(symbol, k -> new ArrayList<>()).add(entry.path);
+                }
+            }
+        }
+        return mExporters.getOrDefault(name, Collections.emptyList());
+    }
+
+    /** Returns the paths of the ELF files needing the dynamic symbol {@code name}. */
+    public synchronized List<String> getImporters(String name) {
+        if (mImporters == null) {
+            mImporters = new HashMap<>();
+            for (Entry entry : mEntries.values()) {
+                for (String symbol : entry.importedSymbols) {
+                    mImporters.computeIfAbsent(symbol, k -> new ArrayList<>()).add(entry.path);
+                }
+            }
+        }
+        return mImporters.getOrDefault(name, Collections.emptyList());
+    }
+
+    /** Scans a directory, forking a task for each sub-directory. */
+    private class ScanTask extends RecursiveAction {
+        private final File mDir;
+        private final Map<String, Entry> mScanned;
+        private final AtomicInteger mParsed;
+
+        ScanTask(File dir, Map<String, Entry> scanned, AtomicInteger parsed) {
+            mDir = dir;
+            mScanned = scanned;
+            mParsed = parsed;
+        }
+
+        @Override
+        protected void compute() {
+            File[] files = mDir.listFiles();
+            if (files == null) {
+                return;
+            }
+            List<ScanTask> subTasks = new ArrayList<>();
+            for (File file : files) {
+                if (Files.isSymbolicLink(file.toPath())) {
+                    continue;
+                }
+                if (file.isDirectory()) {
+                    subTasks.add(new ScanTask(file, mScanned, mParsed));
+                } else if (file.isFile()) {
+                    // The index is not modified during the scan.
+                    Entry entry = mEntries.get(file.getPath());
+                    if (entry == null || !entry.matches(file)) {
+                        entry = readEntry(file);
+                        if (entry != null) {
+                            mParsed.incrementAndGet();
+                        }
+                    }
+                    if (entry != null) {
+                        mScanned.put(entry.path, entry);
+                    }
+                }
+            }
+            invokeAll(subTasks);
+        }
+    }
+
+    /** Parses {@code file}, returning null if it is not a supported ELF file. */
+    private static Entry readEntry(File file) {
+        if (!ReadElf.isElf(file)) {
+            return null;
+        }
+        // Read the size and time first so a concurrent change is detected by the next update.
+        long size = file.length();
+        long lastModified = file.lastModified();
+        try (ReadElf elf = ReadElf.readMapped(file)) {
+            Set<String> exportedSymbols = new TreeSet<>();
+            Set<String> importedSymbols = new TreeSet<>();
+            Map<String, Set<String>> versionNeeds = new TreeMap<>();
+            Map<String, ReadElf.Symbol> symbols = elf.getDynamicSymbols();
+            if (symbols == null) {
+                throw new IOException("Failed to read the dynamic symbols");
+            }
+            for (ReadElf.Symbol symbol : symbols.values()) {
+                if (symbol.isExtern()) {
+                    exportedSymbols.add(symbol.name);
+                } else if (symbol.isGlobalUnd()) {
+                    importedSymbols.add(symbol.name);
+                    ReadElf.VerNeed verNeed = symbol.mVerNeed;
+                    // The local and global version needs are not read from the file.
+                    if (verNeed != null && verNeed.vn_cnt > 0) {
+                        Set<String> versions =
+                                versionNeeds.computeIfAbsent(
+                                        verNeed.vn_file_name, k -> new TreeSet<>());
+                        for (ReadElf.VerNAux verNAux : verNeed.vn_vernaux) {
+                            versions.add(verNAux.vna_lib_name);
+                        }
+                    }
+                }
+            }
+            return new Entry(
+                    file.getPath(),
+                    size,
+                    lastModified,
+                    new ArrayList<>(elf.getDynamicDependencies()),
+                    exportedSymbols,
+                    importedSymbols,
+                    versionNeeds);
+        } catch (IOException | RuntimeException e) {
+            System.err.println(String.format("Skipping %s: %s", file, e));
+            return null;
+        }
+    }
+
+    private static <T extends Collection<String>> T readStrings(DataInputStream in, T strings)
+            throws IOException {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> strings)
+            throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+}
@@ -69,6 +69,31 @@ public class LightInvocationResult implements IInvocationResult {
         }
     }
 
+    /**
+     * Constructor of an empty result, for results read from a summary of the result file rather
+     * than from a complete result.
+     */
+    LightInvocationResult() {
+        mInvocationInfo = new HashMap<String, String>();
+        mSerials = new HashSet<String>();
+        mRetryChecksumStatus = RetryChecksumStatus.NotRetry;
+        mModuleIds = new HashSet<String>();
+        mResultCounts = new HashMap<TestStatus, Integer>();
+        for (TestStatus status : TestStatus.values()) {
+            mResultCounts.put(status, 0);
+        }
+    }
+
+    /** Sets the number of results of the given status. */
+    void setResultCount(TestStatus status, int count) {
+        mResultCounts.put(status, count);
+    }
+
+    /** Sets the number of completed modules. */
+    void setModuleCompleteCount(int count) {
+        mModuleCompleteCount = count;
+    }
+
     /**
      * {@inheritDoc}
      */
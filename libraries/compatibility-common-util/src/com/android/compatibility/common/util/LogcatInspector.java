@@ -9,7 +9,15 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -18,12 +26,30 @@ import java.util.concurrent.TimeUnit;
  */
 public abstract class LogcatInspector {
     private static final int SMALL_LOGCAT_DELAY = 1000;
+    // Number of lines kept from the followed stream, for the assertions starting while it is
+    // followed.
+    private static final int FOLLOW_BACKLOG_LINES = 1000;
+
+    private volatile boolean mFollowMode = false;
+    // The logcat streams followed for the assertions in progress, by filter spec.
+    private final Map<String, LogcatFollower> mFollowers = new HashMap<>();
 
     /**
      * Should execute adb shell {@param command} and return an {@link InputStream} with the result.
      */
     protected abstract InputStream executeShellCommand(String command) throws IOException;
 
+    /**
+     * Sets whether the assertions follow a long-lived logcat stream, shared by all the concurrent
+     * assertions with the same filter spec, instead of dumping the whole logcat every second.
+     *
+     * <p>In follow mode, {@link #executeShellCommand(String)} must return the output of the
+     * command as it is produced, and stop the command when the stream is closed.
+     */
+    public void setFollowMode(boolean followMode) {
+        mFollowMode = followMode;
+    }
+
     /**
      * Logs an unique string using tag {@param tag} and wait until it appears to continue execution.
      *
@@ -95,8 +121,10 @@ public abstract class LogcatInspector {
             String filterSpec, int timeInSeconds, String... logcatStrings)
             throws InterruptedException, IOException {
         long timeout = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeInSeconds);
-        int stringIndex = 0;
-        long lastEpochMicroseconds = 0;
+        InOrderMatcher matcher = new InOrderMatcher(logcatStrings);
+        if (mFollowMode) {
+            return numberOfLogcatStringsFollowed(filterSpec, timeout, matcher);
+        }
         while (timeout >= System.currentTimeMillis()) {
             // '-v epoch' -> Displays time as seconds since Jan 1 1970.
             // '-v usec' -> Displays time down the microsecond precision.
@@ -105,26 +133,9 @@ public abstract class LogcatInspector {
             BufferedReader logcat = new BufferedReader(new InputStreamReader(logcatStream));
             String line;
             while ((line = logcat.readLine()) != null) {
-                if (line.contains(logcatStrings[stringIndex])) {
-                    // Now we need to get the timestamp of this log line to ensure that
-                    // this log is after the previously matched log.
-
-                    // Strip the leading spaces and split the line by spaces
-                    String[] splitLine = line.stripLeading().split(" ");
-
-                    // The first one is epoch time in seconds, with microsecond precision.
-                    // It is of the format <epoch time in seconds>.xxxxxx
-                    String epochMicrosecondsStr = splitLine[0].replace(".", "");
-                    long epochMicroseconds = Long.parseLong(epochMicrosecondsStr);
-
-                    // Check that this log time is after previously matched log
-                    if (epochMicroseconds >= lastEpochMicroseconds) {
-                        stringIndex++;
-                        if (stringIndex >= logcatStrings.length) {
-                            StreamUtil.drainAndClose(logcat);
-                            return stringIndex;
-                        }
-                    }
+                if (matcher.matches(line)) {
+                    StreamUtil.drainAndClose(logcat);
+                    return matcher.getStringIndex();
                 }
             }
             Closeables.closeQuietly(logcat);
@@ -132,6 +143,283 @@ public abstract class LogcatInspector {
             // performing the next search.
             Thread.sleep(SMALL_LOGCAT_DELAY);
         }
-        return stringIndex;
+        return matcher.getStringIndex();
+    }
+
+    /**
+     * Matches the lines of the whole logcat buffer, then the lines of the logcat stream followed
+     * for {@code filterSpec} from the last dumped line, starting it if no other assertion follows
+     * it, until all the strings are found or the timeout.
+     */
+    private int numberOfLogcatStringsFollowed(
+            String filterSpec, long timeout, InOrderMatcher matcher)
+            throws InterruptedException, IOException {
+        while (true) {
+            matcher.startAttempt();
+            long lastEpochMicroseconds = matchLogcatDump(filterSpec, matcher);
+            if (matcher.isComplete()) {
+                return matcher.getStringIndex();
+            }
+            LogcatFollower follower;
+            synchronized (mFollowers) {
+                follower = mFollowers.get(filterSpec);
+                if (follower == null || !follower.add(matcher, lastEpochMicroseconds)) {
+                    // The streams which are still followed keep running for their assertions.
+                    follower = new LogcatFollower(filterSpec, lastEpochMicroseconds);
+                    follower.add(matcher, lastEpochMicroseconds);
+                    mFollowers.put(filterSpec, follower);
+                    follower.start();
+                }
+            }
+            boolean followed;
+            try {
+                matcher.await(timeout - System.currentTimeMillis());
+            } finally {
+                followed = follower.remove(matcher);
+            }
+            if (matcher.isComplete() || followed || timeout < System.currentTimeMillis()) {
+                return matcher.getStringIndex();
+            }
+            // The stream ended before the timeout, e.g. logcat was killed, follow a new one.
+            Thread.sleep(SMALL_LOGCAT_DELAY);
+        }
+    }
+
+    /**
+     * Matches the lines of the whole logcat buffer, and makes the matcher skip them when they are
+     * read again from the followed stream.
+     *
+     * @return the time of the last line in microseconds since the epoch, or 0 if there is none.
+     */
+    private long matchLogcatDump(String filterSpec, InOrderMatcher matcher) throws IOException {
+        InputStream logcatStream = executeShellCommand("logcat -v epoch -v usec -d " + filterSpec);
+        BufferedReader logcat = new BufferedReader(new InputStreamReader(logcatStream));
+        long lastEpochMicroseconds = 0;
+        Set<String> lastLines = new HashSet<>();
+        try {
+            String line;
+            while ((line = logcat.readLine()) != null) {
+                if (matcher.matches(line)) {
+                    StreamUtil.drainAndClose(logcat);
+                    return lastEpochMicroseconds;
+                }
+                long epochMicroseconds;
+                try {
+                    epochMicroseconds = parseEpochMicroseconds(line);
+                } catch (NumberFormatException e) {
+                    // e.g. "--------- beginning of main"
+                    continue;
+                }
+                if (epochMicroseconds != lastEpochMicroseconds) {
+                    lastEpochMicroseconds = epochMicroseconds;
+                    lastLines.clear();
+                }
+                lastLines.add(line);
+            }
+        } finally {
+            Closeables.closeQuietly(logcat);
+        }
+        matcher.skipUntil(lastEpochMicroseconds, lastLines);
+        return lastEpochMicroseconds;
+    }
+
+    /** Returns the time of a line printed with '-v epoch -v usec', in microseconds. */
+    private static long parseEpochMicroseconds(String line) {
+        // Strip the leading spaces and split the line by spaces
+        String[] splitLine = line.stripLeading().split(" ");
+
+        // The first one is epoch time in seconds, with microsecond precision.
+        // It is of the format <epoch time in seconds>.xxxxxx
+        return Long.parseLong(splitLine[0].replace(".", ""));
+    }
+
+    /** Matches the logcat lines containing the given strings, in order. */
+    private static class InOrderMatcher {
+        private final String[] mLogcatStrings;
+        // Counted down once all the strings are found, or the stream followed by the current
+        // attempt ended.
+        private CountDownLatch mDone = new CountDownLatch(1);
+        private int mStringIndex = 0;
+        private long mLastEpochMicroseconds = 0;
+        // The lines up to this time, and the given lines at this time, were already matched.
+        private long mSkippedEpochMicroseconds = Long.MIN_VALUE;
+        private Set<String> mSkippedLines = Set.of();
+
+        InOrderMatcher(String... logcatStrings) {
+            mLogcatStrings = logcatStrings;
+        }
+
+        /** Returns true once all the strings are found. */
+        synchronized boolean matches(String line) {
+            if (isComplete()) {
+                return true;
+            }
+            if (line.contains(mLogcatStrings[mStringIndex])) {
+                // Now we need to get the timestamp of this log line to ensure that
+                // this log is after the previously matched log.
+                long epochMicroseconds = parseEpochMicroseconds(line);
+                if (epochMicroseconds < mSkippedEpochMicroseconds
+                        || (epochMicroseconds == mSkippedEpochMicroseconds
+                                && mSkippedLines.contains(line))) {
+                    return false;
+                }
+
+                // Check that this log time is after previously matched log
+                if (epochMicroseconds >= mLastEpochMicroseconds) {
+                    mStringIndex++;
+                    if (isComplete()) {
+                        mDone.countDown();
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        synchronized int getStringIndex() {
+            return mStringIndex;
+        }
+
+        synchronized boolean isComplete() {
+            return mStringIndex >= mLogcatStrings.length;
+        }
+
+        /** Skips the lines up to {@code epochMicroseconds}, and {@code lines} at that time. */
+        synchronized void skipUntil(long epochMicroseconds, Set<String> lines) {
+            if (epochMicroseconds >= mSkippedEpochMicroseconds) {
+                mSkippedEpochMicroseconds = epochMicroseconds;
+                mSkippedLines = new HashSet<>(lines);
+            }
+        }
+
+        /** Starts following a new stream, after the previous one ended. */
+        synchronized void startAttempt() {
+            if (mDone.getCount() == 0 && !isComplete()) {
+                mDone = new CountDownLatch(1);
+            }
+        }
+
+        void await(long timeoutMillis) throws InterruptedException {
+            CountDownLatch done;
+            synchronized (this) {
+                done = mDone;
+            }
+            done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        synchronized void finish() {
+            mDone.countDown();
+        }
+    }
+
+    /**
+     * Follows one logcat stream on a background thread and passes its lines to the matchers of
+     * the assertions in progress. The stream is closed as soon as no assertion follows it.
+     */
+    private class LogcatFollower implements Runnable {
+        private final String mFilterSpec;
+        // The time of the first line of the stream, in microseconds since the epoch.
+        private final long mStartEpochMicroseconds;
+        private final InputStream mLogcatStream;
+        // The last lines of the stream, for the matchers added while following it.
+        private final ArrayDeque<String> mBacklog = new ArrayDeque<>();
+        private final List<InOrderMatcher> mMatchers = new ArrayList<>();
+        private boolean mStopped = false;
+
+        /** Follows the lines logged since {@code startEpochMicroseconds}. */
+        LogcatFollower(String filterSpec, long startEpochMicroseconds) throws IOException {
+            mFilterSpec = filterSpec;
+            mStartEpochMicroseconds = startEpochMicroseconds;
+            // '-T <time>' -> Prints the lines of the buffer since the time, as seconds since Jan 1
+            // 1970, then follows the new ones.
+            mLogcatStream =
+                    executeShellCommand(
+                            String.format(
+                                    "logcat -v epoch -v usec -T %d.%06d %s",
+                                    startEpochMicroseconds / 1_000_000,
+                                    startEpochMicroseconds % 1_000_000,
+                                    filterSpec));
+        }
+
+        void start() {
+            Thread thread = new Thread(this, "LogcatFollower " + mFilterSpec);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Adds a matcher which matched the lines up to {@code epochMicroseconds}. Returns false if
+         * the stream is not followed anymore, or if it starts after that time, as the matcher
+         * would miss the lines logged in between.
+         */
+        synchronized boolean add(InOrderMatcher matcher, long epochMicroseconds) {
+            if (mStopped || mStartEpochMicroseconds > epochMicroseconds) {
+                return false;
+            }
+            for (String line : mBacklog) {
+                if (matcher.matches(line)) {
+                    return true;
+                }
+            }
+            mMatchers.add(matcher);
+            return true;
+        }
+
+        /** Removes a matcher, returning false if it was not followed anymore. */
+        synchronized boolean remove(InOrderMatcher matcher) {
+            boolean removed = mMatchers.remove(matcher);
+            if (mMatchers.isEmpty()) {
+                stop();
+            }
+            return removed;
+        }
+
+        @Override
+        public void run() {
+            try (BufferedReader logcat =
+                    new BufferedReader(new InputStreamReader(mLogcatStream))) {
+                String line;
+                while ((line = logcat.readLine()) != null) {
+                    synchronized (this) {
+                        if (mStopped) {
+                            break;
+                        }
+                        mBacklog.addLast(line);
+                        if (mBacklog.size() > FOLLOW_BACKLOG_LINES) {
+                            mBacklog.removeFirst();
+                        }
+                        for (int i = mMatchers.size() - 1; i >= 0; i--) {
+                            if (mMatchers.get(i).matches(line)) {
+                                mMatchers.remove(i);
+                            }
+                        }
+                        if (mMatchers.isEmpty()) {
+                            stop();
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                // The stream was closed or broke, the pending matchers are finished below.
+            } finally {
+                synchronized (this) {
+                    stop();
+                    for (InOrderMatcher matcher : mMatchers) {
+                        matcher.finish();
+                    }
+                    mMatchers.clear();
+                }
+                synchronized (mFollowers) {
+                    mFollowers.remove(mFilterSpec, this);
+                }
+            }
+        }
+
+        private void stop() {
+            if (!mStopped) {
+                mStopped = true;
+                // Closes the stream rather than the reader, which is locked while reading.
+                Closeables.closeQuietly(mLogcatStream);
+            }
+        }
     }
 }
@@ -18,9 +18,17 @@ package com.android.compatibility.common.util;
 
 import com.google.errorprone.annotations.CanIgnoreReturnValue;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -458,10 +466,248 @@ public class ReadElf implements AutoCloseable {
         }
     }
 
+    /** Random access to the bytes of an ELF file, decoding values in the file byte order. */
+    private interface ElfInput {
+        long length() throws IOException;
+
+        void order(ByteOrder order);
+
+        void seek(long position) throws IOException;
+
+        long getFilePointer() throws IOException;
+
+        /** Reads a value of {@code byteCount} bytes at the current position. */
+        long readX(int byteCount) throws IOException;
+
+        int readByte() throws IOException;
+
+        /** Reads the NUL terminated string at {@code offset}, keeping the current position. */
+        String readString(long offset) throws IOException;
+
+        /** Reads {@code dst.length} bytes at {@code offset}. */
+        void readFully(long offset, byte[] dst) throws IOException;
+
+        void close();
+    }
+
+    /** Reads the ELF file with {@link RandomAccessFile}, one system call per value. */
+    private static class RandomAccessFileInput implements ElfInput {
+        private final RandomAccessFile mFile;
+        private final byte[] mBuffer = new byte[512];
+        private ByteOrder mOrder = ByteOrder.LITTLE_ENDIAN;
+
+        RandomAccessFileInput(File file) throws IOException {
+            mFile = new RandomAccessFile(file, "r");
+        }
+
+        @Override
+        public long length() throws IOException {
+            return mFile.length();
+        }
+
+        @Override
+        public void order(ByteOrder order) {
+            mOrder = order;
+        }
+
+        @Override
+        public void seek(long position) throws IOException {
+            mFile.seek(position);
+        }
+
+        @Override
+        public long getFilePointer() throws IOException {
+            return mFile.getFilePointer();
+        }
+
+        @Override
+        public long readX(int byteCount) throws IOException {
+            mFile.readFully(mBuffer, 0, byteCount);
+
+            int answer = 0;
+            if (mOrder == ByteOrder.LITTLE_ENDIAN) {
+                for (int i = byteCount - 1; i >= 0; i--) {
+                    answer = (answer << 8) | (mBuffer[i] & 0xff);
+                }
+            } else {
+                final int N = byteCount - 1;
+                for (int i = 0; i <= N; ++i) {
+                    answer = (answer << 8) | (mBuffer[i] & 0xff);
+                }
+            }
+
+            return answer;
+        }
+
+        @Override
+        public int readByte() throws IOException {
+            return mFile.read() & 0xff;
+        }
+
+        @Override
+        public String readString(long offset) throws IOException {
+            long length = mFile.length();
+            if (offset < 0 || offset >= length) {
+                return null;
+            }
+            long originalOffset = mFile.getFilePointer();
+            mFile.seek(offset);
+            try {
+                // Strings longer than the buffer are read in several chunks, like MappedInput.
+                ByteArrayOutputStream longString = null;
+                long remaining = length - offset;
+                while (remaining > 0) {
+                    int count = (int) Math.min(mBuffer.length, remaining);
+                    mFile.readFully(mBuffer, 0, count);
+                    for (int i = 0; i < count; ++i) {
+                        if (mBuffer[i] == 0) {
+                            if (longString == null) {
+                                return new String(mBuffer, 0, i);
+                            }
+                            longString.write(mBuffer, 0, i);
+                            return new String(longString.toByteArray());
+                        }
+                    }
+                    if (longString == null) {
+                        longString = new ByteArrayOutputStream();
+                    }
+                    longString.write(mBuffer, 0, count);
+                    remaining -= count;
+                }
+                return null;
+            } finally {
+                mFile.seek(originalOffset);
+            }
+        }
+
+        @Override
+        public void readFully(long offset, byte[] dst) throws IOException {
+            mFile.seek(offset);
+            mFile.readFully(dst);
+        }
+
+        @Override
+        public void close() {
+            try {
+                mFile.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Reads the ELF file from a read-only {@link MappedByteBuffer}, so that reading values and
+     * strings does not need any system call. Strings are decoded once per offset, on first use.
+     */
+    private static class MappedInput implements ElfInput {
+        private final MappedByteBuffer mBuffer;
+        private final Map<Long, String> mStrings = new HashMap<>();
+
+        MappedInput(File file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException("Too large to be mapped: " + file);
+                }
+                // The mapping stays valid once the channel is closed.
+                mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        @Override
+        public long length() {
+            return mBuffer.limit();
+        }
+
+        @Override
+        public void order(ByteOrder order) {
+            mBuffer.order(order);
+        }
+
+        @Override
+        public void seek(long position) throws IOException {
+            if (position < 0 || position > mBuffer.limit()) {
+                throw new EOFException("Invalid position: " + position);
+            }
+            mBuffer.position((int) position);
+        }
+
+        @Override
+        public long getFilePointer() {
+            return mBuffer.position();
+        }
+
+        @Override
+        public long readX(int byteCount) throws IOException {
+            try {
+                // Truncated to an int like RandomAccessFileInput so both report the same values.
+                switch (byteCount) {
+                    case 2:
+                        return mBuffer.getShort() & 0xffff;
+                    case 4:
+                        return mBuffer.getInt();
+                    case 8:
+                        return (int) mBuffer.getLong();
+                    default:
+                        throw new IllegalArgumentException("Invalid value size: " + byteCount);
+                }
+            } catch (BufferUnderflowException e) {
+                throw new EOFException();
+            }
+        }
+
+        @Override
+        public int readByte() throws IOException {
+            try {
+                return mBuffer.get() & 0xff;
+            } catch (BufferUnderflowException e) {
+                throw new EOFException();
+            }
+        }
+
+        @Override
+        public String readString(long offset) {
+            if (offset < 0 || offset >= mBuffer.limit()) {
+                return null;
+            }
+            String str = mStrings.get(offset);
+            if (str == null) {
+                int start = (int) offset;
+                int end = start;
+                while (end < mBuffer.limit() && mBuffer.get(end) != 0) {
+                    end++;
+                }
+                if (end == mBuffer.limit()) {
+                    return null;
+                }
+                byte[] bytes = new byte[end - start];
+                ByteBuffer slice = mBuffer.duplicate();
+                slice.position(start);
+                slice.get(bytes);
+                str = new String(bytes);
+                mStrings.put(offset, str);
+            }
+            return str;
+        }
+
+        @Override
+        public void readFully(long offset, byte[] dst) throws IOException {
+            seek(offset);
+            try {
+                mBuffer.get(dst);
+            } catch (BufferUnderflowException e) {
+                throw new EOFException();
+            }
+        }
+
+        @Override
+        public void close() {
+            mStrings.clear();
+        }
+    }
+
     private final String mPath;
-    private final RandomAccessFile mFile;
-    private final byte[] mBuffer = new byte[512];
-    private int mEndian;
+    private final ElfInput mInput;
     private boolean mIsDynamic;
     private boolean mIsPIE;
     private int mType;
@@ -572,7 +818,15 @@ public class ReadElf implements AutoCloseable {
     private byte[] mRoData;
 
     public static ReadElf read(File file) throws IOException {
-        return new ReadElf(file);
+        return new ReadElf(file, false);
+    }
+
+    /**
+     * Reads the ELF file from a memory-mapped buffer, which is faster than {@link #read(File)} when
+     * reading symbol tables, e.g. when scanning many libraries.
+     */
+    public static ReadElf readMapped(File file) throws IOException {
+        return new ReadElf(file, true);
     }
 
     public static void main(String[] args) throws IOException {
@@ -631,18 +885,18 @@ public class ReadElf implements AutoCloseable {
                         "Too small to be an ELF file: " + file.getCanonicalPath());
             }
 
-            RandomAccessFile raFile = new RandomAccessFile(file, "r");
-            byte[] buffer = new byte[512];
-            raFile.seek(0);
-            raFile.readFully(buffer, 0, EI_NIDENT);
-            if (buffer[0] != ELFMAG[0]
-                    || buffer[1] != ELFMAG[1]
-                    || buffer[2] != ELFMAG[2]
-                    || buffer[3] != ELFMAG[3]) {
-                throw new IllegalArgumentException("Invalid ELF file: " + file.getCanonicalPath());
+            try (RandomAccessFile raFile = new RandomAccessFile(file, "r")) {
+                byte[] buffer = new byte[512];
+                raFile.seek(0);
+                raFile.readFully(buffer, 0, EI_NIDENT);
+                if (buffer[0] != ELFMAG[0]
+                        || buffer[1] != ELFMAG[1]
+                        || buffer[2] != ELFMAG[2]
+                        || buffer[3] != ELFMAG[3]) {
+                    throw new IllegalArgumentException(
+                            "Invalid ELF file: " + file.getCanonicalPath());
+                }
             }
-            raFile.close();
-            ;
             return true;
         } catch (Exception e) {
             return false;
@@ -711,13 +965,14 @@ public class ReadElf implements AutoCloseable {
         return mIsPIE;
     }
 
-    private ReadElf(File file) throws IOException {
+    private ReadElf(File file, boolean mapped) throws IOException {
         mHasRodata = false;
         mRoData = null;
         mPath = file.getPath();
-        mFile = new RandomAccessFile(file, "r");
+        mInput = mapped ? new MappedInput(file) : new RandomAccessFileInput(file);
 
-        if (mFile.length() < EI_NIDENT) {
+        if (mInput.length() < EI_NIDENT) {
+            mInput.close();
             throw new IllegalArgumentException("Too small to be an ELF file: " + file);
         }
 
@@ -726,10 +981,7 @@ public class ReadElf implements AutoCloseable {
 
     @Override
     public void close() {
-        try {
-            mFile.close();
-        } catch (IOException ignored) {
-        }
+        mInput.close();
     }
 
     @Override
@@ -742,17 +994,17 @@ public class ReadElf implements AutoCloseable {
     }
 
     private void readHeader() throws IOException {
-        mFile.seek(0);
-        mFile.readFully(mBuffer, 0, EI_NIDENT);
+        byte[] ident = new byte[EI_NIDENT];
+        mInput.readFully(0, ident);
 
-        if (mBuffer[0] != ELFMAG[0]
-                || mBuffer[1] != ELFMAG[1]
-                || mBuffer[2] != ELFMAG[2]
-                || mBuffer[3] != ELFMAG[3]) {
+        if (ident[0] != ELFMAG[0]
+                || ident[1] != ELFMAG[1]
+                || ident[2] != ELFMAG[2]
+                || ident[3] != ELFMAG[3]) {
             throw new IllegalArgumentException("Invalid ELF file: " + mPath);
         }
 
-        int elfClass = mBuffer[EI_CLASS];
+        int elfClass = ident[EI_CLASS];
         if (elfClass == ELFCLASS32) {
             mAddrSize = 4;
         } else if (elfClass == ELFCLASS64) {
@@ -761,12 +1013,13 @@ public class ReadElf implements AutoCloseable {
             throw new IOException("Invalid ELF EI_CLASS: " + elfClass + ": " + mPath);
         }
 
-        mEndian = mBuffer[EI_DATA];
-        if (mEndian == ELFDATA2LSB) {
-        } else if (mEndian == ELFDATA2MSB) {
+        int endian = ident[EI_DATA];
+        if (endian == ELFDATA2LSB) {
+            mInput.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (endian == ELFDATA2MSB) {
             throw new IOException("Unsupported ELFDATA2MSB file: " + mPath);
         } else {
-            throw new IOException("Invalid ELF EI_DATA: " + mEndian + ": " + mPath);
+            throw new IOException("Invalid ELF EI_DATA: " + endian + ": " + mPath);
         }
 
         mType = readHalf();
@@ -823,7 +1076,7 @@ public class ReadElf implements AutoCloseable {
             throws IOException {
         // Read the Section Header String Table offset first.
         {
-            mFile.seek(sh_off + e_shstrndx * e_shentsize);
+            mInput.seek(sh_off + e_shstrndx * e_shentsize);
 
             long sh_name = readWord();
             long sh_type = readWord();
@@ -845,7 +1098,7 @@ public class ReadElf implements AutoCloseable {
                 continue;
             }
 
-            mFile.seek(sh_off + i * e_shentsize);
+            mInput.seek(sh_off + i * e_shentsize);
 
             long sh_name = readWord();
             long sh_type = readWord();
@@ -950,7 +1203,7 @@ public class ReadElf implements AutoCloseable {
 
     private void readProgramHeaders(long ph_off, int e_phnum, int e_phentsize) throws IOException {
         for (int i = 0; i < e_phnum; ++i) {
-            mFile.seek(ph_off + i * e_phentsize);
+            mInput.seek(ph_off + i * e_phentsize);
 
             long p_type = readWord();
             if (p_type == PT_LOAD) {
@@ -978,9 +1231,9 @@ public class ReadElf implements AutoCloseable {
             long tableSize)
             throws IOException {
         HashMap<String, Symbol> result = new HashMap<String, Symbol>();
-        mFile.seek(tableOffset);
+        mInput.seek(tableOffset);
         int i = 0;
-        while (mFile.getFilePointer() < tableOffset + tableSize) {
+        while (mInput.getFilePointer() < tableOffset + tableSize) {
             long st_name = readWord();
             int st_info;
             int st_shndx;
@@ -1057,7 +1310,7 @@ public class ReadElf implements AutoCloseable {
 
     private int[] getVerSym() throws IOException {
         if (mVerSym == null) {
-            mFile.seek(mVerSymTabOffset);
+            mInput.seek(mVerSymTabOffset);
             int cnt = (int) mVerSymTabSize / 2;
             mVerSym = new int[cnt];
             for (int i = 0; i < cnt; i++) {
@@ -1096,7 +1349,7 @@ public class ReadElf implements AutoCloseable {
 
             long idx = mVerNeedTabOffset;
             for (int i = 2; i < mVerNeedEntryCnt + 2; i++) {
-                mFile.seek(idx);
+                mInput.seek(idx);
                 mVerNeedArr[i] =
                         new VerNeed(readHalf(), readHalf(), readWord(), readWord(), readWord());
                 mVerNeedArr[i].vn_file_name = readDynStrTabEntry(mVerNeedArr[i].vn_file).toLowerCase();
@@ -1104,7 +1357,7 @@ public class ReadElf implements AutoCloseable {
                 mVerNeedArr[i].vn_vernaux = new VerNAux[mVerNeedArr[i].vn_cnt];
                 long idxAux = idx + mVerNeedArr[i].vn_aux;
                 for (int j = 0; j < mVerNeedArr[i].vn_cnt; j++) {
-                    mFile.seek(idxAux);
+                    mInput.seek(idxAux);
                     mVerNeedArr[i].vn_vernaux[j] =
                             new VerNAux(readWord(), readHalf(), readHalf(), readWord(), readWord());
                     mVerNeedArr[i].vn_vernaux[j].vna_lib_name =
@@ -1130,7 +1383,7 @@ public class ReadElf implements AutoCloseable {
 
             long idx = mVerDefTabOffset;
             for (int i = 2; i < mVerDefEntryCnt + 2; i++) {
-                mFile.seek(idx);
+                mInput.seek(idx);
                 mVerDefArr[i] =
                         new VerDef(
                                 readHalf(),
@@ -1144,7 +1397,7 @@ public class ReadElf implements AutoCloseable {
                 mVerDefArr[i].vd_verdaux = new VerDAux[mVerDefArr[i].vd_cnt];
                 long idxAux = idx + mVerDefArr[i].vd_aux;
                 for (int j = 0; j < mVerDefArr[i].vd_cnt; j++) {
-                    mFile.seek(idxAux);
+                    mInput.seek(idxAux);
                     mVerDefArr[i].vd_verdaux[j] = new VerDAux(readWord(), readWord());
                     mVerDefArr[i].vd_verdaux[j].vda_lib_name =
                             readDynStrTabEntry(mVerDefArr[i].vd_verdaux[j].vda_name).toLowerCase();
@@ -1174,40 +1427,15 @@ public class ReadElf implements AutoCloseable {
     }
 
     private long readX(int byteCount) throws IOException {
-        mFile.readFully(mBuffer, 0, byteCount);
-
-        int answer = 0;
-        if (mEndian == ELFDATA2LSB) {
-            for (int i = byteCount - 1; i >= 0; i--) {
-                answer = (answer << 8) | (mBuffer[i] & 0xff);
-            }
-        } else {
-            final int N = byteCount - 1;
-            for (int i = 0; i <= N; ++i) {
-                answer = (answer << 8) | (mBuffer[i] & 0xff);
-            }
-        }
-
-        return answer;
+        return mInput.readX(byteCount);
     }
 
     private String readString(long offset) throws IOException {
-        long originalOffset = mFile.getFilePointer();
-        mFile.seek(offset);
-        mFile.readFully(mBuffer, 0, (int) Math.min(mBuffer.length, mFile.length() - offset));
-        mFile.seek(originalOffset);
-
-        for (int i = 0; i < mBuffer.length; ++i) {
-            if (mBuffer[i] == 0) {
-                return new String(mBuffer, 0, i);
-            }
-        }
-
-        return null;
+        return mInput.readString(offset);
     }
 
     private int readByte() throws IOException {
-        return mFile.read() & 0xff;
+        return mInput.readByte();
     }
 
     /** Gets the symbol by name. */
@@ -1270,11 +1498,7 @@ public class ReadElf implements AutoCloseable {
         if (mDynamicArr == null) {
             int entryNo = 0;
             mDynamicArr = new ArrayList<>();
-            mFile.seek(mDynamicTabOffset);
-            System.out.println(
-                    String.format(
-                            "mDynamicTabOffset 0x%x, mDynamicTabSize %d",
-                            mDynamicTabOffset, mDynamicTabSize));
+            mInput.seek(mDynamicTabOffset);
             while (true) {
                 long tag = readX(mAddrSize);
                 long value = readX(mAddrSize);
@@ -1335,8 +1559,7 @@ public class ReadElf implements AutoCloseable {
     public byte[] getRoData() throws IOException {
         if (mHasRodata && mRoData == null) {
             mRoData = new byte[mRodataSize];
-            mFile.seek(mRodataOffset);
-            mFile.readFully(mRoData);
+            mInput.readFully(mRodataOffset, mRoData);
         }
 
         return mRoData;
@@ -25,6 +25,7 @@ import org.xmlpull.v1.XmlPullParserFactory;
 import org.xmlpull.v1.XmlSerializer;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
@@ -40,11 +41,15 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Properties;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
@@ -67,6 +72,8 @@ public class ResultHandler {
     private static final String RESULT_FILE_VERSION = "5.0";
     public static final String TEST_RESULT_FILE_NAME = "test_result.xml";
     public static final String FAILURE_REPORT_NAME = "test_result_failures.html";
+    /** Name of the file summarizing the result file, for {@link #getLightResults(File)}. */
+    public static final String SUMMARY_FILE_NAME = "test_result_summary.properties";
     private static final String FAILURE_XSL_FILE_NAME = "compatibility_failures.xsl";
 
     public static final String[] RESULT_RESOURCES = {
@@ -130,24 +137,33 @@ public class ResultHandler {
 
     private static final String LATEST_RESULT_DIR = "latest";
 
+    // Summary file keys, in addition to the ones of the result file attributes.
+    private static final String SUMMARY_FILE_VERSION = "1";
+    private static final String SUMMARY_VERSION_KEY = "summary_version";
+    private static final String SUMMARY_RESULT_LENGTH_KEY = "result_length";
+    private static final String SUMMARY_RESULT_MODIFIED_KEY = "result_modified";
+    private static final String SUMMARY_BUILD_PREFIX = "build.";
+    private static final String SUMMARY_MODULES_KEY = "modules";
+    /** Build attributes kept when reading the result file, and so in its summary. */
+    private static final String[] SUMMARY_BUILD_ATTRS = {BUILD_ID, BUILD_PRODUCT, RUN_HISTORY_ATTR};
+
     /**
      * Returns IInvocationResults that can be queried for general reporting information, but that
      * do not store underlying module data. Useful for summarizing invocation history.
+     *
+     * <p>The results are read from the summary file written along with the result file, or from
+     * the result file without keeping its test details when there is no up to date summary. The
+     * result directories are read in parallel.
+     *
      * @param resultsDir
      */
     public static List<IInvocationResult> getLightResults(File resultsDir) {
-        List<IInvocationResult> results = new ArrayList<>();
-        List<File> files = getResultDirectories(resultsDir);
-        for (File resultDir : files) {
-            if (LATEST_RESULT_DIR.equals(resultDir.getName())) {
-                continue;
-            }
-            IInvocationResult result = getResultFromDir(resultDir, false);
-            if (result != null) {
-                results.add(new LightInvocationResult(result));
-                result = null; // ensure all references are removed to free memory
-            }
-        }
+        List<IInvocationResult> results =
+                getResultDirectories(resultsDir).parallelStream()
+                        .filter(resultDir -> !LATEST_RESULT_DIR.equals(resultDir.getName()))
+                        .map(ResultHandler::getLightResultFromDir)
+                        .filter(Objects::nonNull)
+                        .collect(Collectors.toList());
         // Sort the table entries on each entry's timestamp.
         Collections.sort(results,  (result1, result2) -> Long.compare(
                 result1.getStartTime(),
@@ -346,6 +362,235 @@ public class ResultHandler {
         }
     }
 
+    /**
+     * @param resultDir
+     * @return a light IInvocationResult for this result, or null upon error
+     */
+    static IInvocationResult getLightResultFromDir(File resultDir) {
+        File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
+        if (!resultFile.exists()) {
+            return null;
+        }
+        IInvocationResult result = readSummary(resultDir, resultFile);
+        if (result == null) {
+            result = parseLightResult(resultDir, resultFile);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the result file without keeping any test detail, only counting the test results.
+     *
+     * <p>The counts are not read from the Summary element, since it does not identify the
+     * modules, and the result file may have been edited since it was written.
+     */
+    private static IInvocationResult parseLightResult(File resultDir, File resultFile) {
+        try (FileReader reader = new FileReader(resultFile)) {
+            XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+            parser.setInput(reader);
+            LightInvocationResult invocation = new LightInvocationResult();
+            invocation.setRetryDirectory(resultDir);
+
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, NS, RESULT_TAG);
+            invocation.setStartTime(Long.valueOf(parser.getAttributeValue(NS, START_TIME_ATTR)));
+            invocation.setTestPlan(parser.getAttributeValue(NS, SUITE_PLAN_ATTR));
+            invocation.setCommandLineArgs(parser.getAttributeValue(NS, COMMAND_LINE_ARGS));
+            String deviceList = parser.getAttributeValue(NS, DEVICES_ATTR);
+            for (String device : deviceList.split(",")) {
+                invocation.addDeviceSerial(device);
+            }
+
+            parser.nextTag();
+            parser.require(XmlPullParser.START_TAG, NS, BUILD_TAG);
+            invocation.addInvocationInfo(BUILD_ID, parser.getAttributeValue(NS, BUILD_ID));
+            invocation.addInvocationInfo(
+                    BUILD_PRODUCT, parser.getAttributeValue(NS, BUILD_PRODUCT));
+            String runHistoryValue = parser.getAttributeValue(NS, RUN_HISTORY_ATTR);
+            if (runHistoryValue != null) {
+                invocation.addInvocationInfo(RUN_HISTORY_ATTR, runHistoryValue);
+            }
+            String reportFingerprint = parser.getAttributeValue(NS, BUILD_FINGERPRINT);
+            String unalteredFingerprint = parser.getAttributeValue(NS, BUILD_FINGERPRINT_UNALTERED);
+            invocation.setBuildFingerprint(
+                    Strings.isNullOrEmpty(unalteredFingerprint)
+                            ? reportFingerprint
+                            : unalteredFingerprint);
+            skipCurrentTag(parser);
+
+            Map<String, Boolean> modulesDone = new HashMap<>();
+            // Like the full result, the tests with the same name in the same case are a single
+            // test, with the last status.
+            Map<String, Map<String, TestStatus>> caseTestStatuses = new HashMap<>();
+            while (parser.nextTag() == XmlPullParser.START_TAG) {
+                // Skip the RunHistory and Summary tags.
+                if (!MODULE_TAG.equals(parser.getName())) {
+                    skipCurrentTag(parser);
+                    continue;
+                }
+                String moduleId =
+                        AbiUtils.createId(
+                                parser.getAttributeValue(NS, ABI_ATTR),
+                                parser.getAttributeValue(NS, NAME_ATTR));
+                modulesDone.put(
+                        moduleId, Boolean.parseBoolean(parser.getAttributeValue(NS, DONE_ATTR)));
+                while (parser.nextTag() == XmlPullParser.START_TAG) {
+                    if (!CASE_TAG.equals(parser.getName())) {
+                        skipCurrentTag(parser);
+                        continue;
+                    }
+                    Map<String, TestStatus> testStatuses =
+                            caseTestStatuses.computeIfAbsent(
+                                    moduleId + "#" + parser.getAttributeValue(NS, NAME_ATTR),
+                                    k -> new HashMap<>());
+                    while (parser.nextTag() == XmlPullParser.START_TAG) {
+                        parser.require(XmlPullParser.START_TAG, NS, TEST_TAG);
+                        String testName = parser.getAttributeValue(NS, NAME_ATTR);
+                        String result = parser.getAttributeValue(NS, RESULT_ATTR);
+                        String skipped = parser.getAttributeValue(NS, SKIPPED_ATTR);
+                        // A skipped test is counted as passed.
+                        TestStatus status =
+                                Boolean.parseBoolean(skipped)
+                                        ? TestStatus.PASS
+                                        : TestStatus.getStatus(result);
+                        testStatuses.put(testName, status);
+                        skipCurrentTag(parser);
+                    }
+                    parser.require(XmlPullParser.END_TAG, NS, CASE_TAG);
+                }
+                parser.require(XmlPullParser.END_TAG, NS, MODULE_TAG);
+            }
+            parser.require(XmlPullParser.END_TAG, NS, RESULT_TAG);
+
+            int moduleCompleteCount = 0;
+            for (Map.Entry<String, Boolean> moduleDone : modulesDone.entrySet()) {
+                invocation.getOrCreateModule(moduleDone.getKey());
+                if (moduleDone.getValue()) {
+                    moduleCompleteCount++;
+                }
+            }
+            invocation.setModuleCompleteCount(moduleCompleteCount);
+            int[] resultCounts = new int[TestStatus.values().length];
+            for (Map<String, TestStatus> testStatuses : caseTestStatuses.values()) {
+                for (TestStatus status : testStatuses.values()) {
+                    if (status != null) {
+                        resultCounts[status.ordinal()]++;
+                    }
+                }
+            }
+            for (TestStatus status : TestStatus.values()) {
+                invocation.setResultCount(status, resultCounts[status.ordinal()]);
+            }
+            return invocation;
+        } catch (XmlPullParserException | IOException | RuntimeException e) {
+            System.out.println(
+                    String.format(
+                            "Exception when trying to load %s", resultFile.getAbsolutePath()));
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Reads the summary of the result file, or returns null if there is none or if it was not
+     * written for the current result file.
+     */
+    private static IInvocationResult readSummary(File resultDir, File resultFile) {
+        File summaryFile = new File(resultDir, SUMMARY_FILE_NAME);
+        if (!summaryFile.isFile()) {
+            return null;
+        }
+        Properties summary = new Properties();
+        try (InputStream stream = new FileInputStream(summaryFile)) {
+            summary.load(stream);
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+        if (!SUMMARY_FILE_VERSION.equals(summary.getProperty(SUMMARY_VERSION_KEY))
+                || !String.valueOf(resultFile.length())
+                        .equals(summary.getProperty(SUMMARY_RESULT_LENGTH_KEY))
+                || !String.valueOf(resultFile.lastModified())
+                        .equals(summary.getProperty(SUMMARY_RESULT_MODIFIED_KEY))) {
+            return null;
+        }
+        try {
+            LightInvocationResult invocation = new LightInvocationResult();
+            invocation.setRetryDirectory(resultDir);
+            invocation.setStartTime(Long.parseLong(summary.getProperty(START_TIME_ATTR)));
+            invocation.setTestPlan(summary.getProperty(SUITE_PLAN_ATTR));
+            invocation.setCommandLineArgs(summary.getProperty(COMMAND_LINE_ARGS));
+            invocation.setBuildFingerprint(summary.getProperty(BUILD_FINGERPRINT));
+            for (String device : summary.getProperty(DEVICES_ATTR, "").split(",")) {
+                invocation.addDeviceSerial(device);
+            }
+            for (String buildAttr : SUMMARY_BUILD_ATTRS) {
+                String value = summary.getProperty(SUMMARY_BUILD_PREFIX + buildAttr);
+                if (value != null || !RUN_HISTORY_ATTR.equals(buildAttr)) {
+                    invocation.addInvocationInfo(buildAttr, value);
+                }
+            }
+            for (String moduleId : summary.getProperty(SUMMARY_MODULES_KEY, "").split(",")) {
+                if (!moduleId.isEmpty()) {
+                    invocation.getOrCreateModule(moduleId);
+                }
+            }
+            invocation.setModuleCompleteCount(
+                    Integer.parseInt(summary.getProperty(MODULES_DONE_ATTR)));
+            invocation.setResultCount(
+                    TestStatus.PASS, Integer.parseInt(summary.getProperty(PASS_ATTR)));
+            invocation.setResultCount(
+                    TestStatus.FAIL, Integer.parseInt(summary.getProperty(FAILED_ATTR)));
+            return invocation;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the summary of the result file of {@code resultDir}, holding the content of {@code
+     * result} which is kept when reading the result file. Failures are ignored, the result file
+     * is parsed when listing the results then.
+     */
+    private static void writeSummary(File resultDir, IInvocationResult result) {
+        File resultFile = new File(resultDir, TEST_RESULT_FILE_NAME);
+        Properties summary = new Properties();
+        summary.setProperty(SUMMARY_VERSION_KEY, SUMMARY_FILE_VERSION);
+        summary.setProperty(SUMMARY_RESULT_LENGTH_KEY, String.valueOf(resultFile.length()));
+        summary.setProperty(
+                SUMMARY_RESULT_MODIFIED_KEY, String.valueOf(resultFile.lastModified()));
+        summary.setProperty(START_TIME_ATTR, String.valueOf(result.getStartTime()));
+        setPropertyIfNotNull(summary, SUITE_PLAN_ATTR, result.getTestPlan());
+        setPropertyIfNotNull(summary, COMMAND_LINE_ARGS, result.getCommandLineArgs());
+        setPropertyIfNotNull(summary, BUILD_FINGERPRINT, result.getBuildFingerprint());
+        summary.setProperty(DEVICES_ATTR, String.join(",", result.getDeviceSerials()));
+        for (String buildAttr : SUMMARY_BUILD_ATTRS) {
+            setPropertyIfNotNull(
+                    summary,
+                    SUMMARY_BUILD_PREFIX + buildAttr,
+                    result.getInvocationInfo().get(buildAttr));
+        }
+        List<String> moduleIds = new ArrayList<>();
+        for (IModuleResult module : result.getModules()) {
+            moduleIds.add(module.getId());
+        }
+        summary.setProperty(SUMMARY_MODULES_KEY, String.join(",", moduleIds));
+        summary.setProperty(MODULES_DONE_ATTR, String.valueOf(result.getModuleCompleteCount()));
+        summary.setProperty(PASS_ATTR, String.valueOf(result.countResults(TestStatus.PASS)));
+        summary.setProperty(FAILED_ATTR, String.valueOf(result.countResults(TestStatus.FAIL)));
+        try (OutputStream stream =
+                new FileOutputStream(new File(resultDir, SUMMARY_FILE_NAME))) {
+            summary.store(stream, null);
+        } catch (IOException e) {
+            // Do not disrupt the process if there is a problem writing the summary.
+        }
+    }
+
+    private static void setPropertyIfNotNull(Properties properties, String key, String value) {
+        if (value != null) {
+            properties.setProperty(key, value);
+        }
+    }
+
     /** Parse and replay all run history information. */
     private static void parseRunHistory(XmlPullParser parser)
             throws IOException, XmlPullParserException {
@@ -573,6 +818,19 @@ public class ResultHandler {
             serializer.endTag(NS, MODULE_TAG);
         }
         serializer.endDocument();
+
+        // Summarize the result the way it is read back from the result file, before the
+        // checksum so that it covers the summary.
+        LightInvocationResult summary = new LightInvocationResult(result);
+        summary.setStartTime(startTime);
+        summary.setTestPlan(suitePlan);
+        summary.setCommandLineArgs(nullToEmpty(commandLineArgs));
+        String unalteredFingerprint = result.getInvocationInfo().get(BUILD_FINGERPRINT_UNALTERED);
+        summary.setBuildFingerprint(
+                Strings.isNullOrEmpty(unalteredFingerprint)
+                        ? result.getInvocationInfo().get(BUILD_FINGERPRINT)
+                        : unalteredFingerprint);
+        writeSummary(resultDir, summary);
         createChecksum(resultDir, result);
         return resultFile;
     }
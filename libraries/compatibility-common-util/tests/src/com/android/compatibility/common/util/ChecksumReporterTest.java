@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+
+/** Unit tests for {@link ChecksumReporter}. */
+@RunWith(JUnit4.class)
+public class ChecksumReporterTest {
+    private File mRoot;
+    private File mLogs;
+
+    @Before
+    public void setUp() throws IOException {
+        mRoot = Files.createTempDirectory("results").toFile();
+        mLogs = new File(new File(mRoot, "logs"), "device");
+        mLogs.mkdirs();
+        writeFile(new File(mRoot, "test_result.xml"), "<Result />");
+        writeFile(new File(mLogs, "logcat.txt"), "logcat");
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.recursiveDelete(mRoot);
+    }
+
+    /** Test the files of a directory are hashed to the same keys as when added one by one. */
+    @Test
+    public void testAddDirectory() throws Exception {
+        ChecksumReporter reporter = new ChecksumReporter(1, 0.05, (short) 1);
+
+        reporter.addDirectory(mRoot);
+
+        String rootPath = mRoot.getName();
+        String logsPath = rootPath + "/logs/device";
+        assertTrue(reporter.containsFile(new File(mRoot, "test_result.xml"), rootPath));
+        assertTrue(reporter.containsFile(new File(mLogs, "logcat.txt"), logsPath));
+        assertFalse(reporter.containsFile(new File(mLogs, "logcat.txt"), rootPath));
+    }
+
+    /** Test a file rewritten with the same size and time is hashed again when verified. */
+    @Test
+    public void testContainsFile_rewrittenWithSameSizeAndTime() throws Exception {
+        File file = new File(mRoot, "test_result.xml");
+        String rootPath = mRoot.getName();
+        ChecksumReporter reporter = new ChecksumReporter(1, 0.05, (short) 1);
+        reporter.addDirectory(mRoot);
+        assertTrue(reporter.containsFile(file, rootPath));
+
+        long lastModified = file.lastModified();
+        writeFile(file, "<Result/>>");
+        assertTrue(file.setLastModified(lastModified));
+
+        assertFalse(reporter.containsFile(file, rootPath));
+        assertArrayEquals(sha256("<Result/>>"), ChecksumReporter.calculateFileChecksum(file));
+
+        ChecksumReporter otherReporter = new ChecksumReporter(1, 0.05, (short) 1);
+        otherReporter.addFile(file, rootPath);
+        assertTrue(otherReporter.containsFile(file, rootPath));
+    }
+
+    /** Test an unchanged file is not hashed again by the next checksum of the directory. */
+    @Test
+    public void testTryCreateChecksum_reusesUnchangedFileDigest() throws Exception {
+        File file = new File(mLogs, "logcat.txt");
+        long lastModified = System.currentTimeMillis() - 60_000;
+        assertTrue(file.setLastModified(lastModified));
+        assertTrue(ChecksumReporter.tryCreateChecksum(mRoot, new InvocationResult()));
+
+        // Same size and time: only a digest computed before the rewrite still matches the old
+        // content.
+        writeFile(file, "LOGCAT");
+        assertTrue(file.setLastModified(lastModified));
+        assertTrue(ChecksumReporter.tryCreateChecksum(mRoot, new InvocationResult()));
+
+        String logsPath = mRoot.getName() + "/logs/device";
+        assertFalse(ChecksumReporter.load(mRoot).containsFile(file, logsPath));
+        writeFile(file, "logcat");
+        assertTrue(ChecksumReporter.load(mRoot).containsFile(file, logsPath));
+    }
+
+    /** Test modified and recently hashed files are hashed again by the next checksum. */
+    @Test
+    public void testTryCreateChecksum_hashesChangedFiles() throws Exception {
+        File oldFile = new File(mLogs, "logcat.txt");
+        assertTrue(oldFile.setLastModified(System.currentTimeMillis() - 60_000));
+        File recentFile = new File(mRoot, "test_result.xml");
+        long recentLastModified = recentFile.lastModified();
+        assertTrue(ChecksumReporter.tryCreateChecksum(mRoot, new InvocationResult()));
+
+        writeFile(oldFile, "logcat again");
+        // The recent file may have been rewritten within the same modification time.
+        writeFile(recentFile, "<Result/>>");
+        assertTrue(recentFile.setLastModified(recentLastModified));
+        assertTrue(ChecksumReporter.tryCreateChecksum(mRoot, new InvocationResult()));
+
+        ChecksumReporter reporter = ChecksumReporter.load(mRoot);
+        assertTrue(reporter.containsFile(oldFile, mRoot.getName() + "/logs/device"));
+        assertTrue(reporter.containsFile(recentFile, mRoot.getName()));
+    }
+
+    /** Test the digests of the retried results are reused for the files copied from them. */
+    @Test
+    public void testTryCreateChecksum_reusesRetriedResultDigests() throws Exception {
+        File file = new File(mLogs, "logcat.txt");
+        long lastModified = System.currentTimeMillis() - 60_000;
+        assertTrue(file.setLastModified(lastModified));
+        assertTrue(ChecksumReporter.tryCreateChecksum(mRoot, new InvocationResult()));
+
+        File retryRoot = Files.createTempDirectory("retry").toFile();
+        try {
+            File retryLogs = new File(new File(retryRoot, "logs"), "device");
+            retryLogs.mkdirs();
+            File retryFile = new File(retryLogs, "logcat.txt");
+            writeFile(retryFile, "LOGCAT");
+            assertTrue(retryFile.setLastModified(lastModified));
+            InvocationResult retryResult = new InvocationResult();
+            retryResult.setRetryDirectory(mRoot);
+            assertTrue(ChecksumReporter.tryCreateChecksum(retryRoot, retryResult));
+
+            String logsPath = retryRoot.getName() + "/logs/device";
+            assertFalse(ChecksumReporter.load(retryRoot).containsFile(retryFile, logsPath));
+            assertTrue(ChecksumReporter.load(retryRoot).containsFile(file, logsPath));
+        } finally {
+            FileUtil.recursiveDelete(retryRoot);
+        }
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] sha256(String content) throws Exception {
+        return MessageDigest.getInstance("SHA-256")
+                .digest(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -19,22 +19,32 @@ package com.android.compatibility.common.util;
 import com.android.compatibility.common.util.CrashUtils.Config.BacktraceFilterPattern;
 import com.google.common.collect.ImmutableList;
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.regex.Pattern;
 
 /** Unit tests for {@link CrashUtils}. */
 @RunWith(JUnit4.class)
 public class CrashUtilsTest {
+    /** Directory of the logcats read by {@link #testAddAllCrashesBenchmark}. */
+    private static final String LOGCAT_DIR_PROPERTY = "crashutils.logcat.dir";
+    private static final int BENCHMARK_ITERATIONS = 5;
 
     private JSONArray mCrashes;
 
@@ -496,6 +506,117 @@ public class CrashUtilsTest {
                 mCrashes.toString());
     }
 
+    /** Test the streaming scanner finds the same crashes as the regular expression. */
+    @Test
+    public void testAddAllCrashes_reader() throws Exception {
+        JSONArray crashes;
+        try (Reader reader = openLogcat()) {
+            crashes = CrashUtils.addAllCrashes(reader, new JSONArray());
+        }
+        Assert.assertEquals(mCrashes.toString(), crashes.toString());
+    }
+
+    /** Test each crash is reported once its backtrace ends, and unterminated blobs are dropped. */
+    @Test
+    public void testScanCrashes_incremental() throws Exception {
+        String crash =
+                "11-25 19:47:35.597   724   724 F DEBUG   : *** *** *** *** *** *** *** ***\n"
+                        + "11-25 19:47:35.597   724   724 F DEBUG   : pid: 11071, tid: 11189, "
+                        + "name: AudioOut_D  >>> /system/bin/audioserver <<<\n"
+                        + "11-25 19:47:35.597   724   724 F DEBUG   : signal 11 (SIGSEGV), "
+                        + "code 2 (SEGV_ACCERR), fault addr 0xe9380000\n"
+                        + "11-25 19:47:35.597   724   724 F DEBUG   : backtrace:\n"
+                        + "11-25 19:47:35.597   724   724 F DEBUG   :     #00 pc 00002c6e  "
+                        + "/system/lib/libaudioutils.so (memcpy_to_float_from_i16+5)\n";
+        String input =
+                crash
+                        + "11-25 19:47:35.600   600   600 I Other   : not a backtrace\n"
+                        + crash
+                        + "11-25 19:47:35.597   724   724 F DEBUG   : *** *** *** *** ***\n";
+        List<String> processes = new ArrayList<>();
+
+        CrashUtils.scanCrashes(
+                new StringReader(input),
+                c -> processes.add(c.optString(CrashUtils.PROCESS)));
+
+        Assert.assertEquals(
+                ImmutableList.of("/system/bin/audioserver", "/system/bin/audioserver"), processes);
+        Assert.assertEquals(
+                CrashUtils.addAllCrashes(input, new JSONArray()).toString(),
+                CrashUtils.addAllCrashes(new StringReader(input), new JSONArray()).toString());
+    }
+
+    /**
+     * Checks the regular expression and the streaming scanner find the same crashes in every
+     * logcat of a directory, e.g. recorded from test runs, and compares the time they take to
+     * scan all of them, reported to the test log. Set the directory with the
+     * crashutils.logcat.dir system property, the test is skipped otherwise.
+     */
+    @Test
+    public void testAddAllCrashesBenchmark() throws Exception {
+        String dir = System.getProperty(LOGCAT_DIR_PROPERTY);
+        Assume.assumeTrue("Set " + LOGCAT_DIR_PROPERTY + " to run this test", dir != null);
+        File[] files = new File(dir).listFiles();
+        Assert.assertNotNull("Invalid directory: " + dir, files);
+
+        List<File> logcats = new ArrayList<>();
+        for (File file : files) {
+            if (file.isFile()) {
+                logcats.add(file);
+            }
+        }
+        Assert.assertFalse("No logcat in " + dir, logcats.isEmpty());
+        for (File logcat : logcats) {
+            Assert.assertEquals(
+                    logcat.getName(),
+                    scanAll(List.of(logcat), false).toString(),
+                    scanAll(List.of(logcat), true).toString());
+        }
+
+        long regexNanos = Long.MAX_VALUE;
+        long streamNanos = Long.MAX_VALUE;
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            long start = System.nanoTime();
+            scanAll(logcats, false);
+            regexNanos = Math.min(regexNanos, System.nanoTime() - start);
+            start = System.nanoTime();
+            scanAll(logcats, true);
+            streamNanos = Math.min(streamNanos, System.nanoTime() - start);
+        }
+        System.err.println(
+                String.format(
+                        "CrashUtils benchmark: %d logcats, best of %d, regex %d us,"
+                                + " streaming %d us",
+                        logcats.size(),
+                        BENCHMARK_ITERATIONS,
+                        regexNanos / 1000,
+                        streamNanos / 1000));
+    }
+
+    /** Finds the crashes of all {@code logcats} with either scanner. */
+    private static JSONArray scanAll(List<File> logcats, boolean streaming) throws IOException {
+        JSONArray crashes = new JSONArray();
+        for (File logcat : logcats) {
+            if (streaming) {
+                try (Reader reader = Files.newBufferedReader(logcat.toPath())) {
+                    CrashUtils.addAllCrashes(reader, crashes);
+                }
+            } else {
+                CrashUtils.addAllCrashes(
+                        new String(Files.readAllBytes(logcat.toPath()), StandardCharsets.UTF_8),
+                        crashes);
+            }
+        }
+        return crashes;
+    }
+
+    private Reader openLogcat() {
+        return new BufferedReader(
+                new InputStreamReader(
+                        getClass().getClassLoader().getResourceAsStream("logcat.txt"),
+                        StandardCharsets.UTF_8));
+    }
+
     /** Helper method to shorten code for readability. */
     private JSONObject stackFrame(String filename, String method) throws JSONException {
         return new JSONObject().put(CrashUtils.FILENAME, filename).put(CrashUtils.METHOD, method);
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+/** Unit tests for {@link ElfSymbolIndex}. */
+@RunWith(JUnit4.class)
+public class ElfSymbolIndexTest {
+    private static final String TEST_SO_ARM64B = "arm64_libdl.so";
+    private static final String TEST_EXE_X8664B = "x86app_process64";
+    private static final String TEST_TXT = "arm64_libdl.txt";
+
+    private File mRoot;
+    private File mLibDl;
+    private File mAppProcess;
+
+    @Before
+    public void setUp() throws IOException {
+        mRoot = Files.createTempDirectory("elf_index").toFile();
+        File libDir = new File(mRoot, "lib64");
+        File binDir = new File(mRoot, "bin");
+        libDir.mkdirs();
+        binDir.mkdirs();
+        mLibDl = copyResource(TEST_SO_ARM64B, new File(libDir, "libdl.so"));
+        mAppProcess = copyResource(TEST_EXE_X8664B, new File(binDir, "app_process64"));
+        copyResource(TEST_TXT, new File(libDir, "libdl.txt"));
+    }
+
+    @After
+    public void tearDown() {
+        FileUtil.recursiveDelete(mRoot);
+    }
+
+    /** Test the index answers the symbol queries of the scanned ELF files. */
+    @Test
+    public void testUpdate() {
+        ElfSymbolIndex index = new ElfSymbolIndex();
+
+        assertEquals(2, index.update(mRoot));
+
+        assertEquals(2, index.getEntries().size());
+        assertEquals(Arrays.asList(mLibDl.getPath()), index.getExporters("dlsym"));
+        assertEquals(Arrays.asList(mAppProcess.getPath()), index.getImporters("dlsym"));
+        assertEquals(Collections.emptyList(), index.getExporters("no_such_symbol"));
+
+        ElfSymbolIndex.Entry appProcess = index.getEntry(mAppProcess.getPath());
+        assertNotNull(appProcess);
+        assertTrue(appProcess.dependencies.contains("libbinder.so"));
+        assertEquals(Set.of("LIBC"), appProcess.versionNeeds.get("libdl.so"));
+        assertEquals(Set.of("LIBC", "LIBC_P"), appProcess.versionNeeds.get("libc.so"));
+        assertEquals(
+                Arrays.asList("ld-android.so"),
+                index.getEntry(mLibDl.getPath()).dependencies);
+    }
+
+    /** Test only the added and modified files are parsed, and deleted files are removed. */
+    @Test
+    public void testUpdateIncremental() throws IOException {
+        ElfSymbolIndex index = new ElfSymbolIndex();
+        index.update(mRoot);
+
+        assertEquals(0, index.update(mRoot));
+
+        assertTrue(mLibDl.setLastModified(mLibDl.lastModified() - 10_000));
+        File libDlCopy = new File(mLibDl.getParentFile(), "libdl_copy.so");
+        Files.copy(mLibDl.toPath(), libDlCopy.toPath());
+        assertTrue(mAppProcess.delete());
+
+        assertEquals(2, index.update(mRoot));
+        assertEquals(2, index.getEntries().size());
+        assertNull(index.getEntry(mAppProcess.getPath()));
+        assertEquals(Collections.emptyList(), index.getImporters("dlsym"));
+        assertEquals(
+                Arrays.asList(mLibDl.getPath(), libDlCopy.getPath()),
+                index.getExporters("dlsym"));
+    }
+
+    /** Test a saved index is loaded with the same content and stays up to date. */
+    @Test
+    public void testSaveLoad() throws IOException {
+        File indexFile = new File(mRoot, "index.bin");
+        ElfSymbolIndex index = ElfSymbolIndex.load(indexFile);
+        assertEquals(0, index.getEntries().size());
+        index.update(new File(mRoot, "lib64"));
+        index.update(new File(mRoot, "bin"));
+        index.save(indexFile);
+
+        ElfSymbolIndex loaded = ElfSymbolIndex.load(indexFile);
+
+        assertEquals(0, loaded.update(mRoot));
+        for (ElfSymbolIndex.Entry entry : index.getEntries()) {
+            ElfSymbolIndex.Entry loadedEntry = loaded.getEntry(entry.path);
+            assertNotNull(loadedEntry);
+            assertEquals(entry.dependencies, loadedEntry.dependencies);
+            assertEquals(entry.exportedSymbols, loadedEntry.exportedSymbols);
+            assertEquals(entry.importedSymbols, loadedEntry.importedSymbols);
+            assertEquals(entry.versionNeeds, loadedEntry.versionNeeds);
+        }
+        assertEquals(index.getExporters("dlopen"), loaded.getExporters("dlopen"));
+    }
+
+    private File copyResource(String fileName, File destFile) throws IOException {
+        try (InputStream input = getClass().getResourceAsStream("/" + fileName)) {
+            assertNotNull(input);
+            FileUtil.writeToFile(input, destFile);
+        }
+        return destFile;
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.compatibility.common.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/** Unit tests for {@link LogcatInspector}. */
+@RunWith(JUnit4.class)
+public class LogcatInspectorTest {
+    private static final String FILTER_SPEC = "tag:* *:S";
+
+    /** Test the strings are found in the dumped logcat. */
+    @Test
+    public void testAssertLogcatContainsInOrder_dump() throws Exception {
+        FakeLogcatInspector inspector = new FakeLogcatInspector();
+        inspector.log("first");
+        inspector.log("second");
+
+        inspector.assertLogcatContainsInOrder(FILTER_SPEC, 5, "first", "second");
+
+        assertEquals(List.of("logcat -v epoch -v usec -d " + FILTER_SPEC), inspector.mCommands);
+    }
+
+    /** Test the strings logged before and while following logcat are found in its stream. */
+    @Test
+    public void testAssertLogcatContainsInOrder_follow() throws Exception {
+        FakeLogcatInspector inspector = new FakeLogcatInspector();
+        inspector.setFollowMode(true);
+        inspector.log("first");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> assertion =
+                    executor.submit(
+                            () -> {
+                                inspector.assertLogcatContainsInOrder(
+                                        FILTER_SPEC, 5, "first", "second");
+                                return null;
+                            });
+            Thread.sleep(200);
+            inspector.log("second");
+
+            assertion.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(
+                List.of(
+                        "logcat -v epoch -v usec -d " + FILTER_SPEC,
+                        "logcat -v epoch -v usec -T 1700000000.001000 " + FILTER_SPEC),
+                inspector.mCommands);
+    }
+
+    /** Test the strings logged long before following logcat are found in the dumped backlog. */
+    @Test
+    public void testAssertLogcatContainsInOrder_followOldLines() throws Exception {
+        FakeLogcatInspector inspector = new FakeLogcatInspector();
+        inspector.setFollowMode(true);
+        inspector.log("first");
+        for (int i = 0; i < 2000; i++) {
+            inspector.log("filler");
+        }
+
+        inspector.assertLogcatContainsInOrder(FILTER_SPEC, 5, "first", "filler");
+        assertThrows(
+                AssertionError.class,
+                () -> inspector.assertLogcatDoesNotContainInOrder(1, "first", "filler"));
+    }
+
+    /** Test a new stream is followed when the followed one ends before the strings are found. */
+    @Test
+    public void testAssertLogcatContainsInOrder_followStreamEnded() throws Exception {
+        FakeLogcatInspector inspector = new FakeLogcatInspector();
+        inspector.setFollowMode(true);
+        inspector.log("first");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> assertion =
+                    executor.submit(
+                            () -> {
+                                inspector.assertLogcatContainsInOrder(
+                                        FILTER_SPEC, 10, "first", "second");
+                                return null;
+                            });
+            Thread.sleep(200);
+            inspector.endFollowedStreams();
+            // Longer than the delay before following a new stream.
+            Thread.sleep(1500);
+            // The assertion is still waiting for the string, and follows it once logged.
+            assertFalse(assertion.isDone());
+            inspector.log("second");
+
+            assertion.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2, inspector.countFollowCommands());
+    }
+
+    /** Test the concurrent assertions with the same filter spec follow the same stream. */
+    @Test
+    public void testAssertLogcatContainsInOrder_followConcurrent() throws Exception {
+        FakeLogcatInspector inspector = new FakeLogcatInspector();
+        inspector.setFollowMode(true);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<Future<?>> assertions = new ArrayList<>();
+            for (String logcatString : new String[] {"first", "second"}) {
+                assertions.add(
+                        executor.submit(
+                                () -> {
+                                    inspector.assertLogcatContainsInOrder(
+                                            FILTER_SPEC, 5, logcatString);
+                                    return null;
+                                }));
+            }
+            Thread.sleep(200);
+            inspector.log("second");
+            inspector.log("first");
+
+            for (Future<?> assertion : assertions) {
+                assertion.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, inspector.countFollowCommands());
+    }
+
+    /** Test a missing string fails the assertion, and the stream is closed. */
+    @Test
+    public void testAssertLogcatContainsInOrder_followTimeout() throws Exception {
+        FakeLogcatInspector inspector = new FakeLogcatInspector();
+        inspector.setFollowMode(true);
+        inspector.log("first");
+
+        assertThrows(
+                AssertionError.class,
+                () -> inspector.assertLogcatContainsInOrder(FILTER_SPEC, 1, "first", "second"));
+        inspector.log("second");
+        assertTrue(inspector.mFollowedStreams.isEmpty());
+    }
+
+    /** Test the assertions for unexpected strings follow logcat. */
+    @Test
+    public void testAssertLogcatDoesNotContainInOrder_follow() throws Exception {
+        FakeLogcatInspector inspector = new FakeLogcatInspector();
+        inspector.setFollowMode(true);
+        inspector.log("first");
+
+        inspector.assertLogcatDoesNotContainInOrder(1, "first", "second");
+        inspector.log("second");
+        assertThrows(
+                AssertionError.class,
+                () -> inspector.assertLogcatDoesNotContainInOrder(1, "first", "second"));
+    }
+
+    /** Fake device logcat, which logs the messages of the log commands. */
+    private static class FakeLogcatInspector extends LogcatInspector {
+        final List<String> mCommands = new ArrayList<>();
+        final List<PipedOutputStream> mFollowedStreams = new ArrayList<>();
+        private final List<String> mLines = new ArrayList<>();
+        private final List<Long> mLineEpochMicroseconds = new ArrayList<>();
+        private long mEpochMicroseconds = 1_700_000_000_000_000L;
+
+        @Override
+        protected synchronized InputStream executeShellCommand(String command)
+                throws IOException {
+            if (command.startsWith("log -t ")) {
+                log(command.substring(command.lastIndexOf(' ') + 1));
+                return new ByteArrayInputStream(new byte[0]);
+            }
+            mCommands.add(command);
+            StringBuilder logcat = new StringBuilder();
+            if (command.contains(" -d ")) {
+                mLines.forEach(logcat::append);
+                return new ByteArrayInputStream(logcat.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            // '-T <seconds>.<microseconds>' prints the lines since that time.
+            String start = command.split(" ")[6];
+            long startEpochMicroseconds = Long.parseLong(start.replace(".", ""));
+            for (int i = 0; i < mLines.size(); i++) {
+                if (mLineEpochMicroseconds.get(i) >= startEpochMicroseconds) {
+                    logcat.append(mLines.get(i));
+                }
+            }
+            PipedOutputStream output = new PipedOutputStream();
+            PipedInputStream input = new PipedInputStream(output, 64 * 1024);
+            output.write(logcat.toString().getBytes(StandardCharsets.UTF_8));
+            output.flush();
+            mFollowedStreams.add(output);
+            return input;
+        }
+
+        synchronized void log(String message) {
+            mEpochMicroseconds += 1000;
+            String line =
+                    String.format(
+                            "%d.%06d  1000  1000 I tag     : %s\n",
+                            mEpochMicroseconds / 1_000_000,
+                            mEpochMicroseconds % 1_000_000,
+                            message);
+            mLines.add(line);
+            mLineEpochMicroseconds.add(mEpochMicroseconds);
+            Iterator<PipedOutputStream> streams = mFollowedStreams.iterator();
+            while (streams.hasNext()) {
+                try {
+                    PipedOutputStream stream = streams.next();
+                    stream.write(line.getBytes(StandardCharsets.UTF_8));
+                    stream.flush();
+                } catch (IOException e) {
+                    // The stream was closed by the inspector.
+                    streams.remove();
+                }
+            }
+        }
+
+        synchronized long countFollowCommands() {
+            return mCommands.stream().filter(command -> command.contains(" -T ")).count();
+        }
+
+        /** Ends the followed streams, as if logcat was killed. */
+        synchronized void endFollowedStreams() throws IOException {
+            for (PipedOutputStream stream : mFollowedStreams) {
+                stream.close();
+            }
+            mFollowedStreams.clear();
+        }
+    }
+}
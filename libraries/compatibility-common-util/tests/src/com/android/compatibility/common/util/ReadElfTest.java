@@ -27,10 +27,16 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
 /**
  * Tests if {@link ReadElf} parses Executable and Linkable Format files properly.
@@ -51,6 +57,10 @@ public class ReadElfTest {
     private static final String TEST_EXE_X8664B_READELF = "x86app_process64.txt";
     private static final String TEST_EXE_X8632B = "x86app_process32";
     private static final String TEST_EXE_X8632B_READELF = "x86app_process32.txt";
+    /** Directory of the ELF files read by {@link #testBackendsBenchmark}. */
+    private static final String BACKENDS_DIR_PROPERTY = "readelf.backends.dir";
+    private static final int BENCHMARK_ITERATIONS = 5;
+    private static final int SHT_DYNSYM = 11;
 
     /**
      * Test {@link ReadElf} for an ARM 32-bit Shared Object
@@ -94,6 +104,55 @@ public class ReadElfTest {
                 TEST_EXE_X8664B, TEST_EXE_X8664B_READELF, ReadElf.ARCH_X86, 64, ReadElf.ET_DYN);
     }
 
+    /** Test both {@link ReadElf} backends read a symbol name longer than their read buffer. */
+    @Test
+    public void testReadElfLongSymbolName() throws Exception {
+        File targetFile = getResrouceFile(TEST_SO_ARM64B);
+        String longName = String.join("", Collections.nCopies(100, "long_symbol_name_"));
+        renameDynamicSymbol(targetFile, 1, longName);
+
+        try (ReadElf elf = ReadElf.read(targetFile);
+                ReadElf mappedElf = ReadElf.readMapped(targetFile)) {
+            assertEquals(longName, elf.getDynSymArr()[1].name);
+            assertEquals(longName, mappedElf.getDynSymArr()[1].name);
+            assertSameElf(TEST_SO_ARM64B, elf, mappedElf);
+        }
+    }
+
+    /**
+     * Appends {@code name} to the dynamic string table of a 64-bit little-endian ELF file, moving
+     * its end to the end of the file, and points the name of the dynamic symbol {@code index} to
+     * it.
+     */
+    private static void renameDynamicSymbol(File elfFile, int index, String name)
+            throws IOException {
+        ByteBuffer elf = ByteBuffer.wrap(Files.readAllBytes(elfFile.toPath()));
+        elf.order(ByteOrder.LITTLE_ENDIAN);
+        int shOff = (int) elf.getLong(0x28);
+        int shEntSize = elf.getShort(0x3A);
+        int shNum = elf.getShort(0x3C);
+        for (int i = 0; i < shNum; i++) {
+            int secHeader = shOff + i * shEntSize;
+            if (elf.getInt(secHeader + 4) != SHT_DYNSYM) {
+                continue;
+            }
+            int symOffset = (int) elf.getLong(secHeader + 0x18);
+            int symEntSize = (int) elf.getLong(secHeader + 0x38);
+            int strSecHeader = shOff + elf.getInt(secHeader + 0x28) * shEntSize;
+            int strOffset = (int) elf.getLong(strSecHeader + 0x18);
+            int nameOffset = elf.capacity() - strOffset;
+            elf.putInt(symOffset + index * symEntSize, nameOffset);
+            elf.putLong(strSecHeader + 0x20, nameOffset + name.length() + 1);
+            try (OutputStream output = new FileOutputStream(elfFile)) {
+                output.write(elf.array());
+                output.write(name.getBytes(StandardCharsets.US_ASCII));
+                output.write(0);
+            }
+            return;
+        }
+        fail("No dynamic symbol table in " + elfFile);
+    }
+
     /**
      * Compares {@link ReadElf} returns same results with Linux readelf cmd on the same ELF file
      *
@@ -108,7 +167,22 @@ public class ReadElfTest {
             throws Exception {
         File targetFile = getResrouceFile(elfFileName);
         assertEquals("ReadElf.isElf() " + elfFileName, true, ReadElf.isElf(targetFile));
-        ReadElf elf = ReadElf.read(targetFile);
+        try (ReadElf elf = ReadElf.read(targetFile);
+                ReadElf mappedElf = ReadElf.readMapped(targetFile)) {
+            checkReadElf(elf, elfFileName, elfOutputFileName, arch, bits, type);
+            checkReadElf(mappedElf, elfFileName, elfOutputFileName, arch, bits, type);
+            assertSameElf(elfFileName, elf, mappedElf);
+        }
+    }
+
+    private void checkReadElf(
+            ReadElf elf,
+            String elfFileName,
+            String elfOutputFileName,
+            String arch,
+            int bits,
+            int type)
+            throws Exception {
         assertEquals("getBits() ", bits, elf.getBits());
         assertEquals("getArchitecture() ", arch, elf.getArchitecture());
         assertEquals("isDynamic() ", true, elf.isDynamic());
@@ -131,6 +205,97 @@ public class ReadElfTest {
                 elf.getRoStrings());
     }
 
+    /**
+     * Checks both {@link ReadElf} backends read the same content from every ELF file in a
+     * directory, e.g. /system/lib64 of a system image, and compares the time they take to read
+     * the symbols and dependencies of all the files, reported to the test log. Set the directory
+     * with the readelf.backends.dir system property, the test is skipped otherwise.
+     */
+    @Test
+    public void testBackendsBenchmark() throws Exception {
+        String dir = System.getProperty(BACKENDS_DIR_PROPERTY);
+        assumeTrue("Set " + BACKENDS_DIR_PROPERTY + " to run this test", dir != null);
+        File[] files = new File(dir).listFiles();
+        assertNotNull("Invalid directory: " + dir, files);
+
+        List<File> elfFiles = new ArrayList<>();
+        for (File file : files) {
+            if (file.isFile() && ReadElf.isElf(file)) {
+                elfFiles.add(file);
+            }
+        }
+        assertTrue("No ELF file in " + dir, !elfFiles.isEmpty());
+        for (File file : elfFiles) {
+            try (ReadElf elf = ReadElf.read(file);
+                    ReadElf mappedElf = ReadElf.readMapped(file)) {
+                assertSameElf(file.getName(), elf, mappedElf);
+            }
+        }
+
+        long fileNanos = Long.MAX_VALUE;
+        long mappedNanos = Long.MAX_VALUE;
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            fileNanos = Math.min(fileNanos, timeReadAll(elfFiles, false));
+            mappedNanos = Math.min(mappedNanos, timeReadAll(elfFiles, true));
+        }
+        System.err.println(
+                String.format(
+                        "ReadElf benchmark: %d files, best of %d, RandomAccessFile %d us,"
+                                + " mapped %d us",
+                        elfFiles.size(),
+                        BENCHMARK_ITERATIONS,
+                        fileNanos / 1000,
+                        mappedNanos / 1000));
+    }
+
+    /** Reads the symbols and dependencies of all {@code elfFiles}, returning the elapsed time. */
+    private long timeReadAll(List<File> elfFiles, boolean mapped) throws IOException {
+        long start = System.nanoTime();
+        for (File file : elfFiles) {
+            try (ReadElf elf = mapped ? ReadElf.readMapped(file) : ReadElf.read(file)) {
+                elf.getSymbols();
+                elf.getDynamicSymbols();
+                elf.getDynamicDependencies();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /** Checks both {@link ReadElf} backends read the same content from an ELF file. */
+    private void assertSameElf(String elfFileName, ReadElf expected, ReadElf actual)
+            throws IOException {
+        assertEquals("getBits() " + elfFileName, expected.getBits(), actual.getBits());
+        assertEquals("isPIE() " + elfFileName, expected.isPIE(), actual.isPIE());
+        assertEquals(
+                "getSymbols() " + elfFileName,
+                expected.getSymbols().keySet(),
+                actual.getSymbols().keySet());
+        ReadElf.Symbol[] expectedSymbols = expected.getDynSymArr();
+        ReadElf.Symbol[] actualSymbols = actual.getDynSymArr();
+        assertEquals(
+                "getDynSymArr() " + elfFileName, expectedSymbols.length, actualSymbols.length);
+        for (int i = 0; i < expectedSymbols.length; i++) {
+            assertEquals(
+                    "getDynSymArr() " + elfFileName + " " + i,
+                    expectedSymbols[i].toString(),
+                    actualSymbols[i].toString());
+            assertEquals(
+                    "Symbol.value " + elfFileName + " " + i,
+                    expectedSymbols[i].value,
+                    actualSymbols[i].value);
+            assertEquals(
+                    "Symbol.size " + elfFileName + " " + i,
+                    expectedSymbols[i].size,
+                    actualSymbols[i].size);
+        }
+        assertEquals(
+                "getDynamicDependencies() " + elfFileName,
+                expected.getDynamicDependencies(),
+                actual.getDynamicDependencies());
+        assertEquals(
+                "getRoStrings() " + elfFileName, expected.getRoStrings(), actual.getRoStrings());
+    }
+
     /**
      * Gets a list of needed libraries from a Linux readelf cmd output file
      *
@@ -25,6 +25,8 @@ import org.xml.sax.InputSource;
 import junit.framework.TestCase;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.StringReader;
@@ -37,6 +39,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 
 import javax.xml.xpath.XPath;
@@ -275,6 +278,17 @@ public class ResultHandlerTest extends TestCase {
         result = ResultHandler.getResultFromDir(resultDir);
         checkResult(result, false);
         checkRunHistory(result);
+
+        // The summary holds the same content as the light result of the result file, and is
+        // covered by the checksum.
+        File summaryFile = new File(resultDir, ResultHandler.SUMMARY_FILE_NAME);
+        assertTrue(summaryFile.exists());
+        assertTrue(
+                "Summary not in checksum",
+                ChecksumReporter.load(resultDir).containsFile(summaryFile, resultDir.getName()));
+        checkSameLightResult(
+                new LightInvocationResult(result),
+                ResultHandler.getLightResults(resultsDir).get(0));
     }
 
     /*
@@ -422,6 +436,73 @@ public class ResultHandlerTest extends TestCase {
         checkLightResult(lightResult);
     }
 
+    public void testGetLightResults_withoutSummary() throws Exception {
+        File resultDir = writeResultDir(resultsDir, false);
+        String[] files = resultDir.list();
+
+        // Listing the results does not write into the result directories.
+        IInvocationResult lightResult = ResultHandler.getLightResults(resultsDir).get(0);
+        checkLightResult(lightResult);
+        assertEquals(Arrays.asList(files), Arrays.asList(resultDir.list()));
+        checkSameLightResult(
+                new LightInvocationResult(ResultHandler.getResultFromDir(resultDir)), lightResult);
+    }
+
+    public void testGetLightResults_summary() throws Exception {
+        File resultDir = rewriteResultDir(writeResultDir(resultsDir, false));
+        File summaryFile = new File(resultDir, ResultHandler.SUMMARY_FILE_NAME);
+        assertTrue("Missing summary", summaryFile.exists());
+
+        IInvocationResult lightResult = ResultHandler.getLightResults(resultsDir).get(0);
+        checkLightResult(lightResult);
+        checkSameLightResult(
+                new LightInvocationResult(ResultHandler.getResultFromDir(resultDir)), lightResult);
+    }
+
+    public void testGetLightResults_duplicateTests() throws Exception {
+        File resultDir = writeResultDir(resultsDir, false);
+        File resultFile = new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        String content = FileUtil.readStringFromFile(resultFile);
+        String test = String.format(XML_TEST_PASS, METHOD_1);
+        FileUtil.writeToFile(content.replace(test, test + test), resultFile);
+
+        IInvocationResult lightResult = ResultHandler.getLightResults(resultsDir).get(0);
+        checkLightResult(lightResult);
+        checkSameLightResult(
+                new LightInvocationResult(ResultHandler.getResultFromDir(resultDir)), lightResult);
+    }
+
+    public void testGetLightResults_staleSummary() throws Exception {
+        File resultDir = rewriteResultDir(writeResultDir(resultsDir, false));
+        File summaryFile = new File(resultDir, ResultHandler.SUMMARY_FILE_NAME);
+        Properties summary = new Properties();
+        try (FileInputStream stream = new FileInputStream(summaryFile)) {
+            summary.load(stream);
+        }
+        summary.setProperty("pass", "100");
+        try (FileOutputStream stream = new FileOutputStream(summaryFile)) {
+            summary.store(stream, null);
+        }
+        IInvocationResult lightResult = ResultHandler.getLightResults(resultsDir).get(0);
+        assertEquals("Expected the summary passes", 100, lightResult.countResults(TestStatus.PASS));
+
+        // The summary is ignored once the result file is modified.
+        File resultFile = new File(resultDir, ResultHandler.TEST_RESULT_FILE_NAME);
+        assertTrue(resultFile.setLastModified(resultFile.lastModified() - 10000));
+        checkLightResult(ResultHandler.getLightResults(resultsDir).get(0));
+    }
+
+    public void testGetLightResults_multipleDirs() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            writeResultDir(resultsDir, i % 2 == 0);
+        }
+        List<IInvocationResult> lightResults = ResultHandler.getLightResults(resultsDir);
+        assertEquals("Expected five results", 5, lightResults.size());
+        for (IInvocationResult lightResult : lightResults) {
+            checkLightResult(lightResult);
+        }
+    }
+
     static File writeResultDir(File resultsDir, boolean newTestFormat) throws IOException {
         String buildInfo = String.format(XML_BUILD_INFO, EXAMPLE_BUILD_FINGERPRINT,
                 EXAMPLE_BUILD_ID, EXAMPLE_BUILD_PRODUCT);
@@ -493,6 +574,24 @@ public class ResultHandlerTest extends TestCase {
         return resultDir;
     }
 
+    /** Writes the result of {@code resultDir} again with {@link ResultHandler#writeResults}. */
+    private static File rewriteResultDir(File resultDir) throws Exception {
+        ResultHandler.writeResults(
+                SUITE_NAME,
+                SUITE_VERSION,
+                SUITE_PLAN,
+                SUITE_BUILD,
+                ResultHandler.getResultFromDir(resultDir),
+                resultDir,
+                START_MS,
+                END_MS,
+                REFERENCE_URL,
+                LOG_URL,
+                COMMAND_LINE_ARGS,
+                new HashMap<>());
+        return resultDir;
+    }
+
     static void checkLightResult(IInvocationResult lightResult) throws Exception {
         assertEquals("Expected 3 passes", 3, lightResult.countResults(TestStatus.PASS));
         assertEquals("Expected 1 failure", 1, lightResult.countResults(TestStatus.FAIL));
@@ -514,6 +613,41 @@ public class ResultHandlerTest extends TestCase {
         assertEquals("Expected 2 total modules", 2, modules.size());
     }
 
+    static void checkSameLightResult(IInvocationResult expected, IInvocationResult actual) {
+        assertEquals("Incorrect start time", expected.getStartTime(), actual.getStartTime());
+        assertEquals("Incorrect test plan", expected.getTestPlan(), actual.getTestPlan());
+        assertEquals(
+                "Incorrect command line args",
+                expected.getCommandLineArgs(),
+                actual.getCommandLineArgs());
+        assertEquals(
+                "Incorrect fingerprint",
+                expected.getBuildFingerprint(),
+                actual.getBuildFingerprint());
+        assertEquals("Incorrect devices", expected.getDeviceSerials(), actual.getDeviceSerials());
+        assertEquals(
+                "Incorrect build info", expected.getInvocationInfo(), actual.getInvocationInfo());
+        for (TestStatus status : TestStatus.values()) {
+            assertEquals(
+                    "Incorrect " + status + " count",
+                    expected.countResults(status),
+                    actual.countResults(status));
+        }
+        assertEquals(
+                "Incorrect completed modules",
+                expected.getModuleCompleteCount(),
+                actual.getModuleCompleteCount());
+        Set<String> expectedModuleIds = new HashSet<>();
+        for (IModuleResult module : expected.getModules()) {
+            expectedModuleIds.add(module.getId());
+        }
+        Set<String> actualModuleIds = new HashSet<>();
+        for (IModuleResult module : actual.getModules()) {
+            actualModuleIds.add(module.getId());
+        }
+        assertEquals("Incorrect modules", expectedModuleIds, actualModuleIds);
+    }
+
     static void checkResult(IInvocationResult result, boolean newTestFormat) throws Exception {
         checkResult(result, EXAMPLE_BUILD_FINGERPRINT, newTestFormat, true);
     }
@@ -16,6 +16,7 @@
 package android.device.collectors;
 
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.VisibleForTesting;
@@ -26,7 +27,15 @@ import org.junit.runner.Description;
 import org.junit.runner.Result;
 import org.junit.runner.notification.Failure;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 /**
@@ -37,6 +46,11 @@ import java.util.function.Function;
  * If there are any failure in the metric collection, tests will still proceed to run and
  * not posting the metrics at the end of the test.
  *
+ * With a positive sampling_interval_ms, the numeric metrics of the helper are also polled at that
+ * interval while collecting, and the min, max, mean and percentiles of each metric are reported
+ * on top of the end snapshot. Up to sampling_buffer_size samples are kept per metric, and with
+ * sampling_time_series set to true they are also reported as a binary time series file.
+ *
  * Do NOT throw exception anywhere in this class. We don't want to halt the test when metrics
  * collection fails.
  */
@@ -47,9 +61,33 @@ public class BaseCollectionListener<T> extends BaseMetricListener {
     public static final String COLLECT_PER_RUN = "per_run";
     // Skip failure metrics collection if this flag is set to true.
     public static final String SKIP_TEST_FAILURE_METRICS = "skip_test_failure_metrics";
+    // Interval in ms at which the helper metrics are sampled while collecting, 0 to disable.
+    public static final String SAMPLING_INTERVAL_MS = "sampling_interval_ms";
+    // Maximum number of samples kept per metric, the oldest are dropped first.
+    public static final String SAMPLING_BUFFER_SIZE = "sampling_buffer_size";
+    // Report the samples as a binary time series file if this flag is set to true.
+    public static final String SAMPLING_TIME_SERIES = "sampling_time_series";
+    @VisibleForTesting static final String SAMPLED_METRIC_FORMAT = "%s_sampled_%s";
+    @VisibleForTesting static final String SAMPLES_DIR = "run_listeners/sampled_metrics";
+    // Version of the binary time series file format, see writeTimeSeries.
+    @VisibleForTesting static final int TIME_SERIES_VERSION = 1;
+    private static final int DEFAULT_SAMPLING_BUFFER_SIZE = 4096;
+    private static final double[] SAMPLED_PERCENTILES = {50, 95, 99};
+    // Upper bound to wait for a sample in progress, helpers may run slow shell commands.
+    private static final long SAMPLING_STOP_TIMEOUT_MS = 30 * 1000L;
     protected boolean mIsCollectPerRun;
     protected boolean mSkipTestFailureMetrics;
     private boolean mIsTestFailed = false;
+    private long mSamplingIntervalMs;
+    private int mSamplingBufferSize = DEFAULT_SAMPLING_BUFFER_SIZE;
+    private boolean mSamplingTimeSeries;
+    private ScheduledExecutorService mSampler;
+    // Set by the sampler thread once the helper only returned non-numeric metrics.
+    private volatile boolean mNoNumericMetrics;
+    // Samples by metric key, only accessed by the sampler thread until it is terminated.
+    private final Map<String, SampleRingBuffer> mSamples = new LinkedHashMap<>();
+    private File mSamplesDir;
+    private int mTimeSeriesCount;
 
     public BaseCollectionListener() {
         super();
@@ -67,6 +105,7 @@ public class BaseCollectionListener<T> extends BaseMetricListener {
         if (mIsCollectPerRun) {
             Function<String, Boolean> filter = getFilter(description);
             testStart(filter, description);
+            startSampling();
         }
     }
 
@@ -77,6 +116,36 @@ public class BaseCollectionListener<T> extends BaseMetricListener {
         mIsCollectPerRun = "true".equals(args.getString(COLLECT_PER_RUN));
         // By default this flag is set to false to collect the metrics on test failure.
         mSkipTestFailureMetrics = "true".equals(args.getString(SKIP_TEST_FAILURE_METRICS));
+        try {
+            mSamplingIntervalMs = Long.parseLong(args.getString(SAMPLING_INTERVAL_MS, "0"));
+            mSamplingBufferSize =
+                    Integer.parseInt(
+                            args.getString(
+                                    SAMPLING_BUFFER_SIZE,
+                                    String.valueOf(DEFAULT_SAMPLING_BUFFER_SIZE)));
+        } catch (NumberFormatException e) {
+            Log.e(getTag(), "Failed to parse the sampling arguments, sampling is disabled.", e);
+            mSamplingIntervalMs = 0;
+        }
+        if (mSamplingBufferSize < 1) {
+            Log.e(getTag(), "Value for \"" + SAMPLING_BUFFER_SIZE + "\" parameter is invalid");
+            mSamplingBufferSize = DEFAULT_SAMPLING_BUFFER_SIZE;
+        }
+        mSamplingTimeSeries = "true".equals(args.getString(SAMPLING_TIME_SERIES));
+    }
+
+    @Override
+    protected void onSetUp() {
+        super.onSetUp();
+        if (mSamplingIntervalMs > 0 && mSamplingTimeSeries) {
+            mSamplesDir = createAndEmptyDirectory(SAMPLES_DIR);
+        }
+    }
+
+    @Override
+    protected void onCleanUp() {
+        super.onCleanUp();
+        stopSampling();
     }
 
     protected Function<String, Boolean> getFilter(Description description) {
@@ -89,6 +158,7 @@ public class BaseCollectionListener<T> extends BaseMetricListener {
         if (!mIsCollectPerRun) {
             Function<String, Boolean> filter = getFilter(description);
             testStart(filter, description);
+            startSampling();
         }
     }
 
@@ -101,6 +171,7 @@ public class BaseCollectionListener<T> extends BaseMetricListener {
     public void onTestEnd(DataRecord testData, Description description) {
         if (!mIsCollectPerRun) {
             try {
+                stopSampling();
                 // Skip adding the metrics collected during the test failure
                 // if the skip metrics on test failure flag is enabled and the
                 // current test is failed.
@@ -109,6 +180,7 @@ public class BaseCollectionListener<T> extends BaseMetricListener {
                 } else {
                     // Collect the metrics.
                     collectMetrics(testData);
+                    collectSampledMetrics(testData, description.getDisplayName());
                 }
             } finally {
                 mHelper.stopCollecting();
@@ -120,7 +192,9 @@ public class BaseCollectionListener<T> extends BaseMetricListener {
     public void onTestRunEnd(DataRecord runData, Result result) {
         if (mIsCollectPerRun) {
             try {
+                stopSampling();
                 collectMetrics(runData);
+                collectSampledMetrics(runData, "run");
             } finally {
                 mHelper.stopCollecting();
             }
@@ -149,4 +223,137 @@ public class BaseCollectionListener<T> extends BaseMetricListener {
     protected boolean shouldSkipFailureTestMetrics() {
         return mSkipTestFailureMetrics && mIsTestFailed;
     }
+
+    /** Starts polling the helper metrics if sampling is enabled. */
+    private void startSampling() {
+        if (mSamplingIntervalMs <= 0 || mNoNumericMetrics) {
+            return;
+        }
+        stopSampling();
+        for (SampleRingBuffer samples : mSamples.values()) {
+            samples.clear();
+        }
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        mSampler = sampler;
+        sampler.scheduleAtFixedRate(
+                () -> sampleMetrics(sampler),
+                mSamplingIntervalMs,
+                mSamplingIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops polling the helper metrics and waits for the sample in progress, if any. */
+    private void stopSampling() {
+        if (mSampler == null) {
+            return;
+        }
+        mSampler.shutdownNow();
+        try {
+            if (!mSampler.awaitTermination(SAMPLING_STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(getTag(), "Timed out waiting for the metrics sampling to stop.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mSampler = null;
+    }
+
+    /**
+     * Adds a sample of each numeric helper metric, called on the sampler thread. Stops {@code
+     * sampler} for good if the helper only returns non-numeric metrics, which can't be sampled.
+     */
+    private void sampleMetrics(ScheduledExecutorService sampler) {
+        try {
+            Map<String, T> metrics = mHelper.getMetrics();
+            long timestampMs = SystemClock.elapsedRealtime();
+            boolean hasNumericMetrics = false;
+            for (Map.Entry<String, T> entry : metrics.entrySet()) {
+                if (!(entry.getValue() instanceof Number)) {
+                    continue;
+                }
+                hasNumericMetrics = true;
+                mSamples.computeIfAbsent(
+                                entry.getKey(), k -> new SampleRingBuffer(mSamplingBufferSize))
+                        .add(timestampMs, ((Number) entry.getValue()).doubleValue());
+            }
+            if (!metrics.isEmpty() && !hasNumericMetrics) {
+                Log.w(getTag(), "The metrics are not numeric, sampling is disabled.");
+                mNoNumericMetrics = true;
+                // Cancels the following samples, stopSampling still waits for this one.
+                sampler.shutdown();
+            }
+        } catch (RuntimeException e) {
+            // Keep sampling, a throwing task would cancel the following samples.
+            Log.e(getTag(), "Failed to sample the metrics.", e);
+        }
+    }
+
+    /** Reports the statistics and the optional time series of the samples since the start. */
+    private void collectSampledMetrics(DataRecord data, String name) {
+        boolean hasSamples = false;
+        for (Map.Entry<String, SampleRingBuffer> entry : mSamples.entrySet()) {
+            SampleRingBuffer samples = entry.getValue();
+            if (samples.count() == 0) {
+                continue;
+            }
+            hasSamples = true;
+            String key = entry.getKey();
+            data.addStringMetric(sampledKey(key, "count"), Long.toString(samples.count()));
+            data.addStringMetric(sampledKey(key, "min"), Double.toString(samples.min()));
+            data.addStringMetric(sampledKey(key, "max"), Double.toString(samples.max()));
+            data.addStringMetric(sampledKey(key, "mean"), Double.toString(samples.mean()));
+            double[] percentiles = samples.percentiles(SAMPLED_PERCENTILES);
+            for (int i = 0; i < SAMPLED_PERCENTILES.length; i++) {
+                data.addStringMetric(
+                        sampledKey(key, "p" + (int) SAMPLED_PERCENTILES[i]),
+                        Double.toString(percentiles[i]));
+            }
+        }
+        if (hasSamples && mSamplesDir != null) {
+            File file =
+                    new File(
+                            mSamplesDir,
+                            String.format(
+                                    "%s_%s_%d.samples",
+                                    getTag(),
+                                    name.replaceAll("[^\\w.-]", "_"),
+                                    mTimeSeriesCount++));
+            try {
+                writeTimeSeries(file);
+                data.addFileMetric(String.format("%s_%s", getTag(), file.getName()), file);
+            } catch (IOException e) {
+                Log.e(getTag(), "Failed to write the sampled time series.", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the samples of all the metrics to {@code file}, big-endian: the format version and
+     * the metric count as ints, then for each metric its key in modified UTF-8, its sample count
+     * as an int and the timestamp in ms of elapsed realtime as a long and value as a double of
+     * each sample, oldest first.
+     */
+    private void writeTimeSeries(File file) throws IOException {
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(getOutputStreamViaShell(file)))) {
+            out.writeInt(TIME_SERIES_VERSION);
+            int metricCount = 0;
+            for (SampleRingBuffer samples : mSamples.values()) {
+                if (samples.count() > 0) {
+                    metricCount++;
+                }
+            }
+            out.writeInt(metricCount);
+            for (Map.Entry<String, SampleRingBuffer> entry : mSamples.entrySet()) {
+                if (entry.getValue().count() > 0) {
+                    out.writeUTF(entry.getKey());
+                    entry.getValue().writeTo(out);
+                }
+            }
+        }
+    }
+
+    private static String sampledKey(String key, String statistic) {
+        return String.format(SAMPLED_METRIC_FORMAT, key, statistic);
+    }
 }
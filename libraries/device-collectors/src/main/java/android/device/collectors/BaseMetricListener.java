@@ -100,6 +100,9 @@ public class BaseMetricListener extends InstrumentationRunListener {
     public static final String COLLECT_ITERATION_INTERVAL = "collect_iteration_interval";
     // Create output directory in temporary rather than external storage.
     public static final String ARGUMENT_USE_TEMPORARY_STORAGE = "use-temporary-storage";
+    // Report the string metrics of each test and run as a single binary blob instead of one
+    // instrumentation status entry per metric.
+    public static final String ARGUMENT_METRICS_BLOB = "metrics-blob";
 
     // Skip metric collection until given n iteration. Uses 1 indexing here.
     // For example if overall iteration is 10 and skip until iteration is set
@@ -120,6 +123,7 @@ public class BaseMetricListener extends InstrumentationRunListener {
     private int mCollectIterationInterval = 1;
     private int mSkipMetricUntilIteration = 0;
     private boolean mUseTemporaryStorage = false;
+    private boolean mMetricsBlob = false;
 
     // Whether to report the results as instrumentation results. Used by metric collector rules,
     // which do not have the information to invoke InstrumentationRunFinished() to report metrics.
@@ -177,9 +181,7 @@ public class BaseMetricListener extends InstrumentationRunListener {
     public final void testStarted(Description description) throws Exception {
         Trace.beginSection(this.getClass().getSimpleName() + ":testStarted");
         // Update the current invocation before proceeding with metric collection.
-        // mTestIdInvocationCount uses 1 indexing.
-        mTestIdInvocationCount.compute(description.toString(),
-                (key, value) -> (value == null) ? 1 : value + 1);
+        countTestInvocation(description);
 
         if (shouldRun(description)) {
             try {
@@ -221,10 +223,11 @@ public class BaseMetricListener extends InstrumentationRunListener {
             if (mTestData.hasMetrics()) {
                 // Only send the status progress if there are metrics
                 if (mReportAsInstrumentationResults) {
-                    getInstrumentation().addResults(mTestData.createBundleFromMetrics());
+                    getInstrumentation()
+                            .addResults(mTestData.createBundleFromMetrics(mMetricsBlob));
                 } else {
                 SendToInstrumentation.sendBundle(getInstrumentation(),
-                        mTestData.createBundleFromMetrics());
+                        mTestData.createBundleFromMetrics(mMetricsBlob));
             }
             }
         }
@@ -237,7 +240,7 @@ public class BaseMetricListener extends InstrumentationRunListener {
             PrintStream streamResult, Bundle resultBundle, Result junitResults) {
         // Test Run data goes into the INSTRUMENTATION_RESULT
         if (mRunData != null) {
-            resultBundle.putAll(mRunData.createBundleFromMetrics());
+            resultBundle.putAll(mRunData.createBundleFromMetrics(mMetricsBlob));
         }
     }
 
@@ -503,6 +506,7 @@ public class BaseMetricListener extends InstrumentationRunListener {
         mDisableMetricCollection = logOnly || disableMetricCollection;
 
         mUseTemporaryStorage = getBooleanArg(ARGUMENT_USE_TEMPORARY_STORAGE, false);
+        mMetricsBlob = getBooleanArg(ARGUMENT_METRICS_BLOB, false);
     }
 
     private Boolean getBooleanArg(String key, Boolean defaultValue) {
@@ -550,13 +554,23 @@ public class BaseMetricListener extends InstrumentationRunListener {
         }
     }
 
+    /**
+     * Counts an invocation of the test, used by the iteration filters of {@link #shouldRun}. Also
+     * called by listeners driving this one directly, e.g. {@link ConcurrentCollectionListener}.
+     */
+    void countTestInvocation(Description description) {
+        // mTestIdInvocationCount uses 1 indexing.
+        mTestIdInvocationCount.compute(description.toString(),
+                (key, value) -> (value == null) ? 1 : value + 1);
+    }
+
     /**
      * Helper to decide whether the collector should run or not against the test case.
      *
      * @param desc The {@link Description} of the method.
      * @return True if the collector should run.
      */
-    private boolean shouldRun(Description desc) {
+    boolean shouldRun(Description desc) {
         if (mDisableMetricCollection) {
             return false;
         }
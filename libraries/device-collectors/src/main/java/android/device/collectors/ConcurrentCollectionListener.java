@@ -0,0 +1,332 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.device.collectors;
+
+import android.device.collectors.annotations.OptionClass;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.VisibleForTesting;
+
+import org.junit.runner.Description;
+import org.junit.runner.Result;
+import org.junit.runner.notification.Failure;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+
+/**
+ * A {@link ConcurrentCollectionListener} that drives several collectors, usually {@link
+ * BaseCollectionListener} instances, and runs their start and end of test callbacks concurrently
+ * on a bounded thread pool instead of one collector after the other.
+ *
+ * <p>A collector can declare dependencies on collectors registered before it, in which case its
+ * callbacks only run once the callbacks of its dependencies completed, e.g. to run a GC or drop
+ * caches before taking a memory snapshot. Each collector writes into its own {@link DataRecord}
+ * and the records are merged into the shared one in registration order, so the reported metrics
+ * do not depend on scheduling. The latency of every collector callback is reported as a metric.
+ *
+ * <p>Options:
+ * -e collectors [class names] : comma separated list of the collector classes to run.
+ * -e collector-dependencies [collector:dependency] : comma separated list of dependencies between
+ * collectors, using the simple class names. The dependency has to appear before the collector in
+ * the collectors list.
+ * -e collector-threads [count] : number of threads used to run the collectors.
+ *
+ * <p>Do NOT throw exception anywhere in this class. We don't want to halt the test when metrics
+ * collection fails.
+ */
+@OptionClass(alias = "concurrent-collector")
+public class ConcurrentCollectionListener extends BaseMetricListener {
+    @VisibleForTesting static final String COLLECTORS_KEY = "collectors";
+    @VisibleForTesting static final String COLLECTOR_DEPENDENCIES_KEY = "collector-dependencies";
+    @VisibleForTesting static final String COLLECTOR_THREADS_KEY = "collector-threads";
+    @VisibleForTesting static final String LATENCY_METRIC_PATTERN = "%s_%s_latency_ms";
+    @VisibleForTesting static final String TEST_START_PHASE = "test_start";
+    @VisibleForTesting static final String TEST_END_PHASE = "test_end";
+    @VisibleForTesting static final String RUN_START_PHASE = "run_start";
+    @VisibleForTesting static final String RUN_END_PHASE = "run_end";
+    private static final String SEPARATOR = ",";
+    private static final String DEPENDENCY_SEPARATOR = ":";
+    private static final int DEFAULT_COLLECTOR_THREADS = 4;
+
+    // Registered collectors by name, in registration order.
+    private final Map<String, Collector> mCollectors = new LinkedHashMap<>();
+    private int mCollectorThreads = DEFAULT_COLLECTOR_THREADS;
+    private ExecutorService mExecutor;
+
+    public ConcurrentCollectionListener() {
+        super();
+    }
+
+    /**
+     * Constructor to simulate receiving the instrumentation arguments. Should not be used except
+     * for testing.
+     */
+    @VisibleForTesting
+    ConcurrentCollectionListener(Bundle args) {
+        super(args);
+    }
+
+    /**
+     * Registers a collector to run concurrently with the other registered collectors.
+     *
+     * @param name unique name of the collector, used for dependencies and latency metrics
+     * @param collector the collector to run
+     * @param dependencies names of previously registered collectors which have to complete each
+     *     callback before this collector runs it
+     * @throws IllegalArgumentException if the name is already registered or a dependency is not
+     */
+    public void registerCollector(
+            String name, BaseMetricListener collector, String... dependencies) {
+        if (mCollectors.containsKey(name)) {
+            throw new IllegalArgumentException(
+                    String.format("Collector %s is already registered", name));
+        }
+        List<Collector> collectorDependencies = new ArrayList<>();
+        for (String dependency : dependencies) {
+            Collector collectorDependency = mCollectors.get(dependency);
+            if (collectorDependency == null) {
+                throw new IllegalArgumentException(
+                        String.format(
+                                "Dependency %s of collector %s is not registered",
+                                dependency, name));
+            }
+            collectorDependencies.add(collectorDependency);
+        }
+        mCollectors.put(name, new Collector(name, collector, collectorDependencies));
+    }
+
+    @Override
+    public void setupAdditionalArgs() {
+        Bundle args = getArgsBundle();
+        try {
+            mCollectorThreads =
+                    Integer.parseInt(
+                            args.getString(
+                                    COLLECTOR_THREADS_KEY,
+                                    String.valueOf(DEFAULT_COLLECTOR_THREADS)));
+        } catch (NumberFormatException e) {
+            Log.e(getTag(), "Failed to parse the \"" + COLLECTOR_THREADS_KEY + "\" parameter", e);
+            mCollectorThreads = DEFAULT_COLLECTOR_THREADS;
+        }
+        if (mCollectorThreads < 1) {
+            Log.e(getTag(), "Value for \"" + COLLECTOR_THREADS_KEY + "\" parameter is invalid");
+            mCollectorThreads = DEFAULT_COLLECTOR_THREADS;
+        }
+
+        String collectors = args.getString(COLLECTORS_KEY);
+        if (collectors == null || collectors.isEmpty()) {
+            return;
+        }
+        Map<String, List<String>> dependencies = new LinkedHashMap<>();
+        String dependenciesArg = args.getString(COLLECTOR_DEPENDENCIES_KEY);
+        if (dependenciesArg != null && !dependenciesArg.isEmpty()) {
+            for (String dependency : dependenciesArg.split(SEPARATOR)) {
+                String[] dependencySplit = dependency.split(DEPENDENCY_SEPARATOR);
+                if (dependencySplit.length != 2) {
+                    Log.e(getTag(), String.format("Invalid collector dependency %s", dependency));
+                    continue;
+                }
+                dependencies
+                        .computeIfAbsent(dependencySplit[0].trim(), k -> new ArrayList<>())
+                        .add(dependencySplit[1].trim());
+            }
+        }
+        for (String className : collectors.split(SEPARATOR)) {
+            try {
+                BaseMetricListener collector =
+                        (BaseMetricListener)
+                                Class.forName(className.trim())
+                                        .getDeclaredConstructor()
+                                        .newInstance();
+                String name = collector.getClass().getSimpleName();
+                registerCollector(
+                        name,
+                        collector,
+                        dependencies.getOrDefault(name, new ArrayList<>()).toArray(new String[0]));
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                Log.e(getTag(), String.format("Unable to create collector %s", className), e);
+            } catch (IllegalArgumentException e) {
+                Log.e(getTag(), e.getMessage(), e);
+            }
+        }
+    }
+
+    @Override
+    protected void onSetUp() {
+        mExecutor = Executors.newFixedThreadPool(mCollectorThreads);
+        for (Collector collector : mCollectors.values()) {
+            collector.listener.setInstrumentation(getInstrumentation());
+            collector.listener.setUp();
+        }
+    }
+
+    @Override
+    protected void onCleanUp() {
+        for (Collector collector : mCollectors.values()) {
+            collector.listener.cleanUp();
+        }
+        if (mExecutor != null) {
+            mExecutor.shutdownNow();
+            mExecutor = null;
+        }
+    }
+
+    @Override
+    public void onTestRunStart(DataRecord runData, Description description) {
+        runConcurrently(
+                runData,
+                RUN_START_PHASE,
+                null,
+                (listener, data) -> listener.onTestRunStart(data, description));
+    }
+
+    @Override
+    public void onTestStart(DataRecord testData, Description description) {
+        for (Collector collector : mCollectors.values()) {
+            collector.listener.countTestInvocation(description);
+        }
+        runConcurrently(
+                testData,
+                TEST_START_PHASE,
+                description,
+                (listener, data) -> listener.onTestStart(data, description));
+    }
+
+    @Override
+    public void onTestFail(DataRecord testData, Description description, Failure failure) {
+        // Only records the failure state, no need to go through the thread pool.
+        for (Collector collector : mCollectors.values()) {
+            if (!collector.listener.shouldRun(description)) {
+                continue;
+            }
+            try {
+                collector.listener.onTestFail(testData, description, failure);
+            } catch (RuntimeException e) {
+                Log.e(getTag(), String.format("Exception in collector %s", collector.name), e);
+            }
+        }
+    }
+
+    @Override
+    public void onTestEnd(DataRecord testData, Description description) {
+        runConcurrently(
+                testData,
+                TEST_END_PHASE,
+                description,
+                (listener, data) -> listener.onTestEnd(data, description));
+    }
+
+    @Override
+    public void onTestRunEnd(DataRecord runData, Result result) {
+        runConcurrently(
+                runData,
+                RUN_END_PHASE,
+                null,
+                (listener, data) -> listener.onTestRunEnd(data, result));
+    }
+
+    /**
+     * Runs {@code callback} for every registered collector on the thread pool, respecting the
+     * declared dependencies, and merges the collected metrics into {@code data} in registration
+     * order once all the collectors are done. For a test phase, the collectors whose own filters
+     * exclude the test {@code description} are skipped.
+     */
+    private void runConcurrently(
+            DataRecord data,
+            String phase,
+            Description description,
+            BiConsumer<BaseMetricListener, DataRecord> callback) {
+        if (mCollectors.isEmpty()) {
+            return;
+        }
+        Map<Collector, CompletableFuture<Void>> futures = new LinkedHashMap<>();
+        Map<Collector, DataRecord> records = new LinkedHashMap<>();
+        Map<Collector, Long> latencies = new LinkedHashMap<>();
+        for (Collector collector : mCollectors.values()) {
+            if (description != null && !collector.listener.shouldRun(description)) {
+                // Nothing to wait for in the collectors depending on it.
+                futures.put(collector, CompletableFuture.completedFuture(null));
+                continue;
+            }
+            DataRecord record = createDataRecord();
+            records.put(collector, record);
+            CompletableFuture<?>[] dependencies =
+                    collector.dependencies.stream()
+                            .map(futures::get)
+                            .toArray(CompletableFuture<?>[]::new);
+            Runnable task =
+                    () -> {
+                        long startTime = SystemClock.uptimeMillis();
+                        try {
+                            callback.accept(collector.listener, record);
+                        } catch (RuntimeException e) {
+                            // Prevent exception from stopping the other collectors.
+                            Log.e(
+                                    getTag(),
+                                    String.format("Exception in collector %s", collector.name),
+                                    e);
+                        }
+                        long latency = SystemClock.uptimeMillis() - startTime;
+                        synchronized (latencies) {
+                            latencies.put(collector, latency);
+                        }
+                    };
+            futures.put(
+                    collector,
+                    CompletableFuture.allOf(dependencies).thenRunAsync(task, mExecutor));
+        }
+        try {
+            CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            Log.e(getTag(), String.format("Failed to run collectors for %s", phase), e);
+        }
+        for (Map.Entry<Collector, DataRecord> entry : records.entrySet()) {
+            data.addAll(entry.getValue());
+            Long latency;
+            synchronized (latencies) {
+                latency = latencies.get(entry.getKey());
+            }
+            if (latency != null) {
+                data.addStringMetric(
+                        String.format(LATENCY_METRIC_PATTERN, entry.getKey().name, phase),
+                        Long.toString(latency));
+            }
+        }
+    }
+
+    /** A registered collector and the collectors it depends on. */
+    private static class Collector {
+        final String name;
+        final BaseMetricListener listener;
+        final List<Collector> dependencies;
+
+        Collector(String name, BaseMetricListener listener, List<Collector> dependencies) {
+            this.name = name;
+            this.listener = listener;
+            this.dependencies = dependencies;
+        }
+    }
+}
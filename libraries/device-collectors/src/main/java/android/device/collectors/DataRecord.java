@@ -16,9 +16,14 @@
 package android.device.collectors;
 
 import android.os.Bundle;
+import android.util.Log;
 import androidx.annotation.VisibleForTesting;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -26,6 +31,15 @@ import java.util.Map;
  * Object to hold all the data collected by metric collectors.
  */
 public class DataRecord {
+    private static final String TAG = DataRecord.class.getSimpleName();
+    /**
+     * Key of the binary metric holding all the string metrics when they are reported as a single
+     * blob, see {@link #createBundleFromMetrics(boolean)}.
+     */
+    public static final String METRICS_BLOB_KEY = "metrics_blob";
+    // Version of the metrics blob format, written first in the blob.
+    @VisibleForTesting static final int METRICS_BLOB_VERSION = 1;
+
     // TODO: expend type supports to more complex type: Object,etc.
     private LinkedHashMap<String, String> mCurrentStringMetrics = new LinkedHashMap<>();
     private LinkedHashMap<String, File> mCurrentFileMetrics = new LinkedHashMap<>();
@@ -62,6 +76,17 @@ public class DataRecord {
         mCurrentBinaryMetrics.put(key, value);
     }
 
+    /**
+     * Add all the metrics tracked by {@code other}, preserving their order.
+     *
+     * @param other the {@link DataRecord} whose metrics are added to this one
+     */
+    void addAll(DataRecord other) {
+        mCurrentStringMetrics.putAll(other.mCurrentStringMetrics);
+        mCurrentFileMetrics.putAll(other.mCurrentFileMetrics);
+        mCurrentBinaryMetrics.putAll(other.mCurrentBinaryMetrics);
+    }
+
     /**
      * Returns True if the {@link DataRecord} already contains some metrics, False otherwise.
      */
@@ -88,10 +113,38 @@ public class DataRecord {
      * available.
      */
     final Bundle createBundleFromMetrics() {
-        Map<String, String> map = getStringMetrics();
+        return createBundleFromMetrics(false);
+    }
+
+    /**
+     * Create a {@link Bundle} and populate it with the metrics.
+     *
+     * @param blob whether to report the string metrics as a single binary metric under {@link
+     *     #METRICS_BLOB_KEY} instead of one string per metric. File metrics are still reported as
+     *     strings so that their files are pulled.
+     */
+    final Bundle createBundleFromMetrics(boolean blob) {
         Bundle b = createBundle();
-        for (String key : map.keySet()) {
-            b.putString(key, map.get(key));
+        if (blob) {
+            for (Map.Entry<String, File> entry : mCurrentFileMetrics.entrySet()) {
+                b.putString(entry.getKey(), entry.getValue().getAbsolutePath());
+            }
+            if (!mCurrentStringMetrics.isEmpty()) {
+                try {
+                    b.putByteArray(METRICS_BLOB_KEY, encodeStringMetrics(mCurrentStringMetrics));
+                } catch (IOException e) {
+                    // Not expected when writing to memory, fall back to string metrics.
+                    Log.e(TAG, "Failed to encode the metrics blob.", e);
+                    for (Map.Entry<String, String> entry : mCurrentStringMetrics.entrySet()) {
+                        b.putString(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        } else {
+            Map<String, String> map = getStringMetrics();
+            for (String key : map.keySet()) {
+                b.putString(key, map.get(key));
+            }
         }
         for (String key : mCurrentBinaryMetrics.keySet()) {
             b.putByteArray(key, mCurrentBinaryMetrics.get(key));
@@ -99,6 +152,31 @@ public class DataRecord {
         return b;
     }
 
+    /**
+     * Encodes {@code metrics} as a blob made of the format version and the metric count, followed
+     * by the key and value of each metric in order. Each string is written as its UTF-8 byte
+     * length followed by its bytes, and all the integers are big-endian 32 bits.
+     */
+    @VisibleForTesting
+    static byte[] encodeStringMetrics(Map<String, String> metrics) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(METRICS_BLOB_VERSION);
+        out.writeInt(metrics.size());
+        for (Map.Entry<String, String> entry : metrics.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
     /**
      * Create a {@link Bundle} that will hold the metrics. Exposed for testing.
      */
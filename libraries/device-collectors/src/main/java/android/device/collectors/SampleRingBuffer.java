@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.device.collectors;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Fixed size ring buffer of timestamped samples, stored as primitives.
+ *
+ * <p>Once full, the oldest samples are overwritten. The minimum, maximum and mean cover every
+ * sample added since the last {@link #clear()}, while the percentiles and the time series only
+ * cover the samples still held by the buffer. Not thread-safe.
+ */
+final class SampleRingBuffer {
+    private final long[] mTimestamps;
+    private final double[] mValues;
+    // Index of the next sample to write.
+    private int mHead;
+    // Number of samples held by the buffer.
+    private int mSize;
+    // Number of samples added, including the overwritten ones.
+    private long mCount;
+    private double mMin;
+    private double mMax;
+    private double mSum;
+
+    SampleRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        mTimestamps = new long[capacity];
+        mValues = new double[capacity];
+        clear();
+    }
+
+    /** Adds a sample, overwriting the oldest one if the buffer is full. */
+    void add(long timestampMs, double value) {
+        mTimestamps[mHead] = timestampMs;
+        mValues[mHead] = value;
+        mHead = (mHead + 1) % mValues.length;
+        if (mSize < mValues.length) {
+            mSize++;
+        }
+        mCount++;
+        mMin = Math.min(mMin, value);
+        mMax = Math.max(mMax, value);
+        mSum += value;
+    }
+
+    /** Removes all the samples. */
+    void clear() {
+        mHead = 0;
+        mSize = 0;
+        mCount = 0;
+        mMin = Double.POSITIVE_INFINITY;
+        mMax = Double.NEGATIVE_INFINITY;
+        mSum = 0;
+    }
+
+    /** Returns the number of samples held by the buffer. */
+    int size() {
+        return mSize;
+    }
+
+    /** Returns the number of samples added, including the ones overwritten since. */
+    long count() {
+        return mCount;
+    }
+
+    double min() {
+        return mMin;
+    }
+
+    double max() {
+        return mMax;
+    }
+
+    double mean() {
+        return mCount == 0 ? Double.NaN : mSum / mCount;
+    }
+
+    /**
+     * Returns the nearest-rank percentiles of the samples held by the buffer.
+     *
+     * @param percentiles percentiles to compute, between 0 and 100
+     * @return the value of each percentile, in the same order, or NaN if the buffer is empty
+     */
+    double[] percentiles(double... percentiles) {
+        double[] results = new double[percentiles.length];
+        if (mSize == 0) {
+            Arrays.fill(results, Double.NaN);
+            return results;
+        }
+        double[] sorted = Arrays.copyOf(mValues, mSize);
+        Arrays.sort(sorted);
+        for (int i = 0; i < percentiles.length; i++) {
+            int rank = (int) Math.ceil(percentiles[i] / 100 * mSize);
+            results[i] = sorted[Math.max(0, Math.min(mSize, rank) - 1)];
+        }
+        return results;
+    }
+
+    /**
+     * Writes the samples held by the buffer, oldest first, as the sample count followed by the
+     * timestamp and value of each sample.
+     */
+    void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(mSize);
+        int start = (mHead - mSize + mValues.length) % mValues.length;
+        for (int i = 0; i < mSize; i++) {
+            int index = (start + i) % mValues.length;
+            out.writeLong(mTimestamps[index]);
+            out.writeDouble(mValues[index]);
+        }
+    }
+}
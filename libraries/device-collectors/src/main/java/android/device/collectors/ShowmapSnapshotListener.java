@@ -37,6 +37,9 @@ import java.util.Map;
  * -e metric-index [rss:2,pss:3,privatedirty:7] : memory metric name corresponding
  * -e gc-precollect [true | false] : whether it needs to run a GC prior to collecting memory
  * metrics. to index in the showmap output.
+ * -e batched-collection [true | false] : whether to collect all processes with a single batched
+ * shell invocation.
+ * -e parsing-threads [count] : number of threads used to parse batched showmap output.
  */
 @OptionClass(alias = "showmapsnapshot-collector")
 public class ShowmapSnapshotListener extends BaseCollectionListener<String> {
@@ -50,6 +53,8 @@ public class ShowmapSnapshotListener extends BaseCollectionListener<String> {
   @VisibleForTesting static final String OUTPUT_DIR_KEY = "test-output-dir";
   @VisibleForTesting static final String GC_PRECOLLECT_KEY = "gc-precollect";
     @VisibleForTesting static final String COUNT_THREADS_KEY = "count-threads";
+  @VisibleForTesting static final String BATCHED_COLLECTION_KEY = "batched-collection";
+  @VisibleForTesting static final String PARSING_THREADS_KEY = "parsing-threads";
 
   private ShowmapSnapshotHelper mShowmapSnapshotHelper = new ShowmapSnapshotHelper();
   private final Map<String, Integer> dropCacheValues = Map.of(
@@ -124,5 +129,22 @@ public class ShowmapSnapshotListener extends BaseCollectionListener<String> {
 
         boolean runCountThreads = "true".equals(args.getString(COUNT_THREADS_KEY, "false"));
         mShowmapSnapshotHelper.setCountThreadsOption(runCountThreads);
+
+    boolean batchedCollection = "true".equals(args.getString(BATCHED_COLLECTION_KEY, "false"));
+    mShowmapSnapshotHelper.setBatchedCollectionOption(batchedCollection);
+
+    String parsingThreads = args.getString(PARSING_THREADS_KEY);
+    if (parsingThreads != null && !setParsingThreads(parsingThreads)) {
+      Log.e(TAG, "Value for \"" + PARSING_THREADS_KEY + "\" parameter is invalid");
+    }
+  }
+
+  /** Sets the number of parsing threads of the helper, returning false if it is invalid. */
+  private boolean setParsingThreads(String parsingThreads) {
+    try {
+      return mShowmapSnapshotHelper.setParsingThreads(Integer.parseInt(parsingThreads));
+    } catch (NumberFormatException e) {
+      return false;
+    }
   }
 }
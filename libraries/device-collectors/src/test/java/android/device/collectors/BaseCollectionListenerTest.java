@@ -30,8 +30,14 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.when;
@@ -280,4 +286,60 @@ public class BaseCollectionListenerTest {
         verify(helper, times(2)).getMetrics();
         verify(helper, times(3)).stopCollecting();
     }
+
+    /** Verify the numeric metrics are sampled while collecting and their statistics reported. */
+    @Test
+    public void testSamplingFlow() throws Exception {
+        Bundle b = new Bundle();
+        b.putString(BaseCollectionListener.SAMPLING_INTERVAL_MS, "10");
+        BaseCollectionListener<Long> listener = new BaseCollectionListener<Long>(b, helper);
+        AtomicLong value = new AtomicLong();
+        doReturn(true).when(helper).startCollecting();
+        doAnswer(invocation -> Map.of("mem", value.incrementAndGet(), "name", "string"))
+                .when(helper)
+                .getMetrics();
+        doReturn(true).when(helper).stopCollecting();
+
+        listener.testRunStarted(FAKE_DESCRIPTION);
+        listener.onTestStart(listener.createDataRecord(), FAKE_TEST_DESCRIPTION);
+        Thread.sleep(200);
+        DataRecord testData = listener.createDataRecord();
+        listener.onTestEnd(testData, FAKE_TEST_DESCRIPTION);
+
+        Bundle metrics = testData.createBundleFromMetrics();
+        long count = Long.parseLong(metrics.getString("mem_sampled_count"));
+        assertTrue(count > 0);
+        // The samples are 1 to count, the end snapshot being the next value.
+        assertEquals(1.0, Double.parseDouble(metrics.getString("mem_sampled_min")), 0);
+        assertEquals(count, Double.parseDouble(metrics.getString("mem_sampled_max")), 0);
+        assertEquals(
+                (count + 1) / 2.0, Double.parseDouble(metrics.getString("mem_sampled_mean")), 0);
+        assertTrue(metrics.containsKey("mem_sampled_p99"));
+        assertEquals(String.valueOf(count + 1), metrics.getString("mem"));
+        assertFalse(metrics.containsKey("name_sampled_count"));
+        verify(helper, times(1)).stopCollecting();
+    }
+
+    /** Verify sampling stops once the helper only returned non-numeric metrics. */
+    @Test
+    public void testSamplingStopsWithoutNumericMetrics() throws Exception {
+        Bundle b = new Bundle();
+        b.putString(BaseCollectionListener.SAMPLING_INTERVAL_MS, "10");
+        mListener = initListener(b);
+        doReturn(Map.of("name", "string")).when(helper).getMetrics();
+
+        mListener.testRunStarted(FAKE_DESCRIPTION);
+        mListener.onTestStart(mListener.createDataRecord(), FAKE_TEST_DESCRIPTION);
+        Thread.sleep(200);
+        DataRecord testData = mListener.createDataRecord();
+        mListener.onTestEnd(testData, FAKE_TEST_DESCRIPTION);
+        // Sampled once, then once more for the end of test snapshot.
+        verify(helper, times(2)).getMetrics();
+        assertEquals("string", testData.createBundleFromMetrics().getString("name"));
+
+        mListener.onTestStart(mListener.createDataRecord(), FAKE_TEST_DESCRIPTION);
+        Thread.sleep(200);
+        mListener.onTestEnd(mListener.createDataRecord(), FAKE_TEST_DESCRIPTION);
+        verify(helper, times(3)).getMetrics();
+    }
 }
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.device.collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.os.Bundle;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.helpers.ICollectorHelper;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.Description;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Map;
+
+/**
+ * Android Unit tests for {@link ConcurrentCollectionListener}.
+ *
+ * <p>To run: atest CollectorDeviceLibTest:android.device.collectors.ConcurrentCollectionListenerTest
+ */
+@RunWith(AndroidJUnit4.class)
+public class ConcurrentCollectionListenerTest {
+
+    private static final Description FAKE_DESCRIPTION = Description.createSuiteDescription("run");
+    private static final Description FAKE_TEST_DESCRIPTION =
+            Description.createTestDescription("class", "method");
+
+    @Mock private ICollectorHelper mGcHelper;
+    @Mock private ICollectorHelper mMemoryHelper;
+
+    private ConcurrentCollectionListener mListener;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        doReturn(true).when(mGcHelper).startCollecting();
+        doReturn(Map.of("gc_metric", "1")).when(mGcHelper).getMetrics();
+        doReturn(true).when(mGcHelper).stopCollecting();
+        doReturn(true).when(mMemoryHelper).startCollecting();
+        doReturn(Map.of("memory_metric", "2")).when(mMemoryHelper).getMetrics();
+        doReturn(true).when(mMemoryHelper).stopCollecting();
+        mListener = new ConcurrentCollectionListener(new Bundle());
+    }
+
+    /** Verify all the collectors run for each test and their metrics are merged in order. */
+    @Test
+    public void testCollectorsRunAndMerge() throws Exception {
+        mListener.registerCollector(
+                "gc", new BaseCollectionListener<String>(new Bundle(), mGcHelper));
+        mListener.registerCollector(
+                "memory", new BaseCollectionListener<String>(new Bundle(), mMemoryHelper), "gc");
+
+        mListener.testRunStarted(FAKE_DESCRIPTION);
+        DataRecord testData = mListener.createDataRecord();
+        mListener.onTestStart(testData, FAKE_TEST_DESCRIPTION);
+        mListener.onTestEnd(testData, FAKE_TEST_DESCRIPTION);
+
+        verify(mGcHelper, times(1)).startCollecting();
+        verify(mGcHelper, times(1)).getMetrics();
+        verify(mGcHelper, times(1)).stopCollecting();
+        verify(mMemoryHelper, times(1)).startCollecting();
+        verify(mMemoryHelper, times(1)).getMetrics();
+        verify(mMemoryHelper, times(1)).stopCollecting();
+
+        Bundle metrics = testData.createBundleFromMetrics();
+        assertEquals("1", metrics.getString("gc_metric"));
+        assertEquals("2", metrics.getString("memory_metric"));
+        assertTrue(
+                metrics.containsKey(
+                        String.format(
+                                ConcurrentCollectionListener.LATENCY_METRIC_PATTERN,
+                                "memory",
+                                ConcurrentCollectionListener.TEST_END_PHASE)));
+    }
+
+    /** Verify a collector only collects once its dependencies are done. */
+    @Test
+    public void testDependenciesRunFirst() throws Exception {
+        doAnswer(
+                        invocation -> {
+                            // Slow down the dependency so it would finish last without ordering.
+                            Thread.sleep(100);
+                            return Map.of("gc_metric", "1");
+                        })
+                .when(mGcHelper)
+                .getMetrics();
+        mListener.registerCollector(
+                "gc", new BaseCollectionListener<String>(new Bundle(), mGcHelper));
+        mListener.registerCollector(
+                "memory", new BaseCollectionListener<String>(new Bundle(), mMemoryHelper), "gc");
+
+        mListener.testRunStarted(FAKE_DESCRIPTION);
+        DataRecord testData = mListener.createDataRecord();
+        mListener.onTestStart(testData, FAKE_TEST_DESCRIPTION);
+        mListener.onTestEnd(testData, FAKE_TEST_DESCRIPTION);
+
+        InOrder order = inOrder(mGcHelper, mMemoryHelper);
+        order.verify(mGcHelper).getMetrics();
+        order.verify(mMemoryHelper).getMetrics();
+    }
+
+    /** Verify dependencies have to be registered before the collectors depending on them. */
+    @Test
+    public void testUnknownDependency() {
+        assertThrows(
+                IllegalArgumentException.class,
+                () ->
+                        mListener.registerCollector(
+                                "memory",
+                                new BaseCollectionListener<String>(new Bundle(), mMemoryHelper),
+                                "gc"));
+    }
+
+    /** Verify collectors can be created from the instrumentation arguments. */
+    @Test
+    public void testCollectorsFromArgs() throws Exception {
+        Bundle b = new Bundle();
+        b.putString(
+                ConcurrentCollectionListener.COLLECTORS_KEY,
+                StubTestMetricListener.class.getName());
+        mListener = new ConcurrentCollectionListener(b);
+
+        mListener.testRunStarted(FAKE_DESCRIPTION);
+        DataRecord testData = mListener.createDataRecord();
+        mListener.onTestStart(testData, FAKE_TEST_DESCRIPTION);
+        mListener.onTestEnd(testData, FAKE_TEST_DESCRIPTION);
+
+        Bundle metrics = testData.createBundleFromMetrics();
+        assertEquals("test_startmethod", metrics.getString("test_start"));
+        assertEquals("test_endmethod", metrics.getString("test_end"));
+    }
+
+    /** Verify an invalid thread count falls back to the default one. */
+    @Test
+    public void testInvalidCollectorThreads() throws Exception {
+        Bundle b = new Bundle();
+        b.putString(ConcurrentCollectionListener.COLLECTOR_THREADS_KEY, "many");
+        mListener = new ConcurrentCollectionListener(b);
+        mListener.registerCollector(
+                "gc", new BaseCollectionListener<String>(new Bundle(), mGcHelper));
+
+        mListener.testRunStarted(FAKE_DESCRIPTION);
+        DataRecord testData = mListener.createDataRecord();
+        mListener.onTestStart(testData, FAKE_TEST_DESCRIPTION);
+        mListener.onTestEnd(testData, FAKE_TEST_DESCRIPTION);
+
+        assertEquals("1", testData.createBundleFromMetrics().getString("gc_metric"));
+    }
+
+    /** Verify each collector only runs for the tests its own filters accept. */
+    @Test
+    public void testCollectorFilters() throws Exception {
+        Bundle skipFirstIteration = new Bundle();
+        skipFirstIteration.putString(BaseMetricListener.SKIP_METRIC_UNTIL_ITERATION, "1");
+        mListener.registerCollector(
+                "gc", new BaseCollectionListener<String>(skipFirstIteration, mGcHelper));
+        mListener.registerCollector(
+                "memory", new BaseCollectionListener<String>(new Bundle(), mMemoryHelper), "gc");
+
+        mListener.testRunStarted(FAKE_DESCRIPTION);
+        DataRecord firstTestData = mListener.createDataRecord();
+        mListener.onTestStart(firstTestData, FAKE_TEST_DESCRIPTION);
+        mListener.onTestEnd(firstTestData, FAKE_TEST_DESCRIPTION);
+
+        verify(mGcHelper, never()).getMetrics();
+        verify(mMemoryHelper, times(1)).getMetrics();
+        Bundle firstMetrics = firstTestData.createBundleFromMetrics();
+        assertFalse(firstMetrics.containsKey("gc_metric"));
+        assertEquals("2", firstMetrics.getString("memory_metric"));
+
+        DataRecord secondTestData = mListener.createDataRecord();
+        mListener.onTestStart(secondTestData, FAKE_TEST_DESCRIPTION);
+        mListener.onTestEnd(secondTestData, FAKE_TEST_DESCRIPTION);
+
+        verify(mGcHelper, times(1)).getMetrics();
+        assertEquals("1", secondTestData.createBundleFromMetrics().getString("gc_metric"));
+    }
+}
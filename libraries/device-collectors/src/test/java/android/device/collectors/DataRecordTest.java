@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.device.collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import android.os.Bundle;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Android Unit tests for {@link DataRecord}.
+ *
+ * <p>To run: atest CollectorDeviceLibTest:android.device.collectors.DataRecordTest
+ */
+@RunWith(AndroidJUnit4.class)
+public class DataRecordTest {
+
+    /** Verify the string metrics are reported as a single blob, in order. */
+    @Test
+    public void testCreateBundleFromMetrics_blob() throws IOException {
+        DataRecord record = new DataRecord();
+        record.addStringMetric("metric1", "1");
+        record.addStringMetric("metric2", "valueé");
+        record.addFileMetric("file", new File("/sdcard/file.txt"));
+        record.addBinaryMetric("binary", new byte[] {1, 2});
+
+        Bundle bundle = record.createBundleFromMetrics(true);
+
+        assertFalse(bundle.containsKey("metric1"));
+        assertEquals("/sdcard/file.txt", bundle.getString("file"));
+        assertArrayEquals(new byte[] {1, 2}, bundle.getByteArray("binary"));
+        byte[] blob = bundle.getByteArray(DataRecord.METRICS_BLOB_KEY);
+        assertNotNull(blob);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(blob));
+        assertEquals(DataRecord.METRICS_BLOB_VERSION, in.readInt());
+        assertEquals(2, in.readInt());
+        assertEquals("metric1", readString(in));
+        assertEquals("1", readString(in));
+        assertEquals("metric2", readString(in));
+        assertEquals("valueé", readString(in));
+        assertEquals(0, in.available());
+    }
+
+    /** Verify the file metrics are reported in blob mode when there are no string metrics. */
+    @Test
+    public void testCreateBundleFromMetrics_blobWithOnlyFileMetrics() {
+        DataRecord record = new DataRecord();
+        record.addFileMetric("file1", new File("/sdcard/file1.txt"));
+        record.addFileMetric("file2", new File("/sdcard/file2.txt"));
+
+        Bundle bundle = record.createBundleFromMetrics(true);
+
+        assertEquals("/sdcard/file1.txt", bundle.getString("file1"));
+        assertEquals("/sdcard/file2.txt", bundle.getString("file2"));
+        assertFalse(bundle.containsKey(DataRecord.METRICS_BLOB_KEY));
+    }
+
+    /** Verify the string metrics are reported individually by default. */
+    @Test
+    public void testCreateBundleFromMetrics_default() {
+        DataRecord record = new DataRecord();
+        record.addStringMetric("metric1", "1");
+
+        Bundle bundle = record.createBundleFromMetrics();
+
+        assertEquals("1", bundle.getString("metric1"));
+        assertFalse(bundle.containsKey(DataRecord.METRICS_BLOB_KEY));
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.device.collectors;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+/**
+ * Android Unit tests for {@link SampleRingBuffer}.
+ *
+ * <p>To run: atest CollectorDeviceLibTest:android.device.collectors.SampleRingBufferTest
+ */
+@RunWith(AndroidJUnit4.class)
+public class SampleRingBufferTest {
+
+    /** Verify the statistics of a buffer which is not full. */
+    @Test
+    public void testStatistics() {
+        SampleRingBuffer buffer = new SampleRingBuffer(100);
+        for (int i = 1; i <= 10; i++) {
+            buffer.add(i, i);
+        }
+        assertEquals(10, buffer.size());
+        assertEquals(10, buffer.count());
+        assertEquals(1, buffer.min(), 0);
+        assertEquals(10, buffer.max(), 0);
+        assertEquals(5.5, buffer.mean(), 0);
+        assertArrayEquals(new double[] {5, 10, 10}, buffer.percentiles(50, 95, 99), 0);
+    }
+
+    /** Verify the oldest samples are overwritten but still count toward min, max and mean. */
+    @Test
+    public void testWrapAround() throws Exception {
+        SampleRingBuffer buffer = new SampleRingBuffer(3);
+        buffer.add(1, 100);
+        for (int i = 2; i <= 5; i++) {
+            buffer.add(i, i);
+        }
+        assertEquals(3, buffer.size());
+        assertEquals(5, buffer.count());
+        assertEquals(2, buffer.min(), 0);
+        assertEquals(100, buffer.max(), 0);
+        assertEquals(22.8, buffer.mean(), 1e-9);
+        assertArrayEquals(new double[] {3, 5}, buffer.percentiles(0, 100), 0);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        buffer.writeTo(new DataOutputStream(bytes));
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(3, in.readInt());
+        for (int i = 3; i <= 5; i++) {
+            assertEquals(i, in.readLong());
+            assertEquals(i, in.readDouble(), 0);
+        }
+    }
+
+    /** Verify a cleared buffer has no statistics. */
+    @Test
+    public void testClear() {
+        SampleRingBuffer buffer = new SampleRingBuffer(3);
+        buffer.add(1, 1);
+        buffer.clear();
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.count());
+        assertTrue(Double.isNaN(buffer.mean()));
+        assertTrue(Double.isNaN(buffer.percentiles(50)[0]));
+    }
+}
@@ -16,11 +16,15 @@
 
 package android.device.collectors;
 
+import static android.device.collectors.ShowmapSnapshotListener.BATCHED_COLLECTION_KEY;
 import static android.device.collectors.ShowmapSnapshotListener.DROP_CACHE_KEY;
 import static android.device.collectors.ShowmapSnapshotListener.METRIC_NAME_INDEX;
 import static android.device.collectors.ShowmapSnapshotListener.OUTPUT_DIR_KEY;
+import static android.device.collectors.ShowmapSnapshotListener.PARSING_THREADS_KEY;
 import static android.device.collectors.ShowmapSnapshotListener.PROCESS_NAMES_KEY;
 import static android.device.collectors.ShowmapSnapshotListener.PROCESS_SEPARATOR;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 import android.app.Instrumentation;
@@ -92,4 +96,33 @@ public class ShowmapSnapshotListenerTest {
     // DROP_CACHE_KEY values: "pagecache" = 1, "slab" = 2, "all" = 3
     verify(mShowmapSnapshotHelper).setDropCacheOption(3);
   }
+
+  @Test
+  public void testBatchedCollectionOptions() throws Exception {
+    Bundle b = new Bundle();
+    b.putString(PROCESS_NAMES_KEY, "process1");
+    b.putString(OUTPUT_DIR_KEY, VALID_OUTPUT_DIR);
+    b.putString(BATCHED_COLLECTION_KEY, "true");
+    b.putString(PARSING_THREADS_KEY, "8");
+    mListener = initListener(b);
+
+    mListener.testRunStarted(mRunDesc);
+
+    verify(mShowmapSnapshotHelper).setBatchedCollectionOption(true);
+    verify(mShowmapSnapshotHelper).setParsingThreads(8);
+  }
+
+  @Test
+  public void testInvalidParsingThreads() throws Exception {
+    Bundle b = new Bundle();
+    b.putString(PROCESS_NAMES_KEY, "process1");
+    b.putString(OUTPUT_DIR_KEY, VALID_OUTPUT_DIR);
+    b.putString(PARSING_THREADS_KEY, "many");
+    mListener = initListener(b);
+
+    mListener.testRunStarted(mRunDesc);
+
+    verify(mShowmapSnapshotHelper).setUp(VALID_OUTPUT_DIR, "process1");
+    verify(mShowmapSnapshotHelper, never()).setParsingThreads(anyInt());
+  }
 }
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.tools
+
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * Cache which can be used from several threads at once and holds at most [maxSize] elements.
+ *
+ * The elements are spread over [stripeCount] stripes by hash, each guarded by its own lock, so
+ * that threads interning different elements rarely wait for each other. When a stripe is full, its
+ * least recently used element is evicted. An evicted element is only no longer shared with the
+ * equal elements cached afterwards, so the bound trades memory for duplicates.
+ *
+ * @param maxSize Maximum number of elements held by the cache
+ * @param stripeCount Number of independently locked stripes, rounded up to a power of two
+ */
+class ConcurrentCache
+@JvmOverloads
+constructor(val maxSize: Int = DEFAULT_MAX_SIZE, stripeCount: Int = DEFAULT_STRIPE_COUNT) :
+    ICache {
+    private val stripes: Array<Stripe>
+    private val stripeMask: Int
+    private val hits = LongAdder()
+    private val misses = LongAdder()
+    private val evictions = LongAdder()
+
+    init {
+        require(maxSize > 0) { "maxSize must be positive, was $maxSize" }
+        require(stripeCount > 0) { "stripeCount must be positive, was $stripeCount" }
+        val count = Integer.highestOneBit(minOf(stripeCount, maxSize, MAX_STRIPE_COUNT) * 2 - 1)
+        stripeMask = count - 1
+        stripes = Array(count) { Stripe(maxOf(1, maxSize / count)) }
+    }
+
+    /** Number of elements held by the cache */
+    val size: Int
+        get() = stripes.sumOf { stripe -> synchronized(stripe) { stripe.size } }
+
+    /** Lookups, evictions and hit rate since the cache was created */
+    val stats: Stats
+        get() = Stats(hits.sum(), misses.sum(), evictions.sum())
+
+    override fun <T : Any> get(element: T): T {
+        val stripe = stripeOf(element)
+        synchronized(stripe) {
+            val cached = stripe[element]
+            if (cached == null) {
+                stripe[element] = element
+                misses.increment()
+                return element
+            }
+            hits.increment()
+            @Suppress("UNCHECKED_CAST") return cached as T
+        }
+    }
+
+    override fun clear() {
+        stripes.forEach { stripe -> synchronized(stripe) { stripe.clear() } }
+    }
+
+    override fun backup(): ICache.Backup {
+        val cache = mutableMapOf<Any, Any>()
+        stripes.forEach { stripe -> synchronized(stripe) { cache.putAll(stripe) } }
+        return ICache.Backup(cache)
+    }
+
+    override fun restore(backup: ICache.Backup) {
+        clear()
+        backup.cache.forEach { (key, value) ->
+            val stripe = stripeOf(key)
+            synchronized(stripe) { stripe[key] = value }
+        }
+    }
+
+    private fun stripeOf(element: Any): Stripe {
+        // Spread the high bits, as the hash codes of the data classes often differ only there
+        val hash = element.hashCode()
+        return stripes[(hash xor (hash ushr 16)) and stripeMask]
+    }
+
+    private inner class Stripe(private val capacity: Int) :
+        LinkedHashMap<Any, Any>(16, 0.75f, /* accessOrder */ true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Any, Any>?): Boolean {
+            val evict = size > capacity
+            if (evict) {
+                evictions.increment()
+            }
+            return evict
+        }
+    }
+
+    /**
+     * Counters of a [ConcurrentCache]
+     *
+     * @param hits Number of lookups which returned a cached element
+     * @param misses Number of lookups which cached the looked up element
+     * @param evictions Number of elements evicted because the cache was full
+     */
+    data class Stats(val hits: Long, val misses: Long, val evictions: Long) {
+        /** Share of the lookups which returned a cached element, or 0 if there were none */
+        val hitRate: Double
+            get() = if (hits + misses == 0L) 0.0 else hits.toDouble() / (hits + misses)
+    }
+
+    companion object {
+        const val DEFAULT_MAX_SIZE = 1 shl 18
+        const val DEFAULT_STRIPE_COUNT = 16
+        private const val MAX_STRIPE_COUNT = 1 shl 16
+    }
+}
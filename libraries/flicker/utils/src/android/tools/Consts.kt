@@ -26,5 +26,5 @@ const val DAY_AS_NANOSECONDS: Long = 86400000000000
 
 val Timestamps: TimestampFactory = TimestampFactory { formatRealTimestamp(it) }
 
-var Cache: ICache = CacheImpl()
+var Cache: ICache = ConcurrentCache()
     internal set
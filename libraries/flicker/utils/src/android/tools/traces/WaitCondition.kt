@@ -54,6 +54,7 @@ private constructor(
     private val supplier: Supplier<T>,
     private val condition: Condition<T>,
     private val retryLimit: Int,
+    private val timeoutMs: Long?,
     private val onLog: BiConsumer<String, Boolean>?,
     private val onFailure: Consumer<T>?,
     private val onRetry: Consumer<T>?,
@@ -75,11 +76,12 @@ private constructor(
         onLog?.accept("***Waiting for $condition", false)
         var currState: T? = null
         var success = false
+        val deadlineNs = timeoutMs?.let { System.nanoTime() + it * 1_000_000 }
         for (i in 0..retryLimit) {
             val result = doWaitForRetry(i)
             success = result.first
             currState = result.second
-            if (success) {
+            if (success || (deadlineNs != null && System.nanoTime() >= deadlineNs)) {
                 break
             } else if (i < retryLimit) {
                 onRetry?.accept(currState)
@@ -136,6 +138,7 @@ private constructor(
         private var onRetry: Consumer<T>? = null
         private var onSuccess: Consumer<T>? = null
         private var onLog: BiConsumer<String, Boolean>? = null
+        private var timeoutMs: Long? = null
 
         fun withCondition(condition: Condition<T>) = apply { conditions.add(condition) }
 
@@ -158,6 +161,14 @@ private constructor(
          */
         fun onFailure(onFailure: Consumer<T>): Builder<T> = apply { this.onFailure = onFailure }
 
+        fun withRetryLimit(retryLimit: Int): Builder<T> = apply { this.retryLimit = retryLimit }
+
+        /**
+         * Stops retrying once [timeoutMs] elapsed since the start of the wait, even if the retry
+         * limit is not reached. The condition is checked at least once.
+         */
+        fun withTimeout(timeoutMs: Long): Builder<T> = apply { this.timeoutMs = timeoutMs }
+
         fun onLog(onLog: BiConsumer<String, Boolean>): Builder<T> = apply { this.onLog = onLog }
 
         fun onRetry(onRetry: Consumer<T>? = null): Builder<T> = apply { this.onRetry = onRetry }
@@ -175,6 +186,7 @@ private constructor(
                 supplier,
                 ConditionList(spreadConditionList()),
                 retryLimit,
+                timeoutMs,
                 onLog,
                 onFailure,
                 onRetry,
@@ -91,12 +91,7 @@ open class ResultReader(result: IResultData) : Reader {
         return withTracing("readWmState#$tag") {
             val descriptor = ResultArtifactDescriptor(TraceType.WM_DUMP, tag)
             Log.d(FLICKER_IO_TAG, "Reading WM trace descriptor=$descriptor from $result")
-            val traceData = readBytes(descriptor)
-            traceData?.let {
-                TraceProcessorSession.loadPerfettoTrace(it) { session ->
-                    WindowManagerTraceParser().parse(session)
-                }
-            }
+            loadPerfettoTrace(descriptor) { session -> WindowManagerTraceParser().parse(session) }
         }
     }
 
@@ -124,18 +119,15 @@ open class ResultReader(result: IResultData) : Reader {
     @Throws(IOException::class)
     override fun readLayersTrace(): LayersTrace? {
         return withTracing("readLayersTrace") {
-            val descriptor = ResultArtifactDescriptor(TraceType.PERFETTO)
-            readBytes(descriptor)?.let {
-                TraceProcessorSession.loadPerfettoTrace(it) { session ->
-                    LayersTraceParser()
-                        .parse(
-                            session,
-                            transitionTimeRange.start,
-                            transitionTimeRange.end,
-                            addInitialEntry = true,
-                            clearCache = true,
-                        )
-                }
+            loadPerfettoTrace(ResultArtifactDescriptor(TraceType.PERFETTO)) { session ->
+                LayersTraceParser()
+                    .parse(
+                        session,
+                        transitionTimeRange.start,
+                        transitionTimeRange.end,
+                        addInitialEntry = true,
+                        clearCache = true,
+                    )
             }
         }
     }
@@ -148,11 +140,8 @@ open class ResultReader(result: IResultData) : Reader {
     @Throws(IOException::class)
     override fun readLayersDump(tag: String): LayersTrace? {
         return withTracing("readLayersDump#$tag") {
-            val descriptor = ResultArtifactDescriptor(TraceType.PERFETTO, tag)
-            readBytes(descriptor)?.let {
-                TraceProcessorSession.loadPerfettoTrace(it) { session ->
-                    LayersTraceParser().parse(session, clearCache = true)
-                }
+            loadPerfettoTrace(ResultArtifactDescriptor(TraceType.PERFETTO, tag)) { session ->
+                LayersTraceParser().parse(session, clearCache = true)
             }
         }
     }
@@ -169,14 +158,12 @@ open class ResultReader(result: IResultData) : Reader {
         }
 
     private fun doReadTransactionsTrace(from: Timestamp, to: Timestamp): TransactionsTrace? {
-        val traceData = readBytes(ResultArtifactDescriptor(TraceType.PERFETTO))
-        return traceData?.let {
-            val trace =
-                TraceProcessorSession.loadPerfettoTrace(traceData) { session ->
-                    TransactionsTraceParser().parse(session, from, to, addInitialEntry = true)
-                }
-            require(trace.entries.isNotEmpty()) { "Transactions trace cannot be empty" }
-            trace
+        val trace =
+            loadPerfettoTrace(ResultArtifactDescriptor(TraceType.PERFETTO)) { session ->
+                TransactionsTraceParser().parse(session, from, to, addInitialEntry = true)
+            }
+        return trace?.also {
+            require(it.entries.isNotEmpty()) { "Transactions trace cannot be empty" }
         }
     }
 
@@ -188,15 +175,9 @@ open class ResultReader(result: IResultData) : Reader {
     @Throws(IOException::class)
     override fun readTransitionsTrace(): TransitionsTrace? {
         return withTracing("readTransitionsTrace") {
-            readBytes(ResultArtifactDescriptor(TraceType.PERFETTO))?.let {
-                TraceProcessorSession.loadPerfettoTrace(it) { session ->
-                    TransitionsTraceParser()
-                        .parse(
-                            session,
-                            from = transitionTimeRange.start,
-                            to = transitionTimeRange.end,
-                        )
-                }
+            loadPerfettoTrace(ResultArtifactDescriptor(TraceType.PERFETTO)) { session ->
+                TransitionsTraceParser()
+                    .parse(session, from = transitionTimeRange.start, to = transitionTimeRange.end)
             }
         }
     }
@@ -209,31 +190,29 @@ open class ResultReader(result: IResultData) : Reader {
     @Throws(IOException::class)
     override fun readProtoLogTrace(): ProtoLogTrace? {
         return withTracing("readProtoLogTrace") {
-            val traceData = readBytes(ResultArtifactDescriptor(TraceType.PERFETTO))
-
-            traceData?.let {
-                TraceProcessorSession.loadPerfettoTrace(traceData) { session ->
-                    ProtoLogTraceParser()
-                        .parse(
-                            session,
-                            from = transitionTimeRange.start,
-                            to = transitionTimeRange.end,
-                        )
-                }
+            loadPerfettoTrace(ResultArtifactDescriptor(TraceType.PERFETTO)) { session ->
+                ProtoLogTraceParser()
+                    .parse(session, from = transitionTimeRange.start, to = transitionTimeRange.end)
             }
         }
     }
 
-    private fun readPerfettoWindowManagerTrace(): WindowManagerTrace? {
-        val traceData = readBytes(ResultArtifactDescriptor(TraceType.PERFETTO))
-
-        return traceData?.let {
-            TraceProcessorSession.loadPerfettoTrace(traceData) { session ->
-                WindowManagerTraceParser()
-                    .parse(session, from = transitionTimeRange.start, to = transitionTimeRange.end)
-            }
+    private fun readPerfettoWindowManagerTrace(): WindowManagerTrace? =
+        loadPerfettoTrace(ResultArtifactDescriptor(TraceType.PERFETTO)) { session ->
+            WindowManagerTraceParser()
+                .parse(session, from = transitionTimeRange.start, to = transitionTimeRange.end)
         }
-    }
+
+    /**
+     * Loads the perfetto trace matching [descriptor] in trace processor and runs [predicate] on it
+     *
+     * @return the result of [predicate], or null if there is no such trace in the artifact
+     */
+    @Throws(IOException::class)
+    protected open fun <T> loadPerfettoTrace(
+        descriptor: ResultArtifactDescriptor,
+        predicate: (TraceProcessorSession) -> T,
+    ): T? = readBytes(descriptor)?.let { TraceProcessorSession.loadPerfettoTrace(it, predicate) }
 
     private fun readLegacyWindowManagerTrace(): WindowManagerTrace? {
         val traceData = readBytes(ResultArtifactDescriptor(TraceType.WM))
@@ -16,6 +16,7 @@
 
 package android.tools.traces.io
 
+import android.os.Trace
 import android.tools.Timestamp
 import android.tools.io.FLICKER_IO_TAG
 import android.tools.io.Reader
@@ -23,21 +24,29 @@ import android.tools.io.ResultArtifactDescriptor
 import android.tools.io.TraceType
 import android.tools.io.TransitionTimeRange
 import android.tools.traces.events.EventLog
+import android.tools.traces.parsers.perfetto.TraceProcessorDiskCache
+import android.tools.traces.parsers.perfetto.TraceProcessorSession
 import android.tools.traces.surfaceflinger.LayersTrace
 import android.tools.traces.wm.WindowManagerTrace
 import android.tools.withTracing
 import android.util.Log
 import android.util.LruCache
+import java.io.File
 import java.io.IOException
 
 /**
  * Helper class to read results from a flicker artifact using a LRU
  *
+ * The parsed traces are kept in a cache shared by all readers, weighted by their estimated size in
+ * memory and bounded by [setMemoryBudget]. When a directory is set with [setDiskCache], the trace
+ * processor query results of the perfetto traces are also kept on disk, so that the traces do not
+ * need to be loaded in trace processor again, e.g. by the next test class.
+ *
  * @param result to read from
  */
 open class ResultReaderWithLru(
     result: IResultData,
-    private val reader: ResultReader = ResultReader(result),
+    private val reader: ResultReader = newResultReader(result),
 ) : Reader by reader {
     /** {@inheritDoc} */
     @Throws(IOException::class)
@@ -49,8 +58,9 @@ open class ResultReaderWithLru(
                 ResultArtifactDescriptor(TraceType.WM)
             }
         val artifact = reader.artifacts.firstOrNull { it.hasTrace(descriptor) } ?: return null
-        val key = CacheKey(artifact.stableId, descriptor, reader.transitionTimeRange)
-        return wmTraceCache.logAndReadTrace(key) { reader.readWmTrace() }
+        val key =
+            CacheKey(artifact.stableId, descriptor, reader.transitionTimeRange, TRACE_KIND_WM)
+        return logAndReadTrace(key) { reader.readWmTrace() }
     }
 
     /** {@inheritDoc} */
@@ -58,8 +68,9 @@ open class ResultReaderWithLru(
     override fun readLayersTrace(): LayersTrace? {
         val descriptor = ResultArtifactDescriptor(TraceType.PERFETTO)
         val artifact = reader.artifacts.firstOrNull { it.hasTrace(descriptor) } ?: return null
-        val key = CacheKey(artifact.stableId, descriptor, reader.transitionTimeRange)
-        return layersTraceCache.logAndReadTrace(key) { reader.readLayersTrace() }
+        val key =
+            CacheKey(artifact.stableId, descriptor, reader.transitionTimeRange, TRACE_KIND_LAYERS)
+        return logAndReadTrace(key) { reader.readLayersTrace() }
     }
 
     /** {@inheritDoc} */
@@ -67,8 +78,9 @@ open class ResultReaderWithLru(
     override fun readEventLogTrace(): EventLog? {
         val descriptor = ResultArtifactDescriptor(TraceType.EVENT_LOG)
         val artifact = reader.artifacts.firstOrNull { it.hasTrace(descriptor) } ?: return null
-        val key = CacheKey(artifact.stableId, descriptor, reader.transitionTimeRange)
-        return eventLogCache.logAndReadTrace(key) { reader.readEventLogTrace() }
+        val key =
+            CacheKey(artifact.stableId, descriptor, reader.transitionTimeRange, TRACE_KIND_EVENTS)
+        return logAndReadTrace(key) { reader.readEventLogTrace() }
     }
 
     /** {@inheritDoc} */
@@ -77,37 +89,129 @@ open class ResultReaderWithLru(
         return ResultReaderWithLru(slicedReader.result, slicedReader)
     }
 
-    private fun <TraceType> LruCache<CacheKey, TraceType>.logAndReadTrace(
+    private fun <TraceType : Any> logAndReadTrace(
         key: CacheKey,
         predicate: () -> TraceType?,
     ): TraceType? {
         return withTracing("logAndReadTrace") {
-            var value = this[key]
+            @Suppress("UNCHECKED_CAST") var value = traceCache[key] as TraceType?
             if (value == null) {
                 value =
                     withTracing("cache miss") {
                         Log.d(FLICKER_IO_TAG, "Cache miss $key, $reader")
                         predicate()
                     }
+                if (value != null) {
+                    traceCache.put(key, value)
+                    Log.d(FLICKER_IO_TAG, "Add to cache $key, $reader")
+                }
             }
-
-            if (value != null) {
-                this.put(key, value)
-                Log.d(FLICKER_IO_TAG, "Add to cache $key, $reader")
-            }
+            traceCache.reportCounters()
             value
         }
     }
 
     companion object {
+        /** Default memory budget of the cache, in bytes */
+        const val DEFAULT_MEMORY_BUDGET_BYTES = 256L * 1024 * 1024
+
+        /** Default disk budget of the cache, in bytes */
+        const val DEFAULT_DISK_BUDGET_BYTES = 1024L * 1024 * 1024
+
+        private const val TRACE_KIND_WM = "wm"
+        private const val TRACE_KIND_LAYERS = "layers"
+        private const val TRACE_KIND_EVENTS = "events"
+
+        // Rough retained sizes of the parsed trace objects, to weight the cache entries
+        private const val TRACE_ENTRY_BYTES = 1024L
+        private const val LAYER_BYTES = 2048L
+        private const val WINDOW_CONTAINER_BYTES = 2048L
+        private const val EVENT_BYTES = 256L
+
         data class CacheKey(
             private val artifact: String,
             internal val descriptor: ResultArtifactDescriptor,
             private val transitionTimeRange: TransitionTimeRange,
+            private val traceKind: String,
         )
 
-        private val wmTraceCache = LruCache<CacheKey, WindowManagerTrace>(5)
-        private val layersTraceCache = LruCache<CacheKey, LayersTrace>(5)
-        private val eventLogCache = LruCache<CacheKey, EventLog>(5)
+        private val traceCache = TraceCache(DEFAULT_MEMORY_BUDGET_BYTES)
+
+        @Volatile private var diskCache: TraceProcessorDiskCache? = null
+
+        /** Sets the memory budget of the parsed traces cache, evicting traces if needed */
+        @JvmStatic
+        fun setMemoryBudget(bytes: Long) {
+            traceCache.resize(toKiB(bytes))
+        }
+
+        /**
+         * Keeps the trace processor query results of the perfetto traces in [directory], up to
+         * [maxBytes]. This only applies to the readers created afterwards.
+         *
+         * @param directory where to store the results, or null to disable the disk cache
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun setDiskCache(directory: File?, maxBytes: Long = DEFAULT_DISK_BUDGET_BYTES) {
+            diskCache = directory?.let { TraceProcessorDiskCache(it, maxBytes) }
+        }
+
+        /** @return the hit, miss and eviction counts and the size of the parsed traces cache */
+        @JvmStatic fun getCacheStats(): String = traceCache.toString()
+
+        private fun newResultReader(result: IResultData): ResultReader =
+            diskCache?.let { ResultReaderWithDiskCache(result, it) } ?: ResultReader(result)
+
+        private fun toKiB(bytes: Long): Int =
+            (bytes / 1024).coerceIn(1, Int.MAX_VALUE.toLong()).toInt()
+
+        private fun estimateBytes(trace: Any): Long =
+            when (trace) {
+                is LayersTrace ->
+                    trace.entries.sumOf {
+                        TRACE_ENTRY_BYTES + it.flattenedLayers.size * LAYER_BYTES
+                    }
+                is WindowManagerTrace ->
+                    trace.entries.sumOf {
+                        TRACE_ENTRY_BYTES + it.windowContainers.size * WINDOW_CONTAINER_BYTES
+                    }
+                is EventLog -> trace.entries.size * EVENT_BYTES
+                else -> TRACE_ENTRY_BYTES
+            }
+
+        /** LRU of the parsed traces, weighted by their estimated size in KiB */
+        private class TraceCache(maxBytes: Long) : LruCache<CacheKey, Any>(toKiB(maxBytes)) {
+            override fun sizeOf(key: CacheKey, value: Any): Int = toKiB(estimateBytes(value))
+
+            fun reportCounters() {
+                Trace.setCounter("ResultReaderWithLru#hits", hitCount().toLong())
+                Trace.setCounter("ResultReaderWithLru#misses", missCount().toLong())
+                Trace.setCounter("ResultReaderWithLru#evictions", evictionCount().toLong())
+                Trace.setCounter("ResultReaderWithLru#sizeKiB", size().toLong())
+            }
+
+            // LruCache.toString() does not report the evictions
+            override fun toString(): String =
+                "TraceCache[hits=${hitCount()},misses=${missCount()}," +
+                    "evictions=${evictionCount()},sizeKiB=${size()}/${maxSize()}]"
+        }
     }
 }
+
+/** [ResultReader] loading the perfetto traces through a [TraceProcessorDiskCache] */
+private class ResultReaderWithDiskCache(
+    result: IResultData,
+    private val diskCache: TraceProcessorDiskCache,
+) : ResultReader(result) {
+    override fun <T> loadPerfettoTrace(
+        descriptor: ResultArtifactDescriptor,
+        predicate: (TraceProcessorSession) -> T,
+    ): T? =
+        readBytes(descriptor.traceType, descriptor.tag)?.let {
+            diskCache.loadPerfettoTrace(it, predicate)
+        }
+
+    override fun slice(startTimestamp: Timestamp, endTimestamp: Timestamp): ResultReader =
+        ResultReaderWithDiskCache(result.slice(startTimestamp, endTimestamp), diskCache)
+}
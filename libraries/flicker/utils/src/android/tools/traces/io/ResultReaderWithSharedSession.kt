@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.tools.traces.io
+
+import android.tools.Timestamp
+import android.tools.io.FLICKER_IO_TAG
+import android.tools.io.ResultArtifactDescriptor
+import android.tools.traces.parsers.perfetto.SharedTraceProcessorSession
+import android.tools.traces.parsers.perfetto.TraceProcessorSession
+import android.util.Log
+import java.io.IOException
+
+/**
+ * Helper class to read results from a flicker artifact, loading each perfetto trace in trace
+ * processor only once.
+ *
+ * The layers, transactions, transitions, protolog and window manager traces are all read from the
+ * same perfetto trace, so their parsers query a single [SharedTraceProcessorSession] instead of
+ * loading the trace for each of them. The sessions are shared with the readers returned by [slice]
+ * and unloaded when this reader is closed.
+ *
+ * @param result to read from
+ */
+open class ResultReaderWithSharedSession
+private constructor(
+    result: IResultData,
+    private val sessions: Sessions,
+    private val isOwner: Boolean,
+) : ResultReader(result), AutoCloseable {
+
+    constructor(result: IResultData) : this(result, Sessions(), isOwner = true)
+
+    @Throws(IOException::class)
+    override fun <T> loadPerfettoTrace(
+        descriptor: ResultArtifactDescriptor,
+        predicate: (TraceProcessorSession) -> T,
+    ): T? {
+        val session =
+            sessions.getOrLoad(descriptor) {
+                readBytes(descriptor.traceType, descriptor.tag)?.let {
+                    Log.d(FLICKER_IO_TAG, "Loading shared session descriptor=$descriptor")
+                    SharedTraceProcessorSession(it, descriptor.fileNameInArtifact)
+                }
+            } ?: return null
+        return session.run(predicate)
+    }
+
+    /** {@inheritDoc} */
+    override fun slice(
+        startTimestamp: Timestamp,
+        endTimestamp: Timestamp,
+    ): ResultReaderWithSharedSession {
+        val slicedResult = result.slice(startTimestamp, endTimestamp)
+        return ResultReaderWithSharedSession(slicedResult, sessions, isOwner = false)
+    }
+
+    /** Unloads the perfetto traces, unless this reader is a slice of another one. */
+    override fun close() {
+        if (isOwner) {
+            sessions.close()
+        }
+    }
+
+    /** Sessions of the perfetto traces of a result, by [ResultArtifactDescriptor] */
+    private class Sessions : AutoCloseable {
+        private val sessions = mutableMapOf<ResultArtifactDescriptor, SharedTraceProcessorSession>()
+        private var isClosed = false
+
+        @Synchronized
+        fun getOrLoad(
+            descriptor: ResultArtifactDescriptor,
+            load: () -> SharedTraceProcessorSession?,
+        ): SharedTraceProcessorSession? {
+            check(!isClosed) { "Reader is closed" }
+            sessions[descriptor]?.let {
+                return it
+            }
+            return load()?.also { sessions[descriptor] = it }
+        }
+
+        @Synchronized
+        override fun close() {
+            isClosed = true
+            sessions.values.forEach { it.close() }
+            sessions.clear()
+        }
+    }
+}
@@ -29,27 +29,64 @@ import java.io.FileInputStream
 import java.io.FileNotFoundException
 import java.io.IOException
 import java.util.zip.ZipEntry
+import java.util.zip.ZipException
+import java.util.zip.ZipFile
 import java.util.zip.ZipInputStream
 
+/**
+ * Artifact of the traces stored in a winscope zip file.
+ *
+ * The file names are read once from the central directory of the zip, and only the requested entry
+ * is inflated when reading a trace. Zips without a central directory, e.g. if the writer did not
+ * complete, are scanned entry by entry instead.
+ */
 class WinscopeZipArtifact(testIdentifier: String, artifactFile: File, counter: Int) :
     FileArtifact(testIdentifier, artifactFile, counter, TraceType.WINSCOPE_ZIP) {
+    @Volatile private var entryIndex: EntryIndex? = null
 
-    override fun hasTrace(descriptor: ResultArtifactDescriptor): Boolean {
-        var found = false
-        forEachFileInZip { found = found || (it.name == descriptor.fileNameInArtifact) }
-        return found
-    }
+    override fun hasTrace(descriptor: ResultArtifactDescriptor): Boolean =
+        getEntryIndex().names.contains(descriptor.fileNameInArtifact)
 
-    override fun traceCount(): Int {
-        var count = 0
-        forEachFileInZip { count++ }
-        return count
-    }
+    override fun traceCount(): Int = getEntryIndex().count
 
     @Throws(IOException::class)
     override fun readBytes(descriptor: ResultArtifactDescriptor): ByteArray? {
         Log.d(FLICKER_IO_TAG, "Reading descriptor=$descriptor from $this")
 
+        if (!hasTrace(descriptor)) {
+            return null
+        }
+        return try {
+            ZipFile(file).use { zipFile ->
+                zipFile.getEntry(descriptor.fileNameInArtifact)?.let { zipEntry ->
+                    zipFile.getInputStream(zipEntry).use { it.readBytes() }
+                }
+            }
+        } catch (e: ZipException) {
+            Log.d(FLICKER_IO_TAG, "Unable to open $this as zip file, scanning its entries", e)
+            scanBytes(descriptor)
+        }
+    }
+
+    /** @return the index of the files in the zip, read again if the file changed */
+    private fun getEntryIndex(): EntryIndex {
+        checkFileExists()
+        val currentIndex = entryIndex
+        if (currentIndex != null && currentIndex.isValidFor(file)) {
+            return currentIndex
+        }
+        val names = mutableListOf<String>()
+        try {
+            ZipFile(file).use { zipFile -> zipFile.entries().asSequence().mapTo(names) { it.name } }
+        } catch (e: ZipException) {
+            Log.d(FLICKER_IO_TAG, "Unable to open $this as zip file, scanning its entries", e)
+            names.clear()
+            forEachFileInZip { names.add(it.name) }
+        }
+        return EntryIndex(file, names).also { entryIndex = it }
+    }
+
+    private fun scanBytes(descriptor: ResultArtifactDescriptor): ByteArray? {
         var foundFile = false
         val outByteArray = ByteArrayOutputStream()
         val tmpBuffer = ByteArray(BUFFER_SIZE)
@@ -79,7 +116,7 @@ class WinscopeZipArtifact(testIdentifier: String, artifactFile: File, counter: I
         return if (foundFile) outByteArray.toByteArray() else null
     }
 
-    private fun withZipFile(predicate: (ZipInputStream) -> Unit) {
+    private fun checkFileExists() {
         if (!file.exists()) {
             val directory = file.parentFile
             val files =
@@ -99,7 +136,10 @@ class WinscopeZipArtifact(testIdentifier: String, artifactFile: File, counter: I
                 }
             )
         }
+    }
 
+    private fun withZipFile(predicate: (ZipInputStream) -> Unit) {
+        checkFileExists()
         val zipInputStream = ZipInputStream(BufferedInputStream(FileInputStream(file), BUFFER_SIZE))
         try {
             predicate(zipInputStream)
@@ -118,4 +158,18 @@ class WinscopeZipArtifact(testIdentifier: String, artifactFile: File, counter: I
             }
         }
     }
+
+    /**
+     * Names of the files in a zip, valid as long as the zip file is not modified. Renaming the
+     * file, e.g. when updating the status, keeps the index valid.
+     */
+    private class EntryIndex(file: File, entryNames: List<String>) {
+        private val length = file.length()
+        private val lastModified = file.lastModified()
+        val names: Set<String> = entryNames.toSet()
+        val count = entryNames.size
+
+        fun isValidFor(file: File): Boolean =
+            file.length() == length && file.lastModified() == lastModified
+    }
 }
@@ -46,6 +46,18 @@ open class PerfettoTraceMonitor(val config: TraceConfig) : TraceMonitor() {
         return doStop()
     }
 
+    /**
+     * Starts the session and returns the file it writes into, which can be read while tracing if
+     * the config sets [TraceConfig.getWriteIntoFile]. See [stopWritingIntoFile].
+     */
+    fun startWritingIntoFile(): File {
+        start()
+        return requireNotNull(traceFile)
+    }
+
+    /** Stops a session started with [startWritingIntoFile] and returns its complete file */
+    fun stopWritingIntoFile(): File = doStop()
+
     override fun doStart() {
         val fileName = File.createTempFile(traceType.fileName, "").name
         traceFile = PERFETTO_TRACES_DIR.resolve(fileName)
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.tools.traces.parsers
+
+import android.os.SystemClock
+import android.tools.traces.DeviceStateDump
+import android.tools.traces.executeShellCommand
+import android.tools.traces.monitors.PerfettoTraceMonitor
+import android.tools.traces.parsers.perfetto.LatestStateTraceBuilder
+import android.tools.traces.parsers.perfetto.LayersTraceParser
+import android.tools.traces.parsers.perfetto.TraceProcessorSession
+import android.tools.traces.parsers.perfetto.WindowManagerTraceParser
+import android.tools.withTracing
+import java.io.File
+import java.util.function.Supplier
+import kotlin.math.min
+import perfetto.protos.PerfettoConfig.TraceConfig
+
+/**
+ * Supplies the device state from a single perfetto session, which keeps tracing the window manager
+ * and layers states until closed, instead of starting a new session for each state dump.
+ *
+ * The session writes its trace into its file every [fileWritePeriodMs]. Only the bytes written
+ * since the previous read are pulled, and only the latest entries are parsed, and only when new
+ * ones were written.
+ *
+ * @param clearCacheAfterParsing If the caching used while parsing the proto should be cleared
+ * @param fileWritePeriodMs Period at which the session writes the entries into its file
+ */
+class ContinuousStateDumpSupplier
+@JvmOverloads
+constructor(
+    private val clearCacheAfterParsing: Boolean = true,
+    private val fileWritePeriodMs: Int = DEFAULT_FILE_WRITE_PERIOD_MS,
+) : Supplier<DeviceStateDump>, AutoCloseable {
+    private val monitor = PerfettoTraceMonitor(createConfig())
+    private val traceBuilder = LatestStateTraceBuilder()
+    private var traceFile: File? = null
+    private var readBytes = 0L
+    private var lastState: DeviceStateDump? = null
+
+    /** @return the latest device state, waiting for the first one to be traced if needed */
+    override fun get(): DeviceStateDump {
+        val deadline = SystemClock.uptimeMillis() + FIRST_STATE_TIMEOUT_MS
+        readNewBytes()
+        while (!traceBuilder.hasAllEntries) {
+            check(SystemClock.uptimeMillis() < deadline) {
+                "No window manager and layers state traced after ${FIRST_STATE_TIMEOUT_MS}ms"
+            }
+            SystemClock.sleep(fileWritePeriodMs.toLong())
+            readNewBytes()
+        }
+
+        val state = lastState
+        if (state != null && !traceBuilder.hasNewEntries) {
+            return state
+        }
+        return parse(traceBuilder.build()).also { lastState = it }
+    }
+
+    /**
+     * Waits until new window manager or layers entries are written, or until [timeoutMs] elapsed
+     *
+     * @return if new entries were written
+     */
+    fun awaitNewEntries(timeoutMs: Long): Boolean {
+        val deadline = SystemClock.uptimeMillis() + timeoutMs
+        while (true) {
+            readNewBytes()
+            if (traceBuilder.hasNewEntries) {
+                return true
+            }
+            val remainingMs = deadline - SystemClock.uptimeMillis()
+            if (remainingMs <= 0) {
+                return false
+            }
+            SystemClock.sleep(min(remainingMs, fileWritePeriodMs.toLong()))
+        }
+    }
+
+    /** Stops the session and deletes its trace */
+    override fun close() {
+        val file = traceFile ?: return
+        traceFile = null
+        monitor.stopWritingIntoFile()
+        executeShellCommand("rm -f ${file.absolutePath}")
+    }
+
+    private fun readNewBytes() {
+        val file = traceFile ?: monitor.startWritingIntoFile().also { traceFile = it }
+        val bytes = executeShellCommand("tail -c +${readBytes + 1} ${file.absolutePath}")
+        readBytes += bytes.size
+        traceBuilder.append(bytes)
+    }
+
+    private fun parse(trace: ByteArray): DeviceStateDump =
+        withTracing("ContinuousStateDumpSupplier#parse") {
+            TraceProcessorSession.loadPerfettoTrace(trace) { session ->
+                val layerState =
+                    LayersTraceParser()
+                        .parse(session, clearCache = clearCacheAfterParsing)
+                        .entries
+                        .last()
+                val wmState =
+                    WindowManagerTraceParser()
+                        .parse(session, clearCache = clearCacheAfterParsing)
+                        .entries
+                        .last()
+                DeviceStateDump(wmState, layerState)
+            }
+        }
+
+    private fun createConfig(): TraceConfig {
+        val config =
+            PerfettoTraceMonitor.newBuilder()
+                .enableWindowManagerTrace()
+                .enableLayersTrace()
+                .build()
+                .config
+        // Only the window manager and layers entries are read while tracing
+        val dataSources =
+            config.dataSourcesList.filter {
+                it.config.name == PerfettoTraceMonitor.WINDOWMANAGER_DATA_SOURCE ||
+                    it.config.name == PerfettoTraceMonitor.SF_LAYERS_DATA_SOURCE
+            }
+        return config
+            .toBuilder()
+            .clearDataSources()
+            .addAllDataSources(dataSources)
+            .setWriteIntoFile(true)
+            .setFileWritePeriodMs(fileWritePeriodMs)
+            .setFlushPeriodMs(fileWritePeriodMs)
+            .build()
+    }
+
+    companion object {
+        /** Minimum period supported by perfetto */
+        const val DEFAULT_FILE_WRITE_PERIOD_MS = 100
+        private const val FIRST_STATE_TIMEOUT_MS = 10000L
+    }
+}
@@ -111,11 +111,13 @@ constructor(
      * conditions
      */
     inner class StateSyncBuilder(private val deviceDumpSupplier: Supplier<DeviceStateDump>) {
+        private var isContinuousTracing = false
+        private var continuousSupplier: ContinuousStateDumpSupplier? = null
         private val conditionBuilder = createConditionBuilder()
         private var lastMessage = ""
 
         private fun createConditionBuilder(): WaitCondition.Builder<DeviceStateDump> =
-            WaitCondition.Builder(numRetries) { deviceDumpSupplier.get() }
+            WaitCondition.Builder(numRetries) { (continuousSupplier ?: deviceDumpSupplier).get() }
                 .onStart { Trace.beginSection(it) }
                 .onEnd { Trace.endSection() }
                 .onSuccess { updateCurrState(it) }
@@ -128,7 +130,16 @@ constructor(
                         Log.d(LOG_TAG, msg)
                     }
                 }
-                .onRetry { SystemClock.sleep(retryIntervalMs) }
+                .onRetry { waitBeforeRetry() }
+
+        private fun waitBeforeRetry() {
+            val supplier = continuousSupplier
+            if (supplier != null) {
+                supplier.awaitNewEntries(retryIntervalMs)
+            } else {
+                SystemClock.sleep(retryIntervalMs)
+            }
+        }
 
         /**
          * Adds a new [condition] to the list
@@ -149,19 +160,46 @@ constructor(
         fun add(message: String = "", condition: Predicate<DeviceStateDump>): StateSyncBuilder =
             add(Condition(message, condition))
 
+        /**
+         * Checks the conditions against the states traced by a single perfetto session running
+         * for the whole wait, see [ContinuousStateDumpSupplier], instead of a state dump per
+         * retry. The conditions are checked again as soon as a new state is traced, until the
+         * total time of the retries elapsed.
+         */
+        fun withContinuousTracing(): StateSyncBuilder = apply { isContinuousTracing = true }
+
         /**
          * Waits until the list of conditions added to [conditionBuilder] are satisfied
          *
          * @return if the device state passed all conditions or not
          */
         fun waitFor(): Boolean {
-            val passed = conditionBuilder.build().waitFor()
+            val passed =
+                if (isContinuousTracing) {
+                    waitForWithContinuousTracing()
+                } else {
+                    conditionBuilder.build().waitFor()
+                }
             // Ensure WindowManagerService wait until all animations have completed
             instrumentation.waitForIdleSync()
             instrumentation.uiAutomation.syncInputTransactions()
             return passed
         }
 
+        private fun waitForWithContinuousTracing(): Boolean =
+            ContinuousStateDumpSupplier(clearCacheAfterParsing).use { supplier ->
+                continuousSupplier = supplier
+                try {
+                    conditionBuilder
+                        .withRetryLimit(Int.MAX_VALUE)
+                        .withTimeout(numRetries * retryIntervalMs)
+                        .build()
+                        .waitFor()
+                } finally {
+                    continuousSupplier = null
+                }
+            }
+
         /**
          * Waits until the list of conditions added to [conditionBuilder] are satisfied and verifies
          * the device state passes all conditions
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.tools.traces.parsers.perfetto
+
+import java.io.ByteArrayOutputStream
+
+/**
+ * Reduces a perfetto trace, received in chunks while it is being written, to its latest window
+ * manager and layers entries.
+ *
+ * The trace is a sequence of length-delimited trace packets, so only the complete packets are
+ * considered and the others are kept until the next chunk. The packets which are not entries, e.g.
+ * the clock snapshots, are all kept so that the reduced trace can be loaded in trace processor.
+ */
+class LatestStateTraceBuilder {
+    private var pendingBytes = ByteArray(0)
+    private var packetCount = 0L
+    private val otherPackets = mutableListOf<Packet>()
+    private var latestWmPacket: Packet? = null
+    private var latestLayersPacket: Packet? = null
+
+    /** Whether a window manager or layers entry was appended since the last [build] */
+    var hasNewEntries = false
+        private set
+
+    /** Whether both a window manager and a layers entry were appended */
+    val hasAllEntries: Boolean
+        get() = latestWmPacket != null && latestLayersPacket != null
+
+    /** Appends the next [bytes] written into the trace */
+    fun append(bytes: ByteArray) {
+        if (bytes.isEmpty()) {
+            return
+        }
+        val buffer = pendingBytes + bytes
+        var offset = 0
+        while (offset < buffer.size) {
+            val packetEnd = readRecordEnd(buffer, offset) ?: break
+            val packet = Packet(packetCount++, buffer.copyOfRange(offset, packetEnd))
+            when (packet.entryField) {
+                FIELD_WINSCOPE_EXTENSIONS -> latestWmPacket = packet
+                FIELD_SURFACEFLINGER_LAYERS_SNAPSHOT -> latestLayersPacket = packet
+                else -> otherPackets.add(packet)
+            }
+            hasNewEntries = hasNewEntries || packet.entryField != null
+            offset = packetEnd
+        }
+        pendingBytes = buffer.copyOfRange(offset, buffer.size)
+    }
+
+    /** @return a trace with the latest entries and the other packets, in their original order */
+    fun build(): ByteArray {
+        hasNewEntries = false
+        val packets = otherPackets + listOfNotNull(latestWmPacket, latestLayersPacket)
+        val output = ByteArrayOutputStream()
+        packets.sortedBy { it.index }.forEach { output.write(it.record) }
+        return output.toByteArray()
+    }
+
+    /**
+     * Trace packet, with the record holding its tag and length in the trace.
+     *
+     * @param index of the packet in the trace
+     */
+    private class Packet(val index: Long, val record: ByteArray) {
+        /** Field of the window manager or layers entry held by the packet, if any */
+        val entryField: Int? = findEntryField()
+
+        private fun findEntryField(): Int? {
+            val (packetStart, _) = readRecordPayload(record, 0) ?: return null
+            var offset = packetStart
+            while (offset < record.size) {
+                val (tag, valueStart) = readVarint(record, offset) ?: return null
+                val field = (tag ushr 3).toInt()
+                if (
+                    field == FIELD_WINSCOPE_EXTENSIONS ||
+                        field == FIELD_SURFACEFLINGER_LAYERS_SNAPSHOT
+                ) {
+                    return field
+                }
+                offset = skipValue(record, valueStart, (tag and 7).toInt()) ?: return null
+            }
+            return null
+        }
+    }
+
+    companion object {
+        /** Fields of the TracePacket proto */
+        private const val FIELD_SURFACEFLINGER_LAYERS_SNAPSHOT = 93
+        private const val FIELD_WINSCOPE_EXTENSIONS = 112
+
+        private const val WIRE_TYPE_VARINT = 0
+        private const val WIRE_TYPE_FIXED64 = 1
+        private const val WIRE_TYPE_LENGTH_DELIMITED = 2
+        private const val WIRE_TYPE_FIXED32 = 5
+
+        /** @return the end of the record starting at [offset], or null if it is incomplete */
+        private fun readRecordEnd(bytes: ByteArray, offset: Int): Int? {
+            val (tag, valueStart) = readVarint(bytes, offset) ?: return null
+            return skipValue(bytes, valueStart, (tag and 7).toInt())
+        }
+
+        /** @return the start and end of the payload of a length-delimited record */
+        private fun readRecordPayload(bytes: ByteArray, offset: Int): Pair<Int, Int>? {
+            val (tag, lengthStart) = readVarint(bytes, offset) ?: return null
+            if ((tag and 7).toInt() != WIRE_TYPE_LENGTH_DELIMITED) {
+                return null
+            }
+            val (length, payloadStart) = readVarint(bytes, lengthStart) ?: return null
+            return Pair(payloadStart, payloadStart + length.toInt())
+        }
+
+        /** @return the end of the value starting at [offset], or null if it is incomplete */
+        private fun skipValue(bytes: ByteArray, offset: Int, wireType: Int): Int? {
+            val end =
+                when (wireType) {
+                    WIRE_TYPE_VARINT -> readVarint(bytes, offset)?.second
+                    WIRE_TYPE_FIXED64 -> offset + 8
+                    WIRE_TYPE_FIXED32 -> offset + 4
+                    WIRE_TYPE_LENGTH_DELIMITED ->
+                        readVarint(bytes, offset)?.let { (length, start) ->
+                            if (length > Int.MAX_VALUE - start) null else start + length.toInt()
+                        }
+                    else -> error("Unsupported wire type $wireType")
+                }
+            return end?.takeIf { it <= bytes.size }
+        }
+
+        /** @return the value and the end of the varint at [offset], or null if it is incomplete */
+        private fun readVarint(bytes: ByteArray, offset: Int): Pair<Long, Int>? {
+            var value = 0L
+            var shift = 0
+            var index = offset
+            while (index < bytes.size && shift < 64) {
+                val byte = bytes[index++].toInt()
+                value = value or ((byte and 0x7F).toLong() shl shift)
+                if ((byte and 0x80) == 0) {
+                    return Pair(value, index)
+                }
+                shift += 7
+            }
+            return null
+        }
+    }
+}
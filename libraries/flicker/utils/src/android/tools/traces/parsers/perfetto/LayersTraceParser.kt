@@ -38,11 +38,17 @@ import android.tools.traces.surfaceflinger.Transform.Companion.isFlagSet
 import android.tools.withCache
 import android.tools.withTracing
 
-/** Parser for [LayersTrace] */
+/**
+ * Parser for [LayersTrace]
+ *
+ * @param parallel If the layers of all the entries should be queried at once and the entries built
+ *   concurrently, which is faster but holds the rows of the whole trace in memory
+ */
 class LayersTraceParser(
     private val ignoreLayersStackMatchNoDisplay: Boolean = true,
     private val ignoreLayersInVirtualDisplay: Boolean = true,
     private val orphanLayerCallback: ((Layer) -> Boolean)? = null,
+    private val parallel: Boolean = false,
 ) : AbstractTraceParser<TraceProcessorSession, LayerTraceEntry, LayerTraceEntry, LayersTrace>() {
 
     override val traceName = "Layers trace (SF)"
@@ -62,9 +68,16 @@ class LayersTraceParser(
             queryRealToMonotonicTimeOffsetNs(input, "surfaceflinger_layers_snapshot")
 
         return input.query(getSqlQuerySnapshots()) { snapshotsRows ->
-            val traceEntries = mutableListOf<LayerTraceEntry>()
             val snapshotGroups = snapshotsRows.groupBy { it["snapshot_id"] }
+            if (parallel) {
+                return@query getEntriesInParallel(
+                    input,
+                    snapshotGroups,
+                    realToMonotonicTimeOffsetNs,
+                )
+            }
 
+            val traceEntries = mutableListOf<LayerTraceEntry>()
             for (snapshotId in 0L until snapshotGroups.size) {
                 withTracing("query + build entry") {
                     val layerRows =
@@ -84,6 +97,26 @@ class LayersTraceParser(
         }
     }
 
+    private fun getEntriesInParallel(
+        input: TraceProcessorSession,
+        snapshotGroups: Map<Any?, List<Row>>,
+        realToMonotonicTimeOffsetNs: Long,
+    ): List<LayerTraceEntry> {
+        val layerGroups =
+            withTracing("query layer rows") {
+                input.query(getSqlQueryAllLayers()) { rows -> rows.groupBy { it["snapshot_id"] } }
+            }
+        return (0L until snapshotGroups.size).toList().mapInParallel { snapshotId ->
+            withTracing("build entry") {
+                buildTraceEntry(
+                    snapshotGroups[snapshotId]!!,
+                    layerGroups[snapshotId] ?: emptyList(),
+                    realToMonotonicTimeOffsetNs,
+                )
+            }
+        }
+    }
+
     override fun getTimestamp(entry: LayerTraceEntry): Timestamp = entry.timestamp
 
     override fun onBeforeParse(input: TraceProcessorSession) {}
@@ -156,6 +189,21 @@ class LayersTraceParser(
                 .trimIndent()
         }
 
+        private fun getSqlQueryAllLayers(): String {
+            return """
+                SELECT
+                    sfl.snapshot_id,
+                    sfl.id as layer_id,
+                    args.key as key,
+                    args.display_value as value,
+                    args.value_type
+                FROM
+                    surfaceflinger_layer as sfl
+                INNER JOIN args ON sfl.arg_set_id = args.arg_set_id;
+            """
+                .trimIndent()
+        }
+
         private fun newLayer(layer: Args, excludesCompositionState: Boolean): Layer {
             // Differentiate between the cases when there's no HWC data on
             // the trace, and when the visible region is actually empty
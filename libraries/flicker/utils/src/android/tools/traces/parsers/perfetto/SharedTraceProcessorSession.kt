@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.tools.traces.parsers.perfetto
+
+import android.tools.io.FLICKER_IO_TAG
+import android.tools.withTracing
+import android.util.Log
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.LinkedBlockingQueue
+
+/**
+ * [TraceProcessorSession] which keeps a perfetto trace loaded in trace processor until it is
+ * closed, so that several parsers can query the same trace without loading it again.
+ *
+ * Trace processor sessions only live for the duration of a block, so the trace is loaded on first
+ * use by a worker thread which then runs the submitted blocks one after the other, until closed.
+ *
+ * @param trace contents of the perfetto trace to load
+ * @param name used to name the worker thread
+ */
+class SharedTraceProcessorSession(private val trace: ByteArray, private val name: String) :
+    TraceProcessorSession, AutoCloseable {
+    private val tasks = LinkedBlockingQueue<Task<*>>()
+    @Volatile private var worker: Thread? = null
+    private var failure: Throwable? = null
+    private var isClosed = false
+
+    /** Session of the loaded trace, only set in the worker thread */
+    private var loadedSession: TraceProcessorSession? = null
+
+    override fun <T> query(sql: String, predicate: (List<Row>) -> T): T = run { session ->
+        session.query(sql, predicate)
+    }
+
+    /**
+     * Runs [predicate] against the loaded trace, loading it if needed, and waits for its result.
+     *
+     * All the queries made by [predicate] run in order on the worker thread.
+     */
+    fun <T> run(predicate: (TraceProcessorSession) -> T): T {
+        if (Thread.currentThread() === worker) {
+            // nested call from a running block, the session is already available
+            return predicate(loadedSession ?: error("Trace processor session not loaded"))
+        }
+        val task = Task(predicate)
+        synchronized(this) {
+            check(!isClosed) { "Trace processor session $name is closed" }
+            failure?.let { throw IllegalStateException("Failed to load trace $name", it) }
+            startWorkerIfNeeded()
+            tasks.put(task)
+        }
+        return task.await()
+    }
+
+    /** Stops the worker thread, which unloads the trace, once the pending blocks completed. */
+    override fun close() {
+        val currentWorker: Thread
+        synchronized(this) {
+            if (isClosed) {
+                return
+            }
+            isClosed = true
+            currentWorker = worker ?: return
+            tasks.put(STOP)
+        }
+        if (Thread.currentThread() !== currentWorker) {
+            currentWorker.join()
+        }
+    }
+
+    private fun startWorkerIfNeeded() {
+        if (worker != null) {
+            return
+        }
+        val newWorker = Thread({ loadAndRunTasks() }, "TraceProcessorSession-$name")
+        newWorker.isDaemon = true
+        worker = newWorker
+        newWorker.start()
+    }
+
+    private fun loadAndRunTasks() {
+        try {
+            TraceProcessorSession.loadPerfettoTrace(trace) { session ->
+                loadedSession = session
+                while (true) {
+                    val task = tasks.take()
+                    if (task === STOP) {
+                        break
+                    }
+                    withTracing("SharedTraceProcessorSession#run") { task.runWith(session) }
+                }
+            }
+        } catch (e: Throwable) {
+            Log.e(FLICKER_IO_TAG, "Trace processor session $name failed", e)
+            synchronized(this) { failure = e }
+        } finally {
+            loadedSession = null
+            // fail the blocks which did not run, e.g. if the trace could not be loaded
+            synchronized(this) {
+                while (true) {
+                    val task = tasks.poll() ?: break
+                    task.cancel(failure ?: IllegalStateException("Session $name is closed"))
+                }
+            }
+        }
+    }
+
+    private class Task<T>(private val predicate: (TraceProcessorSession) -> T) {
+        private val result = CompletableFuture<T>()
+
+        fun runWith(session: TraceProcessorSession) {
+            try {
+                result.complete(predicate(session))
+            } catch (e: Throwable) {
+                result.completeExceptionally(e)
+            }
+        }
+
+        fun cancel(cause: Throwable) {
+            result.completeExceptionally(cause)
+        }
+
+        fun await(): T {
+            try {
+                return result.get()
+            } catch (e: ExecutionException) {
+                throw e.cause ?: e
+            }
+        }
+    }
+
+    companion object {
+        private val STOP = Task<Unit> {}
+    }
+}
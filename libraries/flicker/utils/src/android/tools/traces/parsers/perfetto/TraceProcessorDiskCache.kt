@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.tools.traces.parsers.perfetto
+
+import android.tools.io.FLICKER_IO_TAG
+import android.tools.withTracing
+import android.util.Log
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.io.IOException
+import java.security.MessageDigest
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+
+/**
+ * Disk cache of the trace processor query results of perfetto traces.
+ *
+ * The parsed traces are object graphs which cannot be serialized, so the results of the queries
+ * the parsers run, which are their whole input, are stored instead as a compressed blob per trace
+ * content. When all the queries of a parser are found in the cache, the trace is not loaded in
+ * trace processor at all and only the parsing itself runs again, e.g. in the next test class.
+ *
+ * @param directory where the blobs are stored
+ * @param maxBytes size of the blobs to keep, the least recently used ones are deleted first
+ */
+class TraceProcessorDiskCache(private val directory: File, private val maxBytes: Long) {
+    /**
+     * Runs [predicate] against the query results of [trace], loading the trace in trace processor
+     * only if some of its queries are not cached yet.
+     */
+    fun <T> loadPerfettoTrace(trace: ByteArray, predicate: (TraceProcessorSession) -> T): T {
+        return withTracing("TraceProcessorDiskCache#loadPerfettoTrace") {
+            val file = File(directory, "${hash(trace)}$FILE_SUFFIX")
+            val session = CachingSession(trace, file.name, readResults(file))
+            val result = session.use { predicate(it) }
+            if (session.hasNewResults && session.isPersistable) {
+                writeResults(file, session.results)
+                trim()
+            } else if (file.exists()) {
+                file.setLastModified(System.currentTimeMillis())
+            }
+            result
+        }
+    }
+
+    @Synchronized
+    private fun readResults(file: File): MutableMap<String, List<Row>> {
+        val results = mutableMapOf<String, List<Row>>()
+        if (!file.exists()) {
+            return results
+        }
+        try {
+            val input = DataInputStream(GZIPInputStream(file.inputStream(), BUFFER_SIZE))
+            input.use {
+                if (input.readInt() != FORMAT_VERSION) {
+                    throw IOException("Unsupported format")
+                }
+                while (true) {
+                    val sql =
+                        try {
+                            readString(input)
+                        } catch (e: EOFException) {
+                            break
+                        }
+                    results[sql] = readRows(input)
+                }
+            }
+        } catch (e: Exception) {
+            Log.w(FLICKER_IO_TAG, "Ignoring invalid trace processor cache $file", e)
+            results.clear()
+        }
+        return results
+    }
+
+    @Synchronized
+    private fun writeResults(file: File, results: Map<String, List<Row>>) {
+        val tmpFile = File(directory, "${file.name}.tmp")
+        try {
+            directory.mkdirs()
+            val output = DataOutputStream(GZIPOutputStream(tmpFile.outputStream(), BUFFER_SIZE))
+            output.use {
+                output.writeInt(FORMAT_VERSION)
+                for ((sql, rows) in results) {
+                    writeString(output, sql)
+                    writeRows(output, rows)
+                }
+            }
+            if (!tmpFile.renameTo(file)) {
+                throw IOException("Unable to rename $tmpFile to $file")
+            }
+        } catch (e: Exception) {
+            Log.w(FLICKER_IO_TAG, "Unable to write trace processor cache $file", e)
+            tmpFile.delete()
+        }
+    }
+
+    /** Deletes the least recently used blobs until they fit in [maxBytes] */
+    @Synchronized
+    private fun trim() {
+        val files = directory.listFiles { file -> file.name.endsWith(FILE_SUFFIX) } ?: return
+        var totalBytes = 0L
+        for (file in files.sortedByDescending { it.lastModified() }) {
+            totalBytes += file.length()
+            if (totalBytes > maxBytes) {
+                Log.d(FLICKER_IO_TAG, "Evicting trace processor cache $file")
+                file.delete()
+            }
+        }
+    }
+
+    /**
+     * Session answering the queries from [results] and from the trace, loaded on the first query
+     * which is not cached.
+     */
+    private class CachingSession(
+        private val trace: ByteArray,
+        private val name: String,
+        val results: MutableMap<String, List<Row>>,
+    ) : TraceProcessorSession, AutoCloseable {
+        private val issuedStatements = mutableListOf<String>()
+        private var delegate: SharedTraceProcessorSession? = null
+        var hasNewResults = false
+            private set
+
+        /** Whether all the results only hold values which can be stored */
+        var isPersistable = true
+            private set
+
+        override fun <T> query(sql: String, predicate: (List<Row>) -> T): T {
+            val rows = results[sql] ?: queryTrace(sql).also { results[sql] = it }
+            if (!isSelect(sql)) {
+                issuedStatements.add(sql)
+            }
+            return predicate(rows)
+        }
+
+        private fun queryTrace(sql: String): List<Row> {
+            val session =
+                delegate
+                    ?: SharedTraceProcessorSession(trace, name).also { loaded ->
+                        delegate = loaded
+                        // e.g. the modules included by the queries answered from the cache
+                        issuedStatements.forEach { loaded.query(it) {} }
+                    }
+            val rows = session.query(sql) { it }
+            hasNewResults = true
+            isPersistable = isPersistable && rows.all { row -> row.values.all(::isSupported) }
+            return rows
+        }
+
+        override fun close() {
+            delegate?.close()
+        }
+
+        private fun isSelect(sql: String): Boolean {
+            val statement = sql.trimStart()
+            return statement.startsWith("SELECT", ignoreCase = true) ||
+                statement.startsWith("WITH", ignoreCase = true)
+        }
+    }
+
+    companion object {
+        private const val FORMAT_VERSION = 1
+        private const val FILE_SUFFIX = ".tpcache"
+        private const val BUFFER_SIZE = 64 * 1024
+
+        private const val TYPE_NULL = 0
+        private const val TYPE_LONG = 1
+        private const val TYPE_DOUBLE = 2
+        private const val TYPE_STRING = 3
+        private const val TYPE_BYTES = 4
+
+        private fun hash(trace: ByteArray): String =
+            MessageDigest.getInstance("SHA-256").digest(trace).joinToString("") {
+                "%02x".format(it)
+            }
+
+        private fun isSupported(value: Any?): Boolean =
+            value == null ||
+                value is Long ||
+                value is Double ||
+                value is String ||
+                value is ByteArray
+
+        private fun writeRows(output: DataOutputStream, rows: List<Row>) {
+            // the column names are written once per query
+            val columns = LinkedHashMap<String, Int>()
+            rows.forEach { row -> row.keys.forEach { columns.putIfAbsent(it, columns.size) } }
+            output.writeInt(columns.size)
+            columns.keys.forEach { writeString(output, it) }
+            output.writeInt(rows.size)
+            for (row in rows) {
+                output.writeInt(row.size)
+                for ((column, value) in row) {
+                    output.writeInt(columns.getValue(column))
+                    writeValue(output, value)
+                }
+            }
+        }
+
+        private fun readRows(input: DataInputStream): List<Row> {
+            val columns = List(input.readInt()) { readString(input) }
+            return List(input.readInt()) {
+                val row = LinkedHashMap<String, Any?>()
+                repeat(input.readInt()) { row[columns[input.readInt()]] = readValue(input) }
+                row
+            }
+        }
+
+        private fun writeValue(output: DataOutputStream, value: Any?) {
+            when (value) {
+                null -> output.writeByte(TYPE_NULL)
+                is Long -> {
+                    output.writeByte(TYPE_LONG)
+                    output.writeLong(value)
+                }
+                is Double -> {
+                    output.writeByte(TYPE_DOUBLE)
+                    output.writeDouble(value)
+                }
+                is String -> {
+                    output.writeByte(TYPE_STRING)
+                    writeString(output, value)
+                }
+                is ByteArray -> {
+                    output.writeByte(TYPE_BYTES)
+                    output.writeInt(value.size)
+                    output.write(value)
+                }
+                else -> error("Unsupported value type ${value::class}")
+            }
+        }
+
+        private fun readValue(input: DataInputStream): Any? {
+            return when (val type = input.readByte().toInt()) {
+                TYPE_NULL -> null
+                TYPE_LONG -> input.readLong()
+                TYPE_DOUBLE -> input.readDouble()
+                TYPE_STRING -> readString(input)
+                TYPE_BYTES -> ByteArray(input.readInt()).also { input.readFully(it) }
+                else -> throw IOException("Unknown value type $type")
+            }
+        }
+
+        /** Strings may be longer than what [DataOutputStream.writeUTF] supports */
+        private fun writeString(output: DataOutputStream, value: String) {
+            val bytes = value.toByteArray(Charsets.UTF_8)
+            output.writeInt(bytes.size)
+            output.write(bytes)
+        }
+
+        private fun readString(input: DataInputStream): String {
+            val bytes = ByteArray(input.readInt())
+            input.readFully(bytes)
+            return String(bytes, Charsets.UTF_8)
+        }
+    }
+}
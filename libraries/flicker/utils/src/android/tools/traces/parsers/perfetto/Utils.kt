@@ -16,6 +16,8 @@
 
 package android.tools.traces.parsers.perfetto
 
+import java.util.stream.Collectors
+
 fun queryRealToMonotonicTimeOffsetNs(session: TraceProcessorSession, tableName: String): Long {
     val elapsed = queryLastEntryTimestamp(session, tableName)
     if (elapsed == null) {
@@ -72,3 +74,12 @@ fun queryToRealtime(session: TraceProcessorSession, elapsedTimestamp: Long): Lon
         }
     return value
 }
+
+/**
+ * Maps the elements on the common fork/join pool, keeping their order.
+ *
+ * The elements are mapped concurrently, so [transform] must only share thread-safe state, such as
+ * the default [android.tools.Cache].
+ */
+internal fun <T, R> List<T>.mapInParallel(transform: (T) -> R): List<R> =
+    parallelStream().map { transform(it) }.collect(Collectors.toList())
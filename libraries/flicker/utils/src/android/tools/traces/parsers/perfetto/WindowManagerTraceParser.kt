@@ -19,9 +19,15 @@ package android.tools.traces.parsers.perfetto
 import android.tools.parsers.AbstractTraceParser
 import android.tools.traces.wm.WindowManagerState
 import android.tools.traces.wm.WindowManagerTrace
+import android.tools.withTracing
 
-/** Parser for [WindowManagerTrace] objects containing traces */
-class WindowManagerTraceParser :
+/**
+ * Parser for [WindowManagerTrace] objects containing traces
+ *
+ * @param parallel If the args of all the entries should be queried at once and the entries built
+ *   concurrently, which is faster but holds the rows of the whole trace in memory
+ */
+class WindowManagerTraceParser(private val parallel: Boolean = false) :
     AbstractTraceParser<
         TraceProcessorSession,
         WindowManagerState,
@@ -41,9 +47,12 @@ class WindowManagerTraceParser :
         return input.query("INCLUDE PERFETTO MODULE android.winscope.windowmanager;") {
             val realToElapsedTimeOffsetNs = queryRealToElapsedTimeOffsetNs(input, TABLE_NAME)
 
-            val traceEntries = mutableListOf<WindowManagerState>()
             val entryIds = queryEntryIds(input)
+            if (parallel) {
+                return@query getEntriesInParallel(input, entryIds, realToElapsedTimeOffsetNs)
+            }
 
+            val traceEntries = mutableListOf<WindowManagerState>()
             for (entryId in entryIds) {
                 val entry =
                     input.query(getSqlQueryEntry(entryId)) { rows ->
@@ -57,6 +66,23 @@ class WindowManagerTraceParser :
         }
     }
 
+    private fun getEntriesInParallel(
+        input: TraceProcessorSession,
+        entryIds: List<Long>,
+        realToElapsedTimeOffsetNs: Long,
+    ): List<WindowManagerState> {
+        val entriesRows =
+            withTracing("query entries rows") {
+                input.query(getSqlQueryAllEntries()) { rows -> rows.groupBy { it["entry_id"] } }
+            }
+        return entryIds.mapInParallel { entryId ->
+            withTracing("build entry") {
+                val args = Args.build(entriesRows[entryId] ?: emptyList())
+                WindowManagerStateBuilder(args, realToElapsedTimeOffsetNs).build()
+            }
+        }
+    }
+
     override fun getTimestamp(entry: WindowManagerState) = entry.timestamp
 
     override fun doParseEntry(entry: WindowManagerState) = entry
@@ -89,5 +115,19 @@ class WindowManagerTraceParser :
             """
                 .trimIndent()
         }
+
+        private fun getSqlQueryAllEntries(): String {
+            return """
+                SELECT
+                    wm.id as entry_id,
+                    args.key as key,
+                    args.display_value as value,
+                    args.value_type
+                FROM
+                    $TABLE_NAME as wm
+                INNER JOIN args ON wm.arg_set_id = args.arg_set_id;
+            """
+                .trimIndent()
+        }
     }
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.tools
+
+import com.google.common.truth.Truth
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import org.junit.Test
+
+class ConcurrentCacheTest {
+    @Test
+    fun internsEqualElements() {
+        val cache = ConcurrentCache()
+        val element = cache.get(Dummy(0))
+        Truth.assertThat(cache.get(Dummy(0))).isSameInstanceAs(element)
+        Truth.assertThat(cache.get(Dummy(1))).isNotSameInstanceAs(element)
+        Truth.assertThat(cache.size).isEqualTo(2)
+    }
+
+    @Test
+    fun countsHitsAndMisses() {
+        val cache = ConcurrentCache()
+        cache.get(Dummy(0))
+        cache.get(Dummy(0))
+        cache.get(Dummy(0))
+        cache.get(Dummy(1))
+
+        val stats = cache.stats
+        Truth.assertThat(stats.hits).isEqualTo(2)
+        Truth.assertThat(stats.misses).isEqualTo(2)
+        Truth.assertThat(stats.evictions).isEqualTo(0)
+        Truth.assertThat(stats.hitRate).isEqualTo(0.5)
+    }
+
+    @Test
+    fun evictsWhenFull() {
+        val cache = ConcurrentCache(maxSize = 8, stripeCount = 1)
+        val first = cache.get(Dummy(0))
+        repeat(7) { cache.get(Dummy(it + 1)) }
+        // Recently used elements are kept
+        cache.get(Dummy(0))
+        cache.get(Dummy(8))
+
+        Truth.assertThat(cache.size).isEqualTo(8)
+        Truth.assertThat(cache.stats.evictions).isEqualTo(1)
+        Truth.assertThat(cache.get(Dummy(0))).isSameInstanceAs(first)
+        Truth.assertThat(cache.backup().cache).doesNotContainKey(Dummy(1))
+    }
+
+    @Test
+    fun staysBoundedWithStripes() {
+        val cache = ConcurrentCache(maxSize = 64)
+        repeat(1000) { cache.get(Dummy(it)) }
+
+        Truth.assertThat(cache.size).isAtMost(64)
+        Truth.assertThat(cache.stats.evictions).isEqualTo(1000L - cache.size)
+    }
+
+    @Test
+    fun internsAcrossThreads() {
+        val cache = ConcurrentCache()
+        val executor = Executors.newFixedThreadPool(THREAD_COUNT)
+        try {
+            val tasks =
+                List(THREAD_COUNT) {
+                    Callable { List(ELEMENT_COUNT) { value -> cache.get(Dummy(value)) } }
+                }
+            val results = executor.invokeAll(tasks).map { it.get() }
+
+            for (value in 0 until ELEMENT_COUNT) {
+                val expected = results.first()[value]
+                results.forEach { Truth.assertThat(it[value]).isSameInstanceAs(expected) }
+            }
+            Truth.assertThat(cache.size).isEqualTo(ELEMENT_COUNT)
+            Truth.assertThat(cache.stats.misses).isEqualTo(ELEMENT_COUNT.toLong())
+            Truth.assertThat(cache.stats.hits)
+                .isEqualTo((THREAD_COUNT - 1) * ELEMENT_COUNT.toLong())
+        } finally {
+            executor.shutdown()
+            executor.awaitTermination(10, TimeUnit.SECONDS)
+        }
+    }
+
+    @Test
+    fun restoresBackup() {
+        val cache = ConcurrentCache()
+        val element = cache.get(Dummy(0))
+        val backup = cache.backup()
+        cache.clear()
+        Truth.assertThat(cache.size).isEqualTo(0)
+
+        cache.restore(backup)
+        Truth.assertThat(cache.get(Dummy(0))).isSameInstanceAs(element)
+    }
+
+    data class Dummy(val value: Int)
+
+    companion object {
+        private const val THREAD_COUNT = 8
+        private const val ELEMENT_COUNT = 10000
+    }
+}
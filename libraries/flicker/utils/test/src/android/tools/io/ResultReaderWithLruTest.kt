@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.tools.io
+
+import android.tools.testutils.CleanFlickerEnvironmentRule
+import android.tools.testutils.TestTraces
+import android.tools.testutils.newTestResultWriter
+import android.tools.traces.io.IResultData
+import android.tools.traces.io.ResultReader
+import android.tools.traces.io.ResultReaderWithLru
+import com.google.common.truth.Truth
+import org.junit.After
+import org.junit.ClassRule
+import org.junit.Test
+
+/** Tests for the parsed traces cache of [ResultReaderWithLru] */
+class ResultReaderWithLruTest {
+    @After
+    fun after() {
+        ResultReaderWithLru.setMemoryBudget(ResultReaderWithLru.DEFAULT_MEMORY_BUDGET_BYTES)
+    }
+
+    @Test
+    fun countsHitsAndMisses() {
+        ResultReaderWithLru.setMemoryBudget(ResultReaderWithLru.DEFAULT_MEMORY_BUDGET_BYTES)
+        val reader = ResultReaderWithLru(newEventLogResult())
+        val before = CacheStats.read()
+
+        val trace = reader.readEventLogTrace()
+        Truth.assertThat(trace).isNotNull()
+        Truth.assertThat(reader.readEventLogTrace()).isSameInstanceAs(trace)
+
+        val after = CacheStats.read()
+        Truth.assertThat(after.misses - before.misses).isEqualTo(1)
+        Truth.assertThat(after.hits - before.hits).isEqualTo(1)
+        Truth.assertThat(after.evictions - before.evictions).isEqualTo(0)
+    }
+
+    @Test
+    fun evictsByEstimatedSize() {
+        val result1 = newEventLogResult()
+        val result2 = newEventLogResult()
+        val entries =
+            ResultReader(result1).readEventLogTrace()?.entries?.size
+                ?: error("Event log not built")
+        // only one of the two traces fits in the budget
+        val traceKiB = maxOf(1L, entries * EVENT_BYTES / 1024)
+        ResultReaderWithLru.setMemoryBudget(traceKiB * 1024)
+        val reader1 = ResultReaderWithLru(result1)
+        val reader2 = ResultReaderWithLru(result2)
+        // fills the budget, evicting the traces cached by the other tests
+        reader2.readEventLogTrace()
+        val before = CacheStats.read()
+
+        reader1.readEventLogTrace()
+        reader1.readEventLogTrace()
+        reader2.readEventLogTrace()
+
+        val after = CacheStats.read()
+        Truth.assertThat(after.misses - before.misses).isEqualTo(2)
+        Truth.assertThat(after.hits - before.hits).isEqualTo(1)
+        Truth.assertThat(after.evictions - before.evictions).isEqualTo(2)
+        Truth.assertThat(after.sizeKiB).isEqualTo(traceKiB)
+        Truth.assertThat(after.maxSizeKiB).isEqualTo(traceKiB)
+    }
+
+    @Test
+    fun shrinkingBudgetEvicts() {
+        ResultReaderWithLru.setMemoryBudget(ResultReaderWithLru.DEFAULT_MEMORY_BUDGET_BYTES)
+        ResultReaderWithLru(newEventLogResult()).readEventLogTrace()
+        ResultReaderWithLru(newEventLogResult()).readEventLogTrace()
+        val before = CacheStats.read()
+        Truth.assertThat(before.sizeKiB).isAtLeast(2)
+
+        ResultReaderWithLru.setMemoryBudget(0)
+
+        val after = CacheStats.read()
+        Truth.assertThat(after.maxSizeKiB).isEqualTo(1)
+        Truth.assertThat(after.sizeKiB).isAtMost(1)
+        Truth.assertThat(after.evictions).isGreaterThan(before.evictions)
+    }
+
+    private fun newEventLogResult(): IResultData =
+        newTestResultWriter().addTraceResult(TraceType.EVENT_LOG, TestTraces.EventLog.FILE).write()
+
+    /** Counters parsed from [ResultReaderWithLru.getCacheStats] */
+    private data class CacheStats(
+        val hits: Long,
+        val misses: Long,
+        val evictions: Long,
+        val sizeKiB: Long,
+        val maxSizeKiB: Long,
+    ) {
+        companion object {
+            private val STATS_PATTERN =
+                Regex("hits=(\\d+),misses=(\\d+),evictions=(\\d+),sizeKiB=(\\d+)/(\\d+)")
+
+            fun read(): CacheStats {
+                val stats = ResultReaderWithLru.getCacheStats()
+                val values =
+                    STATS_PATTERN.find(stats)?.groupValues?.drop(1)?.map { it.toLong() }
+                        ?: error("Unexpected cache stats $stats")
+                return CacheStats(values[0], values[1], values[2], values[3], values[4])
+            }
+        }
+    }
+
+    companion object {
+        // Estimated size of an event, as weighted by the cache
+        private const val EVENT_BYTES = 256L
+
+        @ClassRule @JvmField val ENV_CLEANUP = CleanFlickerEnvironmentRule()
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.tools.io
+
+import android.tools.Timestamps
+import android.tools.testutils.CleanFlickerEnvironmentRule
+import android.tools.testutils.TestTraces
+import android.tools.testutils.assertThrows
+import android.tools.testutils.newTestResultWriter
+import android.tools.testutils.outputFileName
+import android.tools.traces.deleteIfExists
+import android.tools.traces.io.ResultReader
+import android.tools.traces.io.ResultReaderWithSharedSession
+import com.google.common.truth.Truth
+import org.junit.Before
+import org.junit.ClassRule
+import org.junit.Test
+
+/** Tests for [ResultReaderWithSharedSession] */
+class ResultReaderWithSharedSessionTest {
+    @Before
+    fun setup() {
+        outputFileName(RunStatus.RUN_EXECUTED).deleteIfExists()
+    }
+
+    @Test
+    fun readsSameTraceAsResultReader() {
+        val result =
+            newTestResultWriter()
+                .addTraceResult(TraceType.PERFETTO, TestTraces.LayerTrace.FILE)
+                .write()
+        val expected = ResultReader(result).readLayersTrace() ?: error("Layers trace not built")
+
+        ResultReaderWithSharedSession(result).use { reader ->
+            repeat(2) {
+                val trace = reader.readLayersTrace() ?: error("Layers trace not built")
+                Truth.assertThat(trace.entries.map { it.timestamp })
+                    .isEqualTo(expected.entries.map { it.timestamp })
+            }
+        }
+    }
+
+    @Test
+    fun slicedReaderSharesSession() {
+        val result =
+            newTestResultWriter()
+                .addTraceResult(TraceType.PERFETTO, TestTraces.LayerTrace.FILE)
+                .setTransitionStartTime(TestTraces.LayerTrace.START_TIME)
+                .setTransitionEndTime(TestTraces.LayerTrace.SLICE_TIME)
+                .write()
+        val reader = ResultReaderWithSharedSession(result)
+        Truth.assertThat(reader.readLayersTrace()?.entries).hasSize(2)
+
+        val slicedReader = reader.slice(Timestamps.min(), Timestamps.max())
+        Truth.assertThat(slicedReader.readLayersTrace()?.entries?.size).isGreaterThan(2)
+        slicedReader.close()
+        Truth.assertThat(reader.readLayersTrace()?.entries).hasSize(2)
+
+        reader.close()
+        assertThrows<IllegalStateException> { slicedReader.readLayersTrace() }
+    }
+
+    @Test
+    fun readTraceNullWhenDoesNotExist() {
+        val result = newTestResultWriter().write()
+        ResultReaderWithSharedSession(result).use { reader ->
+            Truth.assertThat(reader.readLayersTrace()).isNull()
+            Truth.assertThat(reader.readTransitionsTrace()).isNull()
+        }
+    }
+
+    companion object {
+        @ClassRule @JvmField val ENV_CLEANUP = CleanFlickerEnvironmentRule()
+    }
+}
@@ -19,6 +19,7 @@ package android.tools.io
 import android.tools.testutils.TEST_SCENARIO_KEY
 import android.tools.traces.io.WinscopeZipArtifact
 import com.google.common.truth.Truth
+import java.io.ByteArrayOutputStream
 import java.io.File
 import java.io.FileNotFoundException
 import java.io.FileOutputStream
@@ -123,6 +124,40 @@ class WinscopeZipArtifactTest {
         Truth.assertThat(artifact.readBytes(descriptor)).isNull()
     }
 
+    @Test
+    fun readBytesZipWithoutCentralDirectory() {
+        val bytes = ByteArrayOutputStream()
+        var entriesSize = 0
+        ZipOutputStream(bytes).use { zos ->
+            zos.putNextEntry(ZipEntry(TraceType.PERFETTO.fileName))
+            zos.write("data".toByteArray())
+            zos.closeEntry()
+            zos.flush()
+            entriesSize = bytes.size()
+        }
+        // e.g. if the writer did not complete
+        val zipFile = File(outputDir, "truncated.zip")
+        zipFile.writeBytes(bytes.toByteArray().copyOf(entriesSize))
+        val artifact = WinscopeZipArtifact(TEST_SCENARIO_KEY, zipFile, 0)
+        val descriptor = ResultArtifactDescriptor(TraceType.PERFETTO)
+        Truth.assertThat(artifact.traceCount()).isEqualTo(1)
+        Truth.assertThat(String(artifact.readBytes(descriptor)!!)).isEqualTo("data")
+    }
+
+    @Test
+    fun hasTraceZipModifiedAfterCreation() {
+        val zipFile = createTestZipFile("archive.zip", mapOf("trace1.pb" to "data1"))
+        val artifact = WinscopeZipArtifact(TEST_SCENARIO_KEY, zipFile, 0)
+        val descriptor = ResultArtifactDescriptor(TraceType.PERFETTO)
+        Truth.assertThat(artifact.hasTrace(descriptor)).isFalse()
+
+        createTestZipFile("archive.zip", mapOf(TraceType.PERFETTO.fileName to "data2"))
+        zipFile.setLastModified(zipFile.lastModified() + 10_000)
+
+        Truth.assertThat(artifact.hasTrace(descriptor)).isTrue()
+        Truth.assertThat(String(artifact.readBytes(descriptor)!!)).isEqualTo("data2")
+    }
+
     @Test(expected = FileNotFoundException::class)
     fun readBytesDescriptorZipFileNotFoundThrowsException() {
         val nonExistentZip = File(outputDir, "non_existent.zip")
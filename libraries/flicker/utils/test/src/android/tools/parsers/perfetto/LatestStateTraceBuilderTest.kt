@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.tools.parsers.perfetto
+
+import android.tools.Cache
+import android.tools.testutils.CleanFlickerEnvironmentRule
+import android.tools.testutils.readAsset
+import android.tools.traces.parsers.perfetto.LatestStateTraceBuilder
+import android.tools.traces.parsers.perfetto.LayersTraceParser
+import android.tools.traces.parsers.perfetto.TraceProcessorSession
+import android.tools.traces.parsers.perfetto.WindowManagerTraceParser
+import com.google.common.truth.Truth
+import org.junit.Before
+import org.junit.ClassRule
+import org.junit.Test
+
+/** Tests for [LatestStateTraceBuilder] */
+class LatestStateTraceBuilderTest {
+    @Before
+    fun before() {
+        Cache.clear()
+    }
+
+    @Test
+    fun keepsLatestLayersEntry() {
+        val traceBytes = readAsset("layers_trace_occluded.perfetto-trace")
+        val expected =
+            TraceProcessorSession.loadPerfettoTrace(traceBytes) { LayersTraceParser().parse(it) }
+
+        val builder = LatestStateTraceBuilder()
+        appendInChunks(builder, traceBytes)
+        Truth.assertThat(builder.hasNewEntries).isTrue()
+        Truth.assertThat(builder.hasAllEntries).isFalse()
+
+        val trace =
+            TraceProcessorSession.loadPerfettoTrace(builder.build()) {
+                LayersTraceParser().parse(it)
+            }
+        Truth.assertThat(builder.hasNewEntries).isFalse()
+        Truth.assertThat(trace.entries.map { it.timestamp })
+            .containsExactly(expected.entries.last().timestamp)
+        Truth.assertThat(trace.entries.last().flattenedLayers.size)
+            .isEqualTo(expected.entries.last().flattenedLayers.size)
+    }
+
+    @Test
+    fun keepsLatestWindowManagerEntry() {
+        val traceBytes = readAsset("wm_trace.perfetto-trace")
+        val expected =
+            TraceProcessorSession.loadPerfettoTrace(traceBytes) {
+                WindowManagerTraceParser().parse(it)
+            }
+
+        val builder = LatestStateTraceBuilder()
+        appendInChunks(builder, traceBytes)
+
+        val trace =
+            TraceProcessorSession.loadPerfettoTrace(builder.build()) {
+                WindowManagerTraceParser().parse(it)
+            }
+        Truth.assertThat(trace.entries.map { it.timestamp })
+            .containsExactly(expected.entries.last().timestamp)
+        Truth.assertThat(trace.entries.last().windowStates.size)
+            .isEqualTo(expected.entries.last().windowStates.size)
+    }
+
+    @Test
+    fun waitsForCompletePackets() {
+        val traceBytes = readAsset("layers_trace_occluded.perfetto-trace")
+        val builder = LatestStateTraceBuilder()
+
+        builder.append(traceBytes.copyOfRange(0, 2))
+        Truth.assertThat(builder.hasNewEntries).isFalse()
+        Truth.assertThat(builder.build()).isEmpty()
+
+        builder.append(traceBytes.copyOfRange(2, traceBytes.size))
+        Truth.assertThat(builder.hasNewEntries).isTrue()
+        Truth.assertThat(builder.build()).isNotEmpty()
+    }
+
+    private fun appendInChunks(builder: LatestStateTraceBuilder, traceBytes: ByteArray) {
+        // the chunks are not aligned with the packets, as when the trace is read while written
+        for (start in traceBytes.indices step CHUNK_SIZE) {
+            val end = minOf(start + CHUNK_SIZE, traceBytes.size)
+            builder.append(traceBytes.copyOfRange(start, end))
+        }
+    }
+
+    companion object {
+        private const val CHUNK_SIZE = 1000
+
+        @ClassRule @JvmField val ENV_CLEANUP = CleanFlickerEnvironmentRule()
+    }
+}
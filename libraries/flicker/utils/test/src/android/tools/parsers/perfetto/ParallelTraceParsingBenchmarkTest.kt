@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.tools.parsers.perfetto
+
+import android.os.SystemClock
+import android.tools.Cache
+import android.tools.testutils.CleanFlickerEnvironmentRule
+import android.tools.testutils.readAsset
+import android.tools.traces.parsers.perfetto.LayersTraceParser
+import android.tools.traces.parsers.perfetto.TraceProcessorSession
+import android.tools.traces.parsers.perfetto.WindowManagerTraceParser
+import android.util.Log
+import com.google.common.truth.Truth
+import org.junit.Before
+import org.junit.ClassRule
+import org.junit.Test
+
+/**
+ * Compares the parallel parsing of recorded traces with the sequential one, and logs the duration
+ * of both.
+ */
+class ParallelTraceParsingBenchmarkTest {
+    @Before
+    fun before() {
+        Cache.clear()
+    }
+
+    @Test
+    fun parsesLayersTracesInParallel() {
+        for (asset in LAYERS_TRACES) {
+            TraceProcessorSession.loadPerfettoTrace(readAsset(asset)) { session ->
+                val (sequential, sequentialMs) =
+                    measure { LayersTraceParser().parse(session).entries }
+                val (parallel, parallelMs) =
+                    measure { LayersTraceParser(parallel = true).parse(session).entries }
+                logResult(asset, sequential.size, sequentialMs, parallelMs)
+
+                Truth.assertWithMessage(asset)
+                    .that(parallel.map { it.timestamp })
+                    .containsExactlyElementsIn(sequential.map { it.timestamp })
+                    .inOrder()
+                sequential.zip(parallel).forEach { (expected, actual) ->
+                    val expectedLayers = expected.flattenedLayers.map { it.id to it.name }
+                    Truth.assertWithMessage("$asset ${expected.timestamp}")
+                        .that(actual.flattenedLayers.map { it.id to it.name })
+                        .containsExactlyElementsIn(expectedLayers)
+                        .inOrder()
+                }
+            }
+        }
+    }
+
+    @Test
+    fun parsesWindowManagerTracesInParallel() {
+        for (asset in WM_TRACES) {
+            TraceProcessorSession.loadPerfettoTrace(readAsset(asset)) { session ->
+                val (sequential, sequentialMs) =
+                    measure { WindowManagerTraceParser().parse(session).entries }
+                val (parallel, parallelMs) =
+                    measure { WindowManagerTraceParser(parallel = true).parse(session).entries }
+                logResult(asset, sequential.size, sequentialMs, parallelMs)
+
+                Truth.assertWithMessage(asset)
+                    .that(parallel.map { it.timestamp })
+                    .containsExactlyElementsIn(sequential.map { it.timestamp })
+                    .inOrder()
+                sequential.zip(parallel).forEach { (expected, actual) ->
+                    Truth.assertWithMessage("$asset ${expected.timestamp}")
+                        .that(actual.windowStates.map { it.name })
+                        .containsExactlyElementsIn(expected.windowStates.map { it.name })
+                        .inOrder()
+                }
+            }
+        }
+    }
+
+    companion object {
+        private const val TAG = "ParallelTraceParsingBenchmarkTest"
+        private const val RUNS = 3
+
+        private val LAYERS_TRACES =
+            listOf(
+                "layers_trace_unlock_and_lock_device.perfetto-trace",
+                "layers_trace_emptyregion.perfetto-trace",
+                "layers_trace_occluded.perfetto-trace",
+            )
+        private val WM_TRACES =
+            listOf(
+                "wm_trace.perfetto-trace",
+                "wm_trace_openchrome.perfetto-trace",
+                "wm_trace_rotation.perfetto-trace",
+            )
+
+        /** @return the result of the last of [RUNS] runs of [parse] and the fastest duration */
+        private fun <T> measure(parse: () -> T): Pair<T, Long> {
+            var result: T? = null
+            var bestMs = Long.MAX_VALUE
+            repeat(RUNS) {
+                val startMs = SystemClock.elapsedRealtime()
+                result = parse()
+                bestMs = minOf(bestMs, SystemClock.elapsedRealtime() - startMs)
+            }
+            return Pair(result!!, bestMs)
+        }
+
+        private fun logResult(asset: String, entries: Int, sequentialMs: Long, parallelMs: Long) {
+            Log.i(
+                TAG,
+                "$asset: $entries entries parsed in ${sequentialMs}ms sequentially, " +
+                    "${parallelMs}ms in parallel on " +
+                    "${Runtime.getRuntime().availableProcessors()} processors",
+            )
+        }
+
+        @ClassRule @JvmField val ENV_CLEANUP = CleanFlickerEnvironmentRule()
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.tools.parsers.perfetto
+
+import android.tools.Cache
+import android.tools.testutils.CleanFlickerEnvironmentRule
+import android.tools.testutils.readAsset
+import android.tools.traces.parsers.perfetto.LayersTraceParser
+import android.tools.traces.parsers.perfetto.TraceProcessorDiskCache
+import android.tools.traces.parsers.perfetto.TraceProcessorSession
+import com.google.common.truth.Truth
+import java.io.File
+import kotlin.io.path.createTempDirectory
+import org.junit.After
+import org.junit.Before
+import org.junit.ClassRule
+import org.junit.Test
+
+class TraceProcessorDiskCacheTest {
+    private lateinit var directory: File
+
+    @Before
+    fun before() {
+        Cache.clear()
+        directory = createTempDirectory().toFile()
+    }
+
+    @After
+    fun after() {
+        directory.deleteRecursively()
+    }
+
+    @Test
+    fun parsesSameTraceFromCache() {
+        val traceBytes = readAsset("layers_trace_occluded.perfetto-trace")
+        val expected =
+            TraceProcessorSession.loadPerfettoTrace(traceBytes) { session ->
+                LayersTraceParser().parse(session)
+            }
+
+        repeat(2) {
+            Cache.clear()
+            val cache = TraceProcessorDiskCache(directory, maxBytes = Long.MAX_VALUE)
+            val trace = cache.loadPerfettoTrace(traceBytes) { LayersTraceParser().parse(it) }
+            Truth.assertThat(trace.entries.map { it.elapsedTimestamp })
+                .isEqualTo(expected.entries.map { it.elapsedTimestamp })
+            Truth.assertThat(trace.entries.map { it.flattenedLayers.size })
+                .isEqualTo(expected.entries.map { it.flattenedLayers.size })
+            Truth.assertThat(directory.list()).hasLength(1)
+        }
+    }
+
+    @Test
+    fun evictsWhenOverBudget() {
+        val cache = TraceProcessorDiskCache(directory, maxBytes = 0)
+        cache.loadPerfettoTrace(readAsset("layers_trace_occluded.perfetto-trace")) {
+            LayersTraceParser().parse(it)
+        }
+        Truth.assertThat(directory.list()).isEmpty()
+    }
+
+    companion object {
+        @ClassRule @JvmField val ENV_CLEANUP = CleanFlickerEnvironmentRule()
+    }
+}
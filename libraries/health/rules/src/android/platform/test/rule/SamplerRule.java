@@ -35,17 +35,29 @@ import java.util.Date;
  * because the test execution took too long, and tests that ran for too long even without being
  * terminated. If the process was terminated or the test was long, the test leaves an artifact with
  * stack traces of all threads, every second. This will help understanding where we stuck.
+ *
+ * <p>The rule can also profile the tests, see {@link #enableProfiling(int)}.
  */
 public class SamplerRule extends TestWatcher {
     private static final String TAG = SamplerRule.class.getSimpleName();
     private static final int TOO_LONG_TEST_MS = 60000;
     private static boolean sEnabled;
+    private static int sSamplesPerSecond;
 
     public static void enable(boolean enabled) {
         // The rule need to be explicitly enabled to avoid slowing down performance tests.
         sEnabled = enabled;
     }
 
+    /**
+     * Enables profiling the tests by sampling the stacks of all threads {@code samplesPerSecond}
+     * times per second, 0 disables it. The identical stacks are counted, and the profile is saved
+     * after the test as an artifact in the collapsed stack format used by flame graph tools.
+     */
+    public static void enableProfiling(int samplesPerSecond) {
+        sSamplesPerSecond = samplesPerSecond;
+    }
+
     public static Thread startThread(Description description) {
         Thread thread =
                 new Thread() {
@@ -118,19 +130,43 @@ public class SamplerRule extends TestWatcher {
 
     @Override
     public Statement apply(Statement base, Description description) {
-        if (!sEnabled) return base;
+        final boolean enabled = sEnabled;
+        final int samplesPerSecond = sSamplesPerSecond;
+        if (!enabled && samplesPerSecond <= 0) return base;
 
         return new Statement() {
             @Override
             public void evaluate() throws Throwable {
-                final Thread traceThread = startThread(description);
+                final Thread traceThread = enabled ? startThread(description) : null;
+                final StackSampler sampler =
+                        samplesPerSecond > 0 ? StackSampler.start(samplesPerSecond) : null;
                 try {
                     SamplerRule.super.apply(base, description).evaluate();
                 } finally {
-                    traceThread.interrupt();
-                    traceThread.join();
+                    if (sampler != null) {
+                        sampler.stop();
+                        writeProfile(sampler, description);
+                    }
+                    if (traceThread != null) {
+                        traceThread.interrupt();
+                        traceThread.join();
+                    }
                 }
             }
         };
     }
+
+    private static void writeProfile(StackSampler sampler, Description description) {
+        final String strDate = new SimpleDateFormat("HH:mm:ss").format(new Date());
+        final String descStr = description.getTestClass().getSimpleName();
+        final File file =
+                ArtifactSaver.artifactFile("StackSamples-" + strDate + "-" + descStr + ".txt");
+        try (final OutputStreamWriter outputStreamWriter =
+                new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(file)))) {
+            sampler.writeCollapsedStacks(outputStreamWriter);
+            Log.d(TAG, "Generated profile " + file + ": " + sampler.getOverhead());
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write profile " + file, e);
+        }
+    }
 }
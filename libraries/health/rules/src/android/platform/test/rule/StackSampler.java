@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.platform.test.rule;
+
+import android.os.Trace;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the stacks of all the threads at a fixed rate and counts the identical stacks.
+ *
+ * <p>The frames are interned in a table, so that a sample only costs the lookup of its frames and
+ * the increment of the count of its stack. The samplers share a single background thread, and the
+ * time spent sampling is measured so that the overhead can be reported with the profile.
+ */
+class StackSampler {
+    private static final ScheduledExecutorService sExecutor =
+            Executors.newSingleThreadScheduledExecutor(
+                    runnable -> {
+                        final Thread thread = new Thread(runnable, "StackSampler");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+
+    /** Ids of the frames, which are the ids of their names in {@link #mNames}. */
+    private final Map<StackTraceElement, Integer> mFrameIds = new HashMap<>();
+
+    private final Map<String, Integer> mNameIds = new HashMap<>();
+    private final List<String> mNames = new ArrayList<>();
+
+    /** Number of samples of each stack, from the name of the thread to the innermost frame. */
+    private final Map<Stack, int[]> mStackCounts = new HashMap<>();
+
+    private final long mStartTimeNs = System.nanoTime();
+    private long mEndTimeNs;
+    private long mSamplingTimeNs;
+    private int mSampleCount;
+    private boolean mStopped;
+    private ScheduledFuture<?> mFuture;
+
+    private StackSampler() {}
+
+    /** Starts sampling the stacks of all the threads {@code samplesPerSecond} times per second. */
+    static StackSampler start(int samplesPerSecond) {
+        final StackSampler sampler = new StackSampler();
+        final long periodUs = TimeUnit.SECONDS.toMicros(1) / samplesPerSecond;
+        sampler.mFuture =
+                sExecutor.scheduleAtFixedRate(sampler::sample, 0, periodUs, TimeUnit.MICROSECONDS);
+        return sampler;
+    }
+
+    /** Stops sampling, once the sample being taken, if any, is complete. */
+    synchronized void stop() {
+        if (mStopped) return;
+        mStopped = true;
+        mEndTimeNs = System.nanoTime();
+        mFuture.cancel(false);
+    }
+
+    synchronized void sample() {
+        if (mStopped) return;
+        Trace.beginSection("StackSampler#sample");
+        final long startTimeNs = System.nanoTime();
+        try {
+            final Thread samplerThread = Thread.currentThread();
+            for (Map.Entry<Thread, StackTraceElement[]> entry :
+                    Thread.getAllStackTraces().entrySet()) {
+                final StackTraceElement[] frames = entry.getValue();
+                if (entry.getKey() == samplerThread || frames.length == 0) continue;
+
+                final int[] ids = new int[frames.length + 1];
+                ids[0] = nameId(entry.getKey().getName());
+                for (int i = 0; i < frames.length; i++) {
+                    // The stack traces start with the innermost frame.
+                    ids[frames.length - i] = frameId(frames[i]);
+                }
+                mStackCounts.computeIfAbsent(new Stack(ids), stack -> new int[1])[0]++;
+            }
+            mSampleCount++;
+        } finally {
+            mSamplingTimeNs += System.nanoTime() - startTimeNs;
+            Trace.endSection();
+        }
+    }
+
+    private int frameId(StackTraceElement frame) {
+        final Integer id = mFrameIds.get(frame);
+        if (id != null) return id;
+        final int newId = nameId(frame.getClassName() + "." + frame.getMethodName());
+        mFrameIds.put(frame, newId);
+        return newId;
+    }
+
+    private int nameId(String name) {
+        final Integer id = mNameIds.get(name);
+        if (id != null) return id;
+        final int newId = mNames.size();
+        // Semicolons separate the frames in the collapsed format.
+        mNames.add(name.replace(';', '_'));
+        mNameIds.put(name, newId);
+        return newId;
+    }
+
+    /**
+     * Writes the profile in the collapsed stack format read by flame graph tools: one line per
+     * stack, with its frames from the thread name to the innermost frame separated by semicolons,
+     * followed by its number of samples.
+     */
+    synchronized void writeCollapsedStacks(Writer writer) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        for (Map.Entry<Stack, int[]> entry : mStackCounts.entrySet()) {
+            line.setLength(0);
+            for (int id : entry.getKey().mIds) {
+                if (line.length() > 0) line.append(';');
+                line.append(mNames.get(id));
+            }
+            line.append(' ').append(entry.getValue()[0]).append('\n');
+            writer.write(line.toString());
+        }
+    }
+
+    synchronized int getSampleCount() {
+        return mSampleCount;
+    }
+
+    /** Describes the number of samples and the share of the sampled time spent sampling. */
+    synchronized String getOverhead() {
+        final long durationNs = (mStopped ? mEndTimeNs : System.nanoTime()) - mStartTimeNs;
+        return String.format(
+                "%d samples, %d distinct stacks, %d frames, sampling took %d ms (%.2f%% of %d ms)",
+                mSampleCount,
+                mStackCounts.size(),
+                mNames.size(),
+                TimeUnit.NANOSECONDS.toMillis(mSamplingTimeNs),
+                durationNs > 0 ? 100.0 * mSamplingTimeNs / durationNs : 0.0,
+                TimeUnit.NANOSECONDS.toMillis(durationNs));
+    }
+
+    /** Frame ids of a stack, usable as a key. */
+    private static final class Stack {
+        private final int[] mIds;
+        private final int mHashCode;
+
+        Stack(int[] ids) {
+            mIds = ids;
+            mHashCode = Arrays.hashCode(ids);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Stack && Arrays.equals(mIds, ((Stack) other).mIds);
+        }
+
+        @Override
+        public int hashCode() {
+            return mHashCode;
+        }
+    }
+}
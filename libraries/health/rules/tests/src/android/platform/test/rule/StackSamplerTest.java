@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.platform.test.rule;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.StringWriter;
+import java.util.HashSet;
+import java.util.Set;
+
+@RunWith(JUnit4.class)
+public class StackSamplerTest {
+
+    private static final int SAMPLES_PER_SECOND = 100;
+    private static final long SPIN_TIME_MS = 500;
+
+    @Test
+    public void testAggregatesIdenticalStacks() throws Exception {
+        StackSampler sampler = StackSampler.start(SAMPLES_PER_SECOND);
+        spin();
+        sampler.stop();
+        int sampleCount = sampler.getSampleCount();
+
+        StringWriter writer = new StringWriter();
+        sampler.writeCollapsedStacks(writer);
+        Set<String> stacks = new HashSet<>();
+        long spinSamples = 0;
+        for (String line : writer.toString().split("\n")) {
+            String stack = line.substring(0, line.lastIndexOf(' '));
+            long count = Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+            // Each stack is written once, whatever the lines executed in its frames.
+            assertThat(stacks.add(stack)).isTrue();
+            assertThat(count).isAtMost(sampleCount);
+            if (stack.contains(";android.platform.test.rule.StackSamplerTest.spin")) {
+                assertThat(stack).startsWith(Thread.currentThread().getName() + ";");
+                assertThat(stack).contains("StackSamplerTest.testAggregatesIdenticalStacks;");
+                spinSamples += count;
+            }
+        }
+
+        assertThat(sampleCount).isGreaterThan(1);
+        assertThat(spinSamples).isGreaterThan(1L);
+        assertThat(sampler.getOverhead()).startsWith(sampleCount + " samples");
+    }
+
+    @Test
+    public void testStopsSampling() throws Exception {
+        StackSampler sampler = StackSampler.start(SAMPLES_PER_SECOND);
+        sampler.stop();
+        int sampleCount = sampler.getSampleCount();
+
+        Thread.sleep(10 * 1000 / SAMPLES_PER_SECOND);
+        assertThat(sampler.getSampleCount()).isEqualTo(sampleCount);
+    }
+
+    private static long spin() {
+        long end = System.currentTimeMillis() + SPIN_TIME_MS;
+        long iterations = 0;
+        while (System.currentTimeMillis() < end) {
+            iterations++;
+        }
+        return iterations;
+    }
+}
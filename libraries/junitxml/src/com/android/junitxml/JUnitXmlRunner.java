@@ -22,7 +22,6 @@ import org.junit.runner.JUnitCore;
 import org.junit.runner.Result;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.reflect.Method;
@@ -32,7 +31,9 @@ import java.util.stream.Stream;
  * A JUnit runner that is intended to use as replacement of JUnitCore
  * which in addition to printing the test failures to stdout, will
  * write the results in XML format to the path specified in the env
- * variable XML_OUTPUT_FILE.
+ * variable XML_OUTPUT_FILE. When the env variable XML_OUTPUT_STREAMING
+ * is set to true, each test is written as soon as it finishes, see
+ * {@link StreamingXmlRunListener}.
  *
  * <p>To use this runner:
  *     {@code TEST_WORKSPACE=[...]
@@ -47,10 +48,15 @@ public class JUnitXmlRunner {
         String suiteName = System.getenv("TEST_WORKSPACE");
         if (outputFile != null && outputFile.length() > 0) {
             try {
+                if (Boolean.parseBoolean(System.getenv("XML_OUTPUT_STREAMING"))) {
+                    return new StreamingXmlRunListener(
+                            new FileOutputStream(outputFile),
+                            suiteName != null ? suiteName : "Unknown test suite");
+                }
                 return new XmlRunListener(
                         new FileOutputStream(outputFile),
                         suiteName != null ? suiteName : "Unknown test suite");
-            } catch (FileNotFoundException e) {
+            } catch (IOException e) {
                 e.printStackTrace();
             }
         }
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.junitxml;
+
+import org.junit.Ignore;
+import org.junit.runner.Description;
+import org.junit.runner.notification.Failure;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * {@link XmlRunListener} which writes each {@code testcase} element as soon as its test finished,
+ * instead of building the document of the whole suite in memory.
+ *
+ * <p>Only the tests which are running are kept in memory, and the output is flushed after each
+ * test, so that the results of the finished tests survive if the process dies. The suite counters
+ * are not known when the {@code testsuite} element starts, so they are written in a trailing
+ * {@code summary} element by {@link #endTestSuite()}.
+ */
+public class StreamingXmlRunListener extends XmlRunListener {
+
+    private static final double ONE_SECOND = 1000.0;
+
+    private static final String TESTCASE_NAME_UNKNOWN = "unknown";
+
+    private static final String INDENT = "  ";
+
+    private final OutputStream mOutputStream;
+
+    private final Writer mWriter;
+
+    /** Tests which started but did not finish yet. */
+    private final Map<Description, RunningTest> mRunningTests = new HashMap<>();
+
+    private final long mStartTime;
+
+    private int mTests;
+
+    private int mFailures;
+
+    private int mErrors;
+
+    private int mSkipped;
+
+    public StreamingXmlRunListener(OutputStream out, String suiteName) throws IOException {
+        mOutputStream = out;
+        mWriter = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        mStartTime = System.currentTimeMillis();
+        startTestSuite(suiteName);
+    }
+
+    private void startTestSuite(String suiteName) throws IOException {
+        SimpleDateFormat simpleDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+        mWriter.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        mWriter.write("<" + ELEMENT_TESTSUITE);
+        writeAttribute(ATTR_TESTSUITE_NAME, suiteName);
+        writeAttribute(ATTR_TESTSUITE_TIMESTAMP, simpleDateFormat.format(new Date(mStartTime)));
+        writeAttribute(ATTR_TESTSUITE_HOSTNAME, getHostname());
+        mWriter.write(">\n");
+
+        mWriter.write(INDENT + "<" + ELEMENT_PROPERTIES + ">\n");
+        final Properties props = System.getProperties();
+        if (props != null) {
+            for (String name : props.stringPropertyNames()) {
+                mWriter.write(INDENT + INDENT + "<" + ELEMENT_PROPERTY);
+                writeAttribute(ATTR_PROPERTY_NAME, name);
+                writeAttribute(ATTR_PROPERTY_VALUE, props.getProperty(name));
+                mWriter.write("/>\n");
+            }
+        }
+        mWriter.write(INDENT + "</" + ELEMENT_PROPERTIES + ">\n");
+        mWriter.flush();
+    }
+
+    private String getHostname() {
+        String hostname = "localhost";
+        try {
+            InetAddress localHost = InetAddress.getLocalHost();
+            if (localHost != null) {
+                hostname = localHost.getHostName();
+            }
+        } catch (UnknownHostException e) {
+            // fall back to default 'localhost'
+        }
+        return hostname;
+    }
+
+    /** Writes the tests which did not finish, the suite counters and closes the document. */
+    @Override
+    public synchronized void endTestSuite() throws IOException {
+        try {
+            for (Description description : new ArrayList<>(mRunningTests.keySet())) {
+                writeTestCase(description);
+            }
+            mWriter.write(INDENT + "<" + ELEMENT_SUMMARY);
+            writeAttribute(ATTR_TESTSUITE_TESTS, "" + mTests);
+            writeAttribute(ATTR_TESTSUITE_FAILURES, "" + mFailures);
+            writeAttribute(ATTR_TESTSUITE_ERRORS, "" + mErrors);
+            writeAttribute(ATTR_TESTSUITE_SKIPPED, "" + mSkipped);
+            writeAttribute(
+                    ATTR_TESTSUITE_TIME,
+                    "" + ((System.currentTimeMillis() - mStartTime) / ONE_SECOND));
+            mWriter.write("/>\n");
+            mWriter.write("</" + ELEMENT_TESTSUITE + ">\n");
+        } catch (final IOException exc) {
+            throw new IOException("Unable to write log file", exc);
+        } finally {
+            try {
+                mWriter.flush();
+            } catch (final IOException ex) {
+                // ignore
+            }
+            if (mOutputStream != System.out && mOutputStream != System.err) {
+                mWriter.close();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void testStarted(Description description) throws Exception {
+        mRunningTests.put(description, new RunningTest(System.currentTimeMillis()));
+    }
+
+    @Override
+    public synchronized void testFailure(Failure failure) throws Exception {
+        Description description = failure.getDescription();
+        if (failure.getException() instanceof AssertionError) {
+            getOrStartTest(description).mFailures.add(failure);
+            mFailures++;
+        } else {
+            getOrStartTest(description).mErrors.add(failure);
+            mErrors++;
+        }
+        if (description.getMethodName() == null) {
+            // e.g. a failure of the class, which is not followed by testFinished
+            writeTestCase(description);
+        }
+    }
+
+    @Override
+    public synchronized void testAssumptionFailure(Failure failure) {
+        RunningTest test = getOrStartTest(failure.getDescription());
+        test.mSkipped = true;
+        test.mSkippedMessage = failure.getMessage();
+        mSkipped++;
+    }
+
+    @Override
+    public synchronized void testIgnored(Description description) throws Exception {
+        RunningTest test = getOrStartTest(description);
+        test.mSkipped = true;
+        Ignore ignoreAnnotation = description.getAnnotation(Ignore.class);
+        test.mSkippedMessage = ignoreAnnotation != null ? ignoreAnnotation.value() : null;
+        writeTestCase(description);
+    }
+
+    @Override
+    public synchronized void testFinished(Description description) throws Exception {
+        getOrStartTest(description);
+        writeTestCase(description);
+    }
+
+    private RunningTest getOrStartTest(Description description) {
+        return mRunningTests.computeIfAbsent(
+                description, d -> new RunningTest(System.currentTimeMillis()));
+    }
+
+    /** Writes the {@code testcase} element of a running test and flushes it. */
+    private void writeTestCase(Description description) throws IOException {
+        RunningTest test = mRunningTests.remove(description);
+        mTests++;
+
+        final String methodName = description.getMethodName();
+        mWriter.write(INDENT + "<" + ELEMENT_TESTCASE);
+        writeAttribute(
+                ATTR_TESTCASE_NAME, methodName == null ? TESTCASE_NAME_UNKNOWN : methodName);
+        // a TestSuite can contain Tests from multiple classes,
+        // even tests with the same name - disambiguate them.
+        writeAttribute(ATTR_TESTCASE_CLASSNAME, description.getClassName());
+        writeAttribute(
+                ATTR_TESTCASE_TIME,
+                "" + ((System.currentTimeMillis() - test.mStartTime) / ONE_SECOND));
+        if (test.mFailures.isEmpty() && test.mErrors.isEmpty() && !test.mSkipped) {
+            mWriter.write("/>\n");
+        } else {
+            mWriter.write(">\n");
+            for (Failure failure : test.mFailures) {
+                writeError(ELEMENT_FAILURE, failure);
+            }
+            for (Failure failure : test.mErrors) {
+                writeError(ELEMENT_ERROR, failure);
+            }
+            if (test.mSkipped) {
+                mWriter.write(INDENT + INDENT + "<" + ELEMENT_SKIPPED);
+                if (test.mSkippedMessage != null) {
+                    writeAttribute(ATTR_SKIPPED_MESSAGE, test.mSkippedMessage);
+                }
+                mWriter.write("/>\n");
+            }
+            mWriter.write(INDENT + "</" + ELEMENT_TESTCASE + ">\n");
+        }
+        mWriter.flush();
+    }
+
+    private void writeError(String type, Failure failure) throws IOException {
+        mWriter.write(INDENT + INDENT + "<" + type);
+        final String message = failure.getMessage();
+        if (message != null && message.length() > 0) {
+            writeAttribute(ATTR_FAILURE_MESSAGE, message);
+        }
+        writeAttribute(ATTR_FAILURE_TYPE, failure.getDescription().getClassName());
+        mWriter.write(">");
+        writeEscaped(failure.getTrace(), false);
+        mWriter.write("</" + type + ">\n");
+    }
+
+    private void writeAttribute(String name, String value) throws IOException {
+        mWriter.write(" " + name + "=\"");
+        writeEscaped(value, true);
+        mWriter.write("\"");
+    }
+
+    /**
+     * Writes {@code value} escaped for a text node or an attribute value. The characters which are
+     * not allowed in XML 1.0 are replaced by {@code '?'}.
+     */
+    private void writeEscaped(String value, boolean isAttribute) throws IOException {
+        if (value == null) {
+            return;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    mWriter.write("&amp;");
+                    break;
+                case '<':
+                    mWriter.write("&lt;");
+                    break;
+                case '>':
+                    mWriter.write("&gt;");
+                    break;
+                case '"':
+                    mWriter.write(isAttribute ? "&quot;" : "\"");
+                    break;
+                case '\n':
+                    mWriter.write(isAttribute ? "&#10;" : "\n");
+                    break;
+                case '\r':
+                    mWriter.write("&#13;");
+                    break;
+                case '\t':
+                    mWriter.write(isAttribute ? "&#9;" : "\t");
+                    break;
+                default:
+                    mWriter.write(c < 0x20 || c == 0xFFFE || c == 0xFFFF ? '?' : c);
+            }
+        }
+    }
+
+    /** Results of a test which did not finish yet. */
+    private static class RunningTest {
+        private final long mStartTime;
+        private final List<Failure> mFailures = new ArrayList<>(1);
+        private final List<Failure> mErrors = new ArrayList<>(1);
+        private boolean mSkipped;
+        private String mSkippedMessage;
+
+        RunningTest(long startTime) {
+            mStartTime = startTime;
+        }
+    }
+}
@@ -29,6 +29,7 @@ public interface XmlConstants {
     String ELEMENT_FAILURE = "failure";
     String ELEMENT_SKIPPED = "skipped";
     String ELEMENT_ERROR = "error";
+    String ELEMENT_SUMMARY = "summary";
 
     String ATTR_TESTSUITE_NAME = "name";
     String ATTR_TESTSUITE_TESTS = "tests";
@@ -37,6 +38,7 @@ public interface XmlConstants {
     String ATTR_TESTSUITE_TIME = "time";
     String ATTR_TESTSUITE_SKIPPED = "skipped";
     String ATTR_TESTSUITE_HOSTNAME = "hostname";
+    String ATTR_TESTSUITE_TIMESTAMP = "timestamp";
 
     String ATTR_TESTCASE_NAME = "name";
     String ATTR_TESTCASE_CLASSNAME = "classname";
@@ -86,6 +86,9 @@ public class XmlRunListener extends RunListener implements XmlConstants {
         }
     }
 
+    /** For listeners writing the results themselves, see {@link StreamingXmlRunListener}. */
+    protected XmlRunListener() {}
+
     public XmlRunListener(OutputStream out, String suiteName) {
         mDocument = getDocumentBuilder().newDocument();
         mRootElement = mDocument.createElement(ELEMENT_TESTSUITE);
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2025 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package platform.test.screenshot
+
+import android.graphics.Color
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.filters.LargeTest
+import com.google.common.truth.Truth.assertThat
+import kotlin.math.pow
+import kotlin.random.Random
+import org.junit.Test
+import org.junit.runner.RunWith
+import platform.test.screenshot.matchers.MSSIMMatcher
+import platform.test.screenshot.matchers.SSIMResult
+
+/**
+ * Checks that [MSSIMMatcher] computes the same result as the window by window computation it
+ * replaced, and reports how long both take on a 4K screenshot.
+ */
+@RunWith(AndroidJUnit4::class)
+@LargeTest
+class MSSIMMatcherBenchmarkTest {
+
+    @Test
+    fun calculateSSIM_randomBitmaps_sameAsWindowByWindow() {
+        val random = Random(0)
+        repeat(50) {
+            val width = random.nextInt(1, 64)
+            val height = random.nextInt(1, 64)
+            val (first, second) = randomBitmaps(random, width, height)
+            val filter = BooleanArray(width * height) { random.nextInt(5) != 0 }
+
+            assertSameResult(
+                MSSIMMatcher().calculateSSIM(first, second, width, height, filter),
+                calculateWindowByWindow(first, second, width, height, filter),
+            )
+        }
+    }
+
+    @Test
+    fun calculateSSIM_4kBitmaps() {
+        val (first, second) = randomBitmaps(Random(0), WIDTH_4K, HEIGHT_4K)
+        val filter = BooleanArray(WIDTH_4K * HEIGHT_4K) { true }
+        val matcher = MSSIMMatcher()
+
+        repeat(3) {
+            var startTime = System.nanoTime()
+            val result = matcher.calculateSSIM(first, second, WIDTH_4K, HEIGHT_4K, filter)
+            val durationMs = (System.nanoTime() - startTime) / 1_000_000
+            startTime = System.nanoTime()
+            val expected = calculateWindowByWindow(first, second, WIDTH_4K, HEIGHT_4K, filter)
+            val windowByWindowDurationMs = (System.nanoTime() - startTime) / 1_000_000
+
+            Log.i(
+                TAG,
+                "calculateSSIM: ${durationMs}ms, window by window: ${windowByWindowDurationMs}ms",
+            )
+            assertSameResult(result, expected)
+        }
+    }
+
+    private fun assertSameResult(actual: SSIMResult, expected: SSIMResult) {
+        assertThat(actual.SSIM).isEqualTo(expected.SSIM)
+        assertThat(actual.numPixelsSimilar).isEqualTo(expected.numPixelsSimilar)
+        assertThat(actual.numPixelsIgnored).isEqualTo(expected.numPixelsIgnored)
+        assertThat(actual.numPixelsCompared).isEqualTo(expected.numPixelsCompared)
+    }
+
+    /** Bitmaps with white areas, where most of the pixels of the second one are the same. */
+    private fun randomBitmaps(random: Random, width: Int, height: Int): Pair<IntArray, IntArray> {
+        val first = IntArray(width * height) { randomColor(random) }
+        val second =
+            IntArray(width * height) {
+                if (random.nextInt(10) == 0) randomColor(random) else first[it]
+            }
+        return first to second
+    }
+
+    private fun randomColor(random: Random): Int =
+        if (random.nextInt(4) == 0) {
+            Color.WHITE
+        } else {
+            Color.rgb(random.nextInt(256), random.nextInt(256), random.nextInt(256))
+        }
+
+    /** The previous implementation of [MSSIMMatcher.calculateSSIM], one window after the other. */
+    private fun calculateWindowByWindow(
+        ideal: IntArray,
+        given: IntArray,
+        width: Int,
+        height: Int,
+        filter: BooleanArray,
+    ): SSIMResult {
+        var SSIMTotal = 0.0
+        var totalNumPixelsCompared = 0.0
+        var ignored = 0
+        for (windowY in 0 until height step WINDOW_SIZE) {
+            val windowHeight = minOf(WINDOW_SIZE, height - windowY)
+            for (windowX in 0 until width step WINDOW_SIZE) {
+                val windowWidth = minOf(WINDOW_SIZE, width - windowX)
+                val indices =
+                    (0 until windowHeight).flatMap { y ->
+                        (0 until windowWidth).map { x -> windowX + x + (windowY + y) * width }
+                    }
+                val compared = indices.filter { filter[it] }
+                if (compared.all { ideal[it] == Color.WHITE && given[it] == Color.WHITE }) {
+                    ignored += windowWidth * windowHeight
+                    continue
+                }
+                var mean0 = 0.0
+                var mean1 = 0.0
+                var numPixelsCounted = 0.0
+                for (index in compared) {
+                    mean0 += intensity(ideal[index])
+                    mean1 += intensity(given[index])
+                    numPixelsCounted += 1.0
+                }
+                mean0 /= numPixelsCounted
+                mean1 /= numPixelsCounted
+                var var0 = 0.0
+                var var1 = 0.0
+                var varBoth = 0.0
+                for (index in compared) {
+                    val v0 = intensity(ideal[index]) - mean0
+                    val v1 = intensity(given[index]) - mean1
+                    var0 += v0 * v0
+                    var1 += v1 * v1
+                    varBoth += v0 * v1
+                }
+                if (compared.size <= 1) {
+                    var0 = 0.0
+                    var1 = 0.0
+                    varBoth = 0.0
+                } else {
+                    var0 /= (compared.size - 1).toDouble()
+                    var1 /= (compared.size - 1).toDouble()
+                    varBoth /= (compared.size - 1).toDouble()
+                }
+                var SSIM = (2 * mean0 * mean1 + CONSTANT_C1) * (2 * varBoth + CONSTANT_C2)
+                SSIM /= (mean0 * mean0 + mean1 * mean1 + CONSTANT_C1) * (var0 + var1 + CONSTANT_C2)
+                SSIMTotal += SSIM * compared.size
+                totalNumPixelsCompared += compared.size.toDouble()
+            }
+        }
+        val averageSSIM = SSIMTotal / totalNumPixelsCompared
+        return SSIMResult(
+            SSIM = averageSSIM,
+            numPixelsSimilar = (averageSSIM * totalNumPixelsCompared + 0.5).toInt(),
+            numPixelsIgnored = ignored,
+            numPixelsCompared = (totalNumPixelsCompared + 0.5).toInt(),
+        )
+    }
+
+    private fun intensity(pixel: Int): Double {
+        var l = 0.0
+        l += 0.21f * (Color.red(pixel) / 255f.toDouble()).pow(1.0)
+        l += 0.72f * (Color.green(pixel) / 255f.toDouble()).pow(1.0)
+        l += 0.07f * (Color.blue(pixel) / 255f.toDouble()).pow(1.0)
+        return l
+    }
+
+    private companion object {
+        const val TAG = "MSSIMMatcherBenchmarkTest"
+        const val WIDTH_4K = 3840
+        const val HEIGHT_4K = 2160
+        const val WINDOW_SIZE = 10
+        val CONSTANT_C1 = (254.0 * 0.00001).pow(2.0)
+        val CONSTANT_C2 = (254.0 * 0.00003).pow(2.0)
+    }
+}
@@ -19,6 +19,7 @@ package platform.test.screenshot.matchers
 import android.graphics.Color
 import android.graphics.Rect
 import androidx.annotation.FloatRange
+import java.util.stream.IntStream
 import kotlin.collections.List
 import kotlin.math.pow
 import platform.test.screenshot.proto.ScreenshotResultProto
@@ -94,51 +95,46 @@ class MSSIMMatcher(@FloatRange(from = 0.0, to = 1.0) private val threshold: Doub
         height: Int,
         filter: BooleanArray,
     ): SSIMResult {
+        val numWindowsX = (width + WINDOW_SIZE - 1) / WINDOW_SIZE
+        val numWindowsY = (height + WINDOW_SIZE - 1) / WINDOW_SIZE
+        val windows =
+            WindowResults(
+                SSIM = DoubleArray(numWindowsX * numWindowsY),
+                numPixelsCompared = IntArray(numWindowsX * numWindowsY),
+                isIgnored = BooleanArray(numWindowsX * numWindowsY),
+            )
+
+        // The rows of windows are independent, each one is computed by a single task.
+        IntStream.range(0, numWindowsY).parallel().forEach { windowY ->
+            calculateWindowRowSSIM(
+                ideal,
+                given,
+                offset,
+                stride,
+                width,
+                height,
+                filter,
+                windowY,
+                windows,
+            )
+        }
+
+        // Sum the windows in order, so that the result does not depend on the scheduling.
         var SSIMTotal = 0.0
         var totalNumPixelsCompared = 0.0
-        var currentWindowY = 0
         var ignored = 0
-
-        while (currentWindowY < height) {
-            val windowHeight = computeWindowSize(currentWindowY, height)
-            var currentWindowX = 0
-            while (currentWindowX < width) {
-                val windowWidth = computeWindowSize(currentWindowX, width)
-                val start: Int = indexFromXAndY(currentWindowX, currentWindowY, stride, offset)
-                if (
-                    shouldIgnoreWindow(ideal, start, stride, windowWidth, windowHeight, filter) &&
-                        shouldIgnoreWindow(given, start, stride, windowWidth, windowHeight, filter)
-                ) {
-                    currentWindowX += WINDOW_SIZE
-                    ignored += windowWidth * windowHeight
+        for (windowY in 0 until numWindowsY) {
+            val windowHeight = computeWindowSize(windowY * WINDOW_SIZE, height)
+            for (windowX in 0 until numWindowsX) {
+                val window = windowY * numWindowsX + windowX
+                if (windows.isIgnored[window]) {
+                    ignored += computeWindowSize(windowX * WINDOW_SIZE, width) * windowHeight
                     continue
                 }
-                val means = getMeans(ideal, given, filter, start, stride, windowWidth, windowHeight)
-                val meanX = means[0]
-                val meanY = means[1]
-                val variances =
-                    getVariances(
-                        ideal,
-                        given,
-                        filter,
-                        meanX,
-                        meanY,
-                        start,
-                        stride,
-                        windowWidth,
-                        windowHeight,
-                    )
-                val varX = variances[0]
-                val varY = variances[1]
-                val stdBoth = variances[2]
-                val SSIM = SSIM(meanX, meanY, varX, varY, stdBoth)
-                val numPixelsCompared =
-                    numPixelsToCompareInWindow(start, stride, windowWidth, windowHeight, filter)
-                SSIMTotal += SSIM * numPixelsCompared
+                val numPixelsCompared = windows.numPixelsCompared[window]
+                SSIMTotal += windows.SSIM[window] * numPixelsCompared
                 totalNumPixelsCompared += numPixelsCompared.toDouble()
-                currentWindowX += WINDOW_SIZE
             }
-            currentWindowY += WINDOW_SIZE
         }
 
         val averageSSIM = SSIMTotal / totalNumPixelsCompared
@@ -150,6 +146,93 @@ class MSSIMMatcher(@FloatRange(from = 0.0, to = 1.0) private val threshold: Doub
         )
     }
 
+    /**
+     * Computes the SSIM of the windows of the row [windowY] into [windows].
+     *
+     * The intensities of the pixels of the row are computed once, in the same pass which counts
+     * the compared and non-white pixels of each window. A window is ignored if none of its compared
+     * pixels is non-white in either bitmap.
+     */
+    private fun calculateWindowRowSSIM(
+        ideal: IntArray,
+        given: IntArray,
+        offset: Int,
+        stride: Int,
+        width: Int,
+        height: Int,
+        filter: BooleanArray,
+        windowY: Int,
+        windows: WindowResults,
+    ) {
+        val numWindowsX = (width + WINDOW_SIZE - 1) / WINDOW_SIZE
+        val windowHeight = computeWindowSize(windowY * WINDOW_SIZE, height)
+        val rowStart = indexFromXAndY(0, windowY * WINDOW_SIZE, stride, offset)
+        val idealIntensities = DoubleArray(width * windowHeight)
+        val givenIntensities = DoubleArray(width * windowHeight)
+        val numPixelsCompared = IntArray(numWindowsX)
+        val numPixelsNotWhite = IntArray(numWindowsX)
+        for (y in 0 until windowHeight) {
+            for (x in 0 until width) {
+                val index = indexFromXAndY(x, y, stride, rowStart)
+                if (!filter[index]) {
+                    continue
+                }
+                val windowX = x / WINDOW_SIZE
+                numPixelsCompared[windowX]++
+                if (ideal[index] != Color.WHITE || given[index] != Color.WHITE) {
+                    numPixelsNotWhite[windowX]++
+                }
+                val intensityIndex = indexFromXAndY(x, y, width, 0)
+                idealIntensities[intensityIndex] = getIntensity(ideal[index])
+                givenIntensities[intensityIndex] = getIntensity(given[index])
+            }
+        }
+
+        for (windowX in 0 until numWindowsX) {
+            val window = windowY * numWindowsX + windowX
+            if (numPixelsNotWhite[windowX] == 0) {
+                windows.isIgnored[window] = true
+                continue
+            }
+            val windowWidth = computeWindowSize(windowX * WINDOW_SIZE, width)
+            val start = indexFromXAndY(windowX * WINDOW_SIZE, 0, stride, rowStart)
+            val intensitiesStart = windowX * WINDOW_SIZE
+            val means =
+                getMeans(
+                    idealIntensities,
+                    givenIntensities,
+                    filter,
+                    start,
+                    stride,
+                    intensitiesStart,
+                    width,
+                    windowWidth,
+                    windowHeight,
+                )
+            val meanX = means[0]
+            val meanY = means[1]
+            val variances =
+                getVariances(
+                    idealIntensities,
+                    givenIntensities,
+                    filter,
+                    meanX,
+                    meanY,
+                    start,
+                    stride,
+                    intensitiesStart,
+                    width,
+                    windowWidth,
+                    windowHeight,
+                )
+            val varX = variances[0]
+            val varY = variances[1]
+            val stdBoth = variances[2]
+            windows.SSIM[window] = SSIM(meanX, meanY, varX, varY, stdBoth)
+            windows.numPixelsCompared[window] = numPixelsCompared[windowX]
+        }
+    }
+
     /**
      * Compute the size of the window. The window defaults to WINDOW_SIZE, but must be contained
      * within dimension.
@@ -176,49 +259,6 @@ class MSSIMMatcher(@FloatRange(from = 0.0, to = 1.0) private val threshold: Doub
         return !filter[indexFromXAndY(x, y, stride, start)]
     }
 
-    /**
-     * Checks whether a whole window should be ignored. A window should be ignored if all pixels are
-     * either white or should be ignored.
-     */
-    private fun shouldIgnoreWindow(
-        colors: IntArray,
-        start: Int,
-        stride: Int,
-        windowWidth: Int,
-        windowHeight: Int,
-        filter: BooleanArray,
-    ): Boolean {
-        for (y in 0 until windowHeight) {
-            for (x in 0 until windowWidth) {
-                if (shouldIgnorePixel(x, y, start, stride, filter)) {
-                    continue
-                }
-                if (colors[indexFromXAndY(x, y, stride, start)] != Color.WHITE) {
-                    return false
-                }
-            }
-        }
-        return true
-    }
-
-    private fun numPixelsToCompareInWindow(
-        start: Int,
-        stride: Int,
-        windowWidth: Int,
-        windowHeight: Int,
-        filter: BooleanArray,
-    ): Int {
-        var numPixelsToCompare = 0
-        for (y in 0 until windowHeight) {
-            for (x in 0 until windowWidth) {
-                if (!shouldIgnorePixel(x, y, start, stride, filter)) {
-                    numPixelsToCompare++
-                }
-            }
-        }
-        return numPixelsToCompare
-    }
-
     /**
      * This calculates the position in an array that would represent a bitmap given the parameters.
      */
@@ -236,14 +276,17 @@ class MSSIMMatcher(@FloatRange(from = 0.0, to = 1.0) private val threshold: Doub
     /**
      * This method will find the mean of a window in both sets of pixels. The return is an array
      * where the first double is the mean of the first set and the second double is the mean of the
-     * second set.
+     * second set. The intensities of the pixels are read from [intensities0] and [intensities1],
+     * starting at [intensitiesStart] with a stride of [intensitiesStride].
      */
     private fun getMeans(
-        pixels0: IntArray,
-        pixels1: IntArray,
+        intensities0: DoubleArray,
+        intensities1: DoubleArray,
         filter: BooleanArray,
         start: Int,
         stride: Int,
+        intensitiesStart: Int,
+        intensitiesStride: Int,
         windowWidth: Int,
         windowHeight: Int,
     ): DoubleArray {
@@ -255,9 +298,9 @@ class MSSIMMatcher(@FloatRange(from = 0.0, to = 1.0) private val threshold: Doub
                 if (shouldIgnorePixel(x, y, start, stride, filter)) {
                     continue
                 }
-                val index: Int = indexFromXAndY(x, y, stride, start)
-                avg0 += getIntensity(pixels0[index])
-                avg1 += getIntensity(pixels1[index])
+                val index: Int = indexFromXAndY(x, y, intensitiesStride, intensitiesStart)
+                avg0 += intensities0[index]
+                avg1 += intensities1[index]
                 numPixelsCounted += 1.0
             }
         }
@@ -272,13 +315,15 @@ class MSSIMMatcher(@FloatRange(from = 0.0, to = 1.0) private val threshold: Doub
      * the second is the variance of the second set of pixels, and the third is the covariance.
      */
     private fun getVariances(
-        pixels0: IntArray,
-        pixels1: IntArray,
+        intensities0: DoubleArray,
+        intensities1: DoubleArray,
         filter: BooleanArray,
         mean0: Double,
         mean1: Double,
         start: Int,
         stride: Int,
+        intensitiesStart: Int,
+        intensitiesStride: Int,
         windowWidth: Int,
         windowHeight: Int,
     ): DoubleArray {
@@ -291,9 +336,9 @@ class MSSIMMatcher(@FloatRange(from = 0.0, to = 1.0) private val threshold: Doub
                 if (shouldIgnorePixel(x, y, start, stride, filter)) {
                     continue
                 }
-                val index: Int = indexFromXAndY(x, y, stride, start)
-                val v0 = getIntensity(pixels0[index]) - mean0
-                val v1 = getIntensity(pixels1[index]) - mean1
+                val index: Int = indexFromXAndY(x, y, intensitiesStride, intensitiesStart)
+                val v0 = intensities0[index] - mean0
+                val v1 = intensities1[index] - mean1
                 var0 += v0 * v0
                 var1 += v1 * v1
                 varBoth += v0 * v1
@@ -342,3 +387,10 @@ class SSIMResult(
     val numPixelsIgnored: Int,
     val numPixelsCompared: Int,
 )
+
+/** SSIM and number of compared pixels of each window, or whether the window is ignored. */
+private class WindowResults(
+    val SSIM: DoubleArray,
+    val numPixelsCompared: IntArray,
+    val isIgnored: BooleanArray,
+)
@@ -168,11 +168,33 @@ public class TombstoneParser {
 
     /** Parse a logcat snippet and build a list of tombstones */
     public static final List<Tombstone> parseLogcat(String logcat) {
+        List<Tombstone> tombstones = new ArrayList<>();
+        for (String tombstoneBlob : splitLogcat(logcat)) {
+            Tombstone.Builder tombstoneBuilder = Tombstone.newBuilder();
+            if (!parseTombstone(tombstoneBlob, tombstoneBuilder)) {
+                CLog.w("parsing tombstone failed: \n" + tombstoneBlob);
+            }
+            Tombstone tombstone = tombstoneBuilder.build();
+            tombstones.add(tombstone);
+        }
+        return tombstones;
+    }
+
+    /** Parse a logcat snippet and build a list of lazily parsed tombstones */
+    public static final List<LazyTombstone> parseLogcatLazily(String logcat) {
+        List<LazyTombstone> tombstones = new ArrayList<>();
+        for (String tombstoneBlob : splitLogcat(logcat)) {
+            tombstones.add(parseTombstoneLazily(tombstoneBlob));
+        }
+        return tombstones;
+    }
+
+    /** Extracts the tombstone blobs of a logcat snippet. */
+    private static List<String> splitLogcat(String logcat) {
         String[] potentialTombstones = splitPattern(TOMBSTONE_HEADER_PATTERN).split(logcat);
 
-        List<Tombstone> tombstones = new ArrayList<>();
+        List<String> tombstoneBlobs = new ArrayList<>();
         for (String potentialTombstone : potentialTombstones) {
-            Tombstone.Builder tombstoneBuilder = Tombstone.newBuilder();
             List<String> lines = lines(potentialTombstone);
             if (lines.isEmpty()) {
                 continue;
@@ -203,14 +225,9 @@ public class TombstoneParser {
                                     },
                                     StringBuilder::append)
                             .toString();
-
-            if (!parseTombstone(tombstoneBlob, tombstoneBuilder)) {
-                CLog.w("parsing tombstone failed: \n" + tombstoneBlob);
-            }
-            Tombstone tombstone = tombstoneBuilder.build();
-            tombstones.add(tombstone);
+            tombstoneBlobs.add(tombstoneBlob);
         }
-        return tombstones;
+        return tombstoneBlobs;
     }
 
     public static boolean parseTombstone(String tombstoneBlob, Tombstone.Builder tombstoneBuilder) {
@@ -238,8 +255,133 @@ public class TombstoneParser {
         //   "    fd ..."
         // get logs
 
-        String[] threadBlobs = THREAD_SEPARATOR_PATTERN.split(tombstoneBlob);
-        String headerAndMainThreadBlob = threadBlobs[0];
+        TombstoneSections sections = new TombstoneSections(tombstoneBlob);
+        switch (parseTombstoneSummary(sections, tombstoneBuilder)) {
+            case FAILED:
+                return false;
+            case COMPLETE:
+                return true;
+            default:
+                return parseTombstoneDetails(sections, tombstoneBuilder);
+        }
+    }
+
+    /**
+     * Parse the summary of a tombstone blob, i.e. the header, signal, abort message, causes and
+     * main thread backtrace, deferring the rest of the tombstone until it is accessed.
+     */
+    public static LazyTombstone parseTombstoneLazily(String tombstoneBlob) {
+        return new LazyTombstone(tombstoneBlob);
+    }
+
+    /**
+     * A tombstone of which only the summary is parsed up front, which is enough to triage crashes.
+     * The other threads, memory dumps, memory maps, open files and logs are only parsed when the
+     * whole tombstone is accessed.
+     */
+    public static final class LazyTombstone {
+        private final TombstoneSections mSections;
+        private final Tombstone.Builder mTombstoneBuilder = Tombstone.newBuilder();
+        private final ParseState mSummaryState;
+        private final Tombstone mSummary;
+        private Tombstone mTombstone;
+
+        private LazyTombstone(Tombstone tombstone) {
+            mSections = null;
+            mSummaryState = ParseState.COMPLETE;
+            mSummary = tombstone;
+            mTombstone = tombstone;
+        }
+
+        /** Returns an already parsed tombstone, e.g. read from a proto, as its own summary. */
+        public static LazyTombstone of(Tombstone tombstone) {
+            return new LazyTombstone(tombstone);
+        }
+
+        private LazyTombstone(String tombstoneBlob) {
+            mSections = new TombstoneSections(tombstoneBlob);
+            mSummaryState = parseTombstoneSummary(mSections, mTombstoneBuilder);
+            if (mSummaryState == ParseState.FAILED) {
+                CLog.w("parsing tombstone summary failed");
+            }
+            mSummary = mTombstoneBuilder.build();
+        }
+
+        /**
+         * Returns the header, signal, abort message and causes of the tombstone, and its main
+         * thread without memory dump. It holds the fields parsed so far if parsing failed.
+         */
+        public Tombstone getSummary() {
+            return mSummary;
+        }
+
+        /** Returns the whole tombstone, as parsed by {@link #parseTombstone}. */
+        public synchronized Tombstone getTombstone() {
+            if (mTombstone == null) {
+                if (mSummaryState == ParseState.SUMMARY_PARSED
+                        && !parseTombstoneDetails(mSections, mTombstoneBuilder)) {
+                    CLog.w("parsing tombstone details failed");
+                }
+                mTombstone = mTombstoneBuilder.build();
+            }
+            return mTombstone;
+        }
+    }
+
+    private enum ParseState {
+        FAILED,
+        // Nothing follows the summary.
+        COMPLETE,
+        SUMMARY_PARSED,
+    }
+
+    /** Index of the thread sections of a tombstone blob, extracted when parsed. */
+    private static final class TombstoneSections {
+        private final String mBlob;
+        // Offsets of the thread sections, the first one holding the header and the main thread.
+        private final List<int[]> mThreadRanges = new ArrayList<>();
+        private String[] mCauseBlobs;
+
+        TombstoneSections(String blob) {
+            mBlob = blob;
+            // Same sections as THREAD_SEPARATOR_PATTERN.split(blob), without copying them.
+            Matcher m = THREAD_SEPARATOR_PATTERN.matcher(blob);
+            int start = 0;
+            while (m.find()) {
+                mThreadRanges.add(new int[] {start, m.start()});
+                start = m.end();
+            }
+            mThreadRanges.add(new int[] {start, blob.length()});
+            while (mThreadRanges.size() > 1) {
+                int[] last = mThreadRanges.get(mThreadRanges.size() - 1);
+                if (last[0] != last[1]) {
+                    break;
+                }
+                mThreadRanges.remove(mThreadRanges.size() - 1);
+            }
+        }
+
+        int getThreadCount() {
+            return mThreadRanges.size();
+        }
+
+        String getThreadBlob(int index) {
+            int[] range = mThreadRanges.get(index);
+            return mBlob.substring(range[0], range[1]);
+        }
+
+        /** Returns the header and main thread blob split before each cause. */
+        String[] getCauseBlobs() {
+            if (mCauseBlobs == null) {
+                mCauseBlobs = splitPattern(CAUSE_PATTERN).split(getThreadBlob(0));
+            }
+            return mCauseBlobs;
+        }
+    }
+
+    private static ParseState parseTombstoneSummary(
+            TombstoneSections sections, Tombstone.Builder tombstoneBuilder) {
+        String headerAndMainThreadBlob = sections.getThreadBlob(0);
         List<String> headerAndMainThreadLines = lines(headerAndMainThreadBlob);
 
         // get fingerprint
@@ -252,7 +394,7 @@ public class TombstoneParser {
                     tombstoneBuilder.setBuildFingerprint(fingerprint);
                 })) {
             CLog.w("fingerprint failed");
-            return false;
+            return ParseState.FAILED;
         }
 
         // get revision
@@ -263,7 +405,7 @@ public class TombstoneParser {
                     tombstoneBuilder.setRevision(m.group("revision"));
                 })) {
             CLog.w("revision failed");
-            return false;
+            return ParseState.FAILED;
         }
 
         // get ABI
@@ -297,7 +439,7 @@ public class TombstoneParser {
                     tombstoneBuilder.setArch(arch);
                 })) {
             CLog.w("abi failed");
-            return false;
+            return ParseState.FAILED;
         }
 
         // get timestamp
@@ -320,11 +462,24 @@ public class TombstoneParser {
         // try main thread get failure note
         if (matchLine(headerAndMainThreadLines.iterator(), GET_MAIN_THREAD_FAILURE_PATTERN, null)) {
             // tombstoned couldn't get the main thread info, so that's all we get
-            return true;
+            return ParseState.COMPLETE;
         }
 
         // get main thread
-        if (!parseMainThread(headerAndMainThreadBlob, tombstoneBuilder)) {
+        if (!parseMainThread(sections, tombstoneBuilder)) {
+            CLog.w("main thread failed");
+            return ParseState.FAILED;
+        }
+
+        return ParseState.SUMMARY_PARSED;
+    }
+
+    private static boolean parseTombstoneDetails(
+            TombstoneSections sections, Tombstone.Builder tombstoneBuilder) {
+        String headerAndMainThreadBlob = sections.getThreadBlob(0);
+
+        // get main thread memory
+        if (!parseMainThreadDetails(sections, tombstoneBuilder)) {
             CLog.w("main thread failed");
             return false;
         }
@@ -336,8 +491,8 @@ public class TombstoneParser {
         }
 
         // get threads
-        for (int i = 1; i < threadBlobs.length; i++) {
-            String threadBlob = threadBlobs[i];
+        for (int i = 1; i < sections.getThreadCount(); i++) {
+            String threadBlob = sections.getThreadBlob(i);
             com.android.server.os.TombstoneProtos.Thread.Builder threadBuilder =
                     com.android.server.os.TombstoneProtos.Thread.newBuilder();
             if (!parseThread(threadBlob, tombstoneBuilder, threadBuilder)) {
@@ -348,7 +503,7 @@ public class TombstoneParser {
         }
 
         // get end of blob
-        String tailBlob = threadBlobs[threadBlobs.length - 1];
+        String tailBlob = sections.getThreadBlob(sections.getThreadCount() - 1);
         List<String> tailLines = lines(tailBlob);
 
         // get open files
@@ -379,16 +534,15 @@ public class TombstoneParser {
     }
 
     private static boolean parseMainThread(
-            String headerAndMainThreadBlob, Tombstone.Builder tombstoneBuilder) {
+            TombstoneSections sections, Tombstone.Builder tombstoneBuilder) {
         com.android.server.os.TombstoneProtos.Thread.Builder mainThreadBuilder =
                 com.android.server.os.TombstoneProtos.Thread.newBuilder();
 
+        String headerAndMainThreadBlob = sections.getThreadBlob(0);
         List<String> headerAndMainThreadLines = lines(headerAndMainThreadBlob);
-        String[] causeBlobs = splitPattern(CAUSE_PATTERN).split(headerAndMainThreadBlob);
+        String[] causeBlobs = sections.getCauseBlobs();
         String headerBlob = causeBlobs[0];
         List<String> headerLines = lines(headerBlob);
-        String tailBlob = causeBlobs[causeBlobs.length - 1];
-        List<String> tailLines = lines(tailBlob);
 
         try {
             if (!parseThreadHeader(
@@ -514,7 +668,23 @@ public class TombstoneParser {
                 }
                 tombstoneBuilder.addCauses(causeBuilder.build());
             }
+        } finally {
+            tombstoneBuilder.putThreads(mainThreadBuilder.getId(), mainThreadBuilder.build());
+        }
+        return true;
+    }
+
+    /** Parse the memory of the main thread, which follows its causes. */
+    private static boolean parseMainThreadDetails(
+            TombstoneSections sections, Tombstone.Builder tombstoneBuilder) {
+        com.android.server.os.TombstoneProtos.Thread.Builder mainThreadBuilder =
+                tombstoneBuilder.getThreadsOrThrow(tombstoneBuilder.getTid()).toBuilder();
 
+        String[] causeBlobs = sections.getCauseBlobs();
+        String tailBlob = causeBlobs[causeBlobs.length - 1];
+        List<String> tailLines = lines(tailBlob);
+
+        try {
             if (!parseTagDump(tailLines, tombstoneBuilder)) {
                 CLog.w("tag dump failed");
                 return false;
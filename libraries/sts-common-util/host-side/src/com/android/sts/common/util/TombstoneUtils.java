@@ -21,10 +21,13 @@ import static com.google.common.truth.Truth.*;
 import com.android.server.os.TombstoneProtos.*;
 import com.android.sts.common.CommandUtil;
 import com.android.sts.common.ProcessUtil;
+import com.android.sts.common.util.TombstoneParser.LazyTombstone;
 import com.android.tradefed.device.DeviceNotAvailableException;
 import com.android.tradefed.device.IFileEntry;
 import com.android.tradefed.device.ITestDevice;
 import com.android.tradefed.log.LogUtil.CLog;
+import com.android.tradefed.util.FileUtil;
+import com.android.tradefed.util.TarUtil;
 
 import com.google.protobuf.InvalidProtocolBufferException;
 
@@ -32,10 +35,13 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -47,6 +53,7 @@ import java.util.stream.Stream;
 /** Contains helper functions and shared constants for crash parsing. */
 public class TombstoneUtils {
     private static final String TOMBSTONES_PATH = "/data/tombstones";
+    private static final String TOMBSTONES_TAR_PATH = "/data/local/tmp/sts-tombstones.tar";
     private static final List<Tombstone> EMPTY_TOMBSTONE_LIST = Collections.emptyList();
 
     public static class Signals {
@@ -71,9 +78,17 @@ public class TombstoneUtils {
             throws DeviceNotAvailableException {
         final IFileEntry tombstonesPath = device.getFileEntry(TOMBSTONES_PATH);
         final boolean useTombstoneFiles = tombstonesPath != null; // can't read
-        if (useTombstoneFiles) {
-            // clear existing tombstones
-            CommandUtil.runAndCheck(device, "rm -f " + TOMBSTONES_PATH + "/*");
+        final boolean batchTombstones = useTombstoneFiles && config.batchTombstoneRetrieval;
+        final long startTimeSeconds;
+        if (batchTombstones) {
+            // keep existing tombstones, only the ones modified from now on are checked
+            startTimeSeconds = getDeviceTimeSeconds(device);
+        } else {
+            startTimeSeconds = 0;
+            if (useTombstoneFiles) {
+                // clear existing tombstones
+                CommandUtil.runAndCheck(device, "rm -f " + TOMBSTONES_PATH + "/*");
+            }
         }
 
         if (!useTombstoneFiles) {
@@ -122,22 +137,28 @@ public class TombstoneUtils {
                 }
 
                 // collect tombstones
-                List<Tombstone> tombstones = null;
-                if (useTombstoneFiles) {
+                List<LazyTombstone> tombstones = null;
+                if (batchTombstones) {
+                    tombstones =
+                            deduplicateLazyTombstones(
+                                    getNewTombstonesFromDevice(device, startTimeSeconds),
+                                    config);
+                    CLog.d(String.format("got %d unique new tombstones", tombstones.size()));
+                } else if (useTombstoneFiles) {
                     tombstones = getTombstonesFromDeviceFiles(device, tombstonesPath);
                     CLog.d(String.format("got %d tombstones from files", tombstones.size()));
                 } else {
                     // fallback to logcat
                     String logcat = CommandUtil.runAndCheck(device, "logcat -d").getStdout();
-                    tombstones = TombstoneParser.parseLogcat(logcat);
+                    tombstones = TombstoneParser.parseLogcatLazily(logcat);
                     CLog.d(String.format("got %d tombstones from logcat", tombstones.size()));
                 }
-                assertNoSecurityCrashes(tombstones, config);
+                assertNoSecurityCrashesLazily(tombstones, config);
             }
         };
     }
 
-    private static List<Tombstone> getTombstonesFromDeviceFiles(
+    private static List<LazyTombstone> getTombstonesFromDeviceFiles(
             ITestDevice device, IFileEntry tombstoneDirectory)
             throws DeviceNotAvailableException, IOException, FileNotFoundException {
         Collection<IFileEntry> deviceTombstoneFiles =
@@ -152,7 +173,7 @@ public class TombstoneUtils {
             deviceTombstoneFiles = deviceProtoTombstoneFiles;
         }
 
-        List<Tombstone> tombstones = new ArrayList<>();
+        List<LazyTombstone> tombstones = new ArrayList<>();
         for (IFileEntry tombstoneFile : deviceTombstoneFiles) {
             File localFile = File.createTempFile("tradefed-tombstone-", tombstoneFile.getName());
             if (!device.pullFile(tombstoneFile.getFullPath(), localFile)) {
@@ -165,23 +186,177 @@ public class TombstoneUtils {
         return tombstones;
     }
 
-    private static Tombstone readTombstone(File tombstoneFile)
+    private static long getDeviceTimeSeconds(ITestDevice device)
+            throws DeviceNotAvailableException {
+        String time = CommandUtil.runAndCheck(device, "date +%s").getStdout().trim();
+        try {
+            return Long.parseLong(time);
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException("unexpected device time: " + time, e);
+        }
+    }
+
+    /**
+     * Pulls the tombstones modified since the given device time in a single transfer and decodes
+     * them in parallel.
+     */
+    private static List<LazyTombstone> getNewTombstonesFromDevice(
+            ITestDevice device, long startTimeSeconds)
+            throws DeviceNotAvailableException, IOException, InvalidProtocolBufferException {
+        // each line is "<modification time in seconds> <path>"
+        String stat =
+                device.executeShellV2Command("stat -c '%Y %n' " + TOMBSTONES_PATH + "/*")
+                        .getStdout();
+        List<String> tombstoneNames = new ArrayList<>();
+        for (String line : stat.split("\n")) {
+            String[] fields = line.trim().split(" ", 2);
+            if (fields.length != 2) {
+                continue;
+            }
+            long modifiedTimeSeconds;
+            try {
+                modifiedTimeSeconds = Long.parseLong(fields[0]);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            String name = new File(fields[1]).getName();
+            if (modifiedTimeSeconds >= startTimeSeconds && !name.startsWith(".temporary")) {
+                tombstoneNames.add(name);
+            }
+        }
+        List<String> protoTombstoneNames =
+                tombstoneNames.stream()
+                        .filter(name -> name.endsWith(".pb"))
+                        .collect(Collectors.toList());
+        if (!protoTombstoneNames.isEmpty()) {
+            // if protos exist, we only want to use protos
+            CLog.d("using tombstones that are filtered to protos only");
+            tombstoneNames = protoTombstoneNames;
+        }
+        if (tombstoneNames.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Collections.sort(tombstoneNames);
+
+        File localTar = FileUtil.createTempFile("tradefed-tombstones-", ".tar");
+        File localDir = FileUtil.createTempDir("tradefed-tombstones-");
+        try {
+            CommandUtil.runAndCheck(
+                    device,
+                    String.format(
+                            "tar -cf %s -C %s %s",
+                            TOMBSTONES_TAR_PATH,
+                            TOMBSTONES_PATH,
+                            String.join(" ", tombstoneNames)));
+            try {
+                if (!device.pullFile(TOMBSTONES_TAR_PATH, localTar)) {
+                    CLog.d("failed to pull tombstones from device");
+                    return new ArrayList<>();
+                }
+            } finally {
+                device.executeShellV2Command("rm -f " + TOMBSTONES_TAR_PATH);
+            }
+            List<File> localFiles = TarUtil.unTar(localTar, localDir);
+            Collections.sort(localFiles);
+            return localFiles.parallelStream()
+                    .map(
+                            localFile -> {
+                                try {
+                                    return readTombstone(localFile);
+                                } catch (IOException e) {
+                                    throw new UncheckedIOException(e);
+                                }
+                            })
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            FileUtil.deleteFile(localTar);
+            FileUtil.recursiveDelete(localDir);
+        }
+    }
+
+    /**
+     * Removes the duplicate crashes, keeping the first tombstone of each crash signature.
+     *
+     * @param tombstones a list of tombstones to deduplicate
+     * @param config crash detection configuration object the tombstones will be checked against
+     * @return the tombstones with distinct crash signatures, in order
+     */
+    public static List<Tombstone> deduplicateTombstones(
+            List<Tombstone> tombstones, Config config) {
+        Map<String, Tombstone> uniqueTombstones = new LinkedHashMap<>();
+        for (Tombstone tombstone : tombstones) {
+            uniqueTombstones.putIfAbsent(getCrashSignature(tombstone, config), tombstone);
+        }
+        return new ArrayList<>(uniqueTombstones.values());
+    }
+
+    /** Same as {@link #deduplicateTombstones}, comparing the summaries of the tombstones. */
+    private static List<LazyTombstone> deduplicateLazyTombstones(
+            List<LazyTombstone> tombstones, Config config) {
+        Map<String, LazyTombstone> uniqueTombstones = new LinkedHashMap<>();
+        for (LazyTombstone tombstone : tombstones) {
+            uniqueTombstones.putIfAbsent(
+                    getCrashSignature(tombstone.getSummary(), config), tombstone);
+        }
+        return new ArrayList<>(uniqueTombstones.values());
+    }
+
+    /**
+     * Returns the signature of a crash, made of every tombstone field {@link #isSecurityCrash}
+     * reads. Tombstones with the same signature are either both security crashes or neither.
+     *
+     * <p>The fault address is only kept as whether it is a low address for the config, so that the
+     * same crash at a randomized address has the same signature.
+     */
+    public static String getCrashSignature(Tombstone tombstone, Config config) {
+        StringBuilder signature = new StringBuilder();
+        signature.append(getProcessFilename(tombstone).orElse("")).append('\n');
+        signature.append(tombstone.getAbortMessage()).append('\n');
+        if (tombstone.hasSignalInfo()) {
+            Signal signalInfo = tombstone.getSignalInfo();
+            boolean lowFaultAddress =
+                    signalInfo.getHasFaultAddress()
+                            && Long.compareUnsigned(
+                                            signalInfo.getFaultAddress(),
+                                            config.maxLowFaultAddress)
+                                    < 0;
+            signature
+                    .append(signalInfo.getName())
+                    .append(lowFaultAddress ? " low" : "")
+                    .append('\n');
+        }
+        getMainThread(tombstone)
+                .ifPresent(
+                        thread -> {
+                            for (BacktraceFrame frame : thread.getCurrentBacktraceList()) {
+                                signature
+                                        .append(frame.getFileName())
+                                        .append(' ')
+                                        .append(frame.getFunctionName())
+                                        .append('\n');
+                            }
+                        });
+        return signature.toString();
+    }
+
+    private static LazyTombstone readTombstone(File tombstoneFile)
             throws FileNotFoundException, IOException, InvalidProtocolBufferException {
         if (tombstoneFile.getName().endsWith(".pb")) {
             CLog.d("reading tombstone file as proto");
-            return readTombstoneProto(tombstoneFile);
+            return LazyTombstone.of(readTombstoneProto(tombstoneFile));
         } else {
             CLog.d("reading tombstone file as text");
             return readTombstoneText(tombstoneFile);
         }
     }
 
-    private static Tombstone readTombstoneText(File tombstoneFile)
+    private static LazyTombstone readTombstoneText(File tombstoneFile)
             throws FileNotFoundException, IOException {
         String tombstoneText = new String(new FileInputStream(tombstoneFile).readAllBytes());
-        Tombstone.Builder builder = Tombstone.newBuilder();
-        TombstoneParser.parseTombstone(tombstoneText, builder); // silently ignore parse failures
-        return builder.build();
+        // silently ignore parse failures
+        return TombstoneParser.parseTombstoneLazily(tombstoneText);
     }
 
     private static Tombstone readTombstoneProto(File tombstoneFile)
@@ -194,6 +369,29 @@ public class TombstoneUtils {
         assertThat(securityCrashes).isEqualTo(EMPTY_TOMBSTONE_LIST);
     }
 
+    /**
+     * Same as {@link #assertNoSecurityCrashes}, checking the summaries of the tombstones. Only the
+     * security crashes are parsed whole, so that the failure shows all their threads, memory maps
+     * and logs.
+     *
+     * @param tombstones a list of lazily parsed tombstones to check
+     * @param config crash detection configuration object
+     */
+    public static void assertNoSecurityCrashesLazily(
+            List<LazyTombstone> tombstones, Config config) {
+        List<Tombstone> summaries =
+                tombstones.stream().map(LazyTombstone::getSummary).collect(Collectors.toList());
+        Map<Tombstone, LazyTombstone> tombstonesBySummary = new IdentityHashMap<>();
+        for (LazyTombstone tombstone : tombstones) {
+            tombstonesBySummary.put(tombstone.getSummary(), tombstone);
+        }
+        List<Tombstone> securityCrashes =
+                getSecurityCrashes(summaries, config).stream()
+                        .map(summary -> tombstonesBySummary.get(summary).getTombstone())
+                        .collect(Collectors.toList());
+        assertThat(securityCrashes).isEqualTo(EMPTY_TOMBSTONE_LIST);
+    }
+
     /**
      * @param tombstones a list of tombstones to check
      * @param config crash detection configuration object
@@ -368,6 +566,7 @@ public class TombstoneUtils {
         private List<Pattern> abortMessageExcludes;
         private List<BacktraceFilterPattern> backtraceIncludes;
         private List<BacktraceFilterPattern> backtraceExcludes;
+        private boolean batchTombstoneRetrieval;
 
         public Config() {
             ignoreLowFaultAddress = true;
@@ -378,6 +577,7 @@ public class TombstoneUtils {
             processPatterns = new ArrayList<>();
             backtraceIncludes = new ArrayList<>();
             backtraceExcludes = new ArrayList<>();
+            batchTombstoneRetrieval = false;
         }
 
         public Config setMinAddress(String maxLowFaultAddress) {
@@ -492,6 +692,16 @@ public class TombstoneUtils {
             return this;
         }
 
+        /**
+         * Keeps the existing tombstones and only checks the ones modified after the crash check
+         * started. They are pulled in a single transfer, decoded in parallel and deduplicated by
+         * crash signature, which is faster when a poc causes many crashes.
+         */
+        public Config setBatchTombstoneRetrieval(boolean batchTombstoneRetrieval) {
+            this.batchTombstoneRetrieval = batchTombstoneRetrieval;
+            return this;
+        }
+
         private static List<Pattern> toPatterns(String... patternStrings) {
             return Stream.of(patternStrings).map(Pattern::compile).collect(Collectors.toList());
         }
@@ -109,6 +109,62 @@ public class TombstoneUtilsTest extends BaseHostJUnit4Test {
         assertThat(expectedResults).isEqualTo(sTombstones);
     }
 
+    @Test
+    public void testParseLogcatLazily() throws Exception {
+        String logcat = null;
+        try (InputStream is = getClass().getClassLoader().getResourceAsStream("logcat.txt")) {
+            logcat = new String(is.readAllBytes());
+        }
+        List<TombstoneParser.LazyTombstone> lazyTombstones =
+                TombstoneParser.parseLogcatLazily(logcat);
+        assertThat(lazyTombstones).hasSize(sTombstones.size());
+        for (int i = 0; i < sTombstones.size(); i++) {
+            Tombstone tombstone = sTombstones.get(i);
+            Tombstone summary = lazyTombstones.get(i).getSummary();
+            // the summary holds everything needed to check for security crashes
+            assertThat(summary.getCommandLineList()).isEqualTo(tombstone.getCommandLineList());
+            assertThat(summary.getSignalInfo()).isEqualTo(tombstone.getSignalInfo());
+            assertThat(summary.getAbortMessage()).isEqualTo(tombstone.getAbortMessage());
+            assertThat(summary.getCausesList()).isEqualTo(tombstone.getCausesList());
+            assertThat(TombstoneUtils.getMainThread(summary))
+                    .isEqualTo(TombstoneUtils.getMainThread(tombstone));
+            assertThat(summary.getMemoryMappingsList()).isEmpty();
+            assertThat(summary.getOpenFdsList()).isEmpty();
+            // the rest is parsed on access
+            assertThat(lazyTombstones.get(i).getTombstone()).isEqualTo(tombstone);
+        }
+    }
+
+    @Test
+    public void testDeduplicateTombstones() throws Exception {
+        List<Tombstone> tombstones = new ArrayList<>(sTombstones);
+        tombstones.addAll(sTombstones);
+        TombstoneUtils.Config config = new TombstoneUtils.Config();
+        List<Tombstone> uniqueTombstones = TombstoneUtils.deduplicateTombstones(tombstones, config);
+        assertThat(uniqueTombstones.size()).isAtMost(sTombstones.size());
+        assertThat(TombstoneUtils.getSecurityCrashes(uniqueTombstones, config))
+                .isEqualTo(
+                        TombstoneUtils.deduplicateTombstones(
+                                TombstoneUtils.getSecurityCrashes(sTombstones, config), config));
+
+        // the same crash at randomized addresses is a duplicate, unless the address is low
+        List<Tombstone> crashes = new ArrayList<>();
+        for (long faultAddress : new long[] {0x7f001000L, 0x7f002000L, 0x10L}) {
+            crashes.add(
+                    Tombstone.newBuilder()
+                            .addCommandLine("com.android.bluetooth")
+                            .setSignalInfo(
+                                    Signal.newBuilder()
+                                            .setName(TombstoneUtils.Signals.SIGSEGV)
+                                            .setHasFaultAddress(true)
+                                            .setFaultAddress(faultAddress)
+                                            .build())
+                            .build());
+        }
+        assertThat(TombstoneUtils.deduplicateTombstones(crashes, config))
+                .isEqualTo(List.of(crashes.get(0), crashes.get(2)));
+    }
+
     @Test
     public void testValidCrash() throws Exception {
         assertThat(